@@ -5,6 +5,7 @@ const fs = require('fs');
 const path = require('path');
 const { createServer } = require('http');
 const { Server } = require('socket.io');
+const { TextOperation } = require('./ot');
 
 const app = express();
 const server = createServer(app);
@@ -27,6 +28,37 @@ app.get('/', (req, res) => {
 // Store room data
 const rooms = new Map();
 
+// Operations kept per room to transform late ot-op edits against
+const OT_HISTORY = 1000;
+
+function getRoom(roomId) {
+  if (!rooms.has(roomId)) {
+    rooms.set(roomId, {
+      users: new Map(),
+      code: 'public class Main {\n    public static void main(String[] args) {\n        System.out.println("Hello, CodeSphere!");\n    }\n}',
+      language: 'java',
+      // Each change to code is one operation and one revision; history starts at historyStart
+      revision: 0,
+      history: [],
+      historyStart: 0
+    });
+  }
+  return rooms.get(roomId);
+}
+
+function recordOperation(room, operation) {
+  room.code = operation.apply(room.code);
+  room.history.push(operation);
+  room.revision++;
+  if (room.history.length > OT_HISTORY) {
+    room.history.shift();
+    room.historyStart++;
+  }
+}
+
+// Clients speaking ot-* events are also in this room, and get operations instead of the code
+const otRoom = (roomId) => `ot:${roomId}`;
+
 // WebSocket connection handling
 io.on('connection', (socket) => {
   console.log('User connected:', socket.id);
@@ -35,15 +67,7 @@ io.on('connection', (socket) => {
     const { roomId, user } = data;
     socket.join(roomId);
     
-    if (!rooms.has(roomId)) {
-      rooms.set(roomId, {
-        users: new Map(),
-        code: 'public class Main {\n    public static void main(String[] args) {\n        System.out.println("Hello, CodeSphere!");\n    }\n}',
-        language: 'java'
-      });
-    }
-    
-    const room = rooms.get(roomId);
+    const room = getRoom(roomId);
     room.users.set(socket.id, { ...user, socketId: socket.id });
     
     // Send current room state to new user
@@ -58,11 +82,52 @@ io.on('connection', (socket) => {
   });
 
   socket.on('code-change', (data) => {
-    const { roomId, code } = data;
-    if (rooms.has(roomId)) {
-      rooms.get(roomId).code = code;
-      socket.to(roomId).emit('code-update', { code });
+    const { roomId, code } = data || {};
+    // Anything but text would throw in diff and take the server down with it
+    if (typeof code === 'string' && rooms.has(roomId)) {
+      const room = rooms.get(roomId);
+      const operation = TextOperation.diff(room.code, code);
+      recordOperation(room, operation);
+      socket.to(roomId).except(otRoom(roomId)).emit('code-update', { code });
+      io.to(otRoom(roomId)).emit('ot-remote', { revision: room.revision, op: operation.ops });
+    }
+  });
+
+  // Delta-based editing: each ot-op carries one edit made on top of a revision, which is
+  // transformed past the edits made since, acknowledged to the sender and passed on to the rest
+  socket.on('ot-join', (data) => {
+    const { roomId } = data;
+    socket.join(roomId);
+    socket.join(otRoom(roomId));
+    const room = getRoom(roomId);
+    socket.emit('ot-state', { revision: room.revision, code: room.code });
+  });
+
+  socket.on('ot-op', (data) => {
+    const { roomId, revision, op } = data;
+    if (!rooms.has(roomId)) {
+      return;
+    }
+    const room = rooms.get(roomId);
+    let operation;
+    try {
+      if (!Number.isInteger(revision) || revision > room.revision || revision < room.historyStart) {
+        throw new Error(`revision ${revision} is not in the room's history`);
+      }
+      operation = TextOperation.fromJSON(op);
+      for (const concurrent of room.history.slice(revision - room.historyStart)) {
+        operation = TextOperation.transform(operation, concurrent)[0];
+      }
+      recordOperation(room, operation);
+    } catch (error) {
+      // Start the client over from the room's code
+      console.log('Rejected edit from', socket.id, error.message);
+      socket.emit('ot-state', { revision: room.revision, code: room.code });
+      return;
     }
+    socket.emit('ot-ack', { revision: room.revision });
+    socket.to(otRoom(roomId)).emit('ot-remote', { revision: room.revision, op: operation.ops });
+    socket.to(roomId).except(otRoom(roomId)).emit('code-update', { code: room.code });
   });
 
   socket.on('cursor-position', (data) => {
@@ -0,0 +1,133 @@
+// Operational transform for the rooms' ot-* events, in the ot.js format the desktop client
+// sends: an array where positive numbers retain, negative numbers delete and strings insert.
+
+const isRetain = (op) => typeof op === 'number' && op > 0;
+const isDelete = (op) => typeof op === 'number' && op < 0;
+const isInsert = (op) => typeof op === 'string';
+
+class TextOperation {
+  constructor() {
+    this.ops = [];
+    this.baseLength = 0;
+    this.targetLength = 0;
+  }
+
+  retain(n) {
+    if (n === 0) return this;
+    this.baseLength += n;
+    this.targetLength += n;
+    const last = this.ops.length - 1;
+    if (isRetain(this.ops[last])) this.ops[last] += n;
+    else this.ops.push(n);
+    return this;
+  }
+
+  insert(str) {
+    if (str === '') return this;
+    this.targetLength += str.length;
+    let at = this.ops.length;
+    // An insert goes before a delete at the same place
+    if (isDelete(this.ops[at - 1])) at--;
+    if (isInsert(this.ops[at - 1])) this.ops[at - 1] += str;
+    else this.ops.splice(at, 0, str);
+    return this;
+  }
+
+  delete(n) {
+    if (n === 0) return this;
+    this.baseLength += n;
+    const last = this.ops.length - 1;
+    if (isDelete(this.ops[last])) this.ops[last] -= n;
+    else this.ops.push(-n);
+    return this;
+  }
+
+  apply(str) {
+    if (str.length !== this.baseLength) {
+      throw new Error(`Operation is for a document of ${this.baseLength} chars, not ${str.length}`);
+    }
+    const parts = [];
+    let at = 0;
+    for (const op of this.ops) {
+      if (isInsert(op)) {
+        parts.push(op);
+      } else if (isRetain(op)) {
+        parts.push(str.slice(at, at + op));
+        at += op;
+      } else {
+        at -= op;
+      }
+    }
+    return parts.join('');
+  }
+
+  static fromJSON(ops) {
+    if (!Array.isArray(ops)) throw new Error('Operation is not an array');
+    const operation = new TextOperation();
+    for (const op of ops) {
+      if (isInsert(op)) operation.insert(op);
+      else if (Number.isInteger(op) && op > 0) operation.retain(op);
+      else if (Number.isInteger(op) && op < 0) operation.delete(-op);
+      else throw new Error(`Not an operation component: ${op}`);
+    }
+    return operation;
+  }
+
+  // The operation turning one text into another: keeps their common prefix and suffix
+  static diff(from, to) {
+    let prefix = 0;
+    const max = Math.min(from.length, to.length);
+    while (prefix < max && from[prefix] === to[prefix]) prefix++;
+    let suffix = 0;
+    while (suffix < max - prefix && from[from.length - 1 - suffix] === to[to.length - 1 - suffix]) suffix++;
+    return new TextOperation()
+      .retain(prefix)
+      .delete(from.length - prefix - suffix)
+      .insert(to.slice(prefix, to.length - suffix))
+      .retain(suffix);
+  }
+
+  // Returns [a', b'] such that a then b' equals b then a'; a's inserts go first on a tie
+  static transform(a, b) {
+    if (a.baseLength !== b.baseLength) throw new Error('Cannot transform operations on different documents');
+    const aPrime = new TextOperation();
+    const bPrime = new TextOperation();
+    const ops1 = a.ops;
+    const ops2 = b.ops;
+    let i1 = 0;
+    let i2 = 0;
+    let op1 = ops1[i1++];
+    let op2 = ops2[i2++];
+    while (op1 !== undefined || op2 !== undefined) {
+      if (isInsert(op1)) {
+        aPrime.insert(op1);
+        bPrime.retain(op1.length);
+        op1 = ops1[i1++];
+        continue;
+      }
+      if (isInsert(op2)) {
+        aPrime.retain(op2.length);
+        bPrime.insert(op2);
+        op2 = ops2[i2++];
+        continue;
+      }
+      if (op1 === undefined || op2 === undefined) throw new Error('Cannot transform: one operation is too short');
+      const x = Math.abs(op1);
+      const y = Math.abs(op2);
+      const common = Math.min(x, y);
+      if (isRetain(op1) && isRetain(op2)) {
+        aPrime.retain(common);
+        bPrime.retain(common);
+      } else if (isDelete(op1) && isRetain(op2)) {
+        aPrime.delete(common);
+      } else if (isRetain(op1) && isDelete(op2)) {
+        bPrime.delete(common);
+      }
+      op1 = x > common ? Math.sign(op1) * (x - common) : ops1[i1++];
+      op2 = y > common ? Math.sign(op2) * (y - common) : ops2[i2++];
+    }
+    return [aPrime, bPrime];
+  }
+}
+
+module.exports = { TextOperation };
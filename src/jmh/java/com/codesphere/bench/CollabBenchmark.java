@@ -0,0 +1,139 @@
+package com.codesphere.bench;
+
+import com.codesphere.collab.CollabClient;
+import com.codesphere.collab.CollabListener;
+import com.codesphere.collab.CollabServer;
+import com.codesphere.collab.LocalTransport;
+import com.codesphere.collab.TextOperation;
+import com.codesphere.editor.PieceTable;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulated clients typing into one in-process room: each round every client types a char or
+ * deletes one at its own caret, spread through the document, sends its batch, and takes what the
+ * room sent it, so every round transforms concurrent edits past each other. The cost should follow the clients and the size
+ * of their edits, not the size of the document. The clients' documents are checked against the
+ * room's at the end of each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollabBenchmark {
+    
+    @Param({"2", "32"})
+    public int clients;
+    
+    @Param({"4", "4096"})
+    public int documentKb;
+    
+    private CollabServer server;
+    private final List<Client> all = new ArrayList<>();
+    private final Random random = new Random(42);
+    
+    private static final class Client implements CollabListener {
+        final ArrayDeque<Runnable> inbox = new ArrayDeque<>();
+        LocalTransport transport;
+        PieceTable text;
+        CollabClient client;
+        // Moves with the edits of others, as a caret does
+        Position caret;
+        
+        @Override
+        public void joined(int revision, String initial) {
+            text = new PieceTable();
+            try {
+                text.insertString(0, initial);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            client = new CollabClient(revision, transport::send);
+        }
+        
+        @Override
+        public void acknowledged(int revision) {
+            client.acknowledged(revision);
+        }
+        
+        @Override
+        public void remote(int revision, TextOperation operation) {
+            try {
+                client.remote(revision, operation).applyTo(text);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        void edit(Random random) throws BadLocationException {
+            int length = text.length() - 1;
+            int at = caret.getOffset();
+            TextOperation operation = at > 0 && random.nextInt(4) == 0
+                    ? TextOperation.removal(length, at - 1, 1)
+                    : TextOperation.insertion(length, at, "x");
+            operation.applyTo(text);
+            client.local(operation);
+        }
+        
+        void drain() {
+            while (!inbox.isEmpty()) {
+                inbox.poll().run();
+            }
+        }
+    }
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws BadLocationException {
+        StringBuilder initial = new StringBuilder();
+        while (initial.length() < documentKb * 1024) {
+            initial.append("        System.out.println(\"Hello CodeSphere!\");\n");
+        }
+        server = new CollabServer(initial.toString());
+        all.clear();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client();
+            client.transport = new LocalTransport(server, client.inbox::add);
+            client.transport.open(client);
+            client.drain();
+            client.caret = client.text.createPosition(1 + i * (initial.length() - 1) / clients);
+            all.add(client);
+        }
+    }
+    
+    @Benchmark
+    public int round() throws BadLocationException {
+        for (Client client : all) {
+            client.edit(random);
+            client.client.flush();
+        }
+        for (Client client : all) {
+            client.drain();
+        }
+        return server.getRevision();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void checkConverged() {
+        boolean busy = true;
+        while (busy) {
+            busy = false;
+            for (Client client : all) {
+                client.client.flush();
+                busy |= !client.inbox.isEmpty();
+                client.drain();
+            }
+        }
+        String expected = server.getText();
+        for (Client client : all) {
+            if (!client.client.isSynchronized() || !client.text.snapshot().toString().equals(expected)) {
+                throw new IllegalStateException("A client's document differs from the room's");
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.codesphere.bench;
+
+import com.codesphere.exec.ClassRunner;
+import com.codesphere.exec.InMemoryJavaCompiler;
+import com.codesphere.exec.JavaWorkerPool;
+import com.codesphere.exec.OutputSink;
+import com.codesphere.exec.RunControl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The old javac/java process path against the in-memory compiler, a fresh runner JVM and a
+ * warm worker, for a Hello world program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompileBenchmark {
+    
+    private static final String SOURCE = "public class Main {\n    public static void main(String[] args) {\n        System.out.println(\"Hello CodeSphere!\");\n    }\n}";
+    
+    private Path workDir;
+    private InMemoryJavaCompiler compiler;
+    private JavaWorkerPool workers;
+    private Map<String, byte[]> classes;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("codesphere-bench");
+        compiler = new InMemoryJavaCompiler();
+        workers = new JavaWorkerPool(1, Integer.MAX_VALUE, 60000);
+        classes = compiler.compile("Main", SOURCE).getClasses();
+        // Waits for the worker to start
+        workers.run("Main", classes, new byte[0], OutputSink.DISCARD, new RunControl());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workers.close();
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+    
+    @Benchmark
+    public int processCompile() throws Exception {
+        return javac();
+    }
+    
+    @Benchmark
+    public Map<String, byte[]> inMemoryCompile() {
+        return compiler.compile("Main", SOURCE).getClasses();
+    }
+    
+    @Benchmark
+    public int processCompileAndRun() throws Exception {
+        javac();
+        return new ProcessBuilder("java", "-cp", workDir.toString(), "Main")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor();
+    }
+    
+    @Benchmark
+    public int inMemoryCompileAndRun() throws Exception {
+        InMemoryJavaCompiler.Result result = compiler.compile("Main", SOURCE);
+        Process process = new ProcessBuilder(ClassRunner.command())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()))) {
+            ClassRunner.writeProgram(out, "Main", result.getClasses());
+        }
+        return process.waitFor();
+    }
+    
+    @Benchmark
+    public int warmWorkerRun() throws Exception {
+        return workers.run("Main", classes, new byte[0], OutputSink.DISCARD, new RunControl());
+    }
+    
+    private int javac() throws Exception {
+        Path javaFile = workDir.resolve("Main.java");
+        Files.write(javaFile, SOURCE.getBytes());
+        int exit = new ProcessBuilder("javac", javaFile.toString()).inheritIO().start().waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("javac failed");
+        }
+        return exit;
+    }
+}
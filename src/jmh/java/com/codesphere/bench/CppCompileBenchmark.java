@@ -0,0 +1,76 @@
+package com.codesphere.bench;
+
+import com.codesphere.exec.CppToolchain;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * C++ compile times: the old bare "g++ -o main main.cpp" against the toolchain's flags without
+ * and with precompiled headers, for programs starting with iostream and bits/stdc++.h.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CppCompileBenchmark {
+    
+    private static final String IOSTREAM = "#include <iostream>\nint main() {\n    std::cout << \"Hello CodeSphere!\" << std::endl;\n    return 0;\n}\n";
+    private static final String STDCPP = "#include <bits/stdc++.h>\nusing namespace std;\nint main() {\n    vector<int> v = {3, 1, 2};\n    sort(v.begin(), v.end());\n    cout << v[0] << endl;\n}\n";
+    
+    @Param({"iostream", "bits/stdc++.h"})
+    public String header;
+    
+    @Param({"bare", "flags", "pch"})
+    public String build;
+    
+    private Path workDir;
+    private List<String> command;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("codesphere-bench");
+        CppToolchain toolchain = CppToolchain.detect(workDir.resolve("pch"));
+        if (toolchain == null) {
+            throw new IllegalStateException("No C++ compiler found");
+        }
+        String program = header.equals("iostream") ? IOSTREAM : STDCPP;
+        Path source = Files.write(workDir.resolve("main.cpp"), program.getBytes());
+        Path output = workDir.resolve("main");
+        if (build.equals("bare")) {
+            command = Arrays.asList(toolchain.getCompiler(), "-o", output.toString(), source.toString());
+        } else if (build.equals("flags")) {
+            command = toolchain.compileCommand(source, output, null);
+        } else {
+            toolchain.buildPrecompiledHeaders(Runnable::run);
+            String precompiled = toolchain.precompiledHeaderName(program);
+            if (precompiled == null) {
+                throw new IllegalStateException("No precompiled header for <" + header + ">");
+            }
+            command = toolchain.compileCommand(source, output, precompiled);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+    
+    @Benchmark
+    public int compile() throws Exception {
+        int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("Compile failed: " + command);
+        }
+        return exit;
+    }
+}
@@ -0,0 +1,77 @@
+package com.codesphere.bench;
+
+import com.codesphere.exec.CodeRunner;
+import com.codesphere.exec.OutputSink;
+import com.codesphere.exec.Program;
+import com.codesphere.exec.RunControl;
+import com.codesphere.exec.RunMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Run Code path per language: a full run of new code, compiling (or preparing) only,
+ * and a run whose build is already cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecuteBenchmark {
+    
+    private static final Map<String, String> PROGRAMS = new HashMap<>();
+    private static final Map<String, String> COMMENTS = new HashMap<>();
+    
+    static {
+        PROGRAMS.put("Java", "public class Main {\n    public static void main(String[] args) {\n        System.out.println(\"Hello CodeSphere!\");\n    }\n}\n");
+        PROGRAMS.put("Python", "print(\"Hello CodeSphere!\")\n");
+        PROGRAMS.put("JavaScript", "console.log(\"Hello CodeSphere!\");\n");
+        PROGRAMS.put("C++", "#include <iostream>\nint main() {\n    std::cout << \"Hello CodeSphere!\" << std::endl;\n    return 0;\n}\n");
+        COMMENTS.put("Java", "//");
+        COMMENTS.put("Python", "#");
+        COMMENTS.put("JavaScript", "//");
+        COMMENTS.put("C++", "//");
+    }
+    
+    @Param({"Java", "Python", "JavaScript", "C++"})
+    public String language;
+    
+    private final AtomicLong counter = new AtomicLong(System.nanoTime());
+    private CodeRunner runner;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        runner = CodeRunner.create();
+        // Waits for the warm workers and fills the build cache for cachedRun
+        runner.execute(language, PROGRAMS.get(language), OutputSink.DISCARD, new RunControl());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.close();
+    }
+    
+    // A trailing comment makes every invocation new code, so nothing comes from the cache
+    private String freshCode() {
+        return PROGRAMS.get(language) + COMMENTS.get(language) + " " + counter.incrementAndGet() + "\n";
+    }
+    
+    @Benchmark
+    public RunMetrics endToEnd() throws Exception {
+        return runner.execute(language, freshCode(), OutputSink.DISCARD, new RunControl());
+    }
+    
+    @Benchmark
+    public boolean compileOnly() throws Exception {
+        try (Program program = runner.prepare(language, freshCode(), OutputSink.DISCARD, new RunControl())) {
+            return program != null;
+        }
+    }
+    
+    @Benchmark
+    public RunMetrics cachedRun() throws Exception {
+        return runner.execute(language, PROGRAMS.get(language), OutputSink.DISCARD, new RunControl());
+    }
+}
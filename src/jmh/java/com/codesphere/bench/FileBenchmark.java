@@ -0,0 +1,54 @@
+package com.codesphere.bench;
+
+import com.codesphere.editor.CodeFiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and saving large source files through the editor's file code. Loading builds the
+ * editor document, saving writes a snapshot of one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileBenchmark {
+    
+    @Param({"1", "32"})
+    public int megabytes;
+    
+    private Path source;
+    private Path target;
+    private CharSequence content;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < megabytes * 1024 * 1024; i++) {
+            text.append("    int value").append(i).append(" = compute(").append(i).append(", \"text\");\n");
+        }
+        source = Files.createTempFile("codesphere-load", ".java");
+        target = Files.createTempFile("codesphere-save", ".java");
+        Files.write(source, text.toString().getBytes());
+        content = CodeFiles.open(source).snapshot();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(target);
+    }
+    
+    @Benchmark
+    public int load() throws IOException {
+        return CodeFiles.open(source).getLength();
+    }
+    
+    @Benchmark
+    public void save() throws IOException {
+        CodeFiles.write(target, content);
+    }
+}
@@ -0,0 +1,101 @@
+package com.codesphere.bench;
+
+import com.codesphere.exec.OutputSink;
+import com.codesphere.exec.StreamPump;
+import com.codesphere.ui.OutputBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a chatty program's output: pumping a process's stdout through StreamPump, with and
+ * without the output pane's ring buffer behind it, and the ring buffer on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputBenchmark {
+    
+    @Param({"1", "32"})
+    public int megabytes;
+    
+    private Path file;
+    private String[] chunks;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("codesphere-output", ".txt");
+        long target = megabytes * 1024L * 1024L;
+        long written = 0;
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; written < target; i++) {
+                String line = "line " + i + " of a program that prints a lot of output\n";
+                writer.write(line);
+                written += line.length();
+            }
+        }
+        // The same text in the 8K pieces StreamPump hands out
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        chunks = new String[(text.length() + 8191) / 8192];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = text.substring(i * 8192, Math.min(text.length(), (i + 1) * 8192));
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+    
+    @Benchmark
+    public long pumpOnly() throws Exception {
+        CountingSink sink = new CountingSink();
+        StreamPump.drain(new ProcessBuilder("cat", file.toString()).start(), sink);
+        return sink.chars;
+    }
+    
+    @Benchmark
+    public int pumpIntoConsoleBuffer() throws Exception {
+        OutputBuffer buffer = new OutputBuffer(10000, 4L * 1024 * 1024);
+        StreamPump.drain(new ProcessBuilder("cat", file.toString()).start(), new OutputSink() {
+            @Override
+            public void stdout(String text) {
+                buffer.append(text, false);
+            }
+            
+            @Override
+            public void stderr(String text) {
+                buffer.append(text, true);
+            }
+        });
+        return buffer.getRowCount();
+    }
+    
+    @Benchmark
+    public int consoleBufferOnly() {
+        OutputBuffer buffer = new OutputBuffer(10000, 4L * 1024 * 1024);
+        for (String chunk : chunks) {
+            buffer.append(chunk, false);
+        }
+        return buffer.getRowCount();
+    }
+    
+    private static class CountingSink implements OutputSink {
+        long chars;
+        
+        @Override
+        public synchronized void stdout(String text) {
+            chars += text.length();
+        }
+        
+        @Override
+        public synchronized void stderr(String text) {
+            chars += text.length();
+        }
+    }
+}
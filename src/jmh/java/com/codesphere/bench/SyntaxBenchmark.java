@@ -0,0 +1,68 @@
+package com.codesphere.bench;
+
+import com.codesphere.syntax.Lexer;
+import com.codesphere.syntax.Tokens;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the editor's syntax lexers on a 100k-line file: lexing all of it for line states, as
+ * the background thread does after opening a file or opening a block comment near the top, and
+ * lexing one screen of it with tokens, as painting does on every keystroke.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyntaxBenchmark {
+    
+    private static final int LINES = 100000;
+    private static final int SCREEN = 50;
+    
+    @Param({"Java", "Python"})
+    public String language;
+    
+    private Lexer lexer;
+    private char[] text;
+    private int[] lineStarts;
+    private final Tokens tokens = new Tokens();
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        lexer = Lexer.forLanguage(language);
+        String[] unit = language.equals("Python")
+                ? new String[] {"@decorator", "def value(s, n=0x1f):", "    \"\"\"Docs for value.\"\"\"",
+                        "    return len(s) * 31 + hash('text')  # trailing", ""}
+                : new String[] {"    /** Docs for value. */", "    @Override", "    public int value(String s) {",
+                        "        return s.length() * 0x1f + \"text\".hashCode(); // trailing", "    }", ""};
+        StringBuilder builder = new StringBuilder();
+        lineStarts = new int[LINES + 1];
+        for (int i = 0; i < LINES; i++) {
+            lineStarts[i] = builder.length();
+            builder.append(unit[i % unit.length]).append('\n');
+        }
+        lineStarts[LINES] = builder.length();
+        text = builder.toString().toCharArray();
+    }
+    
+    @Benchmark
+    public int lexStates() {
+        int state = Lexer.INITIAL;
+        for (int i = 0; i < LINES; i++) {
+            state = lexer.lexLine(text, lineStarts[i], lineStarts[i + 1] - 1, state, null);
+        }
+        return state;
+    }
+    
+    @Benchmark
+    public int lexScreen() {
+        int state = Lexer.INITIAL;
+        int found = 0;
+        for (int i = LINES / 2; i < LINES / 2 + SCREEN; i++) {
+            tokens.clear();
+            state = lexer.lexLine(text, lineStarts[i], lineStarts[i + 1] - 1, state, tokens);
+            found += tokens.getCount();
+        }
+        return found;
+    }
+}
@@ -0,0 +1,169 @@
+package com.codesphere.bench;
+
+import com.codesphere.ui.WhiteboardCanvas;
+import com.codesphere.whiteboard.Stroke;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whiteboard operations at several canvas sizes and board fill levels: one pen segment, a frame's
+ * worth of coalesced pen segments, one eraser dab, hit-testing, clearing the board, panning, and
+ * copying the canvas to the screen for a whole panel or just a frame's dirty rectangle. Segments are
+ * short, like consecutive mouse-drag events.
+ *
+ * The board holds the given number of short strokes spread over a square that grows with their
+ * count and covers the canvas, so the ink near any point is the same and the cost should not
+ * grow with the board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WhiteboardBenchmark {
+    
+    private static final int POINTS = 4096;
+    private static final int POINTS_PER_STROKE = 256;
+    // Drag events per 60 Hz frame from a 500 Hz pen
+    private static final int EVENTS_PER_FRAME = 8;
+    
+    @Param({"800x600", "1920x1080", "3840x2160"})
+    public String size;
+    
+    @Param({"5000", "50000"})
+    public int strokes;
+    
+    private WhiteboardCanvas canvas;
+    private int width;
+    private int height;
+    private int boardSide;
+    private final int[] xs = new int[POINTS];
+    private final int[] ys = new int[POINTS];
+    private int next;
+    private int strokePoints;
+    private final Rectangle dirty = new Rectangle();
+    private final int[] frameXs = new int[EVENTS_PER_FRAME];
+    private final int[] frameYs = new int[EVENTS_PER_FRAME];
+    private BufferedImage screen;
+    private Graphics2D screenGraphics;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        boardSide = (int) (Math.sqrt(strokes) * 60);
+        
+        // A random walk, so each segment continues the previous one like a real drag
+        Random random = new Random(42);
+        int x = width / 2, y = height / 2;
+        for (int i = 0; i < POINTS; i++) {
+            x = Math.max(0, Math.min(width - 1, x + random.nextInt(21) - 10));
+            y = Math.max(0, Math.min(height - 1, y + random.nextInt(21) - 10));
+            xs[i] = x;
+            ys[i] = y;
+        }
+    }
+    
+    // Pen segments pile up during an iteration, so every iteration starts from the same board
+    @Setup(Level.Iteration)
+    public void fillBoard() {
+        canvas = new WhiteboardCanvas();
+        Random random = new Random(7);
+        for (int i = 0; i < strokes; i++) {
+            // Straight into the store, the tiles are rendered when painted
+            float[] points = new float[18];
+            points[0] = random.nextInt(boardSide);
+            points[1] = random.nextInt(boardSide);
+            for (int point = 2; point < points.length; point += 2) {
+                points[point] = points[point - 2] + random.nextInt(21) - 10;
+                points[point + 1] = points[point - 1] + random.nextInt(21) - 10;
+            }
+            canvas.getStrokes().add(new Stroke(Color.BLACK.getRGB(), 3, points));
+        }
+        screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        screenGraphics = screen.createGraphics();
+        screenGraphics.setClip(0, 0, width, height);
+        canvas.paint(screenGraphics);
+        canvas.beginStroke(xs[next], ys[next], Color.BLACK, 3);
+        strokePoints = 1;
+    }
+    
+    @Benchmark
+    public Rectangle drawLine() {
+        next = (next + 1) % POINTS;
+        if (++strokePoints == POINTS_PER_STROKE) {
+            canvas.beginStroke(xs[next], ys[next], Color.BLACK, 3);
+            strokePoints = 1;
+        }
+        dirty.setBounds(0, 0, 0, 0);
+        canvas.lineTo(xs[next], ys[next], dirty);
+        return dirty;
+    }
+    
+    @Benchmark
+    public Rectangle drawFrame() {
+        if (next + EVENTS_PER_FRAME >= POINTS) {
+            next = 0;
+        }
+        strokePoints += EVENTS_PER_FRAME;
+        if (strokePoints >= POINTS_PER_STROKE) {
+            canvas.beginStroke(xs[next], ys[next], Color.BLACK, 3);
+            strokePoints = 1;
+        }
+        dirty.setBounds(0, 0, 0, 0);
+        System.arraycopy(xs, next + 1, frameXs, 0, EVENTS_PER_FRAME);
+        System.arraycopy(ys, next + 1, frameYs, 0, EVENTS_PER_FRAME);
+        next += EVENTS_PER_FRAME;
+        canvas.lineTo(frameXs, frameYs, EVENTS_PER_FRAME, dirty);
+        return dirty;
+    }
+    
+    // Puts the erased strokes back afterwards so the board stays the same; that costs about
+    // as much as the erase itself
+    @Benchmark
+    public List<Stroke> eraseAndRestore() {
+        next = (next + 1) % POINTS;
+        dirty.setBounds(0, 0, 0, 0);
+        List<Stroke> erased = canvas.erase(xs[next], ys[next], 3, dirty);
+        canvas.endGesture();
+        canvas.addStrokes(erased, dirty);
+        return erased;
+    }
+    
+    @Benchmark
+    public Stroke hitTest() {
+        next = (next + 1) % POINTS;
+        return canvas.getStrokes().hitTop(xs[next], ys[next], 6);
+    }
+    
+    // Moves a quarter tile each time, so new tiles keep coming into view and are rendered
+    @Benchmark
+    public void panAndPaint() {
+        canvas.panBy(-64, -64);
+        screenGraphics.setClip(0, 0, width, height);
+        canvas.paint(screenGraphics);
+    }
+    
+    @Benchmark
+    public void paintPanel() {
+        screenGraphics.setClip(0, 0, width, height);
+        canvas.paint(screenGraphics);
+    }
+    
+    // The area one frame of coalesced pen input changes
+    @Benchmark
+    public void paintDirty() {
+        screenGraphics.setClip(xs[next] - 20, ys[next] - 20, 40, 40);
+        next = (next + 1) % POINTS;
+        canvas.paint(screenGraphics);
+    }
+    
+    @Benchmark
+    public void clearCanvas() {
+        canvas.clear();
+    }
+}
@@ -1,37 +1,115 @@
 package com.codesphere;
 
+import com.codesphere.collab.CollabSession;
+import com.codesphere.collab.SocketIoTransport;
+import com.codesphere.diag.EdtWatchdog;
+import com.codesphere.diag.WhiteboardPaintEvent;
+import com.codesphere.editor.Autosave;
+import com.codesphere.editor.CodeDocument;
+import com.codesphere.editor.CodeFiles;
+import com.codesphere.exec.CodeRunner;
+import com.codesphere.exec.CppToolchain;
+import com.codesphere.exec.OutputSink;
+import com.codesphere.exec.RunControl;
+import com.codesphere.exec.RunLimits;
+import com.codesphere.exec.RunMetrics;
+import com.codesphere.exec.RunScheduler;
+import com.codesphere.exec.Toolchains;
+import com.codesphere.judge.BatchJudge;
+import com.codesphere.judge.TestCase;
+import com.codesphere.server.ExecutionServer;
+import com.codesphere.ui.CodeArea;
+import com.codesphere.ui.FrameStats;
+import com.codesphere.ui.OutputConsole;
+import com.codesphere.ui.WhiteboardCanvas;
+import com.codesphere.ui.WhiteboardInput;
+import com.codesphere.whiteboard.BoardExport;
+import com.codesphere.whiteboard.BoardFile;
+import com.codesphere.whiteboard.Stroke;
+
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-public class CodeSphereSwing extends JFrame {
+/**
+ * The desktop editor's content: the code editor and whiteboard tabs. main puts it in a window; a
+ * CDS training run with no display paints it offscreen instead.
+ */
+public class CodeSphereSwing extends JPanel {
+    
+    private static final long serialVersionUID = 1L;
     
-    private JTextArea codeArea;
-    private JTextArea outputArea;
+    private CodeArea codeArea;
+    private OutputConsole outputArea;
     private JComboBox<String> languageBox;
+    private JButton stopButton;
+    private JButton collaborateButton;
+    private JLabel runStatusLabel;
+    private JLabel metricsLabel;
     private JPanel drawingPanel;
     private JToggleButton penButton, eraseButton;
     private JButton clearButton;
     private Color currentColor = Color.BLACK;
     private int penSize = 3;
     private boolean isDrawing = false;
-    private Point lastPoint;
-    private Graphics2D g2d;
-    private BufferedImage canvas;
+    // Made with the whiteboard tab, the first time it is shown
+    private WhiteboardCanvas canvas;
+    private FrameStats frameStats;
+    private WhiteboardInput whiteboardInput;
+    private JLabel frameStatsLabel;
     
     // Language templates
     private Map<String, String> codeTemplates;
     
+    // Created once the window has painted, so starting workers does not hold up the first frame
+    private final CompletableFuture<CodeRunner> codeRunner = new CompletableFuture<>();
+    // Toolchain version per language, null when missing, shown in the language selector
+    private Map<String, CompletableFuture<String>> toolchains = Collections.emptyMap();
+    private boolean painted;
+    private final RunScheduler runScheduler = new RunScheduler();
+    // Null when autosave is off or another window has it
+    private Autosave autosave;
+    // Runs started from this window that are queued or running, EDT only
+    private final List<RunScheduler.Job> activeRuns = new ArrayList<>();
+    // The room the editor is shared with, null when not collaborating; EDT only
+    private CollabSession collabSession;
+    
     public CodeSphereSwing() {
+        super(new BorderLayout());
         initializeTemplates();
         initializeUI();
     }
     
+    // Puts the editor in a window and starts autosave; the runners start once it has painted
+    private void showWindow() {
+        JFrame frame = new JFrame("CodeSphere - Desktop Code Editor");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setSize(1200, 800);
+        frame.setLocationRelativeTo(null);
+        frame.setIconImage(createDefaultIcon());
+        frame.setContentPane(this);
+        startAutosave(frame);
+        frame.setVisible(true);
+    }
+    
     private void initializeTemplates() {
         codeTemplates = new HashMap<>();
         codeTemplates.put("Java", "public class Main {\n    public static void main(String[] args) {\n        System.out.println(\"Hello CodeSphere!\");\n    }\n}");
@@ -41,33 +119,35 @@ public class CodeSphereSwing extends JFrame {
     }
     
     private void initializeUI() {
-        setTitle("CodeSphere - Desktop Code Editor");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(1200, 800);
-        setLocationRelativeTo(null);
-        
-        // Set icon
-        try {
-            setIconImage(Toolkit.getDefaultToolkit().getImage("https://img.icons8.com/color/1200/visual-studio.jpg"));
-        } catch (Exception e) {
-            // Fallback - create simple icon
-            setIconImage(createDefaultIcon());
-        }
-        
         // Set look and feel - removed for compatibility
         
         // Main panel with tabs
-        JTabbedPane tabbedPane = new JTabbedPane();
+        JTabbedPane tabbedPane = new JTabbedPane() {
+            @Override
+            public void paint(Graphics g) {
+                super.paint(g);
+                if (!painted) {
+                    painted = true;
+                    SwingUtilities.invokeLater(CodeSphereSwing.this::firstPainted);
+                }
+            }
+        };
         
         // Code Editor Tab
         JPanel codePanel = createCodeEditorPanel();
         tabbedPane.addTab("Code Editor", codePanel);
         
-        // Whiteboard Tab
-        JPanel whiteboardPanel = createWhiteboardPanel();
-        tabbedPane.addTab("Whiteboard", whiteboardPanel);
+        // Whiteboard Tab, built the first time it is shown
+        JPanel whiteboardTab = new JPanel(new BorderLayout());
+        tabbedPane.addTab("Whiteboard", whiteboardTab);
+        tabbedPane.addChangeListener(e -> {
+            if (tabbedPane.getSelectedComponent() == whiteboardTab && whiteboardTab.getComponentCount() == 0) {
+                whiteboardTab.add(createWhiteboardPanel());
+                whiteboardTab.revalidate();
+            }
+        });
         
-        add(tabbedPane);
+        add(tabbedPane, BorderLayout.CENTER);
     }
     
     private Image createDefaultIcon() {
@@ -115,6 +195,20 @@ public class CodeSphereSwing extends JFrame {
         languageBox.setBackground(Color.WHITE);
         languageBox.setForeground(Color.BLACK);
         languageBox.addActionListener(e -> updateCodeTemplate());
+        // Each language with its version once probed, or marked when it is not installed
+        languageBox.setPrototypeDisplayValue("JavaScript (not installed)");
+        languageBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                          boolean cellHasFocus) {
+                CompletableFuture<String> version = toolchains.get(value);
+                if (version != null && version.isDone()) {
+                    String found = version.getNow(null);
+                    value = value + (found == null ? " (not installed)" : " " + found);
+                }
+                return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            }
+        });
         
         JButton runButton = new JButton("Run Code");
         runButton.setBackground(new Color(66, 153, 225));
@@ -123,6 +217,24 @@ public class CodeSphereSwing extends JFrame {
         runButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
         runButton.addActionListener(new RunCodeListener());
         
+        JButton testButton = new JButton("Run Tests");
+        testButton.setBackground(new Color(56, 178, 172));
+        testButton.setForeground(Color.WHITE);
+        testButton.setFocusPainted(false);
+        testButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        testButton.addActionListener(e -> runTests());
+        
+        stopButton = new JButton("Stop");
+        stopButton.setBackground(new Color(245, 101, 101));
+        stopButton.setForeground(Color.WHITE);
+        stopButton.setFocusPainted(false);
+        stopButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        stopButton.setEnabled(false);
+        stopButton.addActionListener(e -> stopRuns());
+        
+        runStatusLabel = new JLabel();
+        runStatusLabel.setForeground(Color.WHITE);
+        
         JButton saveButton = new JButton("Save");
         saveButton.setBackground(new Color(72, 187, 120));
         saveButton.setForeground(Color.WHITE);
@@ -144,6 +256,13 @@ public class CodeSphereSwing extends JFrame {
         loadButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
         loadButton.addActionListener(e -> loadCode());
         
+        collaborateButton = new JButton("Collaborate");
+        collaborateButton.setBackground(new Color(74, 85, 104));
+        collaborateButton.setForeground(Color.WHITE);
+        collaborateButton.setFocusPainted(false);
+        collaborateButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        collaborateButton.addActionListener(e -> toggleCollaboration());
+        
         JLabel langLabel = new JLabel("Language:");
         langLabel.setForeground(Color.WHITE);
         
@@ -153,9 +272,14 @@ public class CodeSphereSwing extends JFrame {
         toolbar.add(languageBox);
         toolbar.add(Box.createHorizontalStrut(20));
         toolbar.add(runButton);
+        toolbar.add(testButton);
+        toolbar.add(stopButton);
         toolbar.add(saveButton);
         toolbar.add(copyButton);
         toolbar.add(loadButton);
+        toolbar.add(collaborateButton);
+        toolbar.add(Box.createHorizontalStrut(10));
+        toolbar.add(runStatusLabel);
         
         return toolbar;
     }
@@ -167,7 +291,8 @@ public class CodeSphereSwing extends JFrame {
         codeLabel.setFont(new Font("Arial", Font.BOLD, 12));
         codeLabel.setBorder(new EmptyBorder(5, 0, 5, 0));
         
-        codeArea = new JTextArea();
+        codeArea = new CodeArea();
+        codeArea.setLanguage("Java");
         codeArea.setText(codeTemplates.get("Java"));
         codeArea.setFont(new Font("Courier New", Font.PLAIN, 14));
         codeArea.setTabSize(4);
@@ -191,8 +316,9 @@ public class CodeSphereSwing extends JFrame {
         outputLabel.setFont(new Font("Arial", Font.BOLD, 12));
         outputLabel.setBorder(new EmptyBorder(10, 0, 5, 0));
         
-        outputArea = new JTextArea();
-        outputArea.setEditable(false);
+        // Keeps only the tail of the output so chatty programs cannot exhaust the heap
+        outputArea = new OutputConsole(Integer.getInteger("codesphere.output.maxLines", 10000),
+                Long.getLong("codesphere.output.maxChars", 4L * 1024 * 1024), new Color(252, 129, 129));
         outputArea.setFont(new Font("Courier New", Font.PLAIN, 12));
         outputArea.setBackground(new Color(26, 32, 44));
         outputArea.setForeground(new Color(226, 232, 240));
@@ -201,13 +327,22 @@ public class CodeSphereSwing extends JFrame {
         JScrollPane outputScrollPane = new JScrollPane(outputArea);
         outputScrollPane.setPreferredSize(new Dimension(0, 150));
         
+        // Build and run times, CPU and memory of the last run
+        metricsLabel = new JLabel(" ");
+        metricsLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        metricsLabel.setForeground(new Color(113, 128, 150));
+        metricsLabel.setBorder(new EmptyBorder(4, 0, 0, 0));
+        
         bottomPanel.add(outputLabel, BorderLayout.NORTH);
         bottomPanel.add(outputScrollPane, BorderLayout.CENTER);
+        bottomPanel.add(metricsLabel, BorderLayout.SOUTH);
         
         return bottomPanel;
     }
     
     private JPanel createWhiteboardPanel() {
+        canvas = new WhiteboardCanvas();
+        frameStats = new FrameStats();
         JPanel mainPanel = new JPanel(new BorderLayout());
         
         // Whiteboard toolbar
@@ -218,47 +353,102 @@ public class CodeSphereSwing extends JFrame {
         drawingPanel = new JPanel() {
             @Override
             protected void paintComponent(Graphics g) {
+                WhiteboardPaintEvent event = new WhiteboardPaintEvent();
+                event.begin();
+                long start = System.nanoTime();
                 super.paintComponent(g);
-                if (canvas != null) {
-                    g.drawImage(canvas, 0, 0, null);
+                canvas.paint(g);
+                frameStats.framePainted(start, System.nanoTime());
+                event.end();
+                if (event.shouldCommit()) {
+                    Rectangle clip = g.getClipBounds();
+                    event.setArea(clip == null ? getWidth() : clip.width, clip == null ? getHeight() : clip.height, canvas.getZoom());
+                    event.commit();
                 }
             }
         };
         drawingPanel.setBackground(Color.WHITE);
         drawingPanel.setPreferredSize(new Dimension(800, 600));
+        whiteboardInput = new WhiteboardInput(canvas, drawingPanel, frameStats);
         
-        // Mouse listeners for drawing
+        // Mouse listeners for drawing; the right or middle button pans, Ctrl+wheel zooms
         MouseAdapter mouseHandler = new MouseAdapter() {
+            private Point panFrom;
+            
             @Override
             public void mousePressed(MouseEvent e) {
-                if (penButton.isSelected()) {
+                drawingPanel.requestFocusInWindow();
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    panFrom = e.getPoint();
+                } else if (penButton.isSelected()) {
                     isDrawing = true;
-                    lastPoint = e.getPoint();
-                    initCanvas();
+                    whiteboardInput.penDown(e.getX(), e.getY(), currentColor, penSize);
                 }
             }
             
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (isDrawing && penButton.isSelected()) {
-                    drawLine(lastPoint, e.getPoint());
-                    lastPoint = e.getPoint();
+                if (panFrom != null) {
+                    canvas.panBy(e.getX() - panFrom.x, e.getY() - panFrom.y);
+                    panFrom = e.getPoint();
+                    drawingPanel.repaint();
+                } else if (isDrawing && penButton.isSelected()) {
+                    whiteboardInput.penMoved(e.getX(), e.getY());
                 } else if (eraseButton.isSelected()) {
-                    erase(e.getPoint());
+                    whiteboardInput.eraserMoved(e.getX(), e.getY(), penSize);
                 }
             }
             
             @Override
             public void mouseReleased(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    panFrom = null;
+                    return;
+                }
                 isDrawing = false;
+                whiteboardInput.released();
+            }
+            
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                double rotation = e.getPreciseWheelRotation();
+                if (e.isControlDown()) {
+                    canvas.zoomAt(e.getX(), e.getY(), Math.pow(1.1, -rotation));
+                } else if (e.isShiftDown()) {
+                    canvas.panBy((int) Math.round(-rotation * 40), 0);
+                } else {
+                    canvas.panBy(0, (int) Math.round(-rotation * 40));
+                }
+                drawingPanel.repaint();
             }
         };
         
         drawingPanel.addMouseListener(mouseHandler);
         drawingPanel.addMouseMotionListener(mouseHandler);
+        drawingPanel.addMouseWheelListener(mouseHandler);
+        drawingPanel.setFocusable(true);
+        
+        // Undo and redo while anything on the whiteboard tab has the focus
+        InputMap keys = mainPanel.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        int menuKey = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuKey), "whiteboard-undo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, menuKey), "whiteboard-redo");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, menuKey | InputEvent.SHIFT_DOWN_MASK), "whiteboard-redo");
+        mainPanel.getActionMap().put("whiteboard-undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                whiteboardInput.undo();
+            }
+        });
+        mainPanel.getActionMap().put("whiteboard-redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                whiteboardInput.redo();
+            }
+        });
         
-        JScrollPane scrollPane = new JScrollPane(drawingPanel);
-        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        // The board has no edges, so it pans itself instead of scrolling
+        mainPanel.add(drawingPanel, BorderLayout.CENTER);
         
         return mainPanel;
     }
@@ -297,6 +487,54 @@ public class CodeSphereSwing extends JFrame {
         clearButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
         clearButton.addActionListener(e -> clearCanvas());
         
+        JButton undoButton = new JButton("Undo");
+        undoButton.setBackground(new Color(74, 85, 104));
+        undoButton.setForeground(Color.WHITE);
+        undoButton.setFocusPainted(false);
+        undoButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        undoButton.setToolTipText("Undo the last stroke, erase or clear (Ctrl+Z)");
+        undoButton.addActionListener(e -> whiteboardInput.undo());
+        
+        JButton redoButton = new JButton("Redo");
+        redoButton.setBackground(new Color(74, 85, 104));
+        redoButton.setForeground(Color.WHITE);
+        redoButton.setFocusPainted(false);
+        redoButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        redoButton.setToolTipText("Redo (Ctrl+Y)");
+        redoButton.addActionListener(e -> whiteboardInput.redo());
+        
+        JButton resetViewButton = new JButton("Reset View");
+        resetViewButton.setBackground(new Color(74, 85, 104));
+        resetViewButton.setForeground(Color.WHITE);
+        resetViewButton.setFocusPainted(false);
+        resetViewButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        resetViewButton.setToolTipText("Back to 100% at the origin; right-drag pans, Ctrl+wheel zooms");
+        resetViewButton.addActionListener(e -> {
+            canvas.resetView();
+            drawingPanel.repaint();
+        });
+        
+        JButton saveBoardButton = new JButton("Save Board");
+        saveBoardButton.setBackground(new Color(74, 85, 104));
+        saveBoardButton.setForeground(Color.WHITE);
+        saveBoardButton.setFocusPainted(false);
+        saveBoardButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        saveBoardButton.addActionListener(e -> saveBoard());
+        
+        JButton openBoardButton = new JButton("Open Board");
+        openBoardButton.setBackground(new Color(74, 85, 104));
+        openBoardButton.setForeground(Color.WHITE);
+        openBoardButton.setFocusPainted(false);
+        openBoardButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        openBoardButton.addActionListener(e -> openBoard());
+        
+        JButton exportButton = new JButton("Export PNG");
+        exportButton.setBackground(new Color(74, 85, 104));
+        exportButton.setForeground(Color.WHITE);
+        exportButton.setFocusPainted(false);
+        exportButton.setBorder(BorderFactory.createEmptyBorder(8, 16, 8, 16));
+        exportButton.addActionListener(e -> exportBoard(exportButton));
+        
         // Color buttons
         JButton blackBtn = createColorButton(Color.BLACK);
         JButton redBtn = createColorButton(Color.RED);
@@ -330,6 +568,27 @@ public class CodeSphereSwing extends JFrame {
         toolbar.add(sizeSlider);
         toolbar.add(Box.createHorizontalStrut(10));
         toolbar.add(clearButton);
+        toolbar.add(undoButton);
+        toolbar.add(redoButton);
+        toolbar.add(resetViewButton);
+        toolbar.add(Box.createHorizontalStrut(10));
+        toolbar.add(saveBoardButton);
+        toolbar.add(openBoardButton);
+        toolbar.add(exportButton);
+        
+        // Paint time and input-to-screen latency of the drawing panel, refreshed once a second
+        frameStatsLabel = new JLabel();
+        frameStatsLabel.setForeground(new Color(160, 174, 192));
+        frameStatsLabel.setFont(new Font("Arial", Font.PLAIN, 11));
+        toolbar.add(Box.createHorizontalStrut(10));
+        toolbar.add(frameStatsLabel);
+        int[] shownFrames = {-1};
+        new Timer(1000, e -> {
+            if (frameStats.getFrames() != shownFrames[0]) {
+                shownFrames[0] = frameStats.getFrames();
+                frameStatsLabel.setText(frameStats.summary());
+            }
+        }).start();
         
         return toolbar;
     }
@@ -356,246 +615,480 @@ public class CodeSphereSwing extends JFrame {
         return btn;
     }
     
-    private void initCanvas() {
-        if (canvas == null) {
-            canvas = new BufferedImage(drawingPanel.getWidth(), drawingPanel.getHeight(), BufferedImage.TYPE_INT_ARGB);
-            g2d = canvas.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    private void clearCanvas() {
+        canvas.clear();
+        drawingPanel.repaint();
+    }
+    
+    // Boards are written and read on a background thread; only the finished strokes are shared
+    private void saveBoard() {
+        Path file = chooseBoardFile("CodeSphere whiteboard (*.cswb)", BoardFile.EXTENSION, true);
+        if (file == null) {
+            return;
         }
+        List<Stroke> strokes = canvas.snapshot();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                BoardFile.write(file, strokes);
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                reportBoardError(this, "saving the board");
+            }
+        }.execute();
     }
     
-    private void drawLine(Point from, Point to) {
-        if (g2d != null) {
-            g2d.setColor(currentColor);
-            g2d.setStroke(new BasicStroke(penSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            g2d.drawLine(from.x, from.y, to.x, to.y);
-            drawingPanel.repaint();
+    private void openBoard() {
+        Path file = chooseBoardFile("CodeSphere whiteboard (*.cswb)", BoardFile.EXTENSION, false);
+        if (file == null) {
+            return;
         }
+        new SwingWorker<List<Stroke>, Void>() {
+            @Override
+            protected List<Stroke> doInBackground() throws IOException {
+                return BoardFile.read(file);
+            }
+            
+            @Override
+            protected void done() {
+                if (reportBoardError(this, "opening the board")) {
+                    return;
+                }
+                try {
+                    canvas.load(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    return;
+                }
+                drawingPanel.repaint();
+            }
+        }.execute();
     }
     
-    private void erase(Point point) {
-        if (g2d != null) {
-            g2d.setComposite(AlphaComposite.Clear);
-            g2d.fillOval(point.x - penSize*2, point.y - penSize*2, penSize*4, penSize*4);
-            g2d.setComposite(AlphaComposite.SrcOver);
-            drawingPanel.repaint();
+    // Rendering and encoding a large board takes seconds, so it happens off the EDT
+    private void exportBoard(JButton exportButton) {
+        List<Stroke> strokes = canvas.snapshot();
+        if (strokes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "The whiteboard is empty.", "Export PNG", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        Path file = chooseBoardFile("PNG image (*.png)", "png", true);
+        if (file == null) {
+            return;
+        }
+        exportButton.setEnabled(false);
+        exportButton.setText("Exporting...");
+        Color background = drawingPanel.getBackground();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                BoardExport.writePng(strokes, background, file);
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                exportButton.setText("Export PNG");
+                exportButton.setEnabled(true);
+                reportBoardError(this, "exporting the board");
+            }
+        }.execute();
+    }
+    
+    // The chosen file, with the extension added when saving without one; null when cancelled
+    private Path chooseBoardFile(String description, String extension, boolean save) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter(description, extension));
+        int choice = save ? fileChooser.showSaveDialog(this) : fileChooser.showOpenDialog(this);
+        if (choice != JFileChooser.APPROVE_OPTION) {
+            return null;
+        }
+        Path file = fileChooser.getSelectedFile().toPath();
+        if (save && !file.getFileName().toString().toLowerCase().endsWith("." + extension)) {
+            file = file.resolveSibling(file.getFileName() + "." + extension);
         }
+        return file;
     }
     
-    private void clearCanvas() {
-        if (canvas != null) {
-            g2d.setComposite(AlphaComposite.Clear);
-            g2d.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            g2d.setComposite(AlphaComposite.SrcOver);
-            drawingPanel.repaint();
+    // Shows the worker's failure, if any; returns whether it failed
+    private boolean reportBoardError(SwingWorker<?, ?> worker, String action) {
+        try {
+            worker.get();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        } catch (ExecutionException e) {
+            JOptionPane.showMessageDialog(this, "Error " + action + ": " + e.getCause().getMessage(), "Whiteboard",
+                    JOptionPane.ERROR_MESSAGE);
+            return true;
+        }
+    }
+    
+    /**
+     * Runs once the window has first painted. Reports the time from launch with
+     * codesphere.startup.report=true, or exits there with codesphere.startup.exitAfterPaint=true,
+     * which is how cold starts are measured and how the CDS archive is trained. Then starts what
+     * the first frame did not need: the runners' warm workers and the toolchain probes.
+     */
+    private void firstPainted() {
+        boolean exit = Boolean.getBoolean("codesphere.startup.exitAfterPaint");
+        if (exit || Boolean.getBoolean("codesphere.startup.report")) {
+            System.out.println("First paint " + millisSinceLaunch() + " ms after launch");
+        }
+        if (exit) {
+            System.exit(0);
+        }
+        CompletableFuture<CppToolchain> cppToolchain = CodeRunner.detectCppToolchain();
+        toolchains = Toolchains.probe(cppToolchain);
+        for (CompletableFuture<String> version : toolchains.values()) {
+            version.thenRun(() -> SwingUtilities.invokeLater(languageBox::repaint));
+        }
+        Thread starter = new Thread(() -> {
+            try {
+                CodeRunner runner = CodeRunner.create(cppToolchain);
+                Runtime.getRuntime().addShutdownHook(new Thread(runner::close));
+                codeRunner.complete(runner);
+            } catch (RuntimeException e) {
+                codeRunner.completeExceptionally(e);
+            }
+        }, "code-runner-start");
+        starter.setDaemon(true);
+        starter.start();
+    }
+    
+    // From JVM start; the process start time the OS keeps is only accurate to the second
+    private static long millisSinceLaunch() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+    
+    // Puts back the code the last session left, then journals every edit from here on
+    private void startAutosave(JFrame frame) {
+        autosave = Autosave.open();
+        if (autosave == null) {
+            return;
         }
+        Runtime.getRuntime().addShutdownHook(new Thread(autosave::close));
+        // Closing the window leaves the code as it is; a crash or kill does not get here
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                autosave.markClean();
+            }
+        });
+        new SwingWorker<CodeDocument, Void>() {
+            @Override
+            protected CodeDocument doInBackground() throws IOException {
+                return autosave.recover();
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    CodeDocument recovered = get();
+                    if (recovered != null) {
+                        codeArea.setDocument(recovered);
+                        codeArea.setCaretPosition(0);
+                        outputArea.append("\nRecovered unsaved code from the last session.");
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    outputArea.append("\nCould not recover unsaved code: " + e.getCause().getMessage());
+                }
+                autosave.track((CodeDocument) codeArea.getDocument(), null);
+            }
+        }.execute();
     }
     
     private void updateCodeTemplate() {
         String selectedLanguage = (String) languageBox.getSelectedItem();
+        codeArea.setLanguage(selectedLanguage);
         if (codeTemplates.containsKey(selectedLanguage)) {
             codeArea.setText(codeTemplates.get(selectedLanguage));
         }
     }
     
+    // Files are written and read on a background thread; the EDT only takes a snapshot of the
+    // text or swaps in the loaded document
     private void saveCode() {
         JFileChooser fileChooser = new JFileChooser();
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (FileWriter writer = new FileWriter(fileChooser.getSelectedFile())) {
-                writer.write(codeArea.getText());
-                outputArea.append("\nCode saved successfully!");
-            } catch (IOException e) {
-                outputArea.append("\nError saving file: " + e.getMessage());
-            }
+            Path file = fileChooser.getSelectedFile().toPath();
+            CharSequence code = codeArea.snapshot();
+            // The autosave may still be relying on the file as it was opened
+            Future<?> released = autosave == null ? null : autosave.beforeOverwrite(file);
+            long checkpoint = autosave == null ? 0 : autosave.checkpoint();
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws Exception {
+                    if (released != null) {
+                        released.get();
+                    }
+                    CodeFiles.write(file, code);
+                    return null;
+                }
+                
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                        if (autosave != null) {
+                            autosave.saved(checkpoint);
+                        }
+                        outputArea.append("\nCode saved successfully!");
+                    } catch (InterruptedException | ExecutionException e) {
+                        outputArea.append("\nError saving file: " + e.getCause().getMessage());
+                    }
+                }
+            }.execute();
         }
     }
     
     private void loadCode() {
         JFileChooser fileChooser = new JFileChooser();
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(fileChooser.getSelectedFile()))) {
-                StringBuilder content = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line).append("\n");
+            Path file = fileChooser.getSelectedFile().toPath();
+            new SwingWorker<CodeDocument, Void>() {
+                @Override
+                protected CodeDocument doInBackground() throws IOException {
+                    return CodeFiles.open(file);
                 }
-                codeArea.setText(content.toString());
-                outputArea.append("\nCode loaded successfully!");
-            } catch (IOException e) {
-                outputArea.append("\nError loading file: " + e.getMessage());
-            }
+                
+                @Override
+                protected void done() {
+                    try {
+                        CodeDocument document = get();
+                        codeArea.setDocument(document);
+                        codeArea.setCaretPosition(0);
+                        if (autosave != null) {
+                            autosave.track(document, file);
+                        }
+                        outputArea.append("\nCode loaded successfully!");
+                    } catch (InterruptedException | ExecutionException e) {
+                        outputArea.append("\nError loading file: " + e.getCause().getMessage());
+                    }
+                }
+            }.execute();
         }
     }
     
+    // Joins a room on the CodeSphere server with the editor's document, or leaves it
+    private void toggleCollaboration() {
+        if (collabSession != null) {
+            collabSession.close();
+            collabSession = null;
+            collaborateButton.setText("Collaborate");
+            outputArea.append("\nLeft the room.");
+            return;
+        }
+        JTextField serverField = new JTextField("http://localhost:3001", 20);
+        JTextField roomField = new JTextField(8);
+        JPanel form = new JPanel(new GridLayout(0, 1));
+        form.add(new JLabel("Server:"));
+        form.add(serverField);
+        form.add(new JLabel("Room ID:"));
+        form.add(roomField);
+        if (JOptionPane.showConfirmDialog(this, form, "Collaborate", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION
+                || roomField.getText().trim().isEmpty()) {
+            return;
+        }
+        CollabSession session;
+        try {
+            URI server = URI.create(serverField.getText().trim());
+            session = new CollabSession(codeArea, new SocketIoTransport(server, roomField.getText().trim()), message -> {
+                outputArea.append("\n" + message);
+                if (collabSession != null && collabSession.isClosed()) {
+                    collabSession = null;
+                    collaborateButton.setText("Collaborate");
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            outputArea.append("\nInvalid server address: " + e.getMessage());
+            return;
+        }
+        collabSession = session;
+        collaborateButton.setText("Leave Room");
+        outputArea.append("\nConnecting to room " + roomField.getText().trim() + "...");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                session.open();
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    outputArea.append("\nCould not join the room: " + e.getCause().getMessage());
+                    session.close();
+                    if (collabSession == session) {
+                        collabSession = null;
+                        collaborateButton.setText("Collaborate");
+                    }
+                }
+            }
+        }.execute();
+    }
+    
     private void copyCode() {
-        String code = codeArea.getText();
-        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
-            new java.awt.datatransfer.StringSelection(code), null);
+        codeArea.copyAll();
         outputArea.append("\nCode copied to clipboard!");
     }
     
     private class RunCodeListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            String code = codeArea.getText();
+            CharSequence code = codeArea.snapshot();
             String language = (String) languageBox.getSelectedItem();
+            RunLimits limits = RunLimits.forLanguage(language);
             
-            outputArea.setText("Running " + language + " code...\n\n");
+            submitRun("Running " + language + " code...\n\n", "Running " + language, limits,
+                    control -> executeCode(code.toString(), language, control.limit(outputArea, limits.getMaxOutputChars()), control));
+        }
+    }
+    
+    // Compiles once and checks the program against a directory of NAME.in / NAME.out pairs
+    private void runTests() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Choose a folder of test cases (.in / .out)");
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        JCheckBox ignoreWhitespace = new JCheckBox("Ignore whitespace differences", true);
+        fileChooser.setAccessory(ignoreWhitespace);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        
+        CharSequence code = codeArea.snapshot();
+        String language = (String) languageBox.getSelectedItem();
+        Path dir = fileChooser.getSelectedFile().toPath();
+        RunLimits caseLimits = RunLimits.forLanguage(language);
+        BatchJudge.Comparison comparison = ignoreWhitespace.isSelected() ? BatchJudge.Comparison.WHITESPACE : BatchJudge.Comparison.EXACT;
+        // Every case has its own time limit, so the suite is bounded by them; Stop ends it early
+        RunLimits suiteLimits = new RunLimits(Long.MAX_VALUE, Long.MAX_VALUE);
+        
+        // The cases are read on the run's thread, a large suite would otherwise freeze the window
+        submitRun("Testing " + language + " code against " + dir.getFileName() + "...\n\n", "Testing " + language, suiteLimits,
+                control -> new BatchJudge(codeRunner.get(), Runtime.getRuntime().availableProcessors(), caseLimits, comparison)
+                        .judge(language, code.toString(), TestCase.loadDirectory(dir), outputArea, control));
+    }
+    
+    // Queued behind earlier runs; output streams in once it starts
+    private void submitRun(String banner, String status, RunLimits limits, RunScheduler.Task task) {
+        RunScheduler.Job job = runScheduler.submit(limits, task, new RunScheduler.Listener() {
+            @Override
+            public void queued(int position) {
+                SwingUtilities.invokeLater(() -> runStatusLabel.setText("Queued - position " + position));
+            }
             
-            // Real code execution in separate thread
-            new Thread(() -> {
+            @Override
+            public void started() {
+                // Waits for the EDT, so the banner is in place before the program's output
                 try {
-                    String result = executeCode(code, language);
-                    SwingUtilities.invokeLater(() -> {
-                        outputArea.append(result);
-                    });
-                } catch (Exception ex) {
-                    SwingUtilities.invokeLater(() -> {
-                        outputArea.append("Error: " + ex.getMessage());
+                    SwingUtilities.invokeAndWait(() -> {
+                        outputArea.setText(banner);
+                        startTranscript();
+                        runStatusLabel.setText(status);
                     });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (InvocationTargetException e) {
+                    throw new IllegalStateException(e.getCause());
                 }
-            }).start();
-        }
+            }
+            
+            @Override
+            public void finished(RunControl.Reason reason, Exception error) {
+                if (error != null) {
+                    outputArea.stderr("Error: " + error.getMessage());
+                }
+                if (reason == RunControl.Reason.TIMED_OUT) {
+                    outputArea.stderr("\n" + reason.getMessage() + " (" + limits.getTimeoutMillis() / 1000 + " s)");
+                } else if (reason != null) {
+                    outputArea.stderr("\n" + reason.getMessage());
+                }
+                SwingUtilities.invokeLater(() -> runFinished(this));
+            }
+        });
+        activeRuns.add(job);
+        stopButton.setEnabled(true);
     }
     
-    private String executeCode(String code, String language) throws Exception {
-        StringBuilder output = new StringBuilder();
-        
-        switch (language) {
-            case "Java":
-                return executeJava(code);
-            case "Python":
-                return executePython(code);
-            case "JavaScript":
-                return executeJavaScript(code);
-            case "C++":
-                return executeCpp(code);
-            default:
-                return "Language not supported";
+    private void runFinished(RunScheduler.Listener listener) {
+        activeRuns.removeIf(job -> job.getListener() == listener);
+        stopButton.setEnabled(!activeRuns.isEmpty());
+        if (activeRuns.isEmpty()) {
+            runStatusLabel.setText("");
         }
     }
     
-    private String executeJava(String code) throws Exception {
-        // Create temp directory
-        File tempDir = new File("temp");
-        if (!tempDir.exists()) tempDir.mkdir();
-        
-        // Write Java file
-        File javaFile = new File(tempDir, "Main.java");
-        try (FileWriter writer = new FileWriter(javaFile)) {
-            writer.write(code);
+    // Kills running programs with their child processes and drops queued runs
+    private void stopRuns() {
+        for (RunScheduler.Job job : new ArrayList<>(activeRuns)) {
+            job.cancel();
         }
-        
-        // Compile
-        Process compileProcess = Runtime.getRuntime().exec("javac " + javaFile.getAbsolutePath());
-        compileProcess.waitFor();
-        
-        if (compileProcess.exitValue() != 0) {
-            return "Compilation failed: " + readStream(compileProcess.getErrorStream());
-        }
-        
-        // Run
-        Process runProcess = Runtime.getRuntime().exec("java -cp " + tempDir.getAbsolutePath() + " Main");
-        runProcess.waitFor();
-        
-        String result = readStream(runProcess.getInputStream());
-        String error = readStream(runProcess.getErrorStream());
-        
-        // Cleanup
-        new File(tempDir, "Main.class").delete();
-        javaFile.delete();
-        
-        return result + (error.isEmpty() ? "" : "\nErrors: " + error) + "\nProcess finished with exit code " + runProcess.exitValue();
     }
     
-    private String executePython(String code) throws Exception {
-        // Create temp file
-        File tempFile = File.createTempFile("python_code", ".py");
-        try (FileWriter writer = new FileWriter(tempFile)) {
-            writer.write(code);
+    // With codesphere.output.transcriptDir set, the full output of each run is also kept on disk
+    private void startTranscript() {
+        String transcriptDir = System.getProperty("codesphere.output.transcriptDir");
+        if (transcriptDir != null) {
+            try {
+                outputArea.getBuffer().startTranscript(Paths.get(transcriptDir, "run-" + System.currentTimeMillis() + ".log"));
+            } catch (IOException e) {
+                outputArea.stderr("Could not write output transcript: " + e.getMessage() + "\n");
+            }
         }
-        
-        // Run Python
-        Process process = Runtime.getRuntime().exec("python3 " + tempFile.getAbsolutePath());
-        process.waitFor();
-        
-        String result = readStream(process.getInputStream());
-        String error = readStream(process.getErrorStream());
-        
-        // Cleanup
-        tempFile.delete();
-        
-        return result + (error.isEmpty() ? "" : "\nErrors: " + error) + "\nProcess finished with exit code " + process.exitValue();
     }
     
-    private String executeJavaScript(String code) throws Exception {
-        // Create temp file
-        File tempFile = File.createTempFile("js_code", ".js");
-        try (FileWriter writer = new FileWriter(tempFile)) {
-            writer.write(code);
-        }
-        
-        // Run with Node.js
-        Process process = Runtime.getRuntime().exec("node " + tempFile.getAbsolutePath());
-        process.waitFor();
-        
-        String result = readStream(process.getInputStream());
-        String error = readStream(process.getErrorStream());
-        
-        // Cleanup
-        tempFile.delete();
-        
-        return result + (error.isEmpty() ? "" : "\nErrors: " + error) + "\nProcess finished with exit code " + process.exitValue();
+    private void executeCode(String code, String language, OutputSink out, RunControl control) throws Exception {
+        RunMetrics metrics = codeRunner.get().execute(language, code, out, control);
+        SwingUtilities.invokeLater(() -> metricsLabel.setText(metrics == null ? "Compilation failed" : metrics.format()));
     }
     
-    private String executeCpp(String code) throws Exception {
-        // Create temp files
-        File tempDir = new File("temp");
-        if (!tempDir.exists()) tempDir.mkdir();
-        
-        File cppFile = new File(tempDir, "main.cpp");
-        File exeFile = new File(tempDir, "main");
-        
-        try (FileWriter writer = new FileWriter(cppFile)) {
-            writer.write(code);
-        }
-        
-        // Compile
-        Process compileProcess = Runtime.getRuntime().exec("g++ -o " + exeFile.getAbsolutePath() + " " + cppFile.getAbsolutePath());
-        compileProcess.waitFor();
-        
-        if (compileProcess.exitValue() != 0) {
-            return "Compilation failed: " + readStream(compileProcess.getErrorStream());
-        }
-        
-        // Run
-        Process runProcess = Runtime.getRuntime().exec(exeFile.getAbsolutePath());
-        runProcess.waitFor();
-        
-        String result = readStream(runProcess.getInputStream());
-        String error = readStream(runProcess.getErrorStream());
-        
-        // Cleanup
-        cppFile.delete();
-        exeFile.delete();
-        
-        return result + (error.isEmpty() ? "" : "\nErrors: " + error) + "\nProcess finished with exit code " + runProcess.exitValue();
+    // The window's content, laid out and painted into an image; nothing is started for it
+    private static void paintOffscreen() {
+        CodeSphereSwing content = new CodeSphereSwing();
+        content.painted = true;
+        content.setSize(1200, 800);
+        layoutTree(content);
+        BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        content.paint(g);
+        g.dispose();
     }
     
-    private String readStream(InputStream stream) throws IOException {
-        StringBuilder result = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                result.append(line).append("\n");
+    private static void layoutTree(Component component) {
+        component.doLayout();
+        if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                layoutTree(child);
             }
         }
-        return result.toString();
     }
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // Headless batch judge, see BatchJudge for the options
+        if (args.length > 0 && args[0].equals("--judge")) {
+            BatchJudge.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Headless HTTP execution service, see ExecutionServer
+        if (args.length > 0 && args[0].equals("--server")) {
+            ExecutionServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // A CDS training run on a machine with no display paints the editor offscreen instead
+        if (GraphicsEnvironment.isHeadless() && Boolean.getBoolean("codesphere.startup.exitAfterPaint")) {
+            SwingUtilities.invokeAndWait(CodeSphereSwing::paintOffscreen);
+            System.out.println("First paint " + millisSinceLaunch() + " ms after launch (offscreen)");
+            System.exit(0);
+        }
+        // Reports event dispatches that block the UI, see EdtWatchdog
+        EdtWatchdog.install();
         SwingUtilities.invokeLater(() -> {
-            new CodeSphereSwing().setVisible(true);
+            new CodeSphereSwing().showWindow();
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.codesphere.collab;
+
+import java.util.function.BiConsumer;
+
+/**
+ * One client's side of the room's operational transform. At most one operation is in flight
+ * until the server acknowledges it; edits made meanwhile, and edits made within a frame, are
+ * composed into a buffer and sent as one. Remote operations are transformed past both before they
+ * are applied locally. Not thread safe: the session drives it from one thread.
+ */
+public final class CollabClient {
+    
+    private final BiConsumer<Integer, TextOperation> sender;
+    private int revision;
+    // Sent and not yet acknowledged
+    private TextOperation outstanding;
+    // Made locally since, not yet sent
+    private TextOperation buffer;
+    
+    public CollabClient(int revision, BiConsumer<Integer, TextOperation> sender) {
+        this.revision = revision;
+        this.sender = sender;
+    }
+    
+    public int getRevision() {
+        return revision;
+    }
+    
+    // True when the server has every local edit
+    public boolean isSynchronized() {
+        return outstanding == null && buffer == null;
+    }
+    
+    public void local(TextOperation operation) {
+        buffer = buffer == null ? operation : buffer.compose(operation);
+    }
+    
+    // Sends the buffered edits unless an earlier batch is still unacknowledged; call once a frame
+    public void flush() {
+        if (outstanding != null || buffer == null) {
+            return;
+        }
+        TextOperation batch = buffer;
+        buffer = null;
+        // Text typed and deleted again within the batch leaves nothing to send
+        if (!batch.isNoop()) {
+            outstanding = batch;
+            sender.accept(revision, batch);
+        }
+    }
+    
+    public void acknowledged(int revision) {
+        if (outstanding == null || revision != this.revision + 1) {
+            throw new IllegalStateException("Unexpected acknowledgement of revision " + revision + " at " + this.revision);
+        }
+        this.revision = revision;
+        outstanding = null;
+    }
+    
+    // Returns the operation to apply to the local document
+    public TextOperation remote(int revision, TextOperation operation) {
+        if (revision != this.revision + 1) {
+            throw new IllegalStateException("Revision " + revision + " arrived at " + this.revision);
+        }
+        this.revision = revision;
+        if (outstanding != null) {
+            TextOperation[] pair = TextOperation.transform(outstanding, operation);
+            outstanding = pair[0];
+            operation = pair[1];
+        }
+        if (buffer != null) {
+            TextOperation[] pair = TextOperation.transform(buffer, operation);
+            buffer = pair[0];
+            operation = pair[1];
+        }
+        return operation;
+    }
+}
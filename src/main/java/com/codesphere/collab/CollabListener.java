@@ -0,0 +1,20 @@
+package com.codesphere.collab;
+
+/**
+ * What a collaboration room tells one of its clients, in the room's order. The server calls it
+ * for each connection; a {@link CollabTransport} calls it on the client side.
+ */
+public interface CollabListener {
+    
+    // The room's document at a revision; also sent again when a client fell too far behind
+    void joined(int revision, String text);
+    
+    // The client's outstanding operation became the given revision
+    void acknowledged(int revision);
+    
+    // Another client's operation, already transformed, became the given revision
+    void remote(int revision, TextOperation operation);
+    
+    default void closed(String reason) {
+    }
+}
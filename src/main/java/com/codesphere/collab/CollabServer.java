@@ -0,0 +1,90 @@
+package com.codesphere.collab;
+
+import com.codesphere.editor.PieceTable;
+
+import javax.swing.text.BadLocationException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * One collaboration room run in process: the same protocol as the rooms in server/index.js,
+ * without a network, for running many clients against in tests and benchmarks. An operation made
+ * on top of an older revision is transformed past every operation since, applied, acknowledged
+ * to its sender and passed on to everyone else. The text is kept in a {@link PieceTable}, so
+ * applying an operation costs the size of the edit, not the document.
+ *
+ * The last operations are kept to transform against; a client further behind than that is sent
+ * the whole document again with joined().
+ *
+ * Settings (system properties):
+ *   codesphere.collab.history  operations kept to transform late edits against, default 1000
+ */
+public class CollabServer {
+    
+    private final PieceTable text = new PieceTable();
+    // The operation that made revision r + 1 is at r % history.length
+    private final TextOperation[] history;
+    private final Set<CollabListener> connections = new LinkedHashSet<>();
+    private int revision;
+    
+    public CollabServer(String initialText) {
+        this(initialText, Integer.getInteger("codesphere.collab.history", 1000));
+    }
+    
+    public CollabServer(String initialText, int historySize) {
+        history = new TextOperation[Math.max(1, historySize)];
+        try {
+            text.insertString(0, initialText);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    // Callbacks run while the room is locked and must hand their work off rather than block
+    public synchronized void join(CollabListener connection) {
+        connections.add(connection);
+        connection.joined(revision, getText());
+    }
+    
+    public synchronized void leave(CollabListener connection) {
+        connections.remove(connection);
+    }
+    
+    public synchronized void receive(CollabListener from, int base, TextOperation operation) {
+        if (!connections.contains(from)) {
+            return;
+        }
+        if (base > revision || base < revision - history.length) {
+            from.joined(revision, getText());
+            return;
+        }
+        try {
+            for (int r = base; r < revision; r++) {
+                operation = TextOperation.transform(operation, history[r % history.length])[0];
+            }
+            operation.applyTo(text);
+        } catch (BadLocationException | RuntimeException e) {
+            // The client's document is not the room's; start it over
+            System.err.println("Rejected collaboration edit: " + e.getMessage());
+            from.joined(revision, getText());
+            return;
+        }
+        history[revision % history.length] = operation;
+        revision++;
+        for (CollabListener connection : connections) {
+            if (connection == from) {
+                connection.acknowledged(revision);
+            } else {
+                connection.remote(revision, operation);
+            }
+        }
+    }
+    
+    public synchronized int getRevision() {
+        return revision;
+    }
+    
+    public synchronized String getText() {
+        return text.snapshot().toString();
+    }
+}
@@ -0,0 +1,218 @@
+package com.codesphere.collab;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Shares an editor's document with a collaboration room. Each insert or remove becomes a
+ * {@link TextOperation} of a few components; the edits of one frame are sent together, and
+ * remote operations are applied to the document as edits of the same size. Loading another
+ * document into the editor replaces the room's text with it.
+ *
+ * Everything but open() runs on the EDT.
+ */
+public final class CollabSession implements DocumentListener, Closeable {
+    
+    private static final int FRAME_MILLIS = 16;
+    
+    private final JTextComponent editor;
+    private final CollabTransport transport;
+    private final Consumer<String> status;
+    private final Timer frame;
+    private final PropertyChangeListener documentChanged = e -> replaceDocument();
+    private Document document;
+    // The document's length as the client has seen it, before the edit being reported
+    private int length;
+    private CollabClient client;
+    // Set while remote edits are applied, so they are not sent back
+    private boolean applying;
+    private boolean closed;
+    
+    public CollabSession(JTextComponent editor, CollabTransport transport, Consumer<String> status) {
+        this.editor = editor;
+        this.transport = transport;
+        this.status = status;
+        frame = new Timer(FRAME_MILLIS, e -> {
+            if (client != null) {
+                client.flush();
+            }
+        });
+        frame.setRepeats(false);
+    }
+    
+    // Connects and joins; may block, so call it off the EDT
+    public void open() throws IOException {
+        transport.open(new CollabListener() {
+            @Override
+            public void joined(int revision, String text) {
+                SwingUtilities.invokeLater(() -> onJoined(revision, text));
+            }
+            
+            @Override
+            public void acknowledged(int revision) {
+                SwingUtilities.invokeLater(() -> onAcknowledged(revision));
+            }
+            
+            @Override
+            public void remote(int revision, TextOperation operation) {
+                SwingUtilities.invokeLater(() -> onRemote(revision, operation));
+            }
+            
+            @Override
+            public void closed(String reason) {
+                SwingUtilities.invokeLater(() -> {
+                    if (!closed) {
+                        close();
+                        status.accept("Left the room: " + reason);
+                    }
+                });
+            }
+        });
+    }
+    
+    private void onJoined(int revision, String text) {
+        if (closed) {
+            return;
+        }
+        boolean rejoined = client != null;
+        if (document == null) {
+            document = editor.getDocument();
+            document.addDocumentListener(this);
+            editor.addPropertyChangeListener("document", documentChanged);
+        }
+        // Local edits the room has not taken are dropped along with the old text
+        applying = true;
+        try {
+            editor.setText(text);
+        } finally {
+            applying = false;
+        }
+        length = document.getLength();
+        client = new CollabClient(revision, transport::send);
+        editor.setCaretPosition(0);
+        status.accept(rejoined ? "Out of step with the room; reloaded its code." : "Joined the room at revision " + revision + ".");
+    }
+    
+    private void onAcknowledged(int revision) {
+        if (closed) {
+            return;
+        }
+        try {
+            client.acknowledged(revision);
+        } catch (RuntimeException e) {
+            leave("an acknowledgement did not match: " + e.getMessage());
+            return;
+        }
+        if (!client.isSynchronized()) {
+            frame.restart();
+        }
+    }
+    
+    private void onRemote(int revision, TextOperation operation) {
+        if (closed) {
+            return;
+        }
+        TextOperation local;
+        try {
+            local = client.remote(revision, operation);
+        } catch (RuntimeException e) {
+            leave("could not take an edit: " + e.getMessage());
+            return;
+        }
+        applying = true;
+        try {
+            local.applyTo(document);
+        } catch (BadLocationException | RuntimeException e) {
+            leave("could not apply an edit: " + e.getMessage());
+            return;
+        } finally {
+            applying = false;
+        }
+        length = document.getLength();
+    }
+    
+    // Out of step with the room: nothing more is sent from the client's state
+    private void leave(String reason) {
+        client = null;
+        close();
+        status.accept("Left the room: " + reason);
+    }
+    
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (applying || client == null) {
+            return;
+        }
+        try {
+            String text = document.getText(e.getOffset(), e.getLength());
+            local(TextOperation.insertion(length, e.getOffset(), text));
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        length += e.getLength();
+    }
+    
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (applying || client == null) {
+            return;
+        }
+        local(TextOperation.removal(length, e.getOffset(), e.getLength()));
+        length -= e.getLength();
+    }
+    
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+    
+    private void local(TextOperation operation) {
+        client.local(operation);
+        if (!frame.isRunning()) {
+            frame.start();
+        }
+    }
+    
+    // A document loaded into the editor replaces the room's text
+    private void replaceDocument() {
+        document.removeDocumentListener(this);
+        document = editor.getDocument();
+        document.addDocumentListener(this);
+        if (client == null) {
+            length = document.getLength();
+            return;
+        }
+        local(new TextOperation().delete(length).insert(editor.getText()));
+        length = document.getLength();
+    }
+    
+    // True once left, by close() or because the connection ended
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frame.stop();
+        if (client != null) {
+            client.flush();
+        }
+        if (document != null) {
+            document.removeDocumentListener(this);
+            editor.removePropertyChangeListener("document", documentChanged);
+        }
+        transport.close();
+    }
+}
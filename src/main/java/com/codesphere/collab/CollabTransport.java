@@ -0,0 +1,20 @@
+package com.codesphere.collab;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A client's link to a collaboration room. Events for the listener may arrive on any thread but
+ * always one at a time and in the room's order.
+ */
+public interface CollabTransport extends Closeable {
+    
+    // Connects and joins the room; the listener hears joined() first
+    void open(CollabListener listener) throws IOException;
+    
+    // Sends an operation made on top of the given revision
+    void send(int revision, TextOperation operation);
+    
+    @Override
+    void close();
+}
@@ -0,0 +1,53 @@
+package com.codesphere.collab;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Joins a {@link CollabServer} in the same process. Events are handed to the delivery executor,
+ * which must run them one at a time in order: SwingUtilities::invokeLater for an editor, or a
+ * queue a simulation drains when it chooses, to interleave clients however it likes.
+ */
+public final class LocalTransport implements CollabTransport {
+    
+    private final CollabServer server;
+    private final Executor delivery;
+    private CollabListener connection;
+    
+    public LocalTransport(CollabServer server, Executor delivery) {
+        this.server = server;
+        this.delivery = delivery;
+    }
+    
+    @Override
+    public void open(CollabListener listener) {
+        connection = new CollabListener() {
+            @Override
+            public void joined(int revision, String text) {
+                delivery.execute(() -> listener.joined(revision, text));
+            }
+            
+            @Override
+            public void acknowledged(int revision) {
+                delivery.execute(() -> listener.acknowledged(revision));
+            }
+            
+            @Override
+            public void remote(int revision, TextOperation operation) {
+                delivery.execute(() -> listener.remote(revision, operation));
+            }
+        };
+        server.join(connection);
+    }
+    
+    @Override
+    public void send(int revision, TextOperation operation) {
+        server.receive(connection, revision, operation);
+    }
+    
+    @Override
+    public void close() {
+        if (connection != null) {
+            server.leave(connection);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.codesphere.collab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import org.glassfish.tyrus.client.ClientManager;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Joins a room on the Node server (server/index.js) over its Socket.IO endpoint, speaking the
+ * Engine.IO 4 framing over a plain WebSocket: "40" connects, "42" prefixes an event as a JSON
+ * array of its name and data, and "2" pings are answered with "3". The room events are ot-join,
+ * ot-state, ot-op, ot-ack and ot-remote; each ot-op carries one operation in the ot.js format
+ * rather than the document.
+ */
+public final class SocketIoTransport implements CollabTransport {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private final URI uri;
+    private final String roomId;
+    // Sends go out one at a time in order, off the caller's thread
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "collab-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Session session;
+    private volatile boolean closing;
+    
+    // server is the http(s) address the web app uses, such as http://localhost:3001
+    public SocketIoTransport(URI server, String roomId) {
+        String scheme = "https".equals(server.getScheme()) ? "wss" : "ws";
+        this.uri = URI.create(scheme + "://" + server.getAuthority() + "/socket.io/?EIO=4&transport=websocket");
+        this.roomId = roomId;
+    }
+    
+    @Override
+    public void open(CollabListener listener) throws IOException {
+        try {
+            session = ClientManager.createClient().connectToServer(new Endpoint() {
+                @Override
+                public void onOpen(Session session, EndpointConfig config) {
+                    // The server's handshake can arrive before connectToServer returns
+                    SocketIoTransport.this.session = session;
+                    session.addMessageHandler(String.class, (MessageHandler.Whole<String>) message -> receive(message, listener));
+                }
+                
+                @Override
+                public void onClose(Session session, CloseReason reason) {
+                    if (!closing) {
+                        listener.closed("connection closed: " + reason.getReasonPhrase());
+                    }
+                }
+                
+                @Override
+                public void onError(Session session, Throwable error) {
+                    listener.closed(error.getMessage());
+                }
+            }, ClientEndpointConfig.Builder.create().build(), uri);
+        } catch (DeploymentException e) {
+            throw new IOException("Could not connect to " + uri + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private void receive(String message, CollabListener listener) {
+        try {
+            if (message.startsWith("0")) {
+                write("40");
+            } else if (message.equals("2")) {
+                write("3");
+            } else if (message.startsWith("40")) {
+                ObjectNode join = MAPPER.createObjectNode().put("roomId", roomId);
+                write("42" + MAPPER.writeValueAsString(List.of("ot-join", join)));
+            } else if (message.startsWith("44") || message.startsWith("41") || message.equals("1")) {
+                listener.closed("disconnected by the server");
+            } else if (message.startsWith("42")) {
+                JsonNode event = MAPPER.readTree(message.substring(2));
+                String name = event.path(0).asText();
+                JsonNode data = event.path(1);
+                int revision = data.path("revision").asInt();
+                if (name.equals("ot-state")) {
+                    listener.joined(revision, data.path("code").asText());
+                } else if (name.equals("ot-ack")) {
+                    listener.acknowledged(revision);
+                } else if (name.equals("ot-remote")) {
+                    listener.remote(revision, TextOperation.fromList(MAPPER.convertValue(data.path("op"), List.class)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            listener.closed("bad message from the server: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void send(int revision, TextOperation operation) {
+        ObjectNode data = MAPPER.createObjectNode().put("roomId", roomId).put("revision", revision);
+        data.set("op", MAPPER.valueToTree(operation.toList()));
+        try {
+            write("42" + MAPPER.writeValueAsString(List.of("ot-op", data)));
+        } catch (IOException e) {
+            System.err.println("Could not send collaboration edit: " + e.getMessage());
+        }
+    }
+    
+    private void write(String frame) {
+        sender.execute(() -> {
+            Session current = session;
+            try {
+                if (current != null && current.isOpen()) {
+                    current.getBasicRemote().sendText(frame);
+                }
+            } catch (IOException e) {
+                System.err.println("Collaboration connection failed: " + e.getMessage());
+            }
+        });
+    }
+    
+    @Override
+    public void close() {
+        closing = true;
+        sender.execute(() -> {
+            try {
+                if (session != null) {
+                    session.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not close collaboration connection: " + e.getMessage());
+            }
+        });
+        sender.shutdown();
+    }
+}
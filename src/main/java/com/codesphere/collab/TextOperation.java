@@ -0,0 +1,301 @@
+package com.codesphere.collab;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An edit to a shared document as a walk over it: retain n chars, insert a string, delete n
+ * chars. An edit in a large file is a few components, [retain, insert, retain], so its size and
+ * the cost of applying, composing and transforming it follow the edit, not the file.
+ *
+ * On the wire an operation is a JSON array in the ot.js format: positive numbers retain,
+ * negative numbers delete and strings insert. transform follows ot.js too, so when both sides
+ * insert at the same place the first operation's text goes first.
+ */
+public final class TextOperation {
+    
+    // Positive Integers retain, negative ones delete, Strings insert
+    private final List<Object> ops = new ArrayList<>();
+    private int baseLength;
+    private int targetLength;
+    
+    // The single insert of text at offset into a document of the given length
+    public static TextOperation insertion(int length, int offset, String text) {
+        return new TextOperation().retain(offset).insert(text).retain(length - offset);
+    }
+    
+    // The single removal of count chars at offset from a document of the given length
+    public static TextOperation removal(int length, int offset, int count) {
+        return new TextOperation().retain(offset).delete(count).retain(length - offset - count);
+    }
+    
+    public TextOperation retain(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("retain " + count);
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        targetLength += count;
+        Object last = last();
+        if (isRetain(last)) {
+            ops.set(ops.size() - 1, (Integer) last + count);
+        } else {
+            ops.add(count);
+        }
+        return this;
+    }
+    
+    public TextOperation insert(String text) {
+        if (text.isEmpty()) {
+            return this;
+        }
+        targetLength += text.length();
+        int at = ops.size();
+        // An insert goes before a delete at the same place, so equal edits look the same
+        if (isDelete(last())) {
+            at--;
+        }
+        if (at > 0 && ops.get(at - 1) instanceof String) {
+            ops.set(at - 1, ops.get(at - 1) + text);
+        } else {
+            ops.add(at, text);
+        }
+        return this;
+    }
+    
+    public TextOperation delete(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("delete " + count);
+        }
+        if (count == 0) {
+            return this;
+        }
+        baseLength += count;
+        Object last = last();
+        if (isDelete(last)) {
+            ops.set(ops.size() - 1, (Integer) last - count);
+        } else {
+            ops.add(-count);
+        }
+        return this;
+    }
+    
+    // Length of the document the operation applies to
+    public int getBaseLength() {
+        return baseLength;
+    }
+    
+    // Length of the document after it
+    public int getTargetLength() {
+        return targetLength;
+    }
+    
+    public boolean isNoop() {
+        return ops.isEmpty() || ops.size() == 1 && isRetain(ops.get(0));
+    }
+    
+    public String apply(CharSequence text) {
+        check(text.length());
+        StringBuilder result = new StringBuilder(targetLength);
+        int at = 0;
+        for (Object op : ops) {
+            if (op instanceof String) {
+                result.append((String) op);
+            } else if ((Integer) op > 0) {
+                result.append(text, at, at + (Integer) op);
+                at += (Integer) op;
+            } else {
+                at -= (Integer) op;
+            }
+        }
+        return result.toString();
+    }
+    
+    public void applyTo(Document document) throws BadLocationException {
+        check(document.getLength());
+        int at = 0;
+        for (Object op : ops) {
+            if (op instanceof String) {
+                document.insertString(at, (String) op, null);
+                at += ((String) op).length();
+            } else if ((Integer) op > 0) {
+                at += (Integer) op;
+            } else {
+                document.remove(at, -(Integer) op);
+            }
+        }
+    }
+    
+    // For document content, whose length includes the implied trailing newline
+    public void applyTo(AbstractDocument.Content content) throws BadLocationException {
+        check(content.length() - 1);
+        int at = 0;
+        for (Object op : ops) {
+            if (op instanceof String) {
+                content.insertString(at, (String) op);
+                at += ((String) op).length();
+            } else if ((Integer) op > 0) {
+                at += (Integer) op;
+            } else {
+                content.remove(at, -(Integer) op);
+            }
+        }
+    }
+    
+    private void check(int length) {
+        if (length != baseLength) {
+            throw new IllegalArgumentException("Operation is for a document of " + baseLength + " chars, not " + length);
+        }
+    }
+    
+    // This operation followed by next, as one operation
+    public TextOperation compose(TextOperation next) {
+        if (targetLength != next.baseLength) {
+            throw new IllegalArgumentException("Cannot compose: lengths " + targetLength + " and " + next.baseLength);
+        }
+        TextOperation result = new TextOperation();
+        int i1 = 0, i2 = 0;
+        Object op1 = get(ops, i1++), op2 = get(next.ops, i2++);
+        while (op1 != null || op2 != null) {
+            if (isDelete(op1)) {
+                result.delete(-(Integer) op1);
+                op1 = get(ops, i1++);
+                continue;
+            }
+            if (op2 instanceof String) {
+                result.insert((String) op2);
+                op2 = get(next.ops, i2++);
+                continue;
+            }
+            if (op1 == null || op2 == null) {
+                throw new IllegalStateException("Cannot compose: one operation is too short");
+            }
+            if (isRetain(op1) && isRetain(op2)) {
+                int a = (Integer) op1, b = (Integer) op2;
+                result.retain(Math.min(a, b));
+                op1 = a > b ? (Object) (a - b) : get(ops, i1++);
+                op2 = a < b ? (Object) (b - a) : get(next.ops, i2++);
+            } else if (op1 instanceof String && isDelete(op2)) {
+                String a = (String) op1;
+                int b = -(Integer) op2;
+                op1 = a.length() > b ? a.substring(b) : get(ops, i1++);
+                op2 = a.length() < b ? (Object) (a.length() - b) : get(next.ops, i2++);
+            } else if (op1 instanceof String) {
+                String a = (String) op1;
+                int b = (Integer) op2;
+                result.insert(a.length() > b ? a.substring(0, b) : a);
+                op1 = a.length() > b ? a.substring(b) : get(ops, i1++);
+                op2 = a.length() < b ? (Object) (b - a.length()) : get(next.ops, i2++);
+            } else {
+                // Retain then delete
+                int a = (Integer) op1, b = -(Integer) op2;
+                result.delete(Math.min(a, b));
+                op1 = a > b ? (Object) (a - b) : get(ops, i1++);
+                op2 = a < b ? (Object) (a - b) : get(next.ops, i2++);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Given a and b made concurrently on the same document, returns {a', b'} such that a then b'
+     * and b then a' lead to the same document. Inserts of a at the same place as b's go first.
+     */
+    public static TextOperation[] transform(TextOperation a, TextOperation b) {
+        if (a.baseLength != b.baseLength) {
+            throw new IllegalArgumentException("Cannot transform: base lengths " + a.baseLength + " and " + b.baseLength);
+        }
+        TextOperation aPrime = new TextOperation(), bPrime = new TextOperation();
+        int i1 = 0, i2 = 0;
+        Object op1 = get(a.ops, i1++), op2 = get(b.ops, i2++);
+        while (op1 != null || op2 != null) {
+            if (op1 instanceof String) {
+                aPrime.insert((String) op1);
+                bPrime.retain(((String) op1).length());
+                op1 = get(a.ops, i1++);
+                continue;
+            }
+            if (op2 instanceof String) {
+                aPrime.retain(((String) op2).length());
+                bPrime.insert((String) op2);
+                op2 = get(b.ops, i2++);
+                continue;
+            }
+            if (op1 == null || op2 == null) {
+                throw new IllegalStateException("Cannot transform: one operation is too short");
+            }
+            int x = Math.abs((Integer) op1), y = Math.abs((Integer) op2);
+            int common = Math.min(x, y);
+            if (isRetain(op1) && isRetain(op2)) {
+                aPrime.retain(common);
+                bPrime.retain(common);
+            } else if (isDelete(op1) && isRetain(op2)) {
+                aPrime.delete(common);
+            } else if (isRetain(op1)) {
+                bPrime.delete(common);
+            }
+            // Both deleting the same chars leaves nothing for either to do
+            op1 = x > common ? (Object) (Integer.signum((Integer) op1) * (x - common)) : get(a.ops, i1++);
+            op2 = y > common ? (Object) (Integer.signum((Integer) op2) * (y - common)) : get(b.ops, i2++);
+        }
+        return new TextOperation[] {aPrime, bPrime};
+    }
+    
+    // The ot.js JSON form
+    public List<Object> toList() {
+        return Collections.unmodifiableList(ops);
+    }
+    
+    public static TextOperation fromList(List<?> list) {
+        TextOperation operation = new TextOperation();
+        for (Object op : list) {
+            if (op instanceof String) {
+                operation.insert((String) op);
+            } else if (op instanceof Number && ((Number) op).intValue() > 0) {
+                operation.retain(((Number) op).intValue());
+            } else if (op instanceof Number && ((Number) op).intValue() < 0) {
+                operation.delete(-((Number) op).intValue());
+            } else {
+                throw new IllegalArgumentException("Not an operation component: " + op);
+            }
+        }
+        return operation;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TextOperation && ops.equals(((TextOperation) other).ops);
+    }
+    
+    @Override
+    public int hashCode() {
+        return ops.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return ops.toString();
+    }
+    
+    private Object last() {
+        return ops.isEmpty() ? null : ops.get(ops.size() - 1);
+    }
+    
+    private static Object get(List<Object> ops, int index) {
+        return index < ops.size() ? ops.get(index) : null;
+    }
+    
+    private static boolean isRetain(Object op) {
+        return op instanceof Integer && (Integer) op > 0;
+    }
+    
+    private static boolean isDelete(Object op) {
+        return op instanceof Integer && (Integer) op < 0;
+    }
+}
@@ -0,0 +1,33 @@
+package com.codesphere.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * An event dispatch that blocked the EDT past the {@link EdtWatchdog} threshold, committed when
+ * the dispatch ends, with the EDT's stack as it was when the threshold passed.
+ */
+@Name("com.codesphere.EdtStall")
+@Label("EDT Stall")
+@Category({"CodeSphere", "UI"})
+@Description("The event dispatch thread was blocked by one event for longer than the stall threshold")
+// The stack that matters is the EDT's, in the stack field, not the reporting thread's
+@StackTrace(false)
+final class EdtStallEvent extends Event {
+    
+    @Label("Blocked")
+    @Timespan(Timespan.MILLISECONDS)
+    long blockedMillis;
+    
+    @Label("Event")
+    String event;
+    
+    @Label("Stack")
+    @Description("Where the EDT was when the dispatch passed the threshold")
+    String stack;
+}
@@ -0,0 +1,187 @@
+package com.codesphere.diag;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reports event dispatches that block the EDT for longer than a threshold. The EDT's stack is
+ * taken while the dispatch is still blocked, so the report shows the code that held it up, and
+ * goes to stderr and, when a recording is on, into an {@link EdtStallEvent}.
+ *
+ * Installs an event queue that stamps the start of every dispatch, a clock read and a volatile
+ * write per event, and a daemon thread that looks at the stamp four times per threshold. It can
+ * be switched off and retuned at runtime through JMX, see {@link EdtWatchdogMXBean}.
+ *
+ * Settings (system properties):
+ *   codesphere.edt.watchdog     set to false to not install it
+ *   codesphere.edt.stallMillis  dispatch time that counts as a stall, default 250
+ */
+public final class EdtWatchdog implements EdtWatchdogMXBean {
+    
+    private final Object lock = new Object();
+    private volatile boolean enabled = true;
+    private volatile long thresholdNanos;
+    // Start of the dispatch in progress, 0 between dispatches, and the thread running it
+    private volatile long dispatchStart;
+    private volatile Thread dispatchThread;
+    // A stall seen by the watchdog thread, reported by whichever thread takes it first
+    private final AtomicReference<Stall> pending = new AtomicReference<>();
+    private final AtomicLong stallCount = new AtomicLong();
+    private volatile String lastStall;
+    
+    private EdtWatchdog(long thresholdMillis) {
+        setStallThresholdMillis(thresholdMillis);
+    }
+    
+    // Call before the first window is shown; returns null when codesphere.edt.watchdog is false
+    public static EdtWatchdog install() {
+        if (!Boolean.parseBoolean(System.getProperty("codesphere.edt.watchdog", "true"))) {
+            return null;
+        }
+        EdtWatchdog watchdog = new EdtWatchdog(Long.getLong("codesphere.edt.stallMillis", 250));
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog.new MonitoredQueue());
+        Thread thread = new Thread(watchdog::watch, "edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+        return watchdog;
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        synchronized (lock) {
+            this.enabled = enabled;
+            lock.notifyAll();
+        }
+    }
+    
+    @Override
+    public long getStallThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+    
+    @Override
+    public void setStallThresholdMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Stall threshold must be positive: " + millis);
+        }
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    @Override
+    public long getStallCount() {
+        return stallCount.get();
+    }
+    
+    @Override
+    public String getLastStall() {
+        return lastStall;
+    }
+    
+    private void watch() {
+        // Registered here rather than in install, loading JMX would hold up the first frame
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.codesphere:type=EdtWatchdog"));
+        } catch (JMException e) {
+            System.err.println("EDT watchdog not registered with JMX: " + e.getMessage());
+        }
+        long reported = 0;
+        while (true) {
+            try {
+                synchronized (lock) {
+                    while (!enabled) {
+                        lock.wait();
+                    }
+                }
+                Thread.sleep(Math.max(10, TimeUnit.NANOSECONDS.toMillis(thresholdNanos) / 4));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStart;
+            if (start == 0 || start == reported || System.nanoTime() - start < thresholdNanos) {
+                continue;
+            }
+            reported = start;
+            Stall stall = new Stall(start, dispatchThread.getStackTrace());
+            pending.set(stall);
+            // The dispatch may have ended before the stall was posted, then it is reported here
+            if (dispatchStart != start && pending.compareAndSet(stall, null)) {
+                report(stall, null);
+            }
+        }
+    }
+    
+    private void report(Stall stall, AWTEvent event) {
+        long blockedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stall.start);
+        StringBuilder stack = new StringBuilder();
+        for (StackTraceElement frame : stall.stack) {
+            // Below the code handling the event is only AWT dispatching it
+            if (frame.getClassName().startsWith(EventQueue.class.getName())) {
+                break;
+            }
+            stack.append("\n\tat ").append(frame);
+        }
+        String description = event == null ? "an event" : event.toString();
+        String report = "EDT blocked for " + blockedMillis + " ms by " + description + ", it was at:" + stack;
+        stallCount.incrementAndGet();
+        lastStall = report;
+        System.err.println(report);
+        
+        EdtStallEvent recorded = new EdtStallEvent();
+        if (recorded.shouldCommit()) {
+            recorded.blockedMillis = blockedMillis;
+            recorded.event = description;
+            recorded.stack = stack.toString().trim();
+            recorded.commit();
+        }
+    }
+    
+    private static final class Stall {
+        final long start;
+        final StackTraceElement[] stack;
+        
+        Stall(long start, StackTraceElement[] stack) {
+            this.start = start;
+            this.stack = stack;
+        }
+    }
+    
+    private final class MonitoredQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            if (!enabled) {
+                super.dispatchEvent(event);
+                return;
+            }
+            Thread current = Thread.currentThread();
+            if (dispatchThread != current) {
+                dispatchThread = current;
+            }
+            dispatchStart = System.nanoTime();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                // A modal dialog dispatches nested events from inside this one, so what is
+                // left of this dispatch after one of them goes unwatched
+                dispatchStart = 0;
+                if (pending.get() != null) {
+                    Stall stall = pending.getAndSet(null);
+                    if (stall != null) {
+                        report(stall, event);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.codesphere.diag;
+
+/**
+ * JMX view of the {@link EdtWatchdog}, registered as com.codesphere:type=EdtWatchdog, so it can
+ * be switched off or retuned from jconsole on a running editor.
+ */
+public interface EdtWatchdogMXBean {
+    
+    boolean isEnabled();
+    
+    void setEnabled(boolean enabled);
+    
+    long getStallThresholdMillis();
+    
+    void setStallThresholdMillis(long millis);
+    
+    long getStallCount();
+    
+    // The report of the most recent stall, or null
+    String getLastStall();
+}
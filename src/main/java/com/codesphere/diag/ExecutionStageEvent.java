@@ -0,0 +1,49 @@
+package com.codesphere.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One stage of running code, recorded by JDK Flight Recorder: writing the source out, compiling
+ * it (or finding it in the build cache), running it and deleting its workspace. Costs a field
+ * check when no recording has the event enabled, so it stays in production builds; start one
+ * with -XX:StartFlightRecording or jcmd &lt;pid&gt; JFR.start and stop it the same way.
+ */
+@Name("com.codesphere.ExecutionStage")
+@Label("Execution Stage")
+@Category({"CodeSphere", "Execution"})
+@Description("A stage of compiling and running user code")
+public final class ExecutionStageEvent extends Event {
+    
+    public static final String WRITE = "write";
+    public static final String COMPILE = "compile";
+    public static final String RUN = "run";
+    public static final String CLEANUP = "cleanup";
+    
+    @Label("Language")
+    @Description("Null for cleanup, which runs on the workspace cleaner after the program is done")
+    private String language;
+    
+    @Label("Stage")
+    private String stage;
+    
+    @Label("Cache Hit")
+    @Description("Whether compiling was skipped because the build cache had the result")
+    private boolean cacheHit;
+    
+    // Started; commit it when the stage is over
+    public static ExecutionStageEvent start(String language, String stage) {
+        ExecutionStageEvent event = new ExecutionStageEvent();
+        event.language = language;
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+    
+    public void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+}
@@ -0,0 +1,49 @@
+package com.codesphere.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.nio.file.Path;
+
+/**
+ * Opening or saving a source file or a whiteboard, recorded by JDK Flight Recorder. Like the
+ * other events here it is free unless a recording enables it.
+ */
+@Name("com.codesphere.FileIO")
+@Label("File I/O")
+@Category({"CodeSphere", "Files"})
+@Description("A source file or whiteboard read or written by the editor")
+public final class FileIoEvent extends Event {
+    
+    public static final String OPEN_CODE = "open code";
+    public static final String SAVE_CODE = "save code";
+    public static final String OPEN_BOARD = "open board";
+    public static final String SAVE_BOARD = "save board";
+    
+    @Label("Operation")
+    private String operation;
+    
+    @Label("Path")
+    private String path;
+    
+    @Label("Size")
+    @DataAmount
+    private long bytes = -1;
+    
+    // Started; commit it when the file is done with
+    public static FileIoEvent start(String operation, Path file) {
+        FileIoEvent event = new FileIoEvent();
+        event.operation = operation;
+        event.path = file.toString();
+        event.begin();
+        return event;
+    }
+    
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+}
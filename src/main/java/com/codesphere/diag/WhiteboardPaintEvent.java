@@ -0,0 +1,34 @@
+package com.codesphere.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One repaint of the whiteboard, recorded by JDK Flight Recorder with the size of the area
+ * repainted, so slow frames can be told apart from large ones.
+ */
+@Name("com.codesphere.WhiteboardPaint")
+@Label("Whiteboard Paint")
+@Category({"CodeSphere", "UI"})
+@Description("A repaint of the whiteboard panel")
+public final class WhiteboardPaintEvent extends Event {
+    
+    @Label("Width")
+    private int width;
+    
+    @Label("Height")
+    private int height;
+    
+    @Label("Zoom")
+    private double zoom;
+    
+    // Call when shouldCommit(), so a paint with no recording on does no more than check
+    public void setArea(int width, int height, double zoom) {
+        this.width = width;
+        this.height = height;
+        this.zoom = zoom;
+    }
+}
@@ -0,0 +1,569 @@
+package com.codesphere.editor;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps the editor's text safe across crashes. Every edit is appended to a journal as it is made,
+ * so autosave costs the size of the edit, not of the file; the journal is written and synced in
+ * batches on a background thread. Once the journal outgrows the document it is folded into a new
+ * snapshot. On the next start the text is rebuilt from the latest snapshot and its journal.
+ *
+ * A document opened from a file is not copied: its snapshot only names the file, which must be
+ * unchanged to recover. Saving over that file therefore first takes a real snapshot, see
+ * {@link #beforeOverwrite(Path)}.
+ *
+ * A session is clean while its text is saved: from when it starts, when its text is written to a
+ * file, see {@link #saved(long)}, or when the window is closed normally, see {@link #markClean()},
+ * until the next edit. Only a session left with unsaved edits is recovered.
+ *
+ * Journal records are [type][offset][length][UTF-8 text of an insert][CRC32]; recovery stops
+ * at the first torn or corrupt record and keeps the edits before it.
+ *
+ * Settings (system properties):
+ * codesphere.autosave - false turns autosave off, default true
+ * codesphere.autosave.dir - where snapshots and journals are kept, default ~/.codesphere/autosave
+ * codesphere.autosave.syncMillis - how often the journal is written and synced, default 1000
+ * codesphere.autosave.compactMb - journal size at which it is folded into a snapshot, default 4,
+ * or the document's size if that is larger
+ */
+public class Autosave implements DocumentListener, Closeable {
+    
+    private static final int MAGIC = 0x43534153; // "CSAS"
+    private static final byte VERSION = 1;
+    private static final byte TEXT = 0;
+    private static final byte FILE = 1;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    // Type, offset and length
+    private static final int RECORD_HEADER = 9;
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String JOURNAL = "journal-";
+    // Present while the generation's text is saved
+    private static final String CLEAN = "clean-";
+    
+    private final Path dir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final long compactBytes;
+    private final ScheduledExecutorService writer;
+    
+    // EDT state
+    private CodeDocument document;
+    // The file the current snapshot names, or null for a snapshot holding the text
+    private Path snapshotSource;
+    private long journalBytes;
+    private CodeDocument recovered;
+    private Path recoveredSource;
+    private final Segment inserted = new Segment();
+    // Counts edits and documents tracked, to tell whether the text saved is still the text
+    private long edits;
+    
+    // Writer thread state
+    private long generation;
+    private FileChannel journal;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    // Set when a new session could not be started, so its edits have nowhere to go
+    private boolean stopped;
+    private boolean clean;
+    
+    private Autosave(Path dir, FileChannel lockChannel, FileLock lock) {
+        this.dir = dir;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.compactBytes = Long.getLong("codesphere.autosave.compactMb", 4) * 1024 * 1024;
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long syncMillis = Math.max(10, Long.getLong("codesphere.autosave.syncMillis", 1000));
+        writer.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // Null when autosave is turned off or another instance holds the directory
+    public static Autosave open() {
+        if (!Boolean.parseBoolean(System.getProperty("codesphere.autosave", "true"))) {
+            return null;
+        }
+        String configured = System.getProperty("codesphere.autosave.dir");
+        Path dir = configured != null ? Paths.get(configured) : Paths.get(System.getProperty("user.home"), ".codesphere", "autosave");
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(dir);
+            channel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                System.err.println("Autosave disabled: " + dir + " is in use by another window");
+                return null;
+            }
+            return new Autosave(dir, channel, lock);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            System.err.println("Autosave disabled: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // The text left by the last session, or null if there is none; call off the EDT, then pass
+    // the document to track to carry on with its journal
+    public CodeDocument recover() throws IOException {
+        try {
+            return writer.submit(this::readLatest).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+    
+    // Journals the document's edits from now on. A recovered document continues its journal, any
+    // other starts a new snapshot: of the file it was opened from, if any, or of its text.
+    // EDT only.
+    public void track(CodeDocument document, Path source) {
+        if (this.document != null) {
+            this.document.removeDocumentListener(this);
+        }
+        this.document = document;
+        document.addDocumentListener(this);
+        journalBytes = 0;
+        edits++;
+        if (document == recovered) {
+            snapshotSource = recoveredSource;
+        } else {
+            Path file = source == null ? null : source.toAbsolutePath().normalize();
+            PieceTable.Text text = file == null ? document.snapshot() : null;
+            snapshotSource = file;
+            writer.execute(() -> startGeneration(text, file, false));
+        }
+        recovered = null;
+        recoveredSource = null;
+    }
+    
+    // Call on the EDT before writing to the file; if the snapshot only names it, the returned
+    // future completes once the text itself has been snapshotted, and the file may then be replaced
+    public Future<?> beforeOverwrite(Path file) {
+        if (document == null || snapshotSource == null || !snapshotSource.equals(file.toAbsolutePath().normalize())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return compact();
+    }
+    
+    // Call on the EDT when taking the text to save, and pass the result to saved once it is written
+    public long checkpoint() {
+        return edits;
+    }
+    
+    // EDT only. Marks the session clean unless it has been edited since the checkpoint.
+    public void saved(long checkpoint) {
+        if (checkpoint == edits) {
+            markClean();
+        }
+    }
+    
+    // EDT only. Nothing is recovered from the session unless it is edited again.
+    public void markClean() {
+        writer.execute(this::writeClean);
+    }
+    
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        byte[] text;
+        try {
+            document.getText(offset, e.getLength(), inserted);
+            text = inserted.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + text.length + 4);
+        record.put(INSERT).putInt(offset).putInt(text.length).put(text);
+        append(record);
+    }
+    
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + 4);
+        record.put(REMOVE).putInt(e.getOffset()).putInt(e.getLength());
+        append(record);
+    }
+    
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+    
+    private void append(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        byte[] bytes = record.array();
+        writer.execute(() -> {
+            if (!stopped) {
+                pending.write(bytes, 0, bytes.length);
+            }
+        });
+        journalBytes += bytes.length;
+        edits++;
+        if (journalBytes >= Math.max(compactBytes, document.getLength())) {
+            compact();
+        }
+    }
+    
+    // Folds the journal into a snapshot of the text as it is now
+    private Future<?> compact() {
+        PieceTable.Text text = document.snapshot();
+        snapshotSource = null;
+        journalBytes = 0;
+        return writer.submit(() -> startGeneration(text, null, true));
+    }
+    
+    // Writes out the journal and syncs it, then closes it. Safe to call from a shutdown hook.
+    @Override
+    public void close() {
+        try {
+            writer.submit(() -> {
+                sync();
+                closeQuietly(journal);
+                journal = null;
+                stopped = true;
+            }).get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Autosave could not finish: " + e);
+        }
+        writer.shutdown();
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // The lock goes with the process anyway
+        }
+        closeQuietly(lockChannel);
+    }
+    
+    // Writer thread
+    
+    private void sync() {
+        if (journal == null || pending.size() == 0) {
+            return;
+        }
+        try {
+            // Unmarked first: a crash in between only recovers text that was saved
+            if (clean) {
+                Files.deleteIfExists(dir.resolve(CLEAN + generation));
+                clean = false;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(pending.toByteArray());
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            journal.force(false);
+            pending.reset();
+        } catch (IOException e) {
+            System.err.println("Autosave stopped: " + e.getMessage());
+            closeQuietly(journal);
+            journal = null;
+            stopped = true;
+        }
+    }
+    
+    // Marked after the edits before it are written, so they are never lost to a crash in between
+    private void writeClean() {
+        sync();
+        if (journal == null || clean) {
+            return;
+        }
+        try {
+            Files.write(dir.resolve(CLEAN + generation), new byte[0]);
+            clean = true;
+        } catch (IOException e) {
+            System.err.println("Autosave could not mark the session saved: " + e.getMessage());
+        }
+    }
+    
+    // Writes a snapshot for the next generation and starts its empty journal. If that fails a
+    // compaction keeps appending to the current journal, which still leads to the same text.
+    // A new session starts clean, a compaction leaves it as it was.
+    private void startGeneration(PieceTable.Text text, Path file, boolean compaction) {
+        long next = generation + 1;
+        boolean nextClean = !compaction || clean;
+        Path snapshot = dir.resolve(SNAPSHOT + next);
+        FileChannel nextJournal = null;
+        try {
+            Path temp = dir.resolve(SNAPSHOT + next + ".tmp");
+            writeSnapshot(temp, text, file);
+            nextJournal = FileChannel.open(dir.resolve(JOURNAL + next), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Path marker = dir.resolve(CLEAN + next);
+            if (nextClean) {
+                Files.write(marker, new byte[0]);
+            } else {
+                Files.deleteIfExists(marker);
+            }
+            move(temp, snapshot);
+        } catch (IOException e) {
+            closeQuietly(nextJournal);
+            System.err.println("Autosave snapshot failed: " + e.getMessage());
+            if (!compaction) {
+                stopped = true;
+                pending.reset();
+            }
+            return;
+        }
+        closeQuietly(journal);
+        journal = nextJournal;
+        pending.reset();
+        stopped = false;
+        clean = nextClean;
+        deleteGeneration(generation);
+        generation = next;
+    }
+    
+    private void writeSnapshot(Path temp, PieceTable.Text text, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc)));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            if (file != null) {
+                out.writeByte(FILE);
+                out.writeUTF(file.toString());
+                out.writeLong(Files.size(file));
+                out.writeLong(Files.getLastModifiedTime(file).toMillis());
+            } else {
+                out.writeByte(TEXT);
+                out.writeInt(text.length());
+                Writer chars = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                text.writeTo(chars);
+                chars.flush();
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+    }
+    
+    // The newest generation that can be read, with its journal replayed, or null if the newest
+    // was left clean; older ones are removed
+    private CodeDocument readLatest() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                try {
+                    generations.add(Long.parseLong(name.substring(SNAPSHOT.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(generations, Collections.reverseOrder());
+        CodeDocument document = null;
+        boolean settled = false;
+        for (long candidate : generations) {
+            if (!settled) {
+                // The text the last session ended with was saved, the older ones are superseded
+                settled = Files.exists(dir.resolve(CLEAN + candidate));
+            }
+            if (!settled) {
+                try {
+                    document = readSnapshot(dir.resolve(SNAPSHOT + candidate));
+                } catch (IOException e) {
+                    System.err.println("Skipping autosave snapshot " + candidate + ": " + e.getMessage());
+                }
+                if (document != null) {
+                    journal = replay(document, dir.resolve(JOURNAL + candidate));
+                    generation = candidate;
+                    stopped = false;
+                    clean = false;
+                    settled = true;
+                    continue;
+                }
+            }
+            deleteGeneration(candidate);
+        }
+        generation = Math.max(generation, generations.isEmpty() ? 0 : generations.get(0));
+        recovered = document;
+        return document;
+    }
+    
+    private CodeDocument readSnapshot(Path snapshot) throws IOException {
+        checkCrc(snapshot);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("not an autosave snapshot");
+            }
+            byte kind = in.readByte();
+            if (kind == FILE) {
+                Path file = Paths.get(in.readUTF());
+                long length = in.readLong();
+                long modified = in.readLong();
+                if (!Files.exists(file) || Files.size(file) != length || Files.getLastModifiedTime(file).toMillis() != modified) {
+                    throw new IOException(file + " has changed since");
+                }
+                recoveredSource = file;
+                return CodeFiles.open(file);
+            }
+            if (kind != TEXT) {
+                throw new IOException("unknown snapshot kind " + kind);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("bad length " + count);
+            }
+            char[] chars = new char[count];
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            for (int read = 0; read < count; ) {
+                int n = reader.read(chars, read, count - read);
+                if (n < 0) {
+                    throw new EOFException("snapshot is truncated");
+                }
+                read += n;
+            }
+            recoveredSource = null;
+            return CodeFiles.document(chars, count);
+        }
+    }
+    
+    // The last four bytes are the CRC32 of the rest
+    private static void checkCrc(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size() - 4;
+            if (length < 0) {
+                throw new EOFException("snapshot is truncated");
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (long at = 0; at < length; ) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - at));
+                int n = channel.read(buffer, at);
+                if (n < 0) {
+                    throw new EOFException("snapshot is truncated");
+                }
+                buffer.flip();
+                crc.update(buffer);
+                at += n;
+            }
+            buffer.clear().limit(4);
+            while (buffer.hasRemaining() && channel.read(buffer, length + buffer.position()) >= 0) {
+                // Read the stored CRC
+            }
+            if (buffer.hasRemaining() || buffer.getInt(0) != (int) crc.getValue()) {
+                throw new IOException("snapshot is corrupt");
+            }
+        }
+    }
+    
+    // Applies the journal's intact records and returns it open for appending after them
+    private static FileChannel replay(CodeDocument document, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long valid = 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            CRC32 crc = new CRC32();
+            byte[] header = new byte[RECORD_HEADER];
+            while (size - valid >= RECORD_HEADER + 4) {
+                in.readFully(header);
+                ByteBuffer fields = ByteBuffer.wrap(header);
+                byte type = fields.get();
+                int offset = fields.getInt();
+                int length = fields.getInt();
+                byte[] text = null;
+                if (type == INSERT && length >= 0 && length <= size - valid - RECORD_HEADER - 4) {
+                    text = new byte[length];
+                    in.readFully(text);
+                } else if (type != REMOVE) {
+                    break;
+                }
+                crc.reset();
+                crc.update(header);
+                if (text != null) {
+                    crc.update(text);
+                }
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (text != null) {
+                    document.insertString(offset, new String(text, StandardCharsets.UTF_8), null);
+                } else {
+                    document.remove(offset, length);
+                }
+                valid += RECORD_HEADER + (text != null ? text.length : 0) + 4;
+            }
+        } catch (EOFException | BadLocationException e) {
+            // A torn or corrupt record ends the journal
+        }
+        // Later edits go after the last good record
+        channel.truncate(valid);
+        channel.position(valid);
+        return channel;
+    }
+    
+    private void deleteGeneration(long old) {
+        try {
+            Files.deleteIfExists(dir.resolve(SNAPSHOT + old));
+            Files.deleteIfExists(dir.resolve(JOURNAL + old));
+            Files.deleteIfExists(dir.resolve(CLEAN + old));
+        } catch (IOException e) {
+            System.err.println("Could not remove old autosave files: " + e.getMessage());
+        }
+    }
+    
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
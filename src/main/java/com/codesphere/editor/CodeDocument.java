@@ -0,0 +1,236 @@
+package com.codesphere.editor;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import java.util.Arrays;
+
+/**
+ * Plain-text document for the code editor, backed by a {@link PieceTable}. Lines are not
+ * kept as element objects as in {@link PlainDocument}; a {@link LineIndex} holds their start
+ * offsets and line elements are made on request, so a file with millions of lines opens
+ * without creating millions of objects.
+ */
+public class CodeDocument extends AbstractDocument {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final PieceTable text;
+    private final LineIndex lines;
+    private final Element root = new Root();
+    private final Segment scratch = new Segment();
+    
+    public CodeDocument() {
+        this(new PieceTable(), new int[] {0}, 1, 0);
+    }
+    
+    // lineStarts holds the start offset of each line of the text, the first being 0
+    public CodeDocument(PieceTable text, int[] lineStarts, int lineCount, int longestLine) {
+        super(text);
+        this.text = text;
+        this.lines = new LineIndex(lineStarts, lineCount, longestLine);
+        putProperty(PlainDocument.tabSizeAttribute, 4);
+    }
+    
+    // The current text, safe to read from any thread while the document is edited
+    public PieceTable.Text snapshot() {
+        readLock();
+        try {
+            return text.snapshot();
+        } finally {
+            readUnlock();
+        }
+    }
+    
+    // Length of the longest line seen, in chars
+    public int getLongestLine() {
+        return lines.getLongest();
+    }
+    
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+    
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+    
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int offset = chng.getOffset();
+        int length = chng.getLength();
+        int line = lines.lineOf(offset);
+        lines.shiftAfter(line, length);
+        int[] added = null;
+        int count = 0;
+        try {
+            text.getChars(offset, length, scratch);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < length; i++) {
+            if (scratch.array[scratch.offset + i] == '\n') {
+                if (added == null) {
+                    added = new int[8];
+                } else if (count == added.length) {
+                    added = Arrays.copyOf(added, count * 2);
+                }
+                added[count++] = offset + i + 1;
+            }
+        }
+        if (count > 0) {
+            lines.insert(line, added, count);
+            Element[] addedLines = new Element[count + 1];
+            for (int i = 0; i <= count; i++) {
+                addedLines[i] = new Line(line + i);
+            }
+            chng.addEdit(new ElementEdit(root, line, new Element[] {new Line(line)}, addedLines));
+        }
+        for (int i = line; i <= line + count; i++) {
+            lines.noteLength(lineEnd(i) - lines.getStart(i) - 1);
+        }
+        super.insertUpdate(chng, attr);
+    }
+    
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int offset = chng.getOffset();
+        int first = lines.lineOf(offset);
+        int last = lines.lineOf(offset + chng.getLength());
+        if (last > first) {
+            // The lines around the removed text join into one
+            int end = offset + chng.getLength();
+            lines.noteLength(offset - lines.getStart(first) + lineEnd(last) - end - 1);
+            Element[] removed = new Element[last - first + 1];
+            for (int i = first; i <= last; i++) {
+                removed[i - first] = new Line(i);
+            }
+            lines.remove(first + 1, last);
+            chng.addEdit(new ElementEdit(root, first, removed, new Element[] {new Line(first)}));
+        }
+        lines.shiftAfter(first, -chng.getLength());
+        super.removeUpdate(chng);
+    }
+    
+    private int lineEnd(int line) {
+        return line + 1 < lines.getCount() ? lines.getStart(line + 1) : text.length();
+    }
+    
+    // All lines; its children are made on request and describe the line at their index now
+    private final class Root implements Element {
+        @Override
+        public Document getDocument() {
+            return CodeDocument.this;
+        }
+        
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+        
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+        
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+        
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+        
+        @Override
+        public int getEndOffset() {
+            return text.length();
+        }
+        
+        @Override
+        public int getElementIndex(int offset) {
+            return lines.lineOf(Math.max(0, offset));
+        }
+        
+        @Override
+        public int getElementCount() {
+            return lines.getCount();
+        }
+        
+        @Override
+        public Element getElement(int index) {
+            return index >= 0 && index < lines.getCount() ? new Line(index) : null;
+        }
+        
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+    
+    private final class Line implements Element {
+        private final int index;
+        
+        Line(int index) {
+            this.index = index;
+        }
+        
+        @Override
+        public Document getDocument() {
+            return CodeDocument.this;
+        }
+        
+        @Override
+        public Element getParentElement() {
+            return root;
+        }
+        
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+        
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+        
+        @Override
+        public int getStartOffset() {
+            return lines.getStart(Math.min(index, lines.getCount() - 1));
+        }
+        
+        @Override
+        public int getEndOffset() {
+            return lineEnd(Math.min(index, lines.getCount() - 1));
+        }
+        
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+        
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+        
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+        
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
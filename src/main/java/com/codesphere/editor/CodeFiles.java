@@ -0,0 +1,202 @@
+package com.codesphere.editor;
+
+import com.codesphere.diag.FileIoEvent;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reading and writing source files for the editor's Load and Save buttons.
+ *
+ * Large ASCII files are not read at all: the document is built over the mapped file, so only
+ * the pages that are shown or saved are ever touched. Other files are decoded once into a
+ * char array. Either way the only per-line cost is one int in the line index.
+ */
+public class CodeFiles {
+    
+    private static final long MAP_THRESHOLD = 8 * 1024 * 1024;
+    private static final int CHUNK = 64 * 1024;
+    
+    private CodeFiles() {
+    }
+    
+    // Line endings are normalized to \n; call off the EDT, the document is not shared yet
+    public static CodeDocument open(Path file) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        FileIoEvent event = FileIoEvent.start(FileIoEvent.OPEN_CODE, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            event.setBytes(size);
+            if (size > Integer.MAX_VALUE - 16) {
+                throw new IOException("File is too large to edit: " + size + " bytes");
+            }
+            ByteBuffer bytes;
+            if (size > MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // Keep reading until the whole file is in
+                }
+                bytes.flip();
+            }
+            Lines lines = new Lines();
+            if (asciiCompatible(charset) && lines.scanAscii(bytes)) {
+                if (size > MAP_THRESHOLD) {
+                    return lines.document(new PieceTable(bytes));
+                }
+                char[] chars = new char[bytes.remaining()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) bytes.get(i);
+                }
+                return lines.document(new PieceTable(chars, chars.length));
+            }
+            char[] chars = decode(bytes, charset);
+            return document(chars, normalizeLineEndings(chars));
+        } finally {
+            event.commit();
+        }
+    }
+    
+    // A document over the first count chars, which must use \n line endings
+    static CodeDocument document(char[] chars, int count) {
+        Lines lines = new Lines();
+        lines.scan(chars, count);
+        return lines.document(new PieceTable(chars, count));
+    }
+    
+    // Written to a temporary file that replaces the target, so a failed save leaves the old file
+    // intact and a document still reading the old file's mapping is not disturbed
+    public static void write(Path file, CharSequence content) throws IOException {
+        FileIoEvent event = FileIoEvent.start(FileIoEvent.SAVE_CODE, file);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), Charset.defaultCharset()));
+                if (content instanceof PieceTable.Text) {
+                    ((PieceTable.Text) content).writeTo(writer);
+                } else {
+                    writer.append(content);
+                }
+                writer.flush();
+                // On disk before the rename, or a power cut could leave the file empty
+                channel.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            if (event.isEnabled()) {
+                event.setBytes(Files.size(temp));
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            event.commit();
+        }
+    }
+    
+    // Whether ASCII text reads the same in the charset, so bytes can be used as chars
+    private static boolean asciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    }
+    
+    private static char[] decode(ByteBuffer bytes, Charset charset) throws CharacterCodingException {
+        CharBuffer chars = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        if (chars.hasArray() && chars.arrayOffset() == 0 && chars.position() == 0 && chars.limit() == chars.array().length) {
+            return chars.array();
+        }
+        char[] exact = new char[chars.remaining()];
+        chars.get(exact);
+        return exact;
+    }
+    
+    // Turns \r\n and lone \r into \n in place and returns the new length
+    private static int normalizeLineEndings(char[] chars) {
+        int out = 0;
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (c == '\r') {
+                if (i + 1 < chars.length && chars[i + 1] == '\n') {
+                    continue;
+                }
+                c = '\n';
+            }
+            chars[out++] = c;
+        }
+        return out;
+    }
+    
+    // Line starts and the longest line, gathered in one pass over the text
+    private static final class Lines {
+        private int[] starts = new int[1024];
+        private int count = 1;
+        private int longest;
+        
+        // False when the bytes are not plain ASCII with \n line endings
+        boolean scanAscii(ByteBuffer bytes) {
+            byte[] chunk = new byte[CHUNK];
+            ByteBuffer source = bytes.duplicate();
+            int at = 0;
+            while (source.hasRemaining()) {
+                int n = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, n);
+                for (int i = 0; i < n; i++) {
+                    byte b = chunk[i];
+                    if (b == '\n') {
+                        lineStart(at + i + 1);
+                    } else if (b < 0 || b == '\r') {
+                        return false;
+                    }
+                }
+                at += n;
+            }
+            longest = Math.max(longest, at - starts[count - 1]);
+            return true;
+        }
+        
+        void scan(char[] chars, int length) {
+            for (int i = 0; i < length; i++) {
+                if (chars[i] == '\n') {
+                    lineStart(i + 1);
+                }
+            }
+            longest = Math.max(longest, length - starts[count - 1]);
+        }
+        
+        private void lineStart(int offset) {
+            longest = Math.max(longest, offset - 1 - starts[count - 1]);
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = offset;
+        }
+        
+        CodeDocument document(PieceTable text) {
+            return new CodeDocument(text, starts, count, longest);
+        }
+    }
+}
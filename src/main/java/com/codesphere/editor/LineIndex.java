@@ -0,0 +1,114 @@
+package com.codesphere.editor;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of the document's lines. An edit moves every line after it, so instead of
+ * rewriting them all the shift is kept pending for the lines past a boundary and only the
+ * lines between the old and the new boundary are touched; typing in one place costs O(1).
+ * Adding or removing lines still moves the array tail, which is one memmove.
+ */
+class LineIndex {
+    
+    private int[] starts;
+    private int count;
+    // Lines from shiftFrom on still need shift added
+    private int shiftFrom;
+    private int shift;
+    private int longest;
+    
+    LineIndex(int[] starts, int count, int longest) {
+        this.starts = starts;
+        this.count = count;
+        this.longest = longest;
+        shiftFrom = count;
+    }
+    
+    int getCount() {
+        return count;
+    }
+    
+    int getStart(int line) {
+        return line >= shiftFrom ? starts[line] + shift : starts[line];
+    }
+    
+    // Length of the longest line seen, in chars; only grows, so deleting text can leave it high
+    int getLongest() {
+        return longest;
+    }
+    
+    // The line holding the offset
+    int lineOf(int offset) {
+        int low = 0, high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    // Moves every line after the given one by delta
+    void shiftAfter(int line, int delta) {
+        int from = line + 1;
+        if (shift == 0) {
+            shiftFrom = from;
+        } else if (from <= shiftFrom) {
+            // The lines up to the old boundary only move by this delta
+            for (int i = from; i < shiftFrom; i++) {
+                starts[i] += delta;
+            }
+        } else {
+            // The lines up to the new boundary only move by the pending shift
+            for (int i = shiftFrom; i < from && i < count; i++) {
+                starts[i] += shift;
+            }
+            shiftFrom = from;
+        }
+        shift += delta;
+        if (shiftFrom >= count) {
+            shiftFrom = count;
+            shift = 0;
+        }
+    }
+    
+    // Adds lines starting at the given offsets right after the given line
+    void insert(int line, int[] newStarts, int newCount) {
+        settleFrom(line + 1);
+        if (count + newCount > starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(starts.length * 2, count + newCount));
+        }
+        System.arraycopy(starts, line + 1, starts, line + 1 + newCount, count - line - 1);
+        System.arraycopy(newStarts, 0, starts, line + 1, newCount);
+        count += newCount;
+        shiftFrom += newCount;
+    }
+    
+    // Removes lines first to last
+    void remove(int first, int last) {
+        settleFrom(first);
+        System.arraycopy(starts, last + 1, starts, first, count - last - 1);
+        count -= last - first + 1;
+        shiftFrom = Math.max(first, shiftFrom - (last - first + 1));
+    }
+    
+    void noteLength(int chars) {
+        longest = Math.max(longest, chars);
+    }
+    
+    // Makes the lines before the given one hold their real offsets
+    private void settleFrom(int line) {
+        if (shiftFrom < line) {
+            for (int i = shiftFrom; i < line && i < count; i++) {
+                starts[i] += shift;
+            }
+            shiftFrom = Math.min(line, count);
+        }
+        if (shiftFrom >= count) {
+            shift = 0;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.codesphere.editor;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Editor text as a piece table: the loaded file is never copied or changed, typed text is
+ * appended to a separate buffer, and the document is a list of pieces pointing into the two.
+ * Opening a file costs nothing per character, an edit costs O(pieces), and consecutive typing
+ * extends the last piece instead of adding new ones.
+ *
+ * Since both buffers only ever grow, a {@link Text} snapshot is just a copy of the piece list;
+ * it stays valid while the document is edited and can be read from any thread.
+ *
+ * The loaded text is either chars or, for large ASCII files, the file's mapped bytes.
+ * Like every Content, it ends with an implied newline that is not part of the document.
+ */
+public class PieceTable implements AbstractDocument.Content {
+    
+    private static final byte ORIGINAL = 0;
+    private static final byte ADDED = 1;
+    private static final int CHUNK = 8192;
+    
+    private final char[] originalChars;
+    private final ByteBuffer originalBytes;
+    private char[] added = new char[256];
+    private int addedLength;
+    // Pieces in document order: which buffer, where in it, how long, and where in the document
+    private byte[] sources = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int[] offsets = new int[16];
+    private int pieces;
+    private int length;
+    private final List<WeakReference<Mark>> marks = new ArrayList<>();
+    
+    public PieceTable() {
+        this(null, null, 0);
+    }
+    
+    public PieceTable(char[] chars, int count) {
+        this(chars, null, count);
+    }
+    
+    // bytes must be ASCII, one char per byte
+    public PieceTable(ByteBuffer bytes) {
+        this(null, bytes, bytes.remaining());
+    }
+    
+    private PieceTable(char[] chars, ByteBuffer bytes, int count) {
+        originalChars = chars;
+        originalBytes = bytes == null ? null : bytes.slice();
+        if (count > 0) {
+            insertPiece(0, ORIGINAL, 0, count, 0);
+            length = count;
+        }
+        append(count, "\n");
+    }
+    
+    private static final class Mark implements Position {
+        int offset;
+        
+        Mark(int offset) {
+            this.offset = offset;
+        }
+        
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+    
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        Mark mark = new Mark(offset);
+        marks.add(new WeakReference<>(mark));
+        return mark;
+    }
+    
+    @Override
+    public int length() {
+        return length;
+    }
+    
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (str.isEmpty()) {
+            return null;
+        }
+        append(where, str);
+        // As with the JDK contents, marks at the insertion point move with it, except at 0
+        int from = where == 0 ? 1 : where;
+        updateMarks(mark -> {
+            if (mark.offset >= from) {
+                mark.offset += str.length();
+            }
+        });
+        return null;
+    }
+    
+    private void append(int where, String str) {
+        int start = addedLength;
+        if (addedLength + str.length() > added.length) {
+            added = Arrays.copyOf(added, Math.max(added.length * 2, addedLength + str.length()));
+        }
+        str.getChars(0, str.length(), added, addedLength);
+        addedLength += str.length();
+        int before = where == 0 ? -1 : find(where - 1);
+        if (before >= 0 && sources[before] == ADDED && starts[before] + lengths[before] == start
+                && offsets[before] + lengths[before] == where) {
+            // Typing: the text continues the piece just before it
+            lengths[before] += str.length();
+            shiftOffsets(before + 1, str.length());
+        } else {
+            int index = split(where);
+            insertPiece(index, ADDED, start, str.length(), where);
+            shiftOffsets(index + 1, str.length());
+        }
+        length += str.length();
+    }
+    
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length) {
+            throw new BadLocationException("Invalid remove", where + nitems);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+        int first = split(where);
+        int end = split(where + nitems);
+        System.arraycopy(sources, end, sources, first, pieces - end);
+        System.arraycopy(starts, end, starts, first, pieces - end);
+        System.arraycopy(lengths, end, lengths, first, pieces - end);
+        System.arraycopy(offsets, end, offsets, first, pieces - end);
+        pieces -= end - first;
+        length -= nitems;
+        shiftOffsets(first, -nitems);
+        int last = where + nitems;
+        updateMarks(mark -> {
+            if (mark.offset >= last) {
+                mark.offset -= nitems;
+            } else if (mark.offset >= where) {
+                mark.offset = where;
+            }
+        });
+        return null;
+    }
+    
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        check(where, len);
+        char[] chars = new char[len];
+        copy(where, len, chars, 0);
+        return new String(chars);
+    }
+    
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        check(where, len);
+        if (len > 0) {
+            int piece = find(where);
+            int inPiece = where - offsets[piece];
+            if (inPiece + len <= lengths[piece] && (sources[piece] == ADDED || originalChars != null)) {
+                // Inside one piece of chars: point the segment at it rather than copying
+                txt.array = sources[piece] == ADDED ? added : originalChars;
+                txt.offset = starts[piece] + inPiece;
+                txt.count = len;
+                return;
+            }
+        }
+        char[] chars = new char[len];
+        copy(where, len, chars, 0);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+    
+    // The document as it is now, without the implied newline
+    public Text snapshot() {
+        return new Text(originalChars, originalBytes, added, Arrays.copyOf(sources, pieces), Arrays.copyOf(starts, pieces),
+                Arrays.copyOf(lengths, pieces), Arrays.copyOf(offsets, pieces), pieces, length - 1);
+    }
+    
+    public int getPieceCount() {
+        return pieces;
+    }
+    
+    private void check(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length) {
+            throw new BadLocationException("Invalid range", where + len);
+        }
+    }
+    
+    private void copy(int where, int len, char[] into, int at) {
+        copy(originalChars, originalBytes, added, sources, starts, lengths, offsets, pieces, where, len, into, at);
+    }
+    
+    private static void copy(char[] originalChars, ByteBuffer originalBytes, char[] added, byte[] sources, int[] starts,
+            int[] lengths, int[] offsets, int pieces, int where, int len, char[] into, int at) {
+        int piece = find(offsets, pieces, where);
+        int inPiece = where - offsets[piece];
+        while (len > 0) {
+            int count = Math.min(len, lengths[piece] - inPiece);
+            int from = starts[piece] + inPiece;
+            if (sources[piece] == ADDED) {
+                System.arraycopy(added, from, into, at, count);
+            } else if (originalChars != null) {
+                System.arraycopy(originalChars, from, into, at, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    into[at + i] = (char) originalBytes.get(from + i);
+                }
+            }
+            at += count;
+            len -= count;
+            piece++;
+            inPiece = 0;
+        }
+    }
+    
+    // Index of the piece holding the document offset
+    private int find(int offset) {
+        return find(offsets, pieces, offset);
+    }
+    
+    private static int find(int[] offsets, int pieces, int offset) {
+        int low = 0, high = pieces - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    // Makes a piece start at the offset and returns its index; pieces at or past the end return pieces
+    private int split(int offset) {
+        if (offset >= length) {
+            return pieces;
+        }
+        int piece = find(offset);
+        int inPiece = offset - offsets[piece];
+        if (inPiece == 0) {
+            return piece;
+        }
+        insertPiece(piece + 1, sources[piece], starts[piece] + inPiece, lengths[piece] - inPiece, offset);
+        lengths[piece] = inPiece;
+        return piece + 1;
+    }
+    
+    // Adds a piece without moving the ones after it; callers shift offsets as needed
+    private void insertPiece(int index, byte source, int start, int count, int offset) {
+        if (pieces == sources.length) {
+            int capacity = pieces * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        System.arraycopy(sources, index, sources, index + 1, pieces - index);
+        System.arraycopy(starts, index, starts, index + 1, pieces - index);
+        System.arraycopy(lengths, index, lengths, index + 1, pieces - index);
+        System.arraycopy(offsets, index, offsets, index + 1, pieces - index);
+        pieces++;
+        sources[index] = source;
+        starts[index] = start;
+        lengths[index] = count;
+        offsets[index] = offset;
+    }
+    
+    private void shiftOffsets(int from, int delta) {
+        for (int i = from; i < pieces; i++) {
+            offsets[i] += delta;
+        }
+    }
+    
+    private interface MarkUpdate {
+        void apply(Mark mark);
+    }
+    
+    // Applies the update to live marks and drops the ones nobody holds any more
+    private void updateMarks(MarkUpdate update) {
+        int kept = 0;
+        for (int i = 0; i < marks.size(); i++) {
+            WeakReference<Mark> ref = marks.get(i);
+            Mark mark = ref.get();
+            if (mark != null) {
+                update.apply(mark);
+                marks.set(kept++, ref);
+            }
+        }
+        marks.subList(kept, marks.size()).clear();
+    }
+    
+    /**
+     * Immutable view of the document at the time it was taken. Sequential reads stay within
+     * a piece, so charAt is O(1) for them; writeTo streams the text without building a String.
+     */
+    public static final class Text implements CharSequence {
+        private final char[] originalChars;
+        private final ByteBuffer originalBytes;
+        private final char[] added;
+        private final byte[] sources;
+        private final int[] starts;
+        private final int[] lengths;
+        private final int[] offsets;
+        private final int pieces;
+        private final int length;
+        // Last piece read, as a hint for the next charAt
+        private int piece;
+        
+        private Text(char[] originalChars, ByteBuffer originalBytes, char[] added, byte[] sources, int[] starts,
+                int[] lengths, int[] offsets, int pieces, int length) {
+            this.originalChars = originalChars;
+            this.originalBytes = originalBytes;
+            this.added = added;
+            this.sources = sources;
+            this.starts = starts;
+            this.lengths = lengths;
+            this.offsets = offsets;
+            this.pieces = pieces;
+            this.length = length;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            int p = piece;
+            if (index < offsets[p] || index >= offsets[p] + lengths[p]) {
+                p = find(offsets, pieces, index);
+                piece = p;
+            }
+            int at = starts[p] + index - offsets[p];
+            if (sources[p] == ADDED) {
+                return added[at];
+            }
+            return originalChars != null ? originalChars[at] : (char) originalBytes.get(at);
+        }
+        
+        // Copies chars [start, end) into dst, like String.getChars
+        public void getChars(int start, int end, char[] dst, int dstBegin) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            if (start < end) {
+                copy(originalChars, originalBytes, added, sources, starts, lengths, offsets, pieces, start, end - start, dst, dstBegin);
+            }
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return new String(chars);
+        }
+        
+        public void writeTo(Writer writer) throws IOException {
+            char[] chunk = new char[CHUNK];
+            for (int at = 0; at < length; at += CHUNK) {
+                int count = Math.min(CHUNK, length - at);
+                getChars(at, at + count, chunk, 0);
+                writer.write(chunk, 0, count);
+            }
+        }
+        
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            getChars(0, length, chars, 0);
+            return new String(chars);
+        }
+    }
+}
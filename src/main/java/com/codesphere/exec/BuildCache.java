@@ -0,0 +1,204 @@
+package com.codesphere.exec;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for compiled artifacts (Java class bytes, C++ binaries).
+ *
+ * Entries are keyed by a hash of language, compiler flags and source, and are evicted
+ * least-recently-used first once the cache grows past its size cap. The modification
+ * time of each file doubles as its last-use time, so the order survives restarts.
+ *
+ * Binaries are never run from the cache: {@link #lookup(String, Path)} links or copies them
+ * into the run's workspace, so evicting an entry cannot pull a binary from under a run.
+ */
+public class BuildCache {
+    
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    
+    private final Path root;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long totalBytes;
+    
+    public BuildCache(Path root) throws IOException {
+        this(root, Long.getLong("codesphere.cache.maxBytes", DEFAULT_MAX_BYTES));
+    }
+    
+    public BuildCache(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        loadIndex();
+    }
+    
+    public static String key(String language, String flags, String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(language.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(flags.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    // Returns the cached artifact and marks it as recently used, or null on a miss
+    public synchronized Path lookup(String key) {
+        Path file = root.resolve(key);
+        if (entries.get(key) == null || !Files.exists(file)) {
+            entries.remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Only the persisted LRU order suffers
+        }
+        hits.incrementAndGet();
+        return file;
+    }
+    
+    // Links or copies the cached artifact to target and marks it as recently used; false on a miss
+    public synchronized boolean lookup(String key, Path target) throws IOException {
+        Path file = lookup(key);
+        if (file == null) {
+            return false;
+        }
+        linkOrCopy(file, target);
+        return true;
+    }
+    
+    // Adds a copy of a freshly built artifact, which stays where it is
+    public synchronized void storeCopy(String key, Path artifact) throws IOException {
+        Path temp = root.resolve(key + "." + System.nanoTime() + ".tmp");
+        linkOrCopy(artifact, temp);
+        store(key, temp);
+    }
+    
+    // A hard link when both are on one file system, which costs no space
+    private static void linkOrCopy(Path from, Path to) throws IOException {
+        try {
+            Files.createLink(to, from);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+    
+    // Moves a freshly built artifact into the cache and returns its new location
+    public synchronized Path store(String key, Path artifact) throws IOException {
+        Path file = root.resolve(key);
+        try {
+            Files.move(artifact, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Built on another file system (tmpfs workspace), copy next to the cache first
+            Path temp = Files.createTempFile(root, key, ".tmp");
+            Files.copy(artifact, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(artifact);
+        }
+        add(key, Files.size(file));
+        return file;
+    }
+    
+    public synchronized Path store(String key, byte[] bytes) throws IOException {
+        Path temp = Files.createTempFile(root, key, ".tmp");
+        Files.write(temp, bytes);
+        return store(key, temp);
+    }
+    
+    public Map<String, byte[]> lookupClasses(String key) throws IOException {
+        Path file = lookup(key);
+        if (file == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return ClassRunner.readClasses(in);
+        } catch (NoSuchFileException e) {
+            // Evicted by another run's store since the lookup
+            return null;
+        }
+    }
+    
+    public void storeClasses(String key, Map<String, byte[]> classes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ClassRunner.writeClasses(new DataOutputStream(bytes), classes);
+        store(key, bytes.toByteArray());
+    }
+    
+    public long getHits() {
+        return hits.get();
+    }
+    
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    public String describe(boolean hit) {
+        return "Build cache " + (hit ? "hit" : "miss") + " (" + getHits() + " hits, " + getMisses() + " misses)";
+    }
+    
+    private void add(String key, long size) {
+        Long previous = entries.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+        evict(key);
+    }
+    
+    // Never the entry just added, even when it alone is over the cap, it is about to be used
+    private void evict(String added) {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(added)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(root.resolve(entry.getKey()));
+            } catch (IOException e) {
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+    
+    private void loadIndex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(root)) {
+            files = new ArrayList<>();
+            list.filter(Files::isRegularFile).forEach(files::add);
+        }
+        Map<Path, Long> lastUsed = new HashMap<>();
+        for (Path file : files) {
+            lastUsed.put(file, file.toFile().lastModified());
+        }
+        files.sort(Comparator.comparing(lastUsed::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp")) {
+                // Left over from an interrupted store
+                Files.deleteIfExists(file);
+            } else {
+                add(name, Files.size(file));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.codesphere.exec;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Child-process entry point that runs a program compiled by {@link InMemoryJavaCompiler}.
+ * The class bytes arrive on stdin, so no .class file is ever written to disk.
+ */
+public class ClassRunner {
+    
+    public static List<String> command() {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(ownClassPath());
+        command.add(ClassRunner.class.getName());
+        return command;
+    }
+    
+    // Only CodeSphere's own classes, not the whole application class path
+    static String ownClassPath() {
+        try {
+            return Paths.get(ClassRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (Exception e) {
+            return System.getProperty("java.class.path");
+        }
+    }
+    
+    public static void writeProgram(DataOutputStream out, String mainClass, Map<String, byte[]> classes) throws IOException {
+        out.writeUTF(mainClass);
+        writeClasses(out, classes);
+        out.flush();
+    }
+    
+    static void writeClasses(DataOutputStream out, Map<String, byte[]> classes) throws IOException {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+    }
+    
+    static Map<String, byte[]> readClasses(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            classes.put(name, bytes);
+        }
+        return classes;
+    }
+    
+    // Looks up a public static main(String[]) in a fresh loader that only sees the JDK
+    static Method findMain(String mainClass, Map<String, byte[]> classes) throws ReflectiveOperationException {
+        ClassLoader loader = new MemoryClassLoader(classes, ClassLoader.getPlatformClassLoader());
+        Method main = Class.forName(mainClass, false, loader).getMethod("main", String[].class);
+        if (!Modifier.isStatic(main.getModifiers())) {
+            throw new NoSuchMethodException("main method in class " + mainClass + " is not static");
+        }
+        main.setAccessible(true);
+        return main;
+    }
+    
+    // Drops the reflection frames below the program's main so traces look like the launcher's
+    static Throwable trimLauncherFrames(Throwable error) {
+        StackTraceElement[] frames = error.getStackTrace();
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i].getClassName().startsWith("jdk.internal.reflect.")) {
+                error.setStackTrace(Arrays.copyOf(frames, i));
+                break;
+            }
+        }
+        return error;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        String mainClass = in.readUTF();
+        Map<String, byte[]> classes = readClasses(in);
+        
+        Method main;
+        try {
+            main = findMain(mainClass, classes);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Error: could not run class " + mainClass + ": " + e);
+            System.exit(1);
+            return;
+        }
+        
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            // Mirror the message the java launcher prints for an uncaught exception
+            System.err.print("Exception in thread \"main\" ");
+            trimLauncherFrames(e.getCause()).printStackTrace();
+            System.exit(1);
+        } catch (IllegalAccessException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.flush();
+    }
+    
+    static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+        
+        MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+        
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.codesphere.exec;
+
+import com.codesphere.diag.ExecutionStageEvent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles and runs code in the four supported languages. Shared by the Swing UI and the
+ * headless modes, and safe to use from many threads at once.
+ */
+public class CodeRunner implements AutoCloseable {
+    
+    public static final List<String> LANGUAGES = Collections.unmodifiableList(Arrays.asList("Java", "Python", "JavaScript", "C++"));
+    
+    private final InMemoryJavaCompiler javaCompiler = new InMemoryJavaCompiler();
+    private final JavaWorkerPool javaWorkers;
+    private final InterpreterPool pythonInterpreters;
+    private final InterpreterPool nodeInterpreters;
+    private final CompletableFuture<CppToolchain> cppToolchain;
+    private final BuildCache buildCache;
+    private final MetricsLog metricsLog = MetricsLog.fromProperties();
+    
+    // The interpreter pools may be null, scripts then start a fresh interpreter per run;
+    // a null toolchain future leaves C++ unsupported
+    public CodeRunner(JavaWorkerPool javaWorkers, InterpreterPool pythonInterpreters, InterpreterPool nodeInterpreters,
+                      CompletableFuture<CppToolchain> cppToolchain, BuildCache buildCache) {
+        this.javaWorkers = javaWorkers;
+        this.pythonInterpreters = pythonInterpreters;
+        this.nodeInterpreters = nodeInterpreters;
+        this.cppToolchain = cppToolchain;
+        this.buildCache = buildCache;
+    }
+    
+    // Default setup: warm Java workers and interpreters, the C++ toolchain and the build cache under temp/cache
+    public static CodeRunner create() {
+        return create(detectCppToolchain());
+    }
+    
+    // The same with a toolchain detection already started, whose version the UI shows too
+    public static CodeRunner create(CompletableFuture<CppToolchain> cppToolchain) {
+        return new CodeRunner(new JavaWorkerPool(), InterpreterPool.python(), InterpreterPool.javascript(),
+                cppToolchain, openBuildCache(Paths.get("temp", "cache")));
+    }
+    
+    // Detects the compiler in the background, then precompiles the common headers under temp/pch
+    public static CompletableFuture<CppToolchain> detectCppToolchain() {
+        ExecutorService executor = Executors.newSingleThreadExecutor(JavaWorkerPool.daemon("cpp-toolchain"));
+        return CompletableFuture.supplyAsync(() -> {
+            CppToolchain toolchain = CppToolchain.detect(Paths.get("temp", "pch").toAbsolutePath());
+            if (toolchain != null) {
+                toolchain.buildPrecompiledHeaders(executor);
+            }
+            executor.shutdown();
+            return toolchain;
+        }, executor);
+    }
+    
+    public static BuildCache openBuildCache(Path dir) {
+        try {
+            return new BuildCache(dir);
+        } catch (IOException e) {
+            // Runs still work, they just always compile
+            System.err.println("Build cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Maps a file name to one of LANGUAGES, or null
+    public static String languageForFile(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".java")) return "Java";
+        if (name.endsWith(".py")) return "Python";
+        if (name.endsWith(".js")) return "JavaScript";
+        if (name.endsWith(".cpp") || name.endsWith(".cc") || name.endsWith(".cxx")) return "C++";
+        return null;
+    }
+    
+    // Single run with no stdin, as the Run Code button does it; returns null if it did not compile
+    public RunMetrics execute(String language, String code, OutputSink out, RunControl control) throws Exception {
+        long start = System.nanoTime();
+        try (Program program = prepare(language, code, out, control)) {
+            if (program == null) {
+                return null;
+            }
+            long buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long runStart = System.nanoTime();
+            ExecutionStageEvent stage = ExecutionStageEvent.start(language, ExecutionStageEvent.RUN);
+            int exitCode;
+            try {
+                exitCode = program.run(new byte[0], out, control);
+            } finally {
+                stage.commit();
+            }
+            long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart);
+            out.stdout("\nProcess finished with exit code " + exitCode + describeCache(program));
+            
+            RunMetrics metrics = new RunMetrics(language, "main", exitCode, control.getCancelReason(),
+                    program.isCacheable() ? buildMillis : -1, program.isCacheable() ? program.isCacheHit() : null,
+                    wallMillis, control.getUsage());
+            recordMetrics(metrics);
+            return metrics;
+        }
+    }
+    
+    // Appends to the metrics log when codesphere.metrics.log is set
+    public void recordMetrics(RunMetrics metrics) {
+        if (metricsLog != null) {
+            metricsLog.append(metrics);
+        }
+    }
+    
+    // How many runs of the language can go at once without waiting for a pooled worker
+    public int getParallelism(String language) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        switch (language) {
+            case "Java":
+                return javaWorkers.getSize();
+            case "Python":
+                return pythonInterpreters != null && pythonInterpreters.isAvailable() ? pythonInterpreters.getSize() : cores;
+            case "JavaScript":
+                return nodeInterpreters != null && nodeInterpreters.isAvailable() ? nodeInterpreters.getSize() : cores;
+            default:
+                return cores;
+        }
+    }
+    
+    // Compiles once; returns null after reporting compile errors to out
+    public Program prepare(String language, String code, OutputSink out, RunControl control) throws Exception {
+        switch (language) {
+            case "Java":
+                return prepareJava(code, out, control);
+            case "Python":
+                return prepareScript(language, code, "main.py", "python3", pythonInterpreters);
+            case "JavaScript":
+                return prepareScript(language, code, "main.js", "node", nodeInterpreters);
+            case "C++":
+                return prepareCpp(code, out, control);
+            default:
+                out.stderr("Language not supported");
+                return null;
+        }
+    }
+    
+    private Program prepareJava(String code, OutputSink out, RunControl control) throws Exception {
+        // Reuse the classes of an identical earlier run, otherwise compile in memory
+        ExecutionStageEvent stage = ExecutionStageEvent.start("Java", ExecutionStageEvent.COMPILE);
+        String cacheKey = BuildCache.key("Java", javaCompiler.getFlags(), code);
+        Map<String, byte[]> classes = buildCache == null ? null : buildCache.lookupClasses(cacheKey);
+        boolean cacheHit = classes != null;
+        try {
+            if (!cacheHit) {
+                InMemoryJavaCompiler.Result compiled = javaCompiler.compile("Main", code);
+                if (!compiled.isSuccess()) {
+                    out.stderr("Compilation failed:\n" + compiled.formatDiagnostics());
+                    return null;
+                }
+                classes = compiled.getClasses();
+                if (buildCache != null) {
+                    buildCache.storeClasses(cacheKey, classes);
+                }
+            }
+        } finally {
+            stage.setCacheHit(cacheHit);
+            stage.commit();
+        }
+        control.checkCancelled();
+        return new Program.JavaProgram(javaWorkers, classes, cacheHit);
+    }
+    
+    private Program prepareScript(String language, String code, String fileName, String interpreter, InterpreterPool pool)
+            throws IOException {
+        // Each program gets its own scratch directory, removed in the background when closed
+        Workspace workspace = Workspace.create();
+        if (pool != null && pool.isAvailable()) {
+            return new Program.ScriptProgram(pool, workspace, code);
+        }
+        ExecutionStageEvent stage = ExecutionStageEvent.start(language, ExecutionStageEvent.WRITE);
+        Path script;
+        try {
+            script = workspace.write(fileName, code);
+        } finally {
+            stage.commit();
+        }
+        return new Program.ProcessProgram(workspace, Arrays.asList(interpreter, script.toString()), false, false);
+    }
+    
+    private Program prepareCpp(String code, OutputSink out, RunControl control) throws Exception {
+        CppToolchain toolchain = cppToolchain == null ? null : cppToolchain.join();
+        if (toolchain == null) {
+            out.stderr("No C++ compiler found, install g++ or clang++ or set codesphere.cpp.compiler");
+            return null;
+        }
+        Workspace workspace = Workspace.create();
+        try {
+            Path exeFile = workspace.resolve("main");
+            
+            // Reuse the binary of an identical earlier run
+            ExecutionStageEvent stage = ExecutionStageEvent.start("C++", ExecutionStageEvent.COMPILE);
+            String cacheKey = BuildCache.key("C++", toolchain.getCacheFlags(), code);
+            // The run gets its own link to the binary, so a later eviction cannot remove it
+            boolean cacheHit = buildCache != null && buildCache.lookup(cacheKey, exeFile);
+            if (cacheHit) {
+                stage.setCacheHit(true);
+                stage.commit();
+            } else {
+                stage = ExecutionStageEvent.start("C++", ExecutionStageEvent.WRITE);
+                Path cppFile = workspace.write("main.cpp", code);
+                stage.commit();
+                
+                long start = System.nanoTime();
+                stage = ExecutionStageEvent.start("C++", ExecutionStageEvent.COMPILE);
+                String header = toolchain.precompiledHeaderName(code);
+                int compileExit;
+                try {
+                    Process compileProcess = control.track(new ProcessBuilder(toolchain.compileCommand(cppFile, exeFile, header))
+                            .directory(workspace.getDir().toFile()).start());
+                    compileExit = StreamPump.drain(compileProcess, out);
+                } finally {
+                    stage.commit();
+                }
+                
+                if (compileExit != 0) {
+                    out.stderr("Compilation failed");
+                    workspace.close();
+                    return null;
+                }
+                control.checkCancelled();
+                out.stdout(String.format("Compiled in %d ms (%s%s)%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                        toolchain.describe(), header == null ? "" : ", precompiled <" + header + ">"));
+                // A copy stays in the cache for the next run
+                if (buildCache != null) {
+                    buildCache.storeCopy(cacheKey, exeFile);
+                }
+            }
+            return new Program.ProcessProgram(workspace, Collections.singletonList(exeFile.toAbsolutePath().toString()), true, cacheHit);
+        } catch (Exception e) {
+            workspace.close();
+            throw e;
+        }
+    }
+    
+    public String describeCache(Program program) {
+        return buildCache == null || !program.isCacheable() ? "" : "\n" + buildCache.describe(program.isCacheHit());
+    }
+    
+    public JavaWorkerPool getJavaWorkers() {
+        return javaWorkers;
+    }
+    
+    @Override
+    public void close() {
+        javaWorkers.close();
+        if (pythonInterpreters != null) {
+            pythonInterpreters.close();
+        }
+        if (nodeInterpreters != null) {
+            nodeInterpreters.close();
+        }
+    }
+}
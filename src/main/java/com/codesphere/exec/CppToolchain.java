@@ -0,0 +1,179 @@
+package com.codesphere.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The C++ compiler, detected once at startup: which one, its version, the flags to build with,
+ * the fastest linker it accepts, and precompiled headers for the common first includes.
+ *
+ * A precompiled header is only used when the program's first line of code includes that header,
+ * so the result is the same as without it. Headers are built in the background and kept under
+ * the pch directory, one subdirectory per compiler version and flags.
+ *
+ * Settings (system properties):
+ * codesphere.cpp.compiler - compiler to use, default g++ and then clang++, whichever is found
+ * codesphere.cpp.flags - optimization and standard, default "-O2 -std=c++17"
+ * codesphere.cpp.pch - set to false to never use precompiled headers
+ */
+public class CppToolchain {
+    
+    private static final List<String> PCH_HEADERS = Arrays.asList("bits/stdc++.h", "iostream");
+    private static final List<String> LINKERS = Arrays.asList("mold", "lld", "gold");
+    private static final Pattern LEADING_COMMENTS = Pattern.compile("\\A(\\s|//[^\\n]*|/\\*.*?\\*/)*", Pattern.DOTALL);
+    private static final Pattern INCLUDE = Pattern.compile("\\A#\\s*include\\s*<([^>]+)>");
+    
+    private final String compiler;
+    private final String version;
+    private final boolean clang;
+    private final List<String> flags;
+    private final Path pchDir;
+    // Header name to the file passed with -include (GCC) or -include-pch (Clang), once built
+    private final Map<String, Path> precompiled = new ConcurrentHashMap<>();
+    
+    private CppToolchain(String compiler, String version, List<String> flags, Path pchDir) {
+        this.compiler = compiler;
+        this.version = version;
+        this.clang = version.contains("clang");
+        this.flags = flags;
+        this.pchDir = pchDir;
+    }
+    
+    // Returns null when no compiler could be run
+    public static CppToolchain detect(Path pchRoot) {
+        String configured = System.getProperty("codesphere.cpp.compiler");
+        List<String> candidates = configured != null ? Collections.singletonList(configured) : Arrays.asList("g++", "clang++");
+        for (String candidate : candidates) {
+            String version = StreamPump.firstLine(candidate, "--version");
+            if (version == null) {
+                continue;
+            }
+            List<String> flags = new ArrayList<>(Arrays.asList(System.getProperty("codesphere.cpp.flags", "-O2 -std=c++17").trim().split("\\s+")));
+            // Temporary files through pipes, not the disk
+            flags.add("-pipe");
+            String key = BuildCache.key("C++", version, String.join(" ", flags)).substring(0, 16);
+            CppToolchain toolchain = new CppToolchain(candidate, version, flags, pchRoot.resolve(key));
+            String linker = toolchain.findFastLinker();
+            if (linker != null) {
+                toolchain.flags.add("-fuse-ld=" + linker);
+            }
+            return toolchain;
+        }
+        return null;
+    }
+    
+    // Builds (or finds from an earlier session) the precompiled headers, one task per header
+    public void buildPrecompiledHeaders(Executor executor) {
+        if (!Boolean.parseBoolean(System.getProperty("codesphere.cpp.pch", "true"))) {
+            return;
+        }
+        for (String header : PCH_HEADERS) {
+            executor.execute(() -> buildPrecompiledHeader(header));
+        }
+    }
+    
+    private void buildPrecompiledHeader(String header) {
+        String name = header.replaceAll("[^A-Za-z0-9]", "_");
+        Path source = pchDir.resolve(name + ".h");
+        Path output = pchDir.resolve(name + (clang ? ".h.pch" : ".h.gch"));
+        Path target = clang ? output : source;
+        if (Files.exists(output)) {
+            precompiled.put(header, target);
+            return;
+        }
+        try {
+            Files.createDirectories(pchDir);
+            Files.write(source, ("#include <" + header + ">\n").getBytes(StandardCharsets.UTF_8));
+            Path partial = pchDir.resolve(name + ".partial");
+            List<String> command = new ArrayList<>();
+            command.add(compiler);
+            command.addAll(flags);
+            command.addAll(Arrays.asList("-x", "c++-header", source.toString(), "-o", partial.toString()));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (process.waitFor() == 0) {
+                Files.move(partial, output, StandardCopyOption.ATOMIC_MOVE);
+                precompiled.put(header, target);
+            } else {
+                // Not every library ships every header, e.g. libc++ has no bits/stdc++.h
+                Files.deleteIfExists(partial);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not precompile <" + header + ">: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // header is the result of precompiledHeaderName, or null to compile without one
+    public List<String> compileCommand(Path source, Path output, String header) {
+        List<String> command = new ArrayList<>();
+        command.add(compiler);
+        command.addAll(flags);
+        if (header != null) {
+            command.add(clang ? "-include-pch" : "-include");
+            command.add(precompiled.get(header).toString());
+        }
+        command.addAll(Arrays.asList("-o", output.toString(), source.toString()));
+        return command;
+    }
+    
+    // The header the program starts with, if it has been precompiled
+    public String precompiledHeaderName(String code) {
+        Matcher comments = LEADING_COMMENTS.matcher(code);
+        int start = comments.lookingAt() ? comments.end() : 0;
+        Matcher include = INCLUDE.matcher(code.subSequence(start, Math.min(code.length(), start + 200)));
+        return include.lookingAt() && precompiled.containsKey(include.group(1)) ? include.group(1) : null;
+    }
+    
+    // Everything besides the source that decides what binary comes out
+    public String getCacheFlags() {
+        return version + " " + String.join(" ", flags);
+    }
+    
+    public String describe() {
+        return version + ", " + String.join(" ", flags);
+    }
+    
+    public String getCompiler() {
+        return compiler;
+    }
+    
+    public String getVersion() {
+        return version;
+    }
+    
+    private String findFastLinker() {
+        for (String linker : LINKERS) {
+            try {
+                Path dir = Files.createTempDirectory("codesphere-ld");
+                try {
+                    Path source = Files.write(dir.resolve("probe.cpp"), "int main() { return 0; }\n".getBytes(StandardCharsets.UTF_8));
+                    Process process = new ProcessBuilder(compiler, "-fuse-ld=" + linker, "-o", dir.resolve("probe").toString(), source.toString())
+                            .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                    if (process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0) {
+                        return linker;
+                    }
+                    process.destroyForcibly();
+                } finally {
+                    Workspace.deleteTree(dir);
+                }
+            } catch (IOException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.codesphere.exec;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compiles Java source with the javax.tools compiler of the running JDK.
+ * Source and class files live only in memory, so nothing is written to disk.
+ */
+public class InMemoryJavaCompiler {
+    
+    private static final List<String> OPTIONS = Arrays.asList("-g", "-proc:none", "-Xlint:none");
+    
+    private final JavaCompiler compiler;
+    // Standard file managers cache the platform class index but are not thread-safe, so parallel
+    // compiles each borrow one and hand it back
+    private final Queue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+    
+    public InMemoryJavaCompiler() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler != null) {
+            fileManagers.add(newFileManager());
+        }
+    }
+    
+    private StandardJavaFileManager newFileManager() {
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            // Same as running javac from an empty directory: user code only sees the JDK
+            fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.emptyList());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not configure the Java compiler", e);
+        }
+        return fileManager;
+    }
+    
+    // Everything that changes the produced bytecode, for build cache keys
+    public String getFlags() {
+        return String.join(" ", OPTIONS) + " " + Runtime.version();
+    }
+    
+    public boolean isAvailable() {
+        return compiler != null;
+    }
+    
+    public Result compile(String className, String source) {
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available, CodeSphere must run on a JDK");
+        }
+        StandardJavaFileManager standardFileManager = fileManagers.poll();
+        if (standardFileManager == null) {
+            standardFileManager = newFileManager();
+        }
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+            List<JavaFileObject> units = Collections.singletonList(new SourceFile(className, source));
+            
+            boolean success = compiler.getTask(null, fileManager, diagnostics, OPTIONS, null, units).call();
+            return new Result(success, fileManager.getClasses(), diagnostics.getDiagnostics());
+        } finally {
+            fileManagers.add(standardFileManager);
+        }
+    }
+    
+    public static class Result {
+        private final boolean success;
+        private final Map<String, byte[]> classes;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        
+        Result(boolean success, Map<String, byte[]> classes, List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+            this.success = success;
+            this.classes = classes;
+            this.diagnostics = diagnostics;
+        }
+        
+        public boolean isSuccess() {
+            return success;
+        }
+        
+        public Map<String, byte[]> getClasses() {
+            return classes;
+        }
+        
+        public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+            return diagnostics;
+        }
+        
+        // One line per diagnostic, e.g. "Line 3, column 9: error: ';' expected"
+        public String formatDiagnostics() {
+            StringBuilder result = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+                if (d.getLineNumber() != Diagnostic.NOPOS) {
+                    result.append("Line ").append(d.getLineNumber())
+                          .append(", column ").append(d.getColumnNumber()).append(": ");
+                }
+                result.append(d.getKind().toString().toLowerCase(Locale.ROOT).replace('_', ' '))
+                      .append(": ").append(d.getMessage(Locale.getDefault())).append("\n");
+            }
+            return result.toString();
+        }
+    }
+    
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+        
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+        
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+    
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+        
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+    
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ClassFile> outputs = new LinkedHashMap<>();
+        
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+        
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            outputs.put(className, file);
+            return file;
+        }
+        
+        // The shared standard file manager must stay open for the next compile
+        @Override
+        public void close() {
+        }
+        
+        Map<String, byte[]> getClasses() {
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (Map.Entry<String, ClassFile> entry : outputs.entrySet()) {
+                classes.put(entry.getKey(), entry.getValue().bytes.toByteArray());
+            }
+            return classes;
+        }
+    }
+}
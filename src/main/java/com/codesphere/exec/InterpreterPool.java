@@ -0,0 +1,103 @@
+package com.codesphere.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps warm python3 or node processes ready so script runs skip interpreter startup
+ * and find common modules already imported. Each run gets a fresh namespace (Python)
+ * or vm context (JavaScript); an interpreter is recycled when it dies, after a number
+ * of runs, or once its resident memory grows past a limit.
+ *
+ * Settings (system properties), key is python or javascript:
+ * codesphere.interp.<key>.workers - pool size, default 2
+ * codesphere.interp.maxRuns - recycle an interpreter after this many runs, default 200
+ * codesphere.interp.maxRssMb - recycle an interpreter above this resident size, default 256
+ */
+public class InterpreterPool extends WorkerPool<InterpreterWorker> {
+    
+    private final List<String> command;
+    private final long maxRssKilobytes;
+    
+    public InterpreterPool(String name, List<String> command, int size, int maxRuns, long maxRssMb) {
+        super(name, size, maxRuns, 30000);
+        this.command = command;
+        this.maxRssKilobytes = maxRssMb * 1024;
+        fill();
+    }
+    
+    public static InterpreterPool python() {
+        return python(Integer.getInteger("codesphere.interp.python.workers", 2));
+    }
+    
+    public static InterpreterPool python(int size) {
+        return create("Python interpreter", Arrays.asList("python3", "-c", bootstrap("python_worker.py")), size);
+    }
+    
+    public static InterpreterPool javascript() {
+        return javascript(Integer.getInteger("codesphere.interp.javascript.workers", 2));
+    }
+    
+    // Null when node is older than the worker needs, runs then start a fresh node as before pooling
+    public static InterpreterPool javascript(int size) {
+        String version = StreamPump.firstLine("node", "--version");
+        if (version != null && !isAtLeast(version, 17, 3)) {
+            System.err.println("Node.js " + version + " is older than 17.3, JavaScript runs will not use warm interpreters");
+            return null;
+        }
+        return create("Node.js interpreter", Arrays.asList("node", "-e", bootstrap("node_worker.js")), size);
+    }
+    
+    // For versions like v18.12.1; the node worker uses structuredClone and process.getActiveResourcesInfo
+    static boolean isAtLeast(String version, int major, int minor) {
+        String[] parts = version.trim().replaceFirst("^v", "").split("\\.");
+        try {
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return actualMajor > major || actualMajor == major && actualMinor >= minor;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    private static InterpreterPool create(String name, List<String> command, int size) {
+        return new InterpreterPool(name, command, size,
+                Integer.getInteger("codesphere.interp.maxRuns", 200),
+                Long.getLong("codesphere.interp.maxRssMb", 256L));
+    }
+    
+    // The bootstrap is passed on the command line, so nothing has to be unpacked to disk
+    private static String bootstrap(String resource) {
+        try (InputStream in = InterpreterPool.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + resource);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            in.transferTo(bytes);
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Override
+    protected InterpreterWorker startWorker() throws IOException {
+        return new InterpreterWorker(command);
+    }
+    
+    @Override
+    protected boolean isWorn(InterpreterWorker worker) {
+        return worker.residentKilobytes() > maxRssKilobytes;
+    }
+    
+    public int run(Path workDir, String code, byte[] stdin, OutputSink sink, RunControl control)
+            throws IOException, InterruptedException {
+        return withWorker(control, worker -> worker.run(workDir, code, stdin, sink));
+    }
+}
@@ -0,0 +1,48 @@
+package com.codesphere.exec;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Host side of one warm python3 or node process running a bootstrap script from
+ * this package's resources. Like {@link JavaWorker}, the exit frame carries the exit
+ * code and whether the interpreter should be retired.
+ */
+public class InterpreterWorker extends WorkerProcess {
+    
+    InterpreterWorker(List<String> command) throws IOException {
+        super(command);
+    }
+    
+    // Streams the program's output into the sink and returns its exit code
+    public int run(Path workDir, String code, byte[] stdin, OutputSink sink) throws IOException {
+        toWorker.writeByte(OP_RUN);
+        writeBytes(workDir.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+        writeBytes(code.getBytes(StandardCharsets.UTF_8));
+        writeBytes(stdin);
+        toWorker.flush();
+        
+        DataInputStream exit = readRun(sink);
+        if (exit == null) {
+            return exitValue();
+        }
+        int exitCode = exit.readInt();
+        if (exit.readBoolean()) {
+            retire();
+        }
+        return exitCode;
+    }
+    
+    private void writeBytes(byte[] bytes) throws IOException {
+        toWorker.writeInt(bytes.length);
+        toWorker.write(bytes);
+    }
+    
+    // Resident set size in kilobytes, or -1 where /proc is not available
+    public long residentKilobytes() {
+        return ResourceMonitor.residentKilobytes(process.pid());
+    }
+}
@@ -0,0 +1,48 @@
+package com.codesphere.exec;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Host side of one pre-started worker JVM running {@link JavaWorkerMain}. The exit frame
+ * carries the exit code and whether the program left threads running.
+ */
+public class JavaWorker extends WorkerProcess {
+    
+    JavaWorker(List<String> jvmOptions) throws IOException {
+        super(command(jvmOptions));
+    }
+    
+    private static List<String> command(List<String> jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(ClassRunner.ownClassPath());
+        command.add(JavaWorkerMain.class.getName());
+        return command;
+    }
+    
+    // Streams the program's output into the sink and returns its exit code
+    public int run(String mainClass, Map<String, byte[]> classes, byte[] stdin, OutputSink sink) throws IOException {
+        toWorker.writeByte(OP_RUN);
+        ClassRunner.writeProgram(toWorker, mainClass, classes);
+        toWorker.writeInt(stdin.length);
+        toWorker.write(stdin);
+        toWorker.flush();
+        
+        DataInputStream exit = readRun(sink);
+        if (exit == null) {
+            return exitValue();
+        }
+        int exitCode = exit.readInt();
+        // Threads the program left behind would leak into the next run
+        if (exit.readBoolean()) {
+            retire();
+        }
+        return exitCode;
+    }
+}
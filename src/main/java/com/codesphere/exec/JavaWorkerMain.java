@@ -0,0 +1,187 @@
+package com.codesphere.exec;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Entry point of a pooled worker JVM. Reads run requests from stdin and answers with
+ * framed stdout/stderr chunks on its own stdout, see {@link JavaWorker} for the protocol.
+ */
+public class JavaWorkerMain {
+    
+    private static DataOutputStream channel;
+    private static PrintStream userOut;
+    private static PrintStream userErr;
+    
+    public static void main(String[] args) throws Exception {
+        channel = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in), 1 << 16));
+        
+        userOut = new PrintStream(new BufferedOutputStream(new FrameOutputStream(JavaWorker.FRAME_STDOUT), 8192), false, "UTF-8");
+        userErr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(JavaWorker.FRAME_STDERR), 8192), false, "UTF-8");
+        System.setOut(userOut);
+        System.setErr(userErr);
+        
+        // A program calling System.exit still gets its buffered output delivered
+        Runtime.getRuntime().addShutdownHook(new Thread(JavaWorkerMain::flushUserStreams));
+        startFlusher();
+        warmUp();
+        
+        int runNumber = 0;
+        while (true) {
+            int op;
+            try {
+                op = in.readByte();
+            } catch (EOFException e) {
+                return; // host went away
+            }
+            switch (op) {
+                case JavaWorker.OP_PING:
+                    sendFrame(JavaWorker.FRAME_PONG, new byte[0], 0, 0);
+                    break;
+                case JavaWorker.OP_RUN:
+                    String mainClass = in.readUTF();
+                    Map<String, byte[]> classes = ClassRunner.readClasses(in);
+                    byte[] stdin = new byte[in.readInt()];
+                    in.readFully(stdin);
+                    run(++runNumber, mainClass, classes, stdin);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+    
+    private static void run(int runNumber, String mainClass, Map<String, byte[]> classes, byte[] stdin) throws IOException {
+        System.setIn(new ByteArrayInputStream(stdin));
+        ThreadGroup group = new ThreadGroup("run-" + runNumber);
+        int[] exitCode = {0};
+        
+        Thread mainThread = new Thread(group, () -> {
+            try {
+                Method main = ClassRunner.findMain(mainClass, classes);
+                main.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                // Same message the java launcher prints for an uncaught exception
+                System.err.print("Exception in thread \"main\" ");
+                ClassRunner.trimLauncherFrames(e.getCause()).printStackTrace();
+                exitCode[0] = 1;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Error: could not run class " + mainClass + ": " + e);
+                exitCode[0] = 1;
+            }
+        }, "main");
+        mainThread.start();
+        joinQuietly(mainThread);
+        
+        // Like the launcher, the program ends when its last non-daemon thread does
+        boolean leaked = false;
+        for (Thread thread : threadsOf(group)) {
+            if (!thread.isDaemon()) {
+                joinQuietly(thread);
+            }
+        }
+        for (Thread thread : threadsOf(group)) {
+            leaked |= thread.isAlive();
+        }
+        
+        flushUserStreams();
+        ByteArrayOutputStream exit = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(exit);
+        data.writeInt(exitCode[0]);
+        data.writeBoolean(leaked);
+        sendFrame(JavaWorker.FRAME_EXIT, exit.toByteArray(), 0, exit.size());
+    }
+    
+    private static List<Thread> threadsOf(ThreadGroup group) {
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count = group.enumerate(threads, true);
+        return Arrays.asList(threads).subList(0, count);
+    }
+    
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void flushUserStreams() {
+        userOut.flush();
+        userErr.flush();
+    }
+    
+    // Streams output while the program runs without a frame per println
+    private static void startFlusher() {
+        long parent = parentPid();
+        Thread flusher = new Thread(() -> {
+            for (int tick = 1; ; tick++) {
+                try {
+                    Thread.sleep(15);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flushUserStreams();
+                // The host died without closing our stdin, e.g. killed while a program loops forever
+                if (tick % 32 == 0 && parentPid() != parent) {
+                    Runtime.getRuntime().halt(1);
+                }
+            }
+        }, "output-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+    
+    private static long parentPid() {
+        return ProcessHandle.current().parent().map(ProcessHandle::pid).orElse(-1L);
+    }
+    
+    // Loads and links the classes a typical first program needs before any real run arrives
+    private static void warmUp() {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        Map<String, Integer> map = new HashMap<>();
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            list.add(String.valueOf(i));
+            map.merge(list.get(i), i, Integer::sum);
+            sink.println(String.format("%d %s", i, new StringBuilder("x").append(i)));
+        }
+        new Scanner("1 2 3").nextInt();
+        Collections.sort(list);
+        try {
+            Method method = Integer.class.getMethod("parseInt", String.class);
+            method.invoke(null, "42");
+        } catch (ReflectiveOperationException ignored) {
+        }
+    }
+    
+    static synchronized void sendFrame(int type, byte[] bytes, int offset, int length) throws IOException {
+        channel.writeByte(type);
+        channel.writeInt(length);
+        channel.write(bytes, offset, length);
+        channel.flush();
+    }
+    
+    private static class FrameOutputStream extends OutputStream {
+        private final int type;
+        
+        FrameOutputStream(int type) {
+            this.type = type;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0) {
+                sendFrame(type, bytes, offset, length);
+            }
+        }
+    }
+}
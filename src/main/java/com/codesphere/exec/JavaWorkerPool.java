@@ -0,0 +1,41 @@
+package com.codesphere.exec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a few warm worker JVMs ready so a Java run does not pay for JVM startup.
+ *
+ * Settings (system properties):
+ * codesphere.java.workers - pool size, default 2 to 4 depending on cores
+ * codesphere.java.workerMaxRuns - recycle a worker after this many runs, default 50
+ * codesphere.java.workerHealthCheckMillis - how often idle workers are pinged, default 30000
+ */
+public class JavaWorkerPool extends WorkerPool<JavaWorker> {
+    
+    private static final List<String> WORKER_JVM_OPTIONS = Arrays.asList(
+            "-XX:+UseSerialGC", "-Xshare:auto", "-Dfile.encoding=UTF-8");
+    
+    public JavaWorkerPool() {
+        this(Integer.getInteger("codesphere.java.workers", Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))),
+             Integer.getInteger("codesphere.java.workerMaxRuns", 50),
+             Long.getLong("codesphere.java.workerHealthCheckMillis", 30000L));
+    }
+    
+    public JavaWorkerPool(int size, int maxRuns, long healthCheckMillis) {
+        super("Java worker", size, maxRuns, healthCheckMillis);
+        fill();
+    }
+    
+    @Override
+    protected JavaWorker startWorker() throws IOException {
+        return new JavaWorker(WORKER_JVM_OPTIONS);
+    }
+    
+    public int run(String mainClass, Map<String, byte[]> classes, byte[] stdin, OutputSink sink, RunControl control)
+            throws IOException, InterruptedException {
+        return withWorker(control, worker -> worker.run(mainClass, classes, stdin, sink));
+    }
+}
@@ -0,0 +1,47 @@
+package com.codesphere.exec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends {@link RunMetrics} to a JSON-lines file, one object per run, so timings can be
+ * compared across submissions and deployments. Enabled with codesphere.metrics.log=<file>.
+ */
+public class MetricsLog {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private final Path file;
+    
+    public MetricsLog(Path file) {
+        this.file = file;
+    }
+    
+    // Null when no log file is configured
+    public static MetricsLog fromProperties() {
+        String file = System.getProperty("codesphere.metrics.log");
+        return file == null ? null : new MetricsLog(Paths.get(file));
+    }
+    
+    public void append(RunMetrics metrics) {
+        try {
+            byte[] line = (MAPPER.writeValueAsString(metrics) + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                Path parent = file.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Files.write(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            // Metrics are best effort, a full disk must not fail the run
+            System.err.println("Could not write metrics log: " + e.getMessage());
+        }
+    }
+}
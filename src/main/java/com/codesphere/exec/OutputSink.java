@@ -0,0 +1,21 @@
+package com.codesphere.exec;
+
+/**
+ * Receives program output as it is produced. Called from pump threads, never the EDT.
+ */
+public interface OutputSink {
+    
+    void stdout(String text);
+    
+    void stderr(String text);
+    
+    OutputSink DISCARD = new OutputSink() {
+        @Override
+        public void stdout(String text) {
+        }
+        
+        @Override
+        public void stderr(String text) {
+        }
+    };
+}
@@ -0,0 +1,105 @@
+package com.codesphere.exec;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prepared (compiled, or written out for interpreters) program that can be run any number
+ * of times, also concurrently, with different stdin. Closing it releases its workspace.
+ */
+public abstract class Program implements AutoCloseable {
+    
+    private final boolean cacheable;
+    private final boolean cacheHit;
+    
+    protected Program(boolean cacheable, boolean cacheHit) {
+        this.cacheable = cacheable;
+        this.cacheHit = cacheHit;
+    }
+    
+    // Streams the program's output into the sink and returns its exit code
+    public abstract int run(byte[] stdin, OutputSink out, RunControl control) throws IOException, InterruptedException;
+    
+    public boolean isCacheable() {
+        return cacheable;
+    }
+    
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+    
+    @Override
+    public void close() {
+    }
+    
+    // Runs on a warm worker JVM, the class bytes are piped to it
+    static class JavaProgram extends Program {
+        private final JavaWorkerPool workers;
+        private final Map<String, byte[]> classes;
+        
+        JavaProgram(JavaWorkerPool workers, Map<String, byte[]> classes, boolean cacheHit) {
+            super(true, cacheHit);
+            this.workers = workers;
+            this.classes = classes;
+        }
+        
+        @Override
+        public int run(byte[] stdin, OutputSink out, RunControl control) throws IOException, InterruptedException {
+            return workers.run("Main", classes, stdin, out, control);
+        }
+    }
+    
+    // Runs on a warm interpreter, with the workspace as working directory
+    static class ScriptProgram extends Program {
+        private final InterpreterPool interpreters;
+        private final Workspace workspace;
+        private final String code;
+        
+        ScriptProgram(InterpreterPool interpreters, Workspace workspace, String code) {
+            super(false, false);
+            this.interpreters = interpreters;
+            this.workspace = workspace;
+            this.code = code;
+        }
+        
+        @Override
+        public int run(byte[] stdin, OutputSink out, RunControl control) throws IOException, InterruptedException {
+            return interpreters.run(workspace.getDir(), code, stdin, out, control);
+        }
+        
+        @Override
+        public void close() {
+            workspace.close();
+        }
+    }
+    
+    // Runs a command in the program's workspace
+    static class ProcessProgram extends Program {
+        private final Workspace workspace;
+        private final List<String> command;
+        
+        ProcessProgram(Workspace workspace, List<String> command, boolean cacheable, boolean cacheHit) {
+            super(cacheable, cacheHit);
+            this.workspace = workspace;
+            this.command = command;
+        }
+        
+        @Override
+        public int run(byte[] stdin, OutputSink out, RunControl control) throws IOException, InterruptedException {
+            Process process = control.track(new ProcessBuilder(command).directory(workspace.getDir().toFile()).start());
+            ResourceMonitor.Session usage = ResourceMonitor.start(process);
+            try {
+                return StreamPump.drain(process, stdin, out);
+            } finally {
+                control.addUsage(usage.stop());
+                control.untrack(process);
+            }
+        }
+        
+        @Override
+        public void close() {
+            workspace.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.codesphere.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU time and peak resident memory a process uses between {@link #start} and
+ * {@link Session#stop}. Reads /proc/<pid> on Linux and falls back to ProcessHandle (CPU only).
+ *
+ * Works for pooled workers too: their peak RSS is reset through /proc/<pid>/clear_refs when a
+ * run starts, and CPU time is taken as the difference. Short-lived processes are sampled every
+ * few milliseconds, so usage is still known after they exit.
+ */
+public class ResourceMonitor {
+    
+    private static final Path PROC = Paths.get("/proc");
+    private static final boolean HAS_PROC = Files.isDirectory(PROC.resolve("self"));
+    // USER_HZ, the unit of utime and stime in /proc/<pid>/stat, is 100 on every mainstream kernel
+    private static final long NANOS_PER_TICK = TimeUnit.SECONDS.toNanos(1) / 100;
+    private static final long SAMPLE_MILLIS = 5;
+    
+    private static final Set<Session> ACTIVE = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(JavaWorkerPool.daemon("resource-sampler"));
+    
+    static {
+        SAMPLER.scheduleWithFixedDelay(() -> ACTIVE.forEach(Session::sample), SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    private ResourceMonitor() {
+    }
+    
+    public static Session start(Process process) {
+        long pid = process.pid();
+        if (HAS_PROC) {
+            resetPeak(pid);
+        }
+        Session session = new Session(pid, read(pid));
+        ACTIVE.add(session);
+        return session;
+    }
+    
+    // Resident set size in kilobytes, or -1 when unknown
+    public static long residentKilobytes(long pid) {
+        Sample sample = read(pid);
+        return sample == null ? -1 : sample.rssKilobytes;
+    }
+    
+    /** One measured stretch of a process's life. */
+    public static class Session {
+        private final long pid;
+        private final long startCpuNanos;
+        private volatile Sample last;
+        private long peakKilobytes = -1;
+        
+        private Session(long pid, Sample first) {
+            this.pid = pid;
+            this.startCpuNanos = first == null ? 0 : first.cpuNanos;
+            record(first);
+        }
+        
+        private void sample() {
+            record(read(pid));
+        }
+        
+        private synchronized void record(Sample sample) {
+            if (sample != null) {
+                last = sample;
+                peakKilobytes = Math.max(peakKilobytes, Math.max(sample.rssKilobytes, sample.peakKilobytes));
+            }
+        }
+        
+        public synchronized ResourceUsage stop() {
+            ACTIVE.remove(this);
+            sample();
+            long cpuNanos = last == null ? -1 : Math.max(0, last.cpuNanos - startCpuNanos);
+            return new ResourceUsage(cpuNanos, peakKilobytes);
+        }
+    }
+    
+    private static class Sample {
+        final long cpuNanos;
+        final long rssKilobytes;
+        final long peakKilobytes;
+        
+        Sample(long cpuNanos, long rssKilobytes, long peakKilobytes) {
+            this.cpuNanos = cpuNanos;
+            this.rssKilobytes = rssKilobytes;
+            this.peakKilobytes = peakKilobytes;
+        }
+    }
+    
+    // Null once the process is gone
+    private static Sample read(long pid) {
+        if (!HAS_PROC) {
+            return ProcessHandle.of(pid)
+                    .flatMap(handle -> handle.info().totalCpuDuration())
+                    .map(cpu -> new Sample(cpu.toNanos(), -1, -1))
+                    .orElse(null);
+        }
+        try {
+            Path dir = PROC.resolve(Long.toString(pid));
+            String stat = new String(Files.readAllBytes(dir.resolve("stat")), StandardCharsets.US_ASCII);
+            // The command name in parentheses may contain spaces, fields are counted after it
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            long rss = -1, peak = -1;
+            for (String line : Files.readAllLines(dir.resolve("status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = kilobytes(line);
+                } else if (line.startsWith("VmHWM:")) {
+                    peak = kilobytes(line);
+                }
+            }
+            return new Sample(ticks * NANOS_PER_TICK, rss, peak);
+        } catch (IOException | RuntimeException e) {
+            // exited between samples, or a zombie without memory lines
+            return null;
+        }
+    }
+    
+    private static long kilobytes(String statusLine) {
+        return Long.parseLong(statusLine.replaceAll("[^0-9]", ""));
+    }
+    
+    // Makes VmHWM start again from the current RSS; needs Linux 4.0 or later
+    private static void resetPeak(long pid) {
+        try {
+            Files.write(PROC.resolve(Long.toString(pid)).resolve("clear_refs"), "5".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // Older kernel or another user's process, the peak then covers the whole process life
+        }
+    }
+}
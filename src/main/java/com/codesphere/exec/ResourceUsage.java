@@ -0,0 +1,31 @@
+package com.codesphere.exec;
+
+/**
+ * CPU time and peak resident memory of a run; -1 where the platform could not tell.
+ */
+public class ResourceUsage {
+    
+    public static final ResourceUsage UNKNOWN = new ResourceUsage(-1, -1);
+    
+    private final long cpuNanos;
+    private final long peakRssKilobytes;
+    
+    public ResourceUsage(long cpuNanos, long peakRssKilobytes) {
+        this.cpuNanos = cpuNanos;
+        this.peakRssKilobytes = peakRssKilobytes;
+    }
+    
+    // For runs made of several processes: CPU adds up, memory takes the highest peak
+    public ResourceUsage plus(ResourceUsage other) {
+        long cpu = cpuNanos < 0 ? other.cpuNanos : other.cpuNanos < 0 ? cpuNanos : cpuNanos + other.cpuNanos;
+        return new ResourceUsage(cpu, Math.max(peakRssKilobytes, other.peakRssKilobytes));
+    }
+    
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+    
+    public long getPeakRssKilobytes() {
+        return peakRssKilobytes;
+    }
+}
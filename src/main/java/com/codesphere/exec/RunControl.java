@@ -0,0 +1,143 @@
+package com.codesphere.exec;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets a running job be stopped from outside. Every process the job starts is tracked,
+ * and cancelling kills each one together with its whole process tree.
+ */
+public class RunControl {
+    
+    public enum Reason {
+        STOPPED("Stopped"),
+        TIMED_OUT("Time limit exceeded"),
+        OUTPUT_LIMIT("Output limit exceeded");
+        
+        private final String message;
+        
+        Reason(String message) {
+            this.message = message;
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+    }
+    
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+    private final List<Runnable> startHooks = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Reason cancelReason;
+    private ResourceUsage usage = ResourceUsage.UNKNOWN;
+    
+    public Process track(Process process) {
+        processes.add(process);
+        if (started.compareAndSet(false, true)) {
+            startHooks.forEach(Runnable::run);
+        }
+        // Cancelled while the process was starting
+        if (cancelReason != null) {
+            destroyTree(process);
+        }
+        return process;
+    }
+    
+    public void untrack(Process process) {
+        processes.remove(process);
+    }
+    
+    public void cancel(Reason reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        cancelReason = reason;
+        for (Process process : processes) {
+            destroyTree(process);
+        }
+        cancelHooks.forEach(Runnable::run);
+    }
+    
+    // Runs the hook on cancellation, or right away if the job is already cancelled
+    public void onCancel(Runnable hook) {
+        cancelHooks.add(hook);
+        if (cancelReason != null && cancelHooks.remove(hook)) {
+            hook.run();
+        }
+    }
+    
+    // Runs the hook when the first process is tracked, which for pooled programs is once a
+    // worker has been acquired, so waiting for a free worker is not counted as running
+    public void onStart(Runnable hook) {
+        startHooks.add(hook);
+        if (started.get() && startHooks.remove(hook)) {
+            hook.run();
+        }
+    }
+    
+    public boolean isCancelled() {
+        return cancelReason != null;
+    }
+    
+    public Reason getCancelReason() {
+        return cancelReason;
+    }
+    
+    // Called by whatever ran the program's processes, see ResourceMonitor
+    public synchronized void addUsage(ResourceUsage processUsage) {
+        usage = usage.plus(processUsage);
+    }
+    
+    public synchronized ResourceUsage getUsage() {
+        return usage;
+    }
+    
+    // Throws if the job was cancelled, for checks between stages
+    public void checkCancelled() throws InterruptedException {
+        if (cancelReason != null) {
+            throw new InterruptedException(cancelReason.getMessage());
+        }
+    }
+    
+    // Wraps a sink so a run that prints more than the limit is cut off and cancelled
+    public OutputSink limit(OutputSink sink, long maxChars) {
+        return new OutputSink() {
+            private long written;
+            
+            @Override
+            public void stdout(String text) {
+                if (admit(text)) {
+                    sink.stdout(text);
+                }
+            }
+            
+            @Override
+            public void stderr(String text) {
+                if (admit(text)) {
+                    sink.stderr(text);
+                }
+            }
+            
+            private synchronized boolean admit(String text) {
+                if (written > maxChars) {
+                    return false;
+                }
+                written += text.length();
+                if (written > maxChars) {
+                    cancel(Reason.OUTPUT_LIMIT);
+                }
+                return true;
+            }
+        };
+    }
+    
+    private static void destroyTree(Process process) {
+        // Children first, so nothing is reparented and left running
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
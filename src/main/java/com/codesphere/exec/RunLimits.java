@@ -0,0 +1,48 @@
+package com.codesphere.exec;
+
+import java.util.Locale;
+
+/**
+ * Per-language wall-clock and output limits for one run, including compilation.
+ *
+ * Read from system properties such as codesphere.limits.cpp.timeoutSeconds or
+ * codesphere.limits.python.maxOutputChars, falling back to codesphere.limits.timeoutSeconds
+ * and codesphere.limits.maxOutputChars.
+ */
+public class RunLimits {
+    
+    private static final int DEFAULT_TIMEOUT_SECONDS = 15;
+    // g++ alone can take several seconds on a cold cache
+    private static final int DEFAULT_CPP_TIMEOUT_SECONDS = 30;
+    private static final long DEFAULT_MAX_OUTPUT_CHARS = 16L * 1024 * 1024;
+    
+    private final long timeoutMillis;
+    private final long maxOutputChars;
+    
+    public RunLimits(long timeoutMillis, long maxOutputChars) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputChars = maxOutputChars;
+    }
+    
+    public static RunLimits forLanguage(String language) {
+        String key = propertyKey(language);
+        int defaultTimeout = "cpp".equals(key) ? DEFAULT_CPP_TIMEOUT_SECONDS : DEFAULT_TIMEOUT_SECONDS;
+        long timeoutSeconds = Long.getLong("codesphere.limits." + key + ".timeoutSeconds",
+                Long.getLong("codesphere.limits.timeoutSeconds", defaultTimeout));
+        long maxOutputChars = Long.getLong("codesphere.limits." + key + ".maxOutputChars",
+                Long.getLong("codesphere.limits.maxOutputChars", DEFAULT_MAX_OUTPUT_CHARS));
+        return new RunLimits(timeoutSeconds * 1000, maxOutputChars);
+    }
+    
+    private static String propertyKey(String language) {
+        return "C++".equals(language) ? "cpp" : language.toLowerCase(Locale.ROOT);
+    }
+    
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+    
+    public long getMaxOutputChars() {
+        return maxOutputChars;
+    }
+}
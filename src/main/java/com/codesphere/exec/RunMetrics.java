@@ -0,0 +1,98 @@
+package com.codesphere.exec;
+
+import java.time.Instant;
+
+/**
+ * Timings and resource usage of one run, shown in the UI's status line and written to the
+ * metrics log as one JSON object per line. Negative values mean not measured.
+ */
+public class RunMetrics {
+    
+    private final String timestamp = Instant.now().toString();
+    private final String language;
+    private final String run;
+    private final int exitCode;
+    private final String outcome;
+    private final long buildMillis;
+    private final Boolean cacheHit;
+    private final long wallMillis;
+    private final long cpuMillis;
+    private final long peakRssKb;
+    
+    // run names what was run, e.g. "main" or a judge test case
+    public RunMetrics(String language, String run, int exitCode, RunControl.Reason cancelReason, long buildMillis,
+                      Boolean cacheHit, long wallMillis, ResourceUsage usage) {
+        this.language = language;
+        this.run = run;
+        this.exitCode = exitCode;
+        this.outcome = cancelReason == null ? "finished" : cancelReason.name().toLowerCase();
+        this.buildMillis = buildMillis;
+        this.cacheHit = cacheHit;
+        this.wallMillis = wallMillis;
+        this.cpuMillis = usage.getCpuNanos() < 0 ? -1 : usage.getCpuNanos() / 1_000_000;
+        this.peakRssKb = usage.getPeakRssKilobytes();
+    }
+    
+    // One line for the status bar
+    public String format() {
+        StringBuilder line = new StringBuilder(language);
+        if (buildMillis >= 0) {
+            line.append("  |  build ").append(buildMillis).append(" ms");
+            if (Boolean.TRUE.equals(cacheHit)) {
+                line.append(" (cached)");
+            }
+        }
+        line.append("  |  run ").append(wallMillis).append(" ms wall");
+        if (cpuMillis >= 0) {
+            line.append(", ").append(cpuMillis).append(" ms CPU");
+        }
+        if (peakRssKb >= 0) {
+            line.append("  |  peak RSS ").append(String.format("%.1f MB", peakRssKb / 1024.0));
+        }
+        line.append("  |  exit ").append(exitCode);
+        if (!outcome.equals("finished")) {
+            line.append(" (").append(outcome.replace('_', ' ')).append(")");
+        }
+        return line.toString();
+    }
+    
+    public String getTimestamp() {
+        return timestamp;
+    }
+    
+    public String getLanguage() {
+        return language;
+    }
+    
+    public String getRun() {
+        return run;
+    }
+    
+    public int getExitCode() {
+        return exitCode;
+    }
+    
+    public String getOutcome() {
+        return outcome;
+    }
+    
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+    
+    public Boolean getCacheHit() {
+        return cacheHit;
+    }
+    
+    public long getWallMillis() {
+        return wallMillis;
+    }
+    
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+    
+    public long getPeakRssKb() {
+        return peakRssKb;
+    }
+}
@@ -0,0 +1,166 @@
+package com.codesphere.exec;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * Runs jobs with a fixed concurrency limit and a FIFO queue in front of it. Queued jobs are
+ * told their position, running jobs get a wall-clock limit and can be stopped at any time.
+ *
+ * Jobs run on virtual threads when the JDK has them, otherwise on a fixed pool.
+ */
+public class RunScheduler implements AutoCloseable {
+    
+    public interface Task {
+        void run(RunControl control) throws Exception;
+    }
+    
+    public interface Listener {
+        default void queued(int position) {
+        }
+        
+        default void started() {
+        }
+        
+        // reason is null when the job ran to completion, error is set when it threw
+        default void finished(RunControl.Reason reason, Exception error) {
+        }
+    }
+    
+    private final int maxConcurrent;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final Deque<Job> waiting = new ArrayDeque<>();
+    private int running;
+    
+    public RunScheduler() {
+        this(Integer.getInteger("codesphere.runs.maxConcurrent", Runtime.getRuntime().availableProcessors()));
+    }
+    
+    public RunScheduler(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        executor = newExecutor(this.maxConcurrent);
+        timer = Executors.newSingleThreadScheduledExecutor(JavaWorkerPool.daemon("run-timeouts"));
+    }
+    
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            // JDK 21+, concurrency is still capped by the scheduler itself
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads, JavaWorkerPool.daemon("run-worker"));
+        }
+    }
+    
+    public Job submit(RunLimits limits, Task task, Listener listener) {
+        return trySubmit(limits, task, listener, Integer.MAX_VALUE);
+    }
+    
+    // As submit, but returns null rather than queue the job behind maxWaiting others
+    public Job trySubmit(RunLimits limits, Task task, Listener listener, int maxWaiting) {
+        Job job = new Job(limits, task, listener);
+        synchronized (this) {
+            if (running >= maxConcurrent && waiting.size() >= maxWaiting) {
+                return null;
+            }
+            waiting.addLast(job);
+        }
+        dispatch();
+        return job;
+    }
+    
+    public synchronized int getQueueLength() {
+        return waiting.size();
+    }
+    
+    public synchronized int getRunning() {
+        return running;
+    }
+    
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    
+    private void dispatch() {
+        synchronized (this) {
+            while (running < maxConcurrent && !waiting.isEmpty()) {
+                Job job = waiting.pollFirst();
+                running++;
+                executor.execute(job);
+            }
+            int position = 1;
+            for (Job job : waiting) {
+                job.listener.queued(position++);
+            }
+        }
+    }
+    
+    private synchronized boolean dequeue(Job job) {
+        return waiting.remove(job);
+    }
+    
+    private void finished() {
+        synchronized (this) {
+            running--;
+        }
+        dispatch();
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+    
+    public class Job implements Runnable {
+        private final RunLimits limits;
+        private final Task task;
+        private final Listener listener;
+        private final RunControl control = new RunControl();
+        
+        Job(RunLimits limits, Task task, Listener listener) {
+            this.limits = limits;
+            this.task = task;
+            this.listener = listener;
+        }
+        
+        public RunControl getControl() {
+            return control;
+        }
+        
+        public Listener getListener() {
+            return listener;
+        }
+        
+        public void cancel() {
+            if (dequeue(this)) {
+                control.cancel(RunControl.Reason.STOPPED);
+                listener.finished(RunControl.Reason.STOPPED, null);
+                dispatch();
+            } else {
+                control.cancel(RunControl.Reason.STOPPED);
+            }
+        }
+        
+        @Override
+        public void run() {
+            ScheduledFuture<?> timeout = timer.schedule(() -> control.cancel(RunControl.Reason.TIMED_OUT),
+                    limits.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            Exception error = null;
+            try {
+                if (!control.isCancelled()) {
+                    listener.started();
+                    task.run(control);
+                }
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                timeout.cancel(false);
+                // A job killed from outside usually fails with an I/O error, which is not the real cause
+                listener.finished(control.getCancelReason(), control.isCancelled() ? null : error);
+                finished();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.codesphere.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Drains a process's stdout and stderr concurrently while it runs, so a chatty program
+ * never blocks on a full pipe and output reaches the sink as it is produced.
+ */
+public class StreamPump implements Runnable {
+    
+    private static final int CHUNK_CHARS = 8192;
+    private static final long PROBE_SECONDS = 10;
+    
+    private final InputStream stream;
+    private final Consumer<String> target;
+    
+    public StreamPump(InputStream stream, Consumer<String> target) {
+        this.stream = stream;
+        this.target = target;
+    }
+    
+    // Streams both pipes into the sink and returns the exit code once the process and its output are done
+    public static int drain(Process process, OutputSink sink) throws InterruptedException {
+        return drain(process, new byte[0], sink);
+    }
+    
+    // Same, feeding stdin from its own thread so a program that prints before reading cannot deadlock
+    public static int drain(Process process, byte[] stdin, OutputSink sink) throws InterruptedException {
+        start(() -> {
+            try (OutputStream in = process.getOutputStream()) {
+                in.write(stdin);
+            } catch (IOException e) {
+                // The program exited without reading all of its input
+            }
+        }, "stdin-feeder");
+        Thread out = start(new StreamPump(process.getInputStream(), sink::stdout), "stdout-pump");
+        Thread err = start(new StreamPump(process.getErrorStream(), sink::stderr), "stderr-pump");
+        int exitCode = process.waitFor();
+        out.join();
+        err.join();
+        return exitCode;
+    }
+    
+    // First line a command prints, or null when it cannot run, fails or is still running after
+    // ten seconds, in which case it is killed
+    static String firstLine(String... command) {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            return null;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Thread reader = start(() -> {
+            try (InputStream in = process.getInputStream()) {
+                in.transferTo(output);
+            } catch (IOException e) {
+                // Killed on the deadline
+            }
+        }, "probe-output");
+        try {
+            if (!process.waitFor(PROBE_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return null;
+            }
+            // A child it left behind may hold the pipe open; what was printed by now is enough
+            reader.join(1000);
+            if (process.exitValue() != 0) {
+                return null;
+            }
+            String text = new String(output.toByteArray(), StandardCharsets.UTF_8).trim();
+            return text.isEmpty() ? null : text.split("\\R")[0];
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    private static Thread start(Runnable pump, String name) {
+        Thread thread = new Thread(pump, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+    
+    @Override
+    public void run() {
+        char[] buffer = new char[CHUNK_CHARS];
+        try (Reader reader = new InputStreamReader(stream, Charset.defaultCharset())) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                target.accept(new String(buffer, 0, read));
+            }
+        } catch (IOException e) {
+            // Stream closed because the process was destroyed
+        }
+    }
+}
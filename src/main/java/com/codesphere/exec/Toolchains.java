@@ -0,0 +1,55 @@
+package com.codesphere.exec;
+
+import javax.tools.ToolProvider;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds out which of the languages can run on this machine and with what version, each on its
+ * own background thread, so the UI can show it before the first run fails. Probes the same
+ * commands the runners use: python3 and node; C++ takes the version of the toolchain the runner
+ * detects, rather than detecting it a second time. Java runs in process and needs the JDK's
+ * compiler.
+ */
+public final class Toolchains {
+    
+    private static final Pattern VERSION = Pattern.compile("\\d+\\.\\d+(\\.\\d+)?");
+    
+    private Toolchains() {
+    }
+    
+    // For each of CodeRunner.LANGUAGES, a future version such as "3.11.2", or null when not installed
+    public static Map<String, CompletableFuture<String>> probe(CompletableFuture<CppToolchain> cppToolchain) {
+        Map<String, CompletableFuture<String>> versions = new LinkedHashMap<>();
+        versions.put("Java", probe(() -> ToolProvider.getSystemJavaCompiler() == null ? null : System.getProperty("java.version")));
+        versions.put("Python", probe(() -> version("python3", "--version")));
+        versions.put("JavaScript", probe(() -> version("node", "--version")));
+        versions.put("C++", cppToolchain.handle((toolchain, error) -> toolchain == null ? null : parse(toolchain.getVersion())));
+        return Collections.unmodifiableMap(versions);
+    }
+    
+    private static CompletableFuture<String> probe(Supplier<String> version) {
+        Executor thread = runnable -> {
+            Thread probe = new Thread(runnable, "toolchain-probe");
+            probe.setDaemon(true);
+            probe.start();
+        };
+        return CompletableFuture.supplyAsync(version, thread);
+    }
+    
+    private static String version(String... command) {
+        String line = StreamPump.firstLine(command);
+        return line == null ? null : parse(line);
+    }
+    
+    private static String parse(String line) {
+        Matcher matcher = VERSION.matcher(line);
+        return matcher.find() ? matcher.group() : line;
+    }
+}
@@ -0,0 +1,184 @@
+package com.codesphere.exec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Keeps a fixed number of warm {@link WorkerProcess}es ready. Workers are recycled after
+ * a number of runs, when they die, or when {@link #isWorn} says so, and replaced in the background.
+ */
+public abstract class WorkerPool<W extends WorkerProcess> implements AutoCloseable {
+    
+    private static final long PING_TIMEOUT_MILLIS = 2000;
+    // A failed start is retried after this, doubling up to the maximum while it keeps failing
+    private static final long RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60000;
+    
+    // Runs one request on an acquired worker
+    protected interface WorkerCall<W, T> {
+        T call(W worker) throws IOException;
+    }
+    
+    private final String name;
+    private final int size;
+    private final int maxRuns;
+    private final BlockingQueue<W> idle = new LinkedBlockingQueue<>();
+    private final ExecutorService starter;
+    private final ScheduledExecutorService healthChecker;
+    private volatile boolean closed;
+    private volatile String startFailure;
+    
+    protected WorkerPool(String name, int size, int maxRuns, long healthCheckMillis) {
+        this.name = name;
+        this.size = Math.max(1, size);
+        this.maxRuns = Math.max(1, maxRuns);
+        String threadName = name.toLowerCase().replace(' ', '-');
+        starter = Executors.newCachedThreadPool(daemon(threadName + "-starter"));
+        healthChecker = Executors.newSingleThreadScheduledExecutor(daemon(threadName + "-health"));
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    // Subclasses call this at the end of their constructor, once startWorker can run
+    protected void fill() {
+        for (int i = 0; i < size; i++) {
+            startReplacement();
+        }
+    }
+    
+    protected abstract W startWorker() throws IOException;
+    
+    // Extra recycling rule on top of the run count, checked after every run
+    protected boolean isWorn(W worker) {
+        return false;
+    }
+    
+    // Cancelling the control kills the worker, which the pool then replaces
+    protected <T> T withWorker(RunControl control, WorkerCall<W, T> call) throws IOException, InterruptedException {
+        W worker = acquire();
+        control.track(worker.getProcess());
+        ResourceMonitor.Session usage = ResourceMonitor.start(worker.getProcess());
+        try {
+            return call.call(worker);
+        } catch (IOException e) {
+            worker.destroy();
+            throw e;
+        } finally {
+            control.addUsage(usage.stop());
+            control.untrack(worker.getProcess());
+            release(worker);
+        }
+    }
+    
+    W acquire() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (true) {
+            W worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker == null) {
+                if (startFailure != null) {
+                    throw new IOException("Could not start " + name + ": " + startFailure);
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("No " + name + " became available");
+                }
+                continue;
+            }
+            if (!worker.isRetired()) {
+                return worker;
+            }
+            worker.destroy();
+            startReplacement();
+        }
+    }
+    
+    void release(W worker) {
+        if (closed || worker.isRetired() || worker.getRuns() >= maxRuns || isWorn(worker)) {
+            worker.destroy();
+            startReplacement();
+        } else {
+            idle.offer(worker);
+        }
+    }
+    
+    private void startReplacement() {
+        startReplacement(0);
+    }
+    
+    // failures counts the starts of this slot that failed in a row
+    private void startReplacement(int failures) {
+        if (closed) {
+            return;
+        }
+        starter.execute(() -> {
+            String failure;
+            try {
+                W worker = startWorker();
+                // The first ping returns once the worker is up and warmed
+                if (worker.ping(TimeUnit.SECONDS.toMillis(30))) {
+                    startFailure = null;
+                    idle.offer(worker);
+                    return;
+                }
+                worker.destroy();
+                failure = "the worker did not answer after starting";
+            } catch (IOException e) {
+                failure = e.getMessage();
+            }
+            // Usually the interpreter is not installed; runs fail fast instead of waiting, and the
+            // slot is retried so the pool does not shrink for good
+            startFailure = failure;
+            if (failures == 0) {
+                System.err.println("Could not start " + name + ": " + failure);
+            }
+            long delay = Math.min(MAX_RETRY_MILLIS, RETRY_MILLIS << Math.min(failures, 16));
+            try {
+                healthChecker.schedule(() -> startReplacement(failures + 1), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile
+            }
+        });
+    }
+    
+    // Pings idle workers and replaces the ones that stopped answering
+    private void checkHealth() {
+        List<W> workers = new ArrayList<>();
+        idle.drainTo(workers);
+        for (W worker : workers) {
+            if (worker.ping(PING_TIMEOUT_MILLIS)) {
+                idle.offer(worker);
+            } else {
+                worker.destroy();
+                startReplacement();
+            }
+        }
+    }
+    
+    // False once a worker failed to start and none has started since
+    public boolean isAvailable() {
+        return startFailure == null;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        healthChecker.shutdownNow();
+        starter.shutdownNow();
+        W worker;
+        while ((worker = idle.poll()) != null) {
+            worker.destroy();
+        }
+    }
+    
+    public static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package com.codesphere.exec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host side of one long-lived worker process that runs programs on request.
+ *
+ * Requests are an op byte followed by its payload; replies are frames of
+ * (type byte, int length, bytes). A run streams stdout/stderr frames and ends with an exit frame.
+ */
+public abstract class WorkerProcess {
+    
+    static final int OP_RUN = 'R';
+    static final int OP_PING = 'P';
+    
+    static final int FRAME_STDOUT = 'O';
+    static final int FRAME_STDERR = 'E';
+    static final int FRAME_EXIT = 'X';
+    static final int FRAME_PONG = 'P';
+    
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(WorkerPool.daemon("worker-ping-timer"));
+    
+    protected final Process process;
+    protected final DataOutputStream toWorker;
+    private final DataInputStream fromWorker;
+    private int runs;
+    private boolean retired;
+    
+    protected WorkerProcess(List<String> command) throws IOException {
+        process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+        fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+    }
+    
+    // Call after writing a run request; streams output into the sink and returns
+    // the exit frame's payload, or null when the worker process ended instead
+    protected DataInputStream readRun(OutputSink sink) throws IOException {
+        runs++;
+        ChunkDecoder stdout = new ChunkDecoder();
+        ChunkDecoder stderr = new ChunkDecoder();
+        while (true) {
+            int type;
+            byte[] payload;
+            try {
+                type = fromWorker.readByte();
+                payload = new byte[fromWorker.readInt()];
+                fromWorker.readFully(payload);
+            } catch (EOFException e) {
+                // The program exited the whole process or the worker crashed, either way it is gone
+                retired = true;
+                return null;
+            }
+            if (type == FRAME_STDOUT) {
+                sink.stdout(stdout.decode(payload));
+            } else if (type == FRAME_STDERR) {
+                sink.stderr(stderr.decode(payload));
+            } else if (type == FRAME_EXIT) {
+                return new DataInputStream(new ByteArrayInputStream(payload));
+            }
+        }
+    }
+    
+    // A worker that does not answer in time is killed, which ends the blocked read
+    public boolean ping(long timeoutMillis) {
+        if (!process.isAlive()) {
+            return false;
+        }
+        ScheduledFuture<?> kill = TIMER.schedule(this::destroy, timeoutMillis, TimeUnit.MILLISECONDS);
+        boolean answered;
+        try {
+            toWorker.writeByte(OP_PING);
+            toWorker.flush();
+            answered = fromWorker.readByte() == FRAME_PONG && fromWorker.readInt() == 0;
+        } catch (IOException e) {
+            answered = false;
+        }
+        // Too late if the timer already fired
+        return kill.cancel(false) && answered;
+    }
+    
+    Process getProcess() {
+        return process;
+    }
+    
+    public int getRuns() {
+        return runs;
+    }
+    
+    protected void retire() {
+        retired = true;
+    }
+    
+    public boolean isRetired() {
+        return retired || !process.isAlive();
+    }
+    
+    public void destroy() {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+    
+    protected int exitValue() {
+        try {
+            process.waitFor(5, TimeUnit.SECONDS);
+            return process.exitValue();
+        } catch (InterruptedException | IllegalThreadStateException e) {
+            return -1;
+        }
+    }
+    
+    // Frames can split a multi-byte character, so undecodable tails wait for the next chunk
+    private static class ChunkDecoder {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private byte[] leftover = new byte[0];
+        
+        String decode(byte[] bytes) {
+            ByteBuffer in;
+            if (leftover.length == 0) {
+                in = ByteBuffer.wrap(bytes);
+            } else {
+                in = ByteBuffer.allocate(leftover.length + bytes.length).put(leftover).put(bytes);
+                in.flip();
+            }
+            CharBuffer out = CharBuffer.allocate(in.remaining() + 1);
+            decoder.decode(in, out, false);
+            leftover = new byte[in.remaining()];
+            in.get(leftover);
+            out.flip();
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.codesphere.exec;
+
+import com.codesphere.diag.ExecutionStageEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Private scratch directory for one run, so overlapping runs never share source or binary paths.
+ *
+ * Workspaces live in /dev/shm when it is a writable, exec-allowed tmpfs (no disk I/O for the
+ * short-lived files), otherwise under temp/runs. codesphere.workspace.dir overrides both.
+ * Closing a workspace deletes it on a background thread.
+ */
+public class Workspace implements AutoCloseable {
+    
+    private static final Path BASE = chooseBase();
+    private static final ExecutorService CLEANER = Executors.newSingleThreadExecutor(JavaWorkerPool.daemon("workspace-cleaner"));
+    
+    private final Path dir;
+    
+    private Workspace(Path dir) {
+        this.dir = dir;
+    }
+    
+    public static Workspace create() throws IOException {
+        Files.createDirectories(BASE);
+        return new Workspace(Files.createTempDirectory(BASE, "run-"));
+    }
+    
+    public static Path getBase() {
+        return BASE;
+    }
+    
+    public Path getDir() {
+        return dir;
+    }
+    
+    public Path resolve(String name) {
+        return dir.resolve(name);
+    }
+    
+    public Path write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        try (Writer writer = Files.newBufferedWriter(file, Charset.defaultCharset())) {
+            writer.write(content);
+        }
+        return file;
+    }
+    
+    @Override
+    public void close() {
+        CLEANER.execute(() -> {
+            ExecutionStageEvent stage = ExecutionStageEvent.start(null, ExecutionStageEvent.CLEANUP);
+            deleteTree(dir);
+            stage.commit();
+        });
+    }
+    
+    static void deleteTree(Path root) {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException | UncheckedIOException ignored) {
+            // Already gone
+        }
+    }
+    
+    private static Path chooseBase() {
+        String configured = System.getProperty("codesphere.workspace.dir");
+        if (configured != null) {
+            return Paths.get(configured);
+        }
+        Path shm = Paths.get("/dev/shm");
+        if (Files.isDirectory(shm) && Files.isWritable(shm) && !isMountedNoExec(shm)) {
+            return shm.resolve("codesphere-" + System.getProperty("user.name"));
+        }
+        return Paths.get("temp", "runs").toAbsolutePath();
+    }
+    
+    // C++ binaries are executed from the workspace, which a noexec mount would refuse
+    private static boolean isMountedNoExec(Path mountPoint) {
+        try (Stream<String> mounts = Files.lines(Paths.get("/proc/mounts"))) {
+            return mounts.map(line -> line.split(" "))
+                    .filter(fields -> fields.length > 3 && fields[1].equals(mountPoint.toString()))
+                    .anyMatch(fields -> Arrays.asList(fields[3].split(",")).contains("noexec"));
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.codesphere.judge;
+
+import com.codesphere.diag.ExecutionStageEvent;
+import com.codesphere.exec.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compiles a submission once and runs it against many test cases in parallel, piping each
+ * input to stdin and comparing stdout with the expected output.
+ *
+ * Headless use: java -cp codesphere.jar com.codesphere.CodeSphereSwing --judge Main.java tests/
+ * [--language L] [--threads N] [--timeout SECONDS] [--whitespace]
+ */
+public class BatchJudge {
+    
+    public enum Comparison {
+        EXACT,
+        // Compares whitespace-separated tokens, so trailing spaces and newlines do not matter
+        WHITESPACE
+    }
+    
+    public enum Verdict {
+        PASSED, WRONG_ANSWER, RUNTIME_ERROR, TIME_LIMIT, OUTPUT_LIMIT, SKIPPED
+    }
+    
+    private final CodeRunner runner;
+    private final int threads;
+    private final long caseTimeoutMillis;
+    private final long maxOutputChars;
+    private final Comparison comparison;
+    
+    public BatchJudge(CodeRunner runner, int threads, RunLimits caseLimits, Comparison comparison) {
+        this.runner = runner;
+        this.threads = Math.max(1, threads);
+        this.caseTimeoutMillis = caseLimits.getTimeoutMillis();
+        this.maxOutputChars = caseLimits.getMaxOutputChars();
+        this.comparison = comparison;
+    }
+    
+    // Streams one line per finished case and a summary into report; returns results in case order
+    public List<CaseResult> judge(String language, String code, List<TestCase> cases, OutputSink report, RunControl control)
+            throws Exception {
+        long suiteStart = System.nanoTime();
+        Program program = runner.prepare(language, code, report, control);
+        if (program == null) {
+            return Collections.emptyList();
+        }
+        // More threads than pooled workers would only queue cases for a worker
+        int threads = Math.min(this.threads, runner.getParallelism(language));
+        report.stdout("Compiled in " + millisSince(suiteStart) + " ms" + runner.describeCache(program)
+                + "\nRunning " + cases.size() + " test cases on " + threads + " threads ("
+                + (comparison == Comparison.EXACT ? "exact" : "whitespace-tolerant") + " comparison)\n\n");
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads, JavaWorkerPool.daemon("judge-case"));
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(JavaWorkerPool.daemon("judge-timeouts"));
+        Set<RunControl> activeCases = ConcurrentHashMap.newKeySet();
+        control.onCancel(() -> activeCases.forEach(c -> c.cancel(RunControl.Reason.STOPPED)));
+        try (Program prepared = program) {
+            long runStart = System.nanoTime();
+            List<Future<CaseResult>> futures = new ArrayList<>();
+            for (TestCase testCase : cases) {
+                futures.add(pool.submit(() -> {
+                    CaseResult result = runCase(language, prepared, testCase, control, activeCases, timer);
+                    report.stdout(result.format() + "\n");
+                    return result;
+                }));
+            }
+            List<CaseResult> results = new ArrayList<>();
+            for (Future<CaseResult> future : futures) {
+                results.add(future.get());
+            }
+            report.stdout(summarize(results, millisSince(runStart)));
+            return results;
+        } finally {
+            pool.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+    
+    private CaseResult runCase(String language, Program program, TestCase testCase, RunControl suite,
+                               Set<RunControl> activeCases, ScheduledExecutorService timer) {
+        if (suite.isCancelled()) {
+            return new CaseResult(testCase.getName(), Verdict.SKIPPED, 0, -1, "", ResourceUsage.UNKNOWN);
+        }
+        RunControl control = new RunControl();
+        activeCases.add(control);
+        // The time limit and clock start once the program runs, not while it waits for a worker
+        AtomicLong start = new AtomicLong();
+        AtomicReference<ScheduledFuture<?>> timeout = new AtomicReference<>();
+        control.onStart(() -> {
+            start.set(System.nanoTime());
+            timeout.set(timer.schedule(() -> control.cancel(RunControl.Reason.TIMED_OUT), caseTimeoutMillis, TimeUnit.MILLISECONDS));
+        });
+        CapturingSink captured = new CapturingSink();
+        ExecutionStageEvent stage = ExecutionStageEvent.start(language, ExecutionStageEvent.RUN);
+        int exitCode;
+        try {
+            exitCode = program.run(testCase.getInput(), control.limit(captured, maxOutputChars), control);
+        } catch (Exception e) {
+            captured.stderr(String.valueOf(e.getMessage()));
+            exitCode = -1;
+        } finally {
+            stage.commit();
+            if (timeout.get() != null) {
+                timeout.get().cancel(false);
+            }
+            activeCases.remove(control);
+        }
+        long millis = start.get() == 0 ? 0 : millisSince(start.get());
+        
+        Verdict verdict;
+        if (control.getCancelReason() == RunControl.Reason.TIMED_OUT) {
+            verdict = Verdict.TIME_LIMIT;
+        } else if (control.getCancelReason() == RunControl.Reason.OUTPUT_LIMIT) {
+            verdict = Verdict.OUTPUT_LIMIT;
+        } else if (control.isCancelled()) {
+            verdict = Verdict.SKIPPED;
+        } else if (exitCode != 0) {
+            verdict = Verdict.RUNTIME_ERROR;
+        } else {
+            verdict = matches(captured.stdout.toString(), testCase.getExpected()) ? Verdict.PASSED : Verdict.WRONG_ANSWER;
+        }
+        runner.recordMetrics(new RunMetrics(language, testCase.getName(), exitCode, control.getCancelReason(), -1, null,
+                millis, control.getUsage()));
+        return new CaseResult(testCase.getName(), verdict, millis, exitCode, captured.firstError(), control.getUsage());
+    }
+    
+    boolean matches(String actual, String expected) {
+        if (comparison == Comparison.EXACT) {
+            return actual.equals(expected);
+        }
+        String[] actualTokens = actual.trim().split("\\s+");
+        String[] expectedTokens = expected.trim().split("\\s+");
+        return Arrays.equals(actualTokens, expectedTokens);
+    }
+    
+    private static String summarize(List<CaseResult> results, long wallMillis) {
+        Map<Verdict, Integer> counts = new EnumMap<>(Verdict.class);
+        long totalMillis = 0, maxMillis = 0;
+        for (CaseResult result : results) {
+            counts.merge(result.getVerdict(), 1, Integer::sum);
+            totalMillis += result.getMillis();
+            maxMillis = Math.max(maxMillis, result.getMillis());
+        }
+        StringBuilder summary = new StringBuilder("\nPassed ")
+                .append(counts.getOrDefault(Verdict.PASSED, 0)).append("/").append(results.size());
+        for (Map.Entry<Verdict, Integer> entry : counts.entrySet()) {
+            if (entry.getKey() != Verdict.PASSED) {
+                summary.append(", ").append(entry.getValue()).append(" ").append(entry.getKey());
+            }
+        }
+        summary.append("\nWall time ").append(wallMillis).append(" ms, per case avg ")
+                .append(results.isEmpty() ? 0 : totalMillis / results.size()).append(" ms, max ").append(maxMillis).append(" ms\n");
+        return summary.toString();
+    }
+    
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+    
+    public static class CaseResult {
+        private final String name;
+        private final Verdict verdict;
+        private final long millis;
+        private final int exitCode;
+        private final String error;
+        private final ResourceUsage usage;
+        
+        CaseResult(String name, Verdict verdict, long millis, int exitCode, String error, ResourceUsage usage) {
+            this.name = name;
+            this.verdict = verdict;
+            this.millis = millis;
+            this.exitCode = exitCode;
+            this.error = error;
+            this.usage = usage;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public Verdict getVerdict() {
+            return verdict;
+        }
+        
+        public long getMillis() {
+            return millis;
+        }
+        
+        public int getExitCode() {
+            return exitCode;
+        }
+        
+        public ResourceUsage getUsage() {
+            return usage;
+        }
+        
+        String format() {
+            String line = String.format("%-20s %-14s %6d ms", name, verdict, millis);
+            if (usage.getPeakRssKilobytes() >= 0) {
+                line += String.format(" %8.1f MB", usage.getPeakRssKilobytes() / 1024.0);
+            }
+            if (verdict == Verdict.RUNTIME_ERROR) {
+                line += "  exit " + exitCode + (error.isEmpty() ? "" : ": " + error);
+            }
+            return line;
+        }
+    }
+    
+    private static class CapturingSink implements OutputSink {
+        private static final int MAX_ERROR_CHARS = 200;
+        
+        final StringBuilder stdout = new StringBuilder();
+        private final StringBuilder stderr = new StringBuilder();
+        
+        @Override
+        public synchronized void stdout(String text) {
+            stdout.append(text);
+        }
+        
+        @Override
+        public synchronized void stderr(String text) {
+            if (stderr.length() < MAX_ERROR_CHARS) {
+                stderr.append(text);
+            }
+        }
+        
+        synchronized String firstError() {
+            String error = stderr.toString().trim();
+            int newline = error.indexOf('\n');
+            return newline < 0 ? error : error.substring(0, newline);
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: --judge <source file> <tests dir> [--language L] [--threads N] [--timeout SECONDS] [--whitespace]");
+            System.exit(2);
+        }
+        Path source = Paths.get(args[0]);
+        Path testsDir = Paths.get(args[1]);
+        String language = CodeRunner.languageForFile(source.getFileName().toString());
+        int threads = Runtime.getRuntime().availableProcessors();
+        Long timeoutSeconds = null;
+        Comparison comparison = Comparison.EXACT;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--language":
+                    language = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--timeout":
+                    timeoutSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "--whitespace":
+                    comparison = Comparison.WHITESPACE;
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (language == null || !CodeRunner.LANGUAGES.contains(language)) {
+            System.err.println("Unknown language, pass one of " + CodeRunner.LANGUAGES + " with --language");
+            System.exit(2);
+        }
+        
+        RunLimits limits = RunLimits.forLanguage(language);
+        if (timeoutSeconds != null) {
+            limits = new RunLimits(timeoutSeconds * 1000, limits.getMaxOutputChars());
+        }
+        String code = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+        List<TestCase> cases = TestCase.loadDirectory(testsDir);
+        
+        // One warm worker per judging thread, recycled rarely since every run loads a fresh class loader
+        JavaWorkerPool javaWorkers = new JavaWorkerPool("Java".equals(language) ? threads : 1, 1000, 30000);
+        InterpreterPool pythonInterpreters = "Python".equals(language) ? InterpreterPool.python(threads) : null;
+        InterpreterPool nodeInterpreters = "JavaScript".equals(language) ? InterpreterPool.javascript(threads) : null;
+        CompletableFuture<CppToolchain> cppToolchain = "C++".equals(language) ? CodeRunner.detectCppToolchain() : null;
+        try (CodeRunner runner = new CodeRunner(javaWorkers, pythonInterpreters, nodeInterpreters, cppToolchain,
+                CodeRunner.openBuildCache(Paths.get("temp", "cache")))) {
+            OutputSink console = new OutputSink() {
+                @Override
+                public void stdout(String text) {
+                    System.out.print(text);
+                }
+                
+                @Override
+                public void stderr(String text) {
+                    System.err.print(text);
+                }
+            };
+            List<CaseResult> results = new BatchJudge(runner, threads, limits, comparison)
+                    .judge(language, code, cases, console, new RunControl());
+            boolean allPassed = !results.isEmpty() && results.stream().allMatch(r -> r.getVerdict() == Verdict.PASSED);
+            System.out.flush();
+            System.exit(allPassed ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.codesphere.judge;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * One input/expected-output pair. A test directory holds NAME.in files next to
+ * NAME.out (or NAME.ans / NAME.expected) files.
+ */
+public class TestCase {
+    
+    private static final String[] EXPECTED_EXTENSIONS = {".out", ".ans", ".expected"};
+    
+    private final String name;
+    private final byte[] input;
+    private final String expected;
+    
+    public TestCase(String name, byte[] input, String expected) {
+        this.name = name;
+        this.input = input;
+        this.expected = expected;
+    }
+    
+    public static List<TestCase> loadDirectory(Path dir) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".in")).forEach(inputs::add);
+        }
+        inputs.sort(Comparator.comparing(file -> file.getFileName().toString(), TestCase::compareNatural));
+        
+        List<TestCase> cases = new ArrayList<>();
+        for (Path input : inputs) {
+            String fileName = input.getFileName().toString();
+            String name = fileName.substring(0, fileName.length() - ".in".length());
+            Path expected = findExpected(dir, name);
+            if (expected == null) {
+                throw new IOException("No expected output for " + fileName);
+            }
+            cases.add(new TestCase(name, Files.readAllBytes(input),
+                    new String(Files.readAllBytes(expected), StandardCharsets.UTF_8)));
+        }
+        return cases;
+    }
+    
+    private static Path findExpected(Path dir, String name) {
+        for (String extension : EXPECTED_EXTENSIONS) {
+            Path file = dir.resolve(name + extension);
+            if (Files.isRegularFile(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+    
+    // So that "2" sorts before "10"
+    private static int compareNatural(String a, String b) {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i), cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int endA = i, endB = j;
+                while (endA < a.length() && Character.isDigit(a.charAt(endA))) endA++;
+                while (endB < b.length() && Character.isDigit(b.charAt(endB))) endB++;
+                String numberA = a.substring(i, endA).replaceFirst("^0+(?=.)", "");
+                String numberB = b.substring(j, endB).replaceFirst("^0+(?=.)", "");
+                int result = numberA.length() != numberB.length()
+                        ? Integer.compare(numberA.length(), numberB.length()) : numberA.compareTo(numberB);
+                if (result != 0) {
+                    return result;
+                }
+                i = endA;
+                j = endB;
+            } else {
+                if (ca != cb) {
+                    return Character.compare(ca, cb);
+                }
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public byte[] getInput() {
+        return input;
+    }
+    
+    public String getExpected() {
+        return expected;
+    }
+}
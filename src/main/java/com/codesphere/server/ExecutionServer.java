@@ -0,0 +1,449 @@
+package com.codesphere.server;
+
+import com.codesphere.exec.CodeRunner;
+import com.codesphere.exec.OutputSink;
+import com.codesphere.exec.Program;
+import com.codesphere.exec.RunControl;
+import com.codesphere.exec.RunLimits;
+import com.codesphere.exec.RunMetrics;
+import com.codesphere.exec.RunScheduler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless HTTP front end to the language runners, for the web app and scripts, on the JDK's
+ * built-in server. Runs go through a {@link RunScheduler} like the Run Code button's, so they get
+ * the same limits, warm workers and build cache.
+ *
+ *   POST /run      {"language": "Java", "code": "..."}  compiles and runs, as Run Code does
+ *   POST /compile  {"language": "cpp", "code": "..."}   only compiles
+ *   GET  /metrics  queue depth, counts and latency percentiles
+ *
+ * Runs and compiles answer with a chunked stream of JSON lines as they happen: queued, started,
+ * stdout and stderr events with text, then a finished event with the outcome and metrics. When
+ * too many runs are already waiting they answer 429 straight away instead.
+ *
+ * Running code is what the server is for, so it only serves callers that prove they may: runs
+ * and compiles must be sent as application/json, which a web page can only do after a CORS
+ * preflight, requests from any web origin but the allowed one are refused, and every request
+ * must carry the server's token as "Authorization: Bearer <token>".
+ *
+ * Headless use: java -cp codesphere.jar com.codesphere.CodeSphereSwing --server [--port N] [--host H]
+ *
+ * Settings (system properties):
+ *   codesphere.server.maxQueued    runs waiting for a slot before new ones get 429, default 256
+ *   codesphere.server.allowOrigin  a web origin allowed to call the server, default none
+ *   codesphere.server.token        the token callers must send, default a random one printed at
+ *                                  start; none turns the check off
+ *   codesphere.runs.maxConcurrent  runs at once, see RunScheduler
+ */
+public class ExecutionServer implements AutoCloseable {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int DEFAULT_PORT = 8090;
+    private static final int MAX_REQUEST_BYTES = 4 * 1024 * 1024;
+    // Connections waiting to be accepted; a burst beyond this is reset rather than answered 429
+    private static final int BACKLOG = 1024;
+    
+    private final CodeRunner runner;
+    private final RunScheduler scheduler;
+    private final int maxQueued;
+    private final String allowOrigin = System.getProperty("codesphere.server.allowOrigin");
+    // Null when callers are not asked for one
+    private final String token;
+    private final HttpServer http;
+    // Handlers only parse and queue; output is written from the run threads
+    private final ExecutorService handlers = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "http-handler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final Latencies queueLatency = new Latencies(1024);
+    private final Latencies runLatency = new Latencies(1024);
+    
+    public ExecutionServer(CodeRunner runner, RunScheduler scheduler, InetSocketAddress address) throws IOException {
+        this(runner, scheduler, Integer.getInteger("codesphere.server.maxQueued", 256), address);
+    }
+    
+    public ExecutionServer(CodeRunner runner, RunScheduler scheduler, int maxQueued, InetSocketAddress address) throws IOException {
+        this.runner = runner;
+        this.scheduler = scheduler;
+        this.maxQueued = maxQueued;
+        String configured = System.getProperty("codesphere.server.token");
+        token = configured == null ? newToken() : configured.equals("none") ? null : configured;
+        http = HttpServer.create(address, BACKLOG);
+        http.createContext("/run", exchange -> handleRun(exchange, false));
+        http.createContext("/compile", exchange -> handleRun(exchange, true));
+        http.createContext("/metrics", this::handleMetrics);
+        http.setExecutor(handlers);
+    }
+    
+    public void start() {
+        http.start();
+    }
+    
+    public InetSocketAddress getAddress() {
+        return http.getAddress();
+    }
+    
+    // Null when the check is off
+    public String getToken() {
+        return token;
+    }
+    
+    private static String newToken() {
+        byte[] bytes = new byte[24];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    @Override
+    public void close() {
+        http.stop(0);
+        handlers.shutdownNow();
+    }
+    
+    private void handleRun(HttpExchange exchange, boolean compileOnly) throws IOException {
+        if (!allowed(exchange, "POST")) {
+            return;
+        }
+        // A form or a text/plain fetch reaches here without a preflight, JSON does not
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type == null || !type.split(";")[0].trim().equalsIgnoreCase("application/json")) {
+            reply(exchange, 415, error("Send the request as application/json"));
+            return;
+        }
+        JsonNode request;
+        try {
+            request = MAPPER.readTree(readBody(exchange));
+        } catch (IOException e) {
+            reply(exchange, 400, error("Bad request: " + e.getMessage()));
+            return;
+        }
+        String language = language(request.path("language").asText());
+        String code = request.path("code").isTextual() ? request.path("code").asText() : null;
+        if (language == null || code == null) {
+            reply(exchange, 400, error("Expected {\"language\": one of " + CodeRunner.LANGUAGES + ", \"code\": \"...\"}"));
+            return;
+        }
+        RunLimits limits = RunLimits.forLanguage(language);
+        RunStream stream = new RunStream(exchange);
+        RunScheduler.Task task;
+        if (compileOnly) {
+            task = control -> {
+                try (Program program = runner.prepare(language, code, control.limit(stream, limits.getMaxOutputChars()), control)) {
+                    stream.compiled = program != null;
+                }
+            };
+        } else {
+            task = control -> stream.metrics = runner.execute(language, code, control.limit(stream, limits.getMaxOutputChars()), control);
+        }
+        // Holding the stream keeps events back until the response has started
+        synchronized (stream) {
+            RunScheduler.Job job = scheduler.trySubmit(limits, task, stream, maxQueued);
+            if (job == null) {
+                rejected.incrementAndGet();
+                reply(exchange, 429, error("Too many runs waiting, try again later"));
+                return;
+            }
+            accepted.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            try {
+                exchange.sendResponseHeaders(200, 0);
+            } catch (IOException e) {
+                job.cancel();
+                throw e;
+            }
+            stream.open(job);
+        }
+    }
+    
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!allowed(exchange, "GET")) {
+            return;
+        }
+        ObjectNode metrics = MAPPER.createObjectNode()
+                .put("running", scheduler.getRunning())
+                .put("queued", scheduler.getQueueLength())
+                .put("maxConcurrent", scheduler.getMaxConcurrent())
+                .put("maxQueued", maxQueued)
+                .put("accepted", accepted.get())
+                .put("rejected", rejected.get())
+                .put("completed", completed.get());
+        metrics.set("queueMillis", queueLatency.summary());
+        metrics.set("runMillis", runLatency.summary());
+        reply(exchange, 200, metrics);
+    }
+    
+    // Answers CORS preflights, foreign origins, wrong methods and missing tokens itself; true
+    // when the handler should go on
+    private boolean allowed(HttpExchange exchange, String method) throws IOException {
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (origin != null && !origin.equals(allowOrigin)) {
+            reply(exchange, 403, error("Origin " + origin + " may not use this server"));
+            return false;
+        }
+        if (allowOrigin != null) {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", allowOrigin);
+        }
+        if (allowOrigin != null && exchange.getRequestMethod().equals("OPTIONS")) {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Methods", method);
+            exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type, Authorization");
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return false;
+        }
+        if (!exchange.getRequestMethod().equals(method)) {
+            exchange.getResponseHeaders().set("Allow", method);
+            reply(exchange, 405, error("Use " + method));
+            return false;
+        }
+        if (token != null && !authorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            reply(exchange, 401, error("Send the server's token as Authorization: Bearer <token>"));
+            return false;
+        }
+        return true;
+    }
+    
+    // Compared in constant time, so the token cannot be guessed from how fast it is refused
+    private boolean authorized(String header) {
+        String prefix = "Bearer ";
+        if (header == null || !header.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return false;
+        }
+        byte[] sent = header.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(sent, token.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+                if (body.size() > MAX_REQUEST_BYTES) {
+                    throw new IOException("request larger than " + MAX_REQUEST_BYTES + " bytes");
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+    
+    private static void reply(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(json);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private static ObjectNode error(String message) {
+        return MAPPER.createObjectNode().put("error", message);
+    }
+    
+    // Accepts the desktop's names and the web app's lower-case ones, such as "cpp"
+    static String language(String name) {
+        for (String language : CodeRunner.LANGUAGES) {
+            if (language.equalsIgnoreCase(name)) {
+                return language;
+            }
+        }
+        return "cpp".equalsIgnoreCase(name) ? "C++" : null;
+    }
+    
+    /**
+     * One run's response, written as JSON lines from whichever thread has news: the run thread,
+     * or a pump thread for output. If the client goes away the run is stopped.
+     */
+    private class RunStream implements OutputSink, RunScheduler.Listener {
+        private final HttpExchange exchange;
+        private final long submitted = System.nanoTime();
+        private OutputStream body;
+        private RunScheduler.Job job;
+        private volatile int position;
+        private long started;
+        private boolean gone;
+        volatile RunMetrics metrics;
+        volatile boolean compiled;
+        
+        RunStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+        
+        synchronized void open(RunScheduler.Job job) {
+            this.job = job;
+            body = exchange.getResponseBody();
+            if (started == 0 && position > 0) {
+                write(event("queued").put("position", position));
+            }
+        }
+        
+        // Called with the scheduler locked, so only noted here
+        @Override
+        public void queued(int position) {
+            this.position = position;
+        }
+        
+        @Override
+        public synchronized void started() {
+            started = System.nanoTime();
+            queueLatency.add(started - submitted);
+            write(event("started"));
+        }
+        
+        @Override
+        public void stdout(String text) {
+            write(event("stdout").put("text", text));
+        }
+        
+        @Override
+        public void stderr(String text) {
+            write(event("stderr").put("text", text));
+        }
+        
+        @Override
+        public synchronized void finished(RunControl.Reason reason, Exception error) {
+            if (started != 0) {
+                runLatency.add(System.nanoTime() - started);
+            }
+            completed.incrementAndGet();
+            ObjectNode event = event("finished")
+                    .put("outcome", reason != null ? reason.name().toLowerCase() : error != null ? "error" : "finished");
+            if (error != null) {
+                event.put("error", String.valueOf(error.getMessage()));
+            }
+            if (metrics != null) {
+                event.set("metrics", MAPPER.valueToTree(metrics));
+            } else {
+                event.put("compiled", compiled);
+            }
+            write(event);
+            exchange.close();
+        }
+        
+        private synchronized void write(ObjectNode event) {
+            if (gone || body == null) {
+                return;
+            }
+            try {
+                body.write(MAPPER.writeValueAsBytes(event));
+                body.write('\n');
+                body.flush();
+            } catch (IOException e) {
+                // The client hung up; nobody is left to read the output
+                gone = true;
+                job.cancel();
+            }
+        }
+    }
+    
+    private static ObjectNode event(String name) {
+        return MAPPER.createObjectNode().put("event", name);
+    }
+    
+    // The latest samples of one latency, for percentiles
+    private static final class Latencies {
+        private final long[] samples;
+        private long count;
+        
+        Latencies(int size) {
+            samples = new long[size];
+        }
+        
+        synchronized void add(long nanos) {
+            samples[(int) (count++ % samples.length)] = nanos;
+        }
+        
+        synchronized ObjectNode summary() {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            Arrays.sort(sorted);
+            return MAPPER.createObjectNode()
+                    .put("samples", sorted.length)
+                    .put("p50", percentile(sorted, 0.50))
+                    .put("p90", percentile(sorted, 0.90))
+                    .put("p99", percentile(sorted, 0.99))
+                    .put("max", percentile(sorted, 1.0));
+        }
+        
+        private static double percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        String host = "127.0.0.1";
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].equals("--port") && !args[i].equals("--host")) {
+                usage("Unknown option " + args[i]);
+            } else if (i + 1 == args.length) {
+                usage("Missing value for " + args[i]);
+            } else if (args[i].equals("--port")) {
+                port = parsePort(args[i + 1]);
+            } else {
+                host = args[i + 1];
+            }
+        }
+        CodeRunner runner = CodeRunner.create();
+        RunScheduler scheduler = new RunScheduler();
+        ExecutionServer server = new ExecutionServer(runner, scheduler, new InetSocketAddress(host, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            scheduler.close();
+            runner.close();
+        }));
+        server.start();
+        System.out.println("CodeSphere execution server on http://" + host + ":" + server.getAddress().getPort()
+                + " (" + scheduler.getMaxConcurrent() + " runs at once, " + server.maxQueued + " queued)");
+        if (server.getToken() != null) {
+            System.out.println("Token: " + server.getToken());
+        }
+    }
+    
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        usage("Not a port number: " + value);
+        return -1;
+    }
+    
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: --server [--port N] [--host ADDRESS]");
+        System.exit(2);
+    }
+}
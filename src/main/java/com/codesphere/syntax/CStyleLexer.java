@@ -0,0 +1,317 @@
+package com.codesphere.syntax;
+
+import java.util.Set;
+
+/**
+ * Lexer for the C family. Java, JavaScript and C++ share comments, quoted strings and numbers and
+ * differ in keywords and a few constructs: Java text blocks and annotations, JavaScript template
+ * strings, regular expressions and decorators, and the C++ preprocessor and raw strings.
+ */
+final class CStyleLexer implements Lexer {
+    
+    private enum Dialect { JAVA, JAVASCRIPT, CPP }
+    
+    // States at the end of a line; a raw string keeps a hash of its delimiter above the low bits
+    private static final int BLOCK_COMMENT = 1;
+    private static final int TEXT_BLOCK = 2;
+    private static final int TEMPLATE = 3;
+    private static final int PREPROCESSOR = 4;
+    private static final int RAW_STRING = 5;
+    private static final int KIND_BITS = 4;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+    // Raw string delimiters are at most this long
+    private static final int MAX_DELIMITER = 16;
+    
+    static final CStyleLexer JAVA = new CStyleLexer(Dialect.JAVA, Chars.words(
+            "abstract assert boolean break byte case catch char class const continue default do double else enum "
+            + "extends final finally float for goto if implements import instanceof int interface long native new "
+            + "package private protected public return short static strictfp super switch synchronized this throw "
+            + "throws transient try void volatile while var record yield sealed permits true false null"));
+    
+    static final CStyleLexer JAVASCRIPT = new CStyleLexer(Dialect.JAVASCRIPT, Chars.words(
+            "async await break case catch class const continue debugger default delete do else export extends "
+            + "finally for function if import in instanceof let new return static super switch this throw try "
+            + "typeof var void while with yield true false null undefined"));
+    
+    static final CStyleLexer CPP = new CStyleLexer(Dialect.CPP, Chars.words(
+            "alignas alignof and asm auto bool break case catch char char8_t char16_t char32_t class concept const "
+            + "consteval constexpr constinit const_cast continue co_await co_return co_yield decltype default delete "
+            + "do double dynamic_cast else enum explicit export extern false float for friend goto if inline int long "
+            + "mutable namespace new noexcept not nullptr operator or private protected public register "
+            + "reinterpret_cast requires return short signed sizeof static static_assert static_cast struct switch "
+            + "template this thread_local throw true try typedef typeid typename union unsigned using virtual void "
+            + "volatile wchar_t while xor"));
+    
+    // JavaScript keywords that are values, so a '/' after them divides
+    private static final Set<String> JS_VALUES = Chars.words("this super true false null undefined");
+    
+    private final Dialect dialect;
+    private final Set<String> keywords;
+    
+    private CStyleLexer(Dialect dialect, Set<String> keywords) {
+        this.dialect = dialect;
+        this.keywords = keywords;
+    }
+    
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, Tokens tokens) {
+        int i = start;
+        // Whether the last token ends an operand, so a '/' after it divides instead of starting a
+        // regular expression
+        boolean operand = false;
+        switch (state & KIND_MASK) {
+            case BLOCK_COMMENT: {
+                int close = Chars.commentEnd(text, i, end);
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                add(tokens, i, close + 2, Tokens.COMMENT);
+                i = close + 2;
+                break;
+            }
+            case TEXT_BLOCK:
+            case TEMPLATE: {
+                int close = state == TEXT_BLOCK ? Chars.scanTripleQuote(text, i, end, '"') : Chars.scanQuote(text, i, end, '`');
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.STRING);
+                    return state;
+                }
+                add(tokens, i, close, Tokens.STRING);
+                i = close;
+                operand = true;
+                break;
+            }
+            case PREPROCESSOR:
+                i = directiveEnd(text, i, end);
+                add(tokens, start, i, Tokens.META);
+                if (i == end) {
+                    return continues(text, start, end) ? PREPROCESSOR : INITIAL;
+                }
+                break;
+            case RAW_STRING: {
+                int close = rawStringEnd(text, i, end, state >>> KIND_BITS);
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.STRING);
+                    return state;
+                }
+                add(tokens, i, close, Tokens.STRING);
+                i = close;
+                operand = true;
+                break;
+            }
+            default:
+                break;
+        }
+        while (i < end) {
+            char c = text[i];
+            char next = i + 1 < end ? text[i + 1] : 0;
+            if (c == '/' && next == '/') {
+                add(tokens, i, end, Tokens.COMMENT);
+                return INITIAL;
+            }
+            if (c == '/' && next == '*') {
+                int close = Chars.commentEnd(text, i + 2, end);
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                add(tokens, i, close + 2, Tokens.COMMENT);
+                i = close + 2;
+                continue;
+            }
+            if (c == '"' && dialect == Dialect.JAVA && next == '"' && i + 2 < end && text[i + 2] == '"') {
+                int close = Chars.scanTripleQuote(text, i + 3, end, '"');
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.STRING);
+                    return TEXT_BLOCK;
+                }
+                add(tokens, i, close, Tokens.STRING);
+                i = close;
+                operand = true;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                int close = Chars.scanQuote(text, i + 1, end, c);
+                close = close < 0 ? end : close;
+                add(tokens, i, close, Tokens.STRING);
+                i = close;
+                operand = true;
+                continue;
+            }
+            if (c == '`' && dialect == Dialect.JAVASCRIPT) {
+                int close = Chars.scanQuote(text, i + 1, end, '`');
+                if (close < 0) {
+                    add(tokens, i, end, Tokens.STRING);
+                    return TEMPLATE;
+                }
+                add(tokens, i, close, Tokens.STRING);
+                i = close;
+                operand = true;
+                continue;
+            }
+            if (c == '/' && dialect == Dialect.JAVASCRIPT && !operand) {
+                int close = regexEnd(text, i + 1, end);
+                if (close > 0) {
+                    add(tokens, i, close, Tokens.STRING);
+                    i = close;
+                    operand = true;
+                    continue;
+                }
+            }
+            if (c == '#' && dialect == Dialect.CPP && state == INITIAL && Chars.firstNonSpace(text, start, end) == i) {
+                int stop = directiveEnd(text, i, end);
+                add(tokens, i, stop, Tokens.META);
+                if (stop == end) {
+                    return continues(text, start, end) ? PREPROCESSOR : INITIAL;
+                }
+                i = stop;
+                continue;
+            }
+            if (c == '@' && dialect != Dialect.CPP && next != 0 && Character.isJavaIdentifierStart(next)) {
+                int j = Chars.identifierEnd(text, i + 1, end);
+                while (j + 1 < end && text[j] == '.' && Character.isJavaIdentifierStart(text[j + 1])) {
+                    j = Chars.identifierEnd(text, j + 1, end);
+                }
+                add(tokens, i, j, Tokens.META);
+                i = j;
+                operand = false;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int j = Chars.identifierEnd(text, i, end);
+                if (dialect == Dialect.CPP && j < end && text[j] == '"' && isRawPrefix(text, i, j)) {
+                    int open = delimiterEnd(text, j + 1, end);
+                    if (open >= 0) {
+                        int hash = hash(text, j + 1, open);
+                        int close = rawStringEnd(text, open + 1, end, hash);
+                        if (close < 0) {
+                            add(tokens, i, end, Tokens.STRING);
+                            return RAW_STRING | hash << KIND_BITS;
+                        }
+                        add(tokens, i, close, Tokens.STRING);
+                        i = close;
+                        operand = true;
+                        continue;
+                    }
+                }
+                // Only painting needs keywords, except where they decide what a '/' means
+                if (tokens != null || dialect == Dialect.JAVASCRIPT) {
+                    boolean keyword = Chars.isWord(keywords, text, i, j);
+                    if (keyword) {
+                        add(tokens, i, j, Tokens.KEYWORD);
+                    }
+                    operand = !keyword || Chars.isWord(JS_VALUES, text, i, j);
+                }
+                i = j;
+                continue;
+            }
+            if (Chars.startsNumber(text, i, end)) {
+                int j = Chars.numberEnd(text, i, end, dialect == Dialect.CPP ? '\'' : 0);
+                add(tokens, i, j, Tokens.NUMBER);
+                i = j;
+                operand = true;
+                continue;
+            }
+            if (!Character.isWhitespace(c)) {
+                operand = c == ')' || c == ']';
+            }
+            i++;
+        }
+        return INITIAL;
+    }
+    
+    private static void add(Tokens tokens, int start, int end, int kind) {
+        if (tokens != null) {
+            tokens.add(start, end, kind);
+        }
+    }
+    
+    // A directive runs to the end of the line or to a comment on it
+    private static int directiveEnd(char[] text, int i, int end) {
+        for (; i + 1 < end; i++) {
+            if (text[i] == '/' && (text[i + 1] == '/' || text[i + 1] == '*')) {
+                return i;
+            }
+        }
+        return end;
+    }
+    
+    // A backslash at the very end joins the next line to this one
+    private static boolean continues(char[] text, int start, int end) {
+        return end > start && text[end - 1] == '\\';
+    }
+    
+    // The end of a regular expression whose body starts at i, or -1 if it is not closed on the line
+    private static int regexEnd(char[] text, int i, int end) {
+        boolean inClass = false;
+        while (i < end) {
+            char c = text[i];
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                i++;
+                while (i < end && Character.isLetter(text[i])) {
+                    i++;
+                }
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+    
+    // R, LR, uR, UR or u8R before a quote
+    private static boolean isRawPrefix(char[] text, int start, int end) {
+        if (text[end - 1] != 'R') {
+            return false;
+        }
+        int length = end - start;
+        char first = text[start];
+        return length == 1 || length == 2 && (first == 'L' || first == 'u' || first == 'U')
+                || length == 3 && first == 'u' && text[start + 1] == '8';
+    }
+    
+    // The '(' after a raw string delimiter starting at i, or -1 if there is no valid delimiter
+    private static int delimiterEnd(char[] text, int i, int end) {
+        for (int j = i; j < end && j - i <= MAX_DELIMITER; j++) {
+            char c = text[j];
+            if (c == '(') {
+                return j;
+            }
+            if (c == ')' || c == '\\' || c == '"' || Character.isWhitespace(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    private static int hash(char[] text, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = hash * 31 + text[i];
+        }
+        return hash & (-1 >>> KIND_BITS);
+    }
+    
+    // The index after the )delimiter" that closes a raw string, or -1 if it is not on this line
+    private static int rawStringEnd(char[] text, int i, int end, int delimiterHash) {
+        for (; i < end; i++) {
+            if (text[i] != ')') {
+                continue;
+            }
+            for (int j = i + 1; j < end && j - i - 1 <= MAX_DELIMITER; j++) {
+                if (text[j] == '"' && hash(text, i + 1, j) == delimiterHash) {
+                    return j + 1;
+                }
+            }
+        }
+        return -1;
+    }
+}
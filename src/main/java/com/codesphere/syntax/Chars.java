@@ -0,0 +1,110 @@
+package com.codesphere.syntax;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Scanning helpers shared by the lexers
+final class Chars {
+    
+    // scanQuote results for a string that is not closed on its line
+    static final int OPEN = -1;
+    static final int CONTINUED = -2;
+    
+    private Chars() {
+    }
+    
+    static Set<String> words(String spaceSeparated) {
+        return new HashSet<>(Arrays.asList(spaceSeparated.split(" ")));
+    }
+    
+    static boolean isWord(Set<String> words, char[] text, int start, int end) {
+        return words.contains(new String(text, start, end - start));
+    }
+    
+    static int firstNonSpace(char[] text, int start, int end) {
+        while (start < end && Character.isWhitespace(text[start])) {
+            start++;
+        }
+        return start;
+    }
+    
+    static int identifierEnd(char[] text, int start, int end) {
+        int i = start + 1;
+        while (i < end && Character.isJavaIdentifierPart(text[i])) {
+            i++;
+        }
+        return i;
+    }
+    
+    // The index after the quote that closes a string whose contents start at i, skipping
+    // backslash escapes; OPEN if the line ends first, CONTINUED if it ends in a backslash
+    static int scanQuote(char[] text, int i, int end, char quote) {
+        while (i < end) {
+            char c = text[i];
+            if (c == '\\') {
+                if (i + 1 == end) {
+                    return CONTINUED;
+                }
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return OPEN;
+    }
+    
+    // Like scanQuote for a string closed by the quote three times in a row
+    static int scanTripleQuote(char[] text, int i, int end, char quote) {
+        while (i < end) {
+            char c = text[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && i + 2 < end && text[i + 1] == quote && text[i + 2] == quote) {
+                return i + 3;
+            } else {
+                i++;
+            }
+        }
+        return OPEN;
+    }
+    
+    // Index of the first "*/" at or after i, or -1
+    static int commentEnd(char[] text, int i, int end) {
+        for (; i + 1 < end; i++) {
+            if (text[i] == '*' && text[i + 1] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    static boolean startsNumber(char[] text, int i, int end) {
+        char c = text[i];
+        return c >= '0' && c <= '9' || c == '.' && i + 1 < end && text[i + 1] >= '0' && text[i + 1] <= '9';
+    }
+    
+    // The end of a number literal: digits, letters for radix prefixes and suffixes, a decimal
+    // point, a signed exponent, and the separator if one is given
+    static int numberEnd(char[] text, int i, int end, char separator) {
+        boolean hex = i + 1 < end && text[i] == '0' && (text[i + 1] == 'x' || text[i + 1] == 'X');
+        int j = i + 1;
+        while (j < end) {
+            char c = text[j];
+            char previous = text[j - 1];
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '.') {
+                j++;
+            } else if ((c == '+' || c == '-') && (previous == 'p' || previous == 'P'
+                    || !hex && (previous == 'e' || previous == 'E'))) {
+                j++;
+            } else if (c == separator && c != 0 && j + 1 < end && Character.isLetterOrDigit(text[j + 1])) {
+                j++;
+            } else {
+                break;
+            }
+        }
+        return j;
+    }
+}
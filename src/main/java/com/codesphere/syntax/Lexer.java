@@ -0,0 +1,39 @@
+package com.codesphere.syntax;
+
+/**
+ * Splits source code into coloured tokens one line at a time. Everything a lexer needs to know
+ * about the lines before is packed into the int state it returns at the end of each line (inside
+ * a block comment, inside a multi-line string), so a line can be lexed again on its own given the
+ * state its previous line ended in, and lexing after an edit can stop as soon as a line ends in
+ * the same state as before.
+ *
+ * Lexers keep no state of their own and may be used from several threads at once.
+ */
+public interface Lexer {
+    
+    // The state at the start of the document
+    int INITIAL = 0;
+    
+    // Lexes text[start, end), one line without its line break, starting in the given state; adds
+    // its tokens to tokens unless that is null, and returns the state at the end of the line
+    int lexLine(char[] text, int start, int end, int state, Tokens tokens);
+    
+    // The lexer for one of the languages in the language box, or null if there is none
+    static Lexer forLanguage(String language) {
+        if (language == null) {
+            return null;
+        }
+        switch (language) {
+            case "Java":
+                return CStyleLexer.JAVA;
+            case "JavaScript":
+                return CStyleLexer.JAVASCRIPT;
+            case "C++":
+                return CStyleLexer.CPP;
+            case "Python":
+                return PythonLexer.INSTANCE;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.codesphere.syntax;
+
+import java.util.Set;
+
+/**
+ * Lexer for Python. Strings are the only thing that spans lines: triple-quoted strings, and
+ * single-quoted ones whose line ends in a backslash.
+ */
+final class PythonLexer implements Lexer {
+    
+    // States at the end of a line, inside a string opened with the given quotes
+    private static final int TRIPLE_SINGLE = 1;
+    private static final int TRIPLE_DOUBLE = 2;
+    private static final int SINGLE = 3;
+    private static final int DOUBLE = 4;
+    
+    static final PythonLexer INSTANCE = new PythonLexer();
+    
+    private static final Set<String> KEYWORDS = Chars.words(
+            "False None True and as assert async await break class continue def del elif else except finally for "
+            + "from global if import in is lambda nonlocal not or pass raise return try while with yield");
+    
+    private PythonLexer() {
+    }
+    
+    @Override
+    public int lexLine(char[] text, int start, int end, int state, Tokens tokens) {
+        int i = start;
+        if (state != INITIAL) {
+            char quote = state == TRIPLE_SINGLE || state == SINGLE ? '\'' : '"';
+            int close = state <= TRIPLE_DOUBLE ? Chars.scanTripleQuote(text, i, end, quote) : Chars.scanQuote(text, i, end, quote);
+            if (close < 0) {
+                add(tokens, i, end, Tokens.STRING);
+                return close == Chars.CONTINUED || state <= TRIPLE_DOUBLE ? state : INITIAL;
+            }
+            add(tokens, i, close, Tokens.STRING);
+            i = close;
+        }
+        while (i < end) {
+            char c = text[i];
+            if (c == '#') {
+                add(tokens, i, end, Tokens.COMMENT);
+                return INITIAL;
+            }
+            int quoteAt = -1;
+            int j = i + 1;
+            if (c == '\'' || c == '"') {
+                quoteAt = i;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                j = Chars.identifierEnd(text, i, end);
+                if (j < end && (text[j] == '\'' || text[j] == '"') && isStringPrefix(text, i, j)) {
+                    quoteAt = j;
+                } else if (tokens != null && Chars.isWord(KEYWORDS, text, i, j)) {
+                    tokens.add(i, j, Tokens.KEYWORD);
+                }
+            } else if (c == '@' && Chars.firstNonSpace(text, start, end) == i) {
+                while (j < end && (Character.isJavaIdentifierPart(text[j]) || text[j] == '.')) {
+                    j++;
+                }
+                add(tokens, i, j, Tokens.META);
+            } else if (Chars.startsNumber(text, i, end)) {
+                j = Chars.numberEnd(text, i, end, (char) 0);
+                add(tokens, i, j, Tokens.NUMBER);
+            }
+            if (quoteAt < 0) {
+                i = j;
+                continue;
+            }
+            char quote = text[quoteAt];
+            boolean triple = quoteAt + 2 < end && text[quoteAt + 1] == quote && text[quoteAt + 2] == quote;
+            int close = triple ? Chars.scanTripleQuote(text, quoteAt + 3, end, quote) : Chars.scanQuote(text, quoteAt + 1, end, quote);
+            if (close < 0) {
+                add(tokens, i, end, Tokens.STRING);
+                if (triple) {
+                    return quote == '\'' ? TRIPLE_SINGLE : TRIPLE_DOUBLE;
+                }
+                return close == Chars.CONTINUED ? (quote == '\'' ? SINGLE : DOUBLE) : INITIAL;
+            }
+            add(tokens, i, close, Tokens.STRING);
+            i = close;
+        }
+        return INITIAL;
+    }
+    
+    private static void add(Tokens tokens, int start, int end, int kind) {
+        if (tokens != null) {
+            tokens.add(start, end, kind);
+        }
+    }
+    
+    // r, b, u, f and the two-letter mixes of r with b or f, in either case
+    private static boolean isStringPrefix(char[] text, int start, int end) {
+        if (end - start == 1) {
+            char c = Character.toLowerCase(text[start]);
+            return c == 'r' || c == 'b' || c == 'u' || c == 'f';
+        }
+        if (end - start == 2) {
+            char a = Character.toLowerCase(text[start]), b = Character.toLowerCase(text[start + 1]);
+            return a == 'r' && (b == 'b' || b == 'f') || b == 'r' && (a == 'b' || a == 'f');
+        }
+        return false;
+    }
+}
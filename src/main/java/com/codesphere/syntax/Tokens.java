@@ -0,0 +1,64 @@
+package com.codesphere.syntax;
+
+import java.util.Arrays;
+
+/**
+ * The tokens a {@link Lexer} found on a line, as [start, end) ranges of its text with a kind.
+ * Only coloured tokens are recorded; the text between them is plain. The arrays are reused from
+ * line to line, so lexing visible lines for painting allocates nothing once they have grown.
+ */
+public final class Tokens {
+    
+    public static final int KEYWORD = 1;
+    public static final int STRING = 2;
+    public static final int NUMBER = 3;
+    public static final int COMMENT = 4;
+    // Annotations, decorators and preprocessor directives
+    public static final int META = 5;
+    public static final int KINDS = 6;
+    
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private byte[] kinds = new byte[32];
+    private int count;
+    
+    public void clear() {
+        count = 0;
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    public int getStart(int index) {
+        return starts[index];
+    }
+    
+    public int getEnd(int index) {
+        return ends[index];
+    }
+    
+    public int getKind(int index) {
+        return kinds[index];
+    }
+    
+    // Adds a token after the ones already added; joins it to the last one if they touch and match
+    public void add(int start, int end, int kind) {
+        if (end <= start) {
+            return;
+        }
+        if (count > 0 && ends[count - 1] == start && kinds[count - 1] == kind) {
+            ends[count - 1] = end;
+            return;
+        }
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            kinds = Arrays.copyOf(kinds, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        kinds[count] = (byte) kind;
+        count++;
+    }
+}
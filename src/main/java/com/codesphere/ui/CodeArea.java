@@ -0,0 +1,89 @@
+package com.codesphere.ui;
+
+import com.codesphere.editor.CodeDocument;
+import com.codesphere.syntax.Lexer;
+
+import javax.swing.*;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.View;
+import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+
+/**
+ * The code editor: a text area over a {@link CodeDocument}, drawn by a {@link CodeView}.
+ * Run, Save and Copy take a {@link #snapshot()} of the text instead of calling getText, so the
+ * whole buffer is only copied, if at all, on the thread that uses it.
+ *
+ * Code is coloured for the language given to {@link #setLanguage(String)}.
+ */
+public class CodeArea extends JTextArea {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final SyntaxHighlighter syntax = new SyntaxHighlighter(this);
+    
+    public CodeArea() {
+        super(new CodeDocument());
+        syntax.setDocument(getDocument());
+        addPropertyChangeListener("document", e -> syntax.setDocument(getDocument()));
+    }
+    
+    // One of the language box's languages; others turn colouring off
+    public void setLanguage(String language) {
+        syntax.setLexer(Lexer.forLanguage(language));
+    }
+    
+    SyntaxHighlighter getSyntaxHighlighter() {
+        return syntax;
+    }
+    
+    @Override
+    public void updateUI() {
+        setUI(new CodeAreaUI());
+        invalidate();
+    }
+    
+    // The current text; stays unchanged while editing goes on and can be read from any thread
+    public CharSequence snapshot() {
+        Document doc = getDocument();
+        return doc instanceof CodeDocument ? ((CodeDocument) doc).snapshot() : getText();
+    }
+    
+    // Puts the whole text on the clipboard; it is turned into a String only when pasted
+    public void copyAll() {
+        CharSequence text = snapshot();
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new Transferable() {
+            @Override
+            public DataFlavor[] getTransferDataFlavors() {
+                return new DataFlavor[] {DataFlavor.stringFlavor};
+            }
+            
+            @Override
+            public boolean isDataFlavorSupported(DataFlavor flavor) {
+                return DataFlavor.stringFlavor.equals(flavor);
+            }
+            
+            @Override
+            public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+                if (!isDataFlavorSupported(flavor)) {
+                    throw new UnsupportedFlavorException(flavor);
+                }
+                return text.toString();
+            }
+        }, null);
+    }
+    
+    private static class CodeAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            if (elem.getDocument() instanceof CodeDocument) {
+                return new CodeView(elem);
+            }
+            return super.create(elem);
+        }
+    }
+}
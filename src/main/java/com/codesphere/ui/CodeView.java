@@ -0,0 +1,248 @@
+package com.codesphere.ui;
+
+import com.codesphere.editor.CodeDocument;
+import com.codesphere.syntax.Tokens;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+
+/**
+ * View of a {@link CodeDocument} in the editor. Only the lines inside the clip are painted and
+ * the size comes from the line count and the longest line's length, so neither layout nor
+ * painting walks the whole document the way PlainView's longest-line search does. Lines wider
+ * than the estimate (tabs, wide glyphs) widen the view when they are first painted.
+ *
+ * In a {@link CodeArea} with a language set, each painted line is lexed from the state its
+ * {@link SyntaxHighlighter} holds for it and drawn in runs of token colours.
+ */
+public class CodeView extends View implements TabExpander {
+    
+    private final Segment line = new Segment();
+    private final Segment run = new Segment();
+    private final Tokens tokens = new Tokens();
+    private Font font;
+    private FontMetrics metrics;
+    private int lineHeight;
+    private int charWidth;
+    private int tabBase;
+    // Widest line painted so far, in pixels
+    private int widest;
+    private float reportedWidth;
+    
+    public CodeView(Element root) {
+        super(root);
+    }
+    
+    private void updateMetrics() {
+        Font current = getContainer().getFont();
+        if (current != font) {
+            font = current;
+            metrics = getContainer().getFontMetrics(font);
+            lineHeight = metrics.getHeight();
+            charWidth = metrics.charWidth('m');
+            widest = 0;
+        }
+    }
+    
+    private int getTabSize() {
+        Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        return size instanceof Integer ? (Integer) size : 8;
+    }
+    
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == X_AXIS) {
+            reportedWidth = Math.max(widest, longestLine() * (float) charWidth) + 1;
+            return reportedWidth;
+        }
+        return (float) getElement().getElementCount() * lineHeight;
+    }
+    
+    private int longestLine() {
+        Document doc = getDocument();
+        return doc instanceof CodeDocument ? ((CodeDocument) doc).getLongestLine() : 0;
+    }
+    
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a instanceof Rectangle ? (Rectangle) a : a.getBounds();
+        tabBase = alloc.x;
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter highlighter = host.getHighlighter();
+        LayeredHighlighter layered = highlighter instanceof LayeredHighlighter ? (LayeredHighlighter) highlighter : null;
+        Element root = getElement();
+        int lines = root.getElementCount();
+        Rectangle clip = g.getClipBounds();
+        int first = 0, last = lines - 1;
+        if (clip != null) {
+            first = Math.max(0, (clip.y - alloc.y) / lineHeight);
+            last = Math.min(lines - 1, (clip.y + clip.height - alloc.y) / lineHeight);
+        }
+        Color foreground = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Color selected = host.getSelectedTextColor();
+        int selStart = host.getSelectionStart(), selEnd = host.getSelectionEnd();
+        SyntaxHighlighter syntax = host instanceof CodeArea ? ((CodeArea) host).getSyntaxHighlighter() : null;
+        boolean colored = syntax != null && syntax.isActive();
+        g.setFont(font);
+        int wider = widest;
+        for (int i = first; i <= last; i++) {
+            Element element = root.getElement(i);
+            int p0 = element.getStartOffset();
+            // The newline is not drawn, except for the last line's implied one
+            int p1 = element.getEndOffset() - 1;
+            if (layered != null) {
+                layered.paintLayeredHighlights(g, p0, i == lines - 1 ? p1 + 1 : p1, a, host, this);
+            }
+            if (p1 <= p0) {
+                continue;
+            }
+            try {
+                getDocument().getText(p0, p1 - p0, line);
+            } catch (BadLocationException e) {
+                continue;
+            }
+            tokens.clear();
+            if (colored) {
+                syntax.lexLine(i, line, tokens);
+            }
+            int s0 = Math.max(p0, selStart), s1 = Math.min(p1, selEnd);
+            boolean inSelection = selected != null && s0 < s1;
+            float y = alloc.y + i * lineHeight + metrics.getAscent();
+            float x = alloc.x;
+            // Token offsets are into the segment's array
+            int shift = p0 - line.offset;
+            int token = 0;
+            for (int pos = p0; pos < p1; ) {
+                int next = p1;
+                Color color = foreground;
+                while (token < tokens.getCount() && tokens.getEnd(token) + shift <= pos) {
+                    token++;
+                }
+                if (token < tokens.getCount()) {
+                    int start = tokens.getStart(token) + shift;
+                    if (start > pos) {
+                        next = start;
+                    } else {
+                        next = Math.min(p1, tokens.getEnd(token) + shift);
+                        color = SyntaxHighlighter.colorOf(tokens.getKind(token));
+                    }
+                }
+                if (inSelection && pos >= s0 && pos < s1) {
+                    next = Math.min(next, s1);
+                    color = selected;
+                } else if (inSelection && pos < s0) {
+                    next = Math.min(next, s0);
+                }
+                x = draw(g, p0, pos, next, x, y, color);
+                pos = next;
+            }
+            wider = Math.max(wider, (int) Math.ceil(x - alloc.x));
+        }
+        if (wider > widest) {
+            widest = wider;
+            if (widest + 1 > reportedWidth) {
+                preferenceChanged(null, true, false);
+            }
+        }
+    }
+    
+    // Draws [from, to) of the line fetched from p0, starting at x, and returns where it ended
+    private float draw(Graphics g, int p0, int from, int to, float x, float y, Color color) {
+        run.array = line.array;
+        run.offset = line.offset + from - p0;
+        run.count = to - from;
+        g.setColor(color);
+        return Utilities.drawTabbedText(run, x, y, (Graphics2D) g, this, from);
+    }
+    
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        int tabWidth = getTabSize() * charWidth;
+        if (tabWidth == 0) {
+            return x;
+        }
+        int tabs = (int) ((x - tabBase) / tabWidth);
+        return tabBase + (tabs + 1) * (float) tabWidth;
+    }
+    
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        if (pos < 0 || pos > getDocument().getLength() + 1) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element root = getElement();
+        int index = root.getElementIndex(pos);
+        int p0 = root.getElement(index).getStartOffset();
+        getDocument().getText(p0, pos - p0, line);
+        float width = Utilities.getTabbedTextWidth(line, metrics, (float) alloc.x, this, p0);
+        int x = alloc.x + (int) width;
+        return new Rectangle(x, alloc.y + index * lineHeight, 1, lineHeight);
+    }
+    
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element root = getElement();
+        if (fy < alloc.y) {
+            return getStartOffset();
+        }
+        int index = (int) ((fy - alloc.y) / lineHeight);
+        if (index >= root.getElementCount()) {
+            return getEndOffset() - 1;
+        }
+        Element element = root.getElement(index);
+        int p0 = element.getStartOffset(), p1 = element.getEndOffset() - 1;
+        if (fx <= alloc.x) {
+            return p0;
+        }
+        try {
+            getDocument().getText(p0, p1 - p0, line);
+        } catch (BadLocationException e) {
+            return p0;
+        }
+        return Math.min(p1, p0 + Utilities.getTabbedTextOffset(line, metrics, alloc.x, fx, this, p0, true));
+    }
+    
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+    
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+    
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+    
+    // Lines added or removed change the height, so everything is laid out again; otherwise only
+    // the edited line is repainted
+    private void update(DocumentEvent e, Shape a) {
+        Component host = getContainer();
+        if (host == null) {
+            return;
+        }
+        updateMetrics();
+        boolean wider = longestLine() * (float) charWidth + 1 > reportedWidth;
+        if (e.getChange(getElement()) != null || wider || a == null) {
+            preferenceChanged(null, wider, true);
+            host.repaint();
+            return;
+        }
+        Rectangle alloc = a.getBounds();
+        int index = getElement().getElementIndex(e.getOffset());
+        host.repaint(alloc.x, alloc.y + index * lineHeight, alloc.width, lineHeight);
+    }
+}
@@ -0,0 +1,76 @@
+package com.codesphere.ui;
+
+import java.util.Arrays;
+
+/**
+ * Frame timing for a panel that draws live input: how long each paint takes, how long input
+ * waits until it is on screen, and how many input events each frame carries. Keeps the last
+ * few hundred frames; all calls are made on the event dispatch thread.
+ */
+public class FrameStats {
+    
+    private static final int WINDOW = 256;
+    
+    private final long[] paintNanos = new long[WINDOW];
+    private final long[] latencyNanos = new long[WINDOW];
+    private int frames;
+    private int latencies;
+    private long events;
+    private long eventFrames;
+    // Receive time of the oldest input not yet handed to the canvas, and of the oldest input
+    // drawn into the canvas but not yet painted; 0 when there is none
+    private long waitingSince;
+    private long drawnSince;
+    
+    public void eventReceived(long nanos) {
+        events++;
+        if (waitingSince == 0) {
+            waitingSince = nanos;
+        }
+    }
+    
+    // The waiting input has been drawn into the canvas and a repaint requested
+    public void inputDrawn() {
+        if (drawnSince == 0) {
+            drawnSince = waitingSince;
+        }
+        waitingSince = 0;
+    }
+    
+    // The waiting input changed nothing, so no frame will show it
+    public void inputDiscarded() {
+        waitingSince = 0;
+    }
+    
+    public void framePainted(long startNanos, long endNanos) {
+        paintNanos[frames++ % WINDOW] = endNanos - startNanos;
+        if (drawnSince != 0) {
+            latencyNanos[latencies++ % WINDOW] = endNanos - drawnSince;
+            drawnSince = 0;
+            eventFrames++;
+        }
+    }
+    
+    public int getFrames() {
+        return frames;
+    }
+    
+    // e.g. "paint p50 0.3 ms p95 1.2 ms | latency p50 9 ms p95 15 ms | 4.0 events/frame"
+    public String summary() {
+        if (frames == 0) {
+            return "no frames yet";
+        }
+        String text = String.format("paint p50 %.1f ms p95 %.1f ms", percentile(paintNanos, frames, 50), percentile(paintNanos, frames, 95));
+        if (latencies > 0) {
+            text += String.format(" | latency p50 %.0f ms p95 %.0f ms | %.1f events/frame",
+                    percentile(latencyNanos, latencies, 50), percentile(latencyNanos, latencies, 95), (double) events / eventFrames);
+        }
+        return text;
+    }
+    
+    private static double percentile(long[] samples, int recorded, int percent) {
+        long[] sorted = Arrays.copyOf(samples, Math.min(recorded, WINDOW));
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+    }
+}
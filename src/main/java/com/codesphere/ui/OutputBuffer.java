@@ -0,0 +1,180 @@
+package com.codesphere.ui;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Ring buffer of output lines. Only the last maxLines lines (and at most maxChars characters)
+ * are kept; older lines are dropped from the head in O(1). Optionally every byte is also
+ * written to a transcript file, so nothing is lost when lines are evicted.
+ *
+ * Each stream keeps its own unfinished line until its newline arrives, so interleaved
+ * stdout and stderr never share a line.
+ */
+public class OutputBuffer {
+    
+    // Rough per-line overhead of a String, counted against maxChars
+    private static final int LINE_OVERHEAD = 24;
+    private static final int MAX_LINE_CHARS = 16 * 1024;
+    
+    private final String[] lines;
+    private final boolean[] errors;
+    private final long maxChars;
+    private final StringBuilder outPartial = new StringBuilder();
+    private final StringBuilder errPartial = new StringBuilder();
+    private int head;
+    private int count;
+    private long chars;
+    private long firstLine;
+    private int longestLine;
+    // Set when the longest line was evicted; the width is recomputed when next asked for
+    private boolean longestStale;
+    private Writer transcript;
+    private Path transcriptPath;
+    
+    public OutputBuffer(int maxLines, long maxChars) {
+        lines = new String[Math.max(1, maxLines)];
+        errors = new boolean[lines.length];
+        this.maxChars = maxChars;
+    }
+    
+    public synchronized void append(String text, boolean error) {
+        writeTranscript(text);
+        StringBuilder partial = error ? errPartial : outPartial;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || i - start + partial.length() >= MAX_LINE_CHARS) {
+                partial.append(text, start, i);
+                commit(partial, error);
+                start = c == '\n' ? i + 1 : i;
+            }
+        }
+        partial.append(text, start, text.length());
+        longestLine = Math.max(longestLine, partial.length());
+    }
+    
+    public synchronized void clear() {
+        Arrays.fill(lines, null);
+        head = 0;
+        count = 0;
+        chars = 0;
+        firstLine = 0;
+        longestLine = 0;
+        longestStale = false;
+        outPartial.setLength(0);
+        errPartial.setLength(0);
+        closeTranscript();
+        transcriptPath = null;
+    }
+    
+    // Rows are the retained lines followed by the unfinished stdout and stderr lines
+    public synchronized int getRowCount() {
+        return count + (outPartial.length() > 0 ? 1 : 0) + (errPartial.length() > 0 ? 1 : 0);
+    }
+    
+    // Copies rows [from, from + texts.length) for painting; returns how many were copied
+    public synchronized int copyRows(int from, String[] texts, boolean[] rowErrors) {
+        int copied = 0;
+        for (int row = from; row < getRowCount() && copied < texts.length; row++, copied++) {
+            if (row < count) {
+                int index = (head + row) % lines.length;
+                texts[copied] = lines[index];
+                rowErrors[copied] = errors[index];
+            } else if (row == count && outPartial.length() > 0) {
+                texts[copied] = outPartial.toString();
+                rowErrors[copied] = false;
+            } else {
+                texts[copied] = errPartial.toString();
+                rowErrors[copied] = true;
+            }
+        }
+        return copied;
+    }
+    
+    public synchronized long getDroppedLines() {
+        return firstLine;
+    }
+    
+    public synchronized int getLongestLine() {
+        if (longestStale) {
+            longestStale = false;
+            longestLine = Math.max(outPartial.length(), errPartial.length());
+            for (int row = 0; row < count; row++) {
+                longestLine = Math.max(longestLine, lines[(head + row) % lines.length].length());
+            }
+        }
+        return longestLine;
+    }
+    
+    public synchronized Path getTranscriptPath() {
+        return transcriptPath;
+    }
+    
+    // Writes everything appended from now on to the given file, until the next clear()
+    public synchronized void startTranscript(Path file) throws IOException {
+        closeTranscript();
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        transcript = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+        transcriptPath = file;
+    }
+    
+    public synchronized void flushTranscript() {
+        if (transcript != null) {
+            try {
+                transcript.flush();
+            } catch (IOException e) {
+                closeTranscript();
+            }
+        }
+    }
+    
+    private void commit(StringBuilder partial, boolean error) {
+        String line = partial.toString();
+        partial.setLength(0);
+        while (count == lines.length || (count > 0 && chars + line.length() + LINE_OVERHEAD > maxChars)) {
+            evictHead();
+        }
+        int index = (head + count) % lines.length;
+        lines[index] = line;
+        errors[index] = error;
+        count++;
+        chars += line.length() + LINE_OVERHEAD;
+        longestLine = Math.max(longestLine, line.length());
+    }
+    
+    private void evictHead() {
+        longestStale |= lines[head].length() >= longestLine;
+        chars -= lines[head].length() + LINE_OVERHEAD;
+        lines[head] = null;
+        head = (head + 1) % lines.length;
+        count--;
+        firstLine++;
+    }
+    
+    private void writeTranscript(String text) {
+        if (transcript != null) {
+            try {
+                transcript.write(text);
+            } catch (IOException e) {
+                // A full disk must not stop the run, only the transcript
+                closeTranscript();
+            }
+        }
+    }
+    
+    private void closeTranscript() {
+        if (transcript != null) {
+            try {
+                transcript.close();
+            } catch (IOException ignored) {
+            }
+            transcript = null;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.codesphere.ui;
+
+import com.codesphere.exec.OutputSink;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only output view over an {@link OutputBuffer}. Only the rows inside the clip are
+ * painted, so cost depends on the viewport rather than on how much a program printed.
+ * Appends may come from any thread; layout and repaint are coalesced to one per frame.
+ */
+public class OutputConsole extends JComponent implements Scrollable, OutputSink {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final int FRAME_MILLIS = 16;
+    private static final int TAB_SIZE = 8;
+    private static final int PADDING = 4;
+    
+    private final OutputBuffer buffer;
+    private final Color errorColor;
+    private final Timer frameTimer;
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    // Selection as (row, column) pairs; rows are absolute so eviction does not move them
+    private long anchorRow = -1, leadRow = -1;
+    private int anchorColumn, leadColumn;
+    
+    public OutputConsole(int maxLines, long maxChars, Color errorColor) {
+        buffer = new OutputBuffer(maxLines, maxChars);
+        this.errorColor = errorColor;
+        frameTimer = new Timer(FRAME_MILLIS, e -> frame());
+        frameTimer.setRepeats(false);
+        setOpaque(true);
+        setFocusable(true);
+        setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+        installSelection();
+    }
+    
+    public OutputBuffer getBuffer() {
+        return buffer;
+    }
+    
+    @Override
+    public void stdout(String text) {
+        buffer.append(text, false);
+        scheduleFrame();
+    }
+    
+    @Override
+    public void stderr(String text) {
+        buffer.append(text, true);
+        scheduleFrame();
+    }
+    
+    public void append(String text) {
+        stdout(text);
+    }
+    
+    public void setText(String text) {
+        buffer.clear();
+        clearSelection();
+        stdout(text);
+    }
+    
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(frameTimer::restart);
+        }
+    }
+    
+    private void frame() {
+        frameScheduled.set(false);
+        buffer.flushTranscript();
+        boolean atBottom = isScrolledToBottom();
+        revalidate();
+        repaint();
+        if (atBottom) {
+            // Follow the output like a terminal unless the user scrolled up
+            SwingUtilities.invokeLater(() -> scrollRectToVisible(new Rectangle(0, getPreferredSize().height - 1, 1, 1)));
+        }
+    }
+    
+    private boolean isScrolledToBottom() {
+        Rectangle visible = getVisibleRect();
+        return visible.y + visible.height >= getHeight() - getLineHeight();
+    }
+    
+    private int getLineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+    
+    private int getCharWidth() {
+        return getFontMetrics(getFont()).charWidth('m');
+    }
+    
+    // The notice about evicted lines takes the first row
+    private int noticeRows() {
+        return buffer.getDroppedLines() > 0 ? 1 : 0;
+    }
+    
+    @Override
+    public Dimension getPreferredSize() {
+        int rows = noticeRows() + buffer.getRowCount();
+        int columns = Math.max(buffer.getLongestLine(), 60);
+        return new Dimension(columns * getCharWidth() + 2 * PADDING, rows * getLineHeight() + 2 * PADDING);
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (g instanceof Graphics2D) {
+            ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+        g.setFont(getFont());
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        int charWidth = getCharWidth();
+        
+        int firstRow = Math.max(0, (clip.y - PADDING) / lineHeight);
+        int lastRow = (clip.y + clip.height - PADDING) / lineHeight + 1;
+        int notice = noticeRows();
+        long dropped = buffer.getDroppedLines();
+        
+        int from = Math.max(0, firstRow - notice);
+        String[] texts = new String[lastRow - firstRow + 1];
+        boolean[] errors = new boolean[texts.length];
+        int copied = buffer.copyRows(from, texts, errors);
+        
+        if (notice > 0 && firstRow == 0) {
+            g.setColor(Color.GRAY);
+            String path = buffer.getTranscriptPath() == null ? "" : " - full output in " + buffer.getTranscriptPath();
+            g.drawString("... " + dropped + " earlier lines not shown" + path, PADDING, PADDING + metrics.getAscent());
+        }
+        for (int i = 0; i < copied; i++) {
+            int row = from + i + notice;
+            int y = PADDING + row * lineHeight;
+            String line = expandTabs(texts[i]);
+            paintSelection(g, dropped + from + i, line.length(), y, lineHeight, charWidth);
+            g.setColor(errors[i] ? errorColor : getForeground());
+            g.drawString(line, PADDING, y + metrics.getAscent());
+        }
+    }
+    
+    private static String expandTabs(String line) {
+        if (line.indexOf('\t') < 0) {
+            return line;
+        }
+        StringBuilder expanded = new StringBuilder(line.length() + TAB_SIZE);
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                do {
+                    expanded.append(' ');
+                } while (expanded.length() % TAB_SIZE != 0);
+            } else {
+                expanded.append(c);
+            }
+        }
+        return expanded.toString();
+    }
+    
+    // --- selection and copy ---
+    
+    private void installSelection() {
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                anchorRow = leadRow = rowAt(e.getY());
+                anchorColumn = leadColumn = columnAt(e.getX());
+                repaint();
+            }
+            
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                leadRow = rowAt(e.getY());
+                leadColumn = columnAt(e.getX());
+                scrollRectToVisible(new Rectangle(e.getX(), e.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        
+        int menuMask = GraphicsEnvironment.isHeadless() ? InputEvent.CTRL_DOWN_MASK
+                : Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, menuMask), "copy");
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, menuMask), "select-all");
+        getActionMap().put("copy", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copySelection();
+            }
+        });
+        getActionMap().put("select-all", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                anchorRow = buffer.getDroppedLines();
+                anchorColumn = 0;
+                leadRow = buffer.getDroppedLines() + buffer.getRowCount();
+                leadColumn = 0;
+                repaint();
+            }
+        });
+    }
+    
+    private long rowAt(int y) {
+        int row = Math.max(0, (y - PADDING) / getLineHeight() - noticeRows());
+        return buffer.getDroppedLines() + Math.min(row, buffer.getRowCount());
+    }
+    
+    private int columnAt(int x) {
+        return Math.max(0, (x - PADDING + getCharWidth() / 2) / getCharWidth());
+    }
+    
+    private void clearSelection() {
+        anchorRow = leadRow = -1;
+    }
+    
+    private boolean hasSelection() {
+        return anchorRow >= 0 && (anchorRow != leadRow || anchorColumn != leadColumn);
+    }
+    
+    private void paintSelection(Graphics g, long row, int length, int y, int lineHeight, int charWidth) {
+        if (!hasSelection()) {
+            return;
+        }
+        boolean anchorFirst = anchorRow < leadRow || (anchorRow == leadRow && anchorColumn <= leadColumn);
+        long startRow = anchorFirst ? anchorRow : leadRow, endRow = anchorFirst ? leadRow : anchorRow;
+        int startColumn = anchorFirst ? anchorColumn : leadColumn, endColumn = anchorFirst ? leadColumn : anchorColumn;
+        if (row < startRow || row > endRow) {
+            return;
+        }
+        int from = row == startRow ? startColumn : 0;
+        int to = row == endRow ? endColumn : length + 1;
+        g.setColor(new Color(66, 153, 225, 110));
+        g.fillRect(PADDING + from * charWidth, y, Math.max(0, to - from) * charWidth, lineHeight);
+    }
+    
+    private void copySelection() {
+        if (!hasSelection()) {
+            return;
+        }
+        boolean anchorFirst = anchorRow < leadRow || (anchorRow == leadRow && anchorColumn <= leadColumn);
+        long dropped = buffer.getDroppedLines();
+        long startRow = Math.max(dropped, anchorFirst ? anchorRow : leadRow);
+        long endRow = anchorFirst ? leadRow : anchorRow;
+        int startColumn = anchorFirst ? anchorColumn : leadColumn, endColumn = anchorFirst ? leadColumn : anchorColumn;
+        
+        int rows = (int) Math.max(0, endRow - startRow + 1);
+        String[] texts = new String[rows];
+        int copied = buffer.copyRows((int) (startRow - dropped), texts, new boolean[rows]);
+        StringBuilder selected = new StringBuilder();
+        for (int i = 0; i < copied; i++) {
+            String line = expandTabs(texts[i]);
+            int from = startRow + i == startRow ? Math.min(startColumn, line.length()) : 0;
+            int to = startRow + i == endRow ? Math.min(endColumn, line.length()) : line.length();
+            selected.append(line, from, Math.max(from, to));
+            if (startRow + i != endRow) {
+                selected.append('\n');
+            }
+        }
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(selected.toString()), null);
+    }
+    
+    // --- Scrollable ---
+    
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+    
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? getLineHeight() : getCharWidth();
+    }
+    
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height - getLineHeight() : visibleRect.width;
+    }
+    
+    // Fill the viewport when the output is smaller than it
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+    
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
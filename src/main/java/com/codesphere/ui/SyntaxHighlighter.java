@@ -0,0 +1,293 @@
+package com.codesphere.ui;
+
+import com.codesphere.editor.CodeDocument;
+import com.codesphere.editor.PieceTable;
+import com.codesphere.syntax.Lexer;
+import com.codesphere.syntax.Tokens;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Syntax colouring for a {@link CodeArea}. The lexer state at the start of every line is kept in
+ * an int array. An edit only makes the states after the edited line doubtful; a background
+ * thread lexes again from there, on a snapshot of the text, until a line starts in the same
+ * state as before, which for most edits is the very next line. Painting lexes only the visible
+ * lines, from their stored states, so the EDT never lexes more than a screenful per frame.
+ *
+ * Everything but the background lexing runs on the EDT.
+ */
+class SyntaxHighlighter implements DocumentListener {
+    
+    private static final ExecutorService LEXER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "syntax-lexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Lines lexed per background job; a long re-lex is applied and repainted in steps
+    private static final int LINES_PER_JOB = 20000;
+    // Marks a state not known even as a guess
+    private static final int UNKNOWN = -1;
+    
+    // One Dark, to go with the editor's background
+    private static final Color[] COLORS = new Color[Tokens.KINDS];
+    
+    static {
+        COLORS[Tokens.KEYWORD] = new Color(198, 120, 221);
+        COLORS[Tokens.STRING] = new Color(152, 195, 121);
+        COLORS[Tokens.NUMBER] = new Color(209, 154, 102);
+        COLORS[Tokens.COMMENT] = new Color(92, 99, 112);
+        COLORS[Tokens.META] = new Color(229, 192, 123);
+    }
+    
+    private final JTextComponent host;
+    private Lexer lexer;
+    private CodeDocument document;
+    // The state at the start of each line; past valid they are the states before the last edits
+    private int[] states = new int[1024];
+    private int count;
+    // States of lines before valid are right for the current text
+    private int valid;
+    // Lines before dirtyEnd were edited, so lexing cannot stop before it
+    private int dirtyEnd;
+    private boolean running;
+    // The first line edited while a job was running
+    private int editedSince = Integer.MAX_VALUE;
+    // Changes when the document or lexer is replaced, to drop results for the old one
+    private int generation;
+    
+    SyntaxHighlighter(JTextComponent host) {
+        this.host = host;
+    }
+    
+    void setLexer(Lexer lexer) {
+        if (lexer != this.lexer) {
+            this.lexer = lexer;
+            reset();
+        }
+    }
+    
+    void setDocument(Document document) {
+        if (this.document != null) {
+            this.document.removeDocumentListener(this);
+        }
+        this.document = document instanceof CodeDocument ? (CodeDocument) document : null;
+        if (this.document != null) {
+            this.document.addDocumentListener(this);
+        }
+        reset();
+    }
+    
+    // Whether lines are coloured at all
+    boolean isActive() {
+        return lexer != null && document != null;
+    }
+    
+    static Color colorOf(int kind) {
+        return COLORS[kind];
+    }
+    
+    // Tokens of the line, whose text is in the segment, from the state it is believed to start in
+    void lexLine(int line, Segment text, Tokens tokens) {
+        tokens.clear();
+        int state = line < count ? states[line] : Lexer.INITIAL;
+        lexer.lexLine(text.array, text.offset, text.offset + text.count, state == UNKNOWN ? Lexer.INITIAL : state, tokens);
+    }
+    
+    private void reset() {
+        generation++;
+        count = document == null ? 0 : document.getDefaultRootElement().getElementCount();
+        if (states.length < count) {
+            states = new int[count + count / 4];
+        }
+        Arrays.fill(states, 0, count, UNKNOWN);
+        if (count > 0) {
+            states[0] = Lexer.INITIAL;
+        }
+        valid = 1;
+        dirtyEnd = count;
+        schedule();
+        host.repaint();
+    }
+    
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e);
+    }
+    
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e);
+    }
+    
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+    
+    // Lines joined or split by the edit are removed from or added to the states after its line
+    private void edited(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int line, removed = 0, added = 0;
+        if (change != null) {
+            line = change.getIndex();
+            removed = change.getChildrenRemoved().length - 1;
+            added = change.getChildrenAdded().length - 1;
+        } else {
+            line = root.getElementIndex(e.getOffset());
+        }
+        if (count - removed + added > states.length) {
+            states = Arrays.copyOf(states, Math.max(states.length * 2, count - removed + added));
+        }
+        System.arraycopy(states, line + 1 + removed, states, line + 1 + added, count - line - 1 - removed);
+        Arrays.fill(states, line + 1, line + 1 + added, UNKNOWN);
+        count += added - removed;
+        if (dirtyEnd > line + removed) {
+            dirtyEnd += added - removed;
+        }
+        dirtyEnd = Math.max(dirtyEnd, line + added + 1);
+        valid = Math.min(valid, line + 1);
+        editedSince = Math.min(editedSince, line);
+        schedule();
+    }
+    
+    private void schedule() {
+        if (running || !isActive() || valid >= count) {
+            return;
+        }
+        running = true;
+        editedSince = Integer.MAX_VALUE;
+        Job job = new Job();
+        job.generation = generation;
+        job.lexer = lexer;
+        job.text = document.snapshot();
+        job.from = valid - 1;
+        job.offset = document.getDefaultRootElement().getElement(job.from).getStartOffset();
+        job.mustReach = dirtyEnd;
+        job.before = Arrays.copyOfRange(states, job.from, Math.min(count, job.from + LINES_PER_JOB + 1));
+        LEXER.execute(() -> {
+            job.run();
+            SwingUtilities.invokeLater(() -> finished(job));
+        });
+    }
+    
+    // Keeps the states the job found for lines no edit since has touched, repaints the lines
+    // whose colours changed and goes on with the rest
+    private void finished(Job job) {
+        running = false;
+        if (job.generation != generation) {
+            schedule();
+            return;
+        }
+        int last = Math.min(Math.min(job.from + job.lexed, count - 1), editedSince);
+        int firstChanged = -1, lastChanged = -1;
+        for (int line = job.from + 1; line <= last; line++) {
+            int state = job.after[line - job.from - 1];
+            if (states[line] != state) {
+                states[line] = state;
+                firstChanged = firstChanged < 0 ? line : firstChanged;
+                lastChanged = line;
+            }
+        }
+        if (editedSince == Integer.MAX_VALUE && job.converged) {
+            valid = count;
+            dirtyEnd = 0;
+        } else {
+            valid = Math.max(valid, last + 1);
+        }
+        // A changed start state recolours the line before it too, whose end it describes
+        if (firstChanged > 0) {
+            repaintLines(firstChanged - 1, lastChanged);
+        }
+        schedule();
+    }
+    
+    private void repaintLines(int first, int last) {
+        try {
+            Element root = document.getDefaultRootElement();
+            Rectangle2D top = host.modelToView2D(root.getElement(first).getStartOffset());
+            Rectangle2D bottom = host.modelToView2D(root.getElement(Math.min(last, count - 1)).getStartOffset());
+            if (top != null && bottom != null) {
+                int y = (int) Math.floor(top.getY());
+                host.repaint(0, y, host.getWidth(), (int) Math.ceil(bottom.getMaxY()) - y);
+            }
+        } catch (BadLocationException e) {
+            host.repaint();
+        }
+    }
+    
+    // Lexing of a snapshot from one line on, done off the EDT
+    private static final class Job {
+        int generation;
+        Lexer lexer;
+        PieceTable.Text text;
+        // The first line lexed, where it starts and the states from it on before the edits
+        int from;
+        int offset;
+        int[] before;
+        int mustReach;
+        // Lines lexed, and the states at the starts of the lines after them
+        int lexed;
+        int[] after;
+        // Lexing stopped at a line whose state had not changed, or at the end of the text
+        boolean converged;
+        
+        void run() {
+            int length = text.length();
+            after = new int[Math.min(LINES_PER_JOB, before.length)];
+            char[] buffer = new char[8192];
+            int bufferStart = offset, bufferEnd = offset;
+            int lineStart = offset;
+            int state = before[0];
+            int scan = offset;
+            while (lexed < after.length) {
+                // Find the end of the line, reading more of the text as needed
+                int lineEnd = -1;
+                while (lineEnd < 0) {
+                    for (; scan < bufferEnd; scan++) {
+                        if (buffer[scan - bufferStart] == '\n') {
+                            lineEnd = scan;
+                            break;
+                        }
+                    }
+                    if (lineEnd >= 0) {
+                        break;
+                    }
+                    if (bufferEnd == length) {
+                        lineEnd = length;
+                        break;
+                    }
+                    int kept = bufferEnd - lineStart;
+                    if (kept * 2 > buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    System.arraycopy(buffer, lineStart - bufferStart, buffer, 0, kept);
+                    bufferStart = lineStart;
+                    int read = Math.min(buffer.length - kept, length - bufferEnd);
+                    text.getChars(bufferEnd, bufferEnd + read, buffer, kept);
+                    bufferEnd += read;
+                }
+                state = lexer.lexLine(buffer, lineStart - bufferStart, lineEnd - bufferStart, state, null);
+                after[lexed++] = state;
+                int line = from + lexed;
+                if (lineEnd == length || line >= mustReach && line - from < before.length && before[line - from] == state) {
+                    converged = true;
+                    return;
+                }
+                lineStart = lineEnd + 1;
+                scan = lineStart;
+            }
+        }
+    }
+}
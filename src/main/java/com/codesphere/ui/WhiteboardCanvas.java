@@ -0,0 +1,476 @@
+package com.codesphere.ui;
+
+import com.codesphere.whiteboard.History;
+import com.codesphere.whiteboard.Stroke;
+import com.codesphere.whiteboard.StrokeStore;
+import com.codesphere.whiteboard.TileStore;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Surface behind the whiteboard panel. The board is an unbounded set of vector strokes in a
+ * {@link StrokeStore}; what they look like at the current zoom is cached in raster tiles from a
+ * {@link TileStore}, which are rendered only when they come into view or are drawn on. The pen
+ * draws each new batch of points into the tiles it crosses, and the eraser removes whole strokes
+ * and re-renders just the region they covered. Kept free of Swing components so it can be
+ * benchmarked headless.
+ *
+ * Methods take and return panel (screen) coordinates; strokes are stored in board coordinates,
+ * where screen = board * zoom - view. Drawing allocates nothing per point: pens and colours are
+ * cached and the changed area is accumulated into a rectangle the caller passes in.
+ *
+ * Each pen stroke, each eraser drag and each clear is one step in the undo {@link History}.
+ */
+public class WhiteboardCanvas {
+    
+    private static final int TILE = TileStore.SIZE;
+    private static final double MIN_ZOOM = 0.05;
+    private static final double MAX_ZOOM = 16;
+    
+    private final StrokeStore strokes = new StrokeStore();
+    private final TileStore tiles = new TileStore();
+    private final History history = new History();
+    private Stroke current;
+    // Strokes the eraser has removed since the button went down
+    private List<Stroke> erasing = new ArrayList<>();
+    private double zoom = 1;
+    // Top-left corner of the panel in zoomed board pixels
+    private int viewX;
+    private int viewY;
+    private final Path2D.Float tail = new Path2D.Float();
+    private final Rectangle boardDirty = new Rectangle();
+    private final Rectangle clip = new Rectangle();
+    // Round pens by whole-pixel width; other widths are rare enough to build each time
+    private final BasicStroke[] pens = new BasicStroke[33];
+    private Color color = Color.BLACK;
+    // Graphics of the tile the pen last drew on; strokes mostly stay on one tile for a while
+    private BufferedImage penTile;
+    private Graphics2D penGraphics;
+    private double penZoom;
+    
+    public void beginStroke(int x, int y, Color color, int penSize) {
+        endGesture();
+        current = new Stroke(color.getRGB(), penSize);
+        strokes.add(current);
+        strokes.append(current, boardX(x), boardY(y));
+    }
+    
+    // Extends the stroke being drawn and grows dirty to cover what changed
+    public void lineTo(int x, int y, Rectangle dirty) {
+        if (current == null) {
+            return;
+        }
+        int first = current.getPointCount();
+        boardDirty.setBounds(0, 0, 0, 0);
+        if (append(x, y)) {
+            drawTail(first, dirty);
+        }
+    }
+    
+    // Extends the stroke by several points at once and draws them as one path
+    public void lineTo(int[] xs, int[] ys, int count, Rectangle dirty) {
+        if (current == null) {
+            return;
+        }
+        int first = current.getPointCount();
+        boardDirty.setBounds(0, 0, 0, 0);
+        boolean moved = false;
+        for (int i = 0; i < count; i++) {
+            moved |= append(xs[i], ys[i]);
+        }
+        if (moved) {
+            drawTail(first, dirty);
+        }
+    }
+    
+    private boolean append(int x, int y) {
+        int last = current.getPointCount() - 1;
+        float bx = boardX(x), by = boardY(y);
+        if (current.getX(last) == bx && current.getY(last) == by) {
+            return false;
+        }
+        strokes.append(current, bx, by);
+        current.addSegmentBounds(last + 1, boardDirty);
+        return true;
+    }
+    
+    // Draws the current stroke from the point before first to its end into the tiles it crosses
+    private void drawTail(int first, Rectangle dirty) {
+        tail.reset();
+        tail.moveTo(current.getX(first - 1), current.getY(first - 1));
+        for (int point = first; point < current.getPointCount(); point++) {
+            tail.lineTo(current.getX(point), current.getY(point));
+        }
+        Rectangle area = toScreen(boardDirty);
+        forEachTile(area, (tx, ty) -> {
+            BufferedImage image = tiles.get(TileStore.key(tx, ty));
+            if (image == null) {
+                // Rendering from the strokes already includes the new points
+                renderTile(tx, ty);
+                return;
+            }
+            if (image != penTile || zoom != penZoom) {
+                if (penGraphics != null) {
+                    penGraphics.dispose();
+                }
+                penTile = image;
+                penGraphics = tileGraphics(image, tx, ty);
+                penZoom = zoom;
+            }
+            usePen(penGraphics, current);
+            penGraphics.draw(tail);
+        });
+        add(dirty, area);
+    }
+    
+    // Ends the pen stroke or eraser drag in progress and records it for undo
+    public void endGesture() {
+        if (current != null) {
+            // A click without a drag leaves no ink
+            if (current.getPointCount() < 2) {
+                strokes.remove(current);
+            } else {
+                strokes.finish(current);
+                history.record(History.Edit.drawn(current));
+            }
+            current = null;
+        }
+        if (!erasing.isEmpty()) {
+            history.record(History.Edit.erased(erasing));
+            erasing = new ArrayList<>();
+        }
+    }
+    
+    // Removes every stroke the eraser touches, grows dirty to cover them and returns them
+    public List<Stroke> erase(int x, int y, int penSize, Rectangle dirty) {
+        // The radius is in screen pixels, like the eraser cursor
+        List<Stroke> hit = strokes.hitAll(boardX(x), boardY(y), (float) (penSize * 2 / zoom));
+        if (hit.isEmpty()) {
+            return Collections.emptyList();
+        }
+        erasing.addAll(hit);
+        removeStrokes(hit, dirty);
+        return hit;
+    }
+    
+    // Puts strokes back without recording an undo step, and grows dirty to cover them
+    public void addStrokes(List<Stroke> added, Rectangle dirty) {
+        if (added.isEmpty()) {
+            return;
+        }
+        for (Stroke stroke : added) {
+            strokes.add(stroke);
+        }
+        Rectangle area = toScreen(bounds(added));
+        redraw(area);
+        add(dirty, area);
+    }
+    
+    // Takes strokes off the board without recording an undo step, and grows dirty to cover them
+    public void removeStrokes(List<Stroke> removed, Rectangle dirty) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (Stroke stroke : removed) {
+            if (stroke == current) {
+                current = null;
+            }
+            strokes.remove(stroke);
+        }
+        Rectangle area = toScreen(bounds(removed));
+        redraw(area);
+        add(dirty, area);
+    }
+    
+    // Empties the board; undo brings everything back
+    public void clear() {
+        endGesture();
+        List<Stroke> all = strokes.all();
+        if (!all.isEmpty()) {
+            history.record(History.Edit.cleared(all));
+        }
+        strokes.clear();
+        tiles.clear();
+    }
+    
+    // Replaces the board with the strokes, e.g. from a file; the undo history starts afresh
+    public void load(List<Stroke> loaded) {
+        endGesture();
+        strokes.clear();
+        for (Stroke stroke : loaded) {
+            strokes.add(stroke);
+            strokes.finish(stroke);
+        }
+        history.clear();
+        resetView();
+    }
+    
+    // Ends any gesture in progress and returns the finished strokes in drawing order, e.g. to
+    // save or export them from another thread
+    public List<Stroke> snapshot() {
+        endGesture();
+        return strokes.all();
+    }
+    
+    // Reverts the last step; returns false when there is nothing to undo
+    public boolean undo(Rectangle dirty) {
+        endGesture();
+        History.Edit edit = history.undo();
+        if (edit == null) {
+            return false;
+        }
+        apply(edit.getAdded(), edit.getRemoved(), edit.isWholeBoard(), dirty);
+        return true;
+    }
+    
+    // Applies the last undone step again; returns false when there is nothing to redo
+    public boolean redo(Rectangle dirty) {
+        endGesture();
+        History.Edit edit = history.redo();
+        if (edit == null) {
+            return false;
+        }
+        apply(edit.getRemoved(), edit.getAdded(), edit.isWholeBoard(), dirty);
+        return true;
+    }
+    
+    private void apply(List<Stroke> remove, List<Stroke> add, boolean wholeBoard, Rectangle dirty) {
+        if (!wholeBoard) {
+            removeStrokes(remove, dirty);
+            addStrokes(add, dirty);
+            return;
+        }
+        // Clearing or restoring the whole board: every tile changes, so start them afresh
+        if (add.isEmpty()) {
+            strokes.clear();
+        } else {
+            for (Stroke stroke : add) {
+                strokes.add(stroke);
+            }
+        }
+        tiles.clear();
+        add(dirty, new Rectangle(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+    
+    public History getHistory() {
+        return history;
+    }
+    
+    // Re-renders the strokes that overlap a screen area from their vectors
+    private void redraw(Rectangle area) {
+        forEachTile(area, (tx, ty) -> {
+            long key = TileStore.key(tx, ty);
+            if (tiles.isEmpty(key)) {
+                // New ink there would not have been found by the last render
+                tiles.forget(key);
+                return;
+            }
+            BufferedImage image = tiles.peek(key);
+            if (image == null) {
+                // Never rendered, or compressed: decoding it to patch costs more than rendering
+                // it afresh from the strokes when it is next in view
+                tiles.forget(key);
+                return;
+            }
+            Rectangle local = new Rectangle(area.x + viewX - tx * TILE, area.y + viewY - ty * TILE, area.width, area.height)
+                    .intersection(new Rectangle(TILE, TILE));
+            List<Stroke> inside = strokes.query(toBoard(new Rectangle(tx * TILE + local.x - viewX, ty * TILE + local.y - viewY, local.width, local.height)));
+            if (inside.isEmpty() && strokes.query(tileBoardArea(tx, ty)).isEmpty()) {
+                tiles.markEmpty(key);
+                return;
+            }
+            Graphics2D g = image.createGraphics();
+            g.setClip(local);
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(local);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-tx * TILE, -ty * TILE);
+            g.scale(zoom, zoom);
+            for (Stroke stroke : inside) {
+                usePen(g, stroke);
+                g.draw(stroke.toPath());
+            }
+            g.dispose();
+        });
+    }
+    
+    // Renders a tile from the strokes, or marks it empty when it has none
+    private BufferedImage renderTile(int tx, int ty) {
+        long key = TileStore.key(tx, ty);
+        List<Stroke> inside = strokes.query(tileBoardArea(tx, ty));
+        if (inside.isEmpty()) {
+            tiles.markEmpty(key);
+            return null;
+        }
+        BufferedImage image = TileStore.newTile();
+        Graphics2D g = tileGraphics(image, tx, ty);
+        for (Stroke stroke : inside) {
+            usePen(g, stroke);
+            g.draw(stroke.toPath());
+        }
+        g.dispose();
+        tiles.put(key, image);
+        return image;
+    }
+    
+    private Graphics2D tileGraphics(BufferedImage image, int tx, int ty) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(-tx * TILE, -ty * TILE);
+        g.scale(zoom, zoom);
+        return g;
+    }
+    
+    private Rectangle tileBoardArea(int tx, int ty) {
+        return toBoard(new Rectangle(tx * TILE - viewX, ty * TILE - viewY, TILE, TILE));
+    }
+    
+    private void usePen(Graphics2D g, Stroke stroke) {
+        if (color.getRGB() != stroke.getColor()) {
+            color = new Color(stroke.getColor(), true);
+        }
+        g.setColor(color);
+        float width = stroke.getWidth();
+        int whole = (int) width;
+        if (whole == width && whole < pens.length) {
+            if (pens[whole] == null) {
+                pens[whole] = new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            }
+            g.setStroke(pens[whole]);
+        } else {
+            g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        }
+    }
+    
+    // Paints the tiles inside the graphics' clip, rendering any that are not cached
+    public void paint(Graphics g) {
+        if (g.getClip() == null) {
+            return;
+        }
+        g.getClipBounds(clip);
+        forEachTile(clip, (tx, ty) -> {
+            long key = TileStore.key(tx, ty);
+            if (tiles.isEmpty(key)) {
+                return;
+            }
+            BufferedImage image = tiles.get(key);
+            if (image == null) {
+                image = renderTile(tx, ty);
+            }
+            if (image != null) {
+                g.drawImage(image, tx * TILE - viewX, ty * TILE - viewY, null);
+            }
+        });
+    }
+    
+    // Moves the board with the pointer
+    public void panBy(int dx, int dy) {
+        viewX -= dx;
+        viewY -= dy;
+    }
+    
+    // Zooms by the factor keeping the board point under (x, y) in place
+    public void zoomAt(int x, int y, double factor) {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+        if (newZoom == zoom) {
+            return;
+        }
+        float bx = boardX(x), by = boardY(y);
+        zoom = newZoom;
+        viewX = (int) Math.round(bx * zoom - x);
+        viewY = (int) Math.round(by * zoom - y);
+        // Tiles hold pixels at the old zoom
+        tiles.clear();
+    }
+    
+    public void resetView() {
+        zoom = 1;
+        viewX = 0;
+        viewY = 0;
+        tiles.clear();
+    }
+    
+    public double getZoom() {
+        return zoom;
+    }
+    
+    private float boardX(int x) {
+        return (float) ((x + viewX) / zoom);
+    }
+    
+    private float boardY(int y) {
+        return (float) ((y + viewY) / zoom);
+    }
+    
+    // Board area to the screen pixels it covers
+    public Rectangle toScreen(Rectangle board) {
+        if (board == null || board.isEmpty()) {
+            return new Rectangle();
+        }
+        int left = (int) Math.floor(board.x * zoom) - viewX - 1;
+        int top = (int) Math.floor(board.y * zoom) - viewY - 1;
+        int right = (int) Math.ceil((board.x + board.width) * zoom) - viewX + 1;
+        int bottom = (int) Math.ceil((board.y + board.height) * zoom) - viewY + 1;
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+    
+    private Rectangle toBoard(Rectangle screen) {
+        int left = (int) Math.floor((screen.x + viewX) / zoom);
+        int top = (int) Math.floor((screen.y + viewY) / zoom);
+        int right = (int) Math.ceil((screen.x + screen.width + viewX) / zoom);
+        int bottom = (int) Math.ceil((screen.y + screen.height + viewY) / zoom);
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+    
+    private static void add(Rectangle dirty, Rectangle area) {
+        if (area.isEmpty()) {
+            return;
+        }
+        if (dirty.isEmpty()) {
+            dirty.setBounds(area);
+        } else {
+            dirty.add(area);
+        }
+    }
+    
+    private interface TileVisitor {
+        void visit(int tx, int ty);
+    }
+    
+    // Visits the tiles under a screen area
+    private void forEachTile(Rectangle screen, TileVisitor visitor) {
+        if (screen.isEmpty()) {
+            return;
+        }
+        int left = Math.floorDiv(screen.x + viewX, TILE), right = Math.floorDiv(screen.x + screen.width - 1 + viewX, TILE);
+        int top = Math.floorDiv(screen.y + viewY, TILE), bottom = Math.floorDiv(screen.y + screen.height - 1 + viewY, TILE);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                visitor.visit(tx, ty);
+            }
+        }
+    }
+    
+    // The union of the strokes' board bounds, or null when there are none
+    public static Rectangle bounds(List<Stroke> list) {
+        Rectangle union = null;
+        for (Stroke stroke : list) {
+            union = union == null ? stroke.getBounds() : union.union(stroke.getBounds());
+        }
+        return union;
+    }
+    
+    public StrokeStore getStrokes() {
+        return strokes;
+    }
+    
+    public TileStore getTiles() {
+        return tiles;
+    }
+}
@@ -0,0 +1,120 @@
+package com.codesphere.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Turns whiteboard mouse drags into canvas updates once per frame instead of once per event.
+ * Pens and tablets can report several hundred positions a second; they are queued and drawn
+ * together at most once a frame, and only the rectangle they changed is repainted. Input that
+ * arrives after a quiet spell is drawn straight away.
+ *
+ * Settings (system properties):
+ * codesphere.whiteboard.fps - frames per second to draw queued input at, default 60
+ */
+public class WhiteboardInput {
+    
+    private final WhiteboardCanvas canvas;
+    private final JComponent panel;
+    private final FrameStats stats;
+    private final Timer frameTimer;
+    private final long frameNanos;
+    private long lastFlush;
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int pending;
+    private boolean erasing;
+    private int eraserSize;
+    private final Rectangle dirty = new Rectangle();
+    
+    public WhiteboardInput(WhiteboardCanvas canvas, JComponent panel, FrameStats stats) {
+        this.canvas = canvas;
+        this.panel = panel;
+        this.stats = stats;
+        int fps = Math.max(1, Integer.getInteger("codesphere.whiteboard.fps", 60));
+        frameNanos = 1_000_000_000L / fps;
+        frameTimer = new Timer(0, e -> flush());
+        frameTimer.setRepeats(false);
+    }
+    
+    public void penDown(int x, int y, Color color, int penSize) {
+        flush();
+        canvas.beginStroke(x, y, color, penSize);
+    }
+    
+    public void penMoved(int x, int y) {
+        queue(x, y, false, 0);
+    }
+    
+    public void eraserMoved(int x, int y, int penSize) {
+        queue(x, y, true, penSize);
+    }
+    
+    public void released() {
+        flush();
+        canvas.endGesture();
+    }
+    
+    public void undo() {
+        flush();
+        dirty.setBounds(0, 0, 0, 0);
+        if (canvas.undo(dirty) && !dirty.isEmpty()) {
+            panel.repaint(dirty);
+        }
+    }
+    
+    public void redo() {
+        flush();
+        dirty.setBounds(0, 0, 0, 0);
+        if (canvas.redo(dirty) && !dirty.isEmpty()) {
+            panel.repaint(dirty);
+        }
+    }
+    
+    private void queue(int x, int y, boolean erase, int size) {
+        if (pending > 0 && (erase != erasing || size != eraserSize)) {
+            flush();
+        }
+        erasing = erase;
+        eraserSize = size;
+        if (pending == xs.length) {
+            xs = Arrays.copyOf(xs, pending * 2);
+            ys = Arrays.copyOf(ys, pending * 2);
+        }
+        xs[pending] = x;
+        ys[pending] = y;
+        pending++;
+        long now = System.nanoTime();
+        stats.eventReceived(now);
+        if (!frameTimer.isRunning()) {
+            // Events already queued behind this one still make it into the same frame
+            frameTimer.setInitialDelay((int) Math.max(0, (frameNanos - (now - lastFlush)) / 1_000_000));
+            frameTimer.start();
+        }
+    }
+    
+    // Draws everything queued so far and repaints the area it changed
+    public void flush() {
+        frameTimer.stop();
+        if (pending == 0) {
+            return;
+        }
+        dirty.setBounds(0, 0, 0, 0);
+        if (erasing) {
+            for (int i = 0; i < pending; i++) {
+                canvas.erase(xs[i], ys[i], eraserSize, dirty);
+            }
+        } else {
+            canvas.lineTo(xs, ys, pending, dirty);
+        }
+        pending = 0;
+        lastFlush = System.nanoTime();
+        if (dirty.isEmpty()) {
+            stats.inputDiscarded();
+        } else {
+            stats.inputDrawn();
+            panel.repaint(dirty);
+        }
+    }
+}
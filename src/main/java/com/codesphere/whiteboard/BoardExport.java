@@ -0,0 +1,64 @@
+package com.codesphere.whiteboard;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Renders the board to a PNG from its strokes, cropped to the drawn area. Meant to run off the
+ * event dispatch thread: it only reads finished strokes, which do not change once drawn.
+ *
+ * Settings (system properties):
+ * codesphere.whiteboard.exportMegapixels - largest image to write, default 64; bigger boards
+ * are scaled down to fit
+ */
+public final class BoardExport {
+    
+    private static final int MARGIN = 16;
+    
+    private BoardExport() {
+    }
+    
+    public static void writePng(List<Stroke> strokes, Color background, Path file) throws IOException {
+        long maxPixels = Long.getLong("codesphere.whiteboard.exportMegapixels", 64) * 1_000_000;
+        if (!ImageIO.write(render(strokes, background, maxPixels), "png", file.toFile())) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+    
+    // The strokes at 100% zoom, or smaller when that would be over maxPixels
+    public static BufferedImage render(List<Stroke> strokes, Color background, long maxPixels) {
+        Rectangle area = null;
+        for (Stroke stroke : strokes) {
+            area = area == null ? stroke.getBounds() : area.union(stroke.getBounds());
+        }
+        if (area == null) {
+            area = new Rectangle();
+        }
+        area.grow(MARGIN, MARGIN);
+        double scale = Math.min(1, Math.sqrt((double) maxPixels / ((double) area.width * area.height)));
+        int width = Math.max(1, (int) Math.ceil(area.width * scale));
+        int height = Math.max(1, (int) Math.ceil(area.height * scale));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.scale(scale, scale);
+        g.translate(-area.x, -area.y);
+        for (Stroke stroke : strokes) {
+            g.setColor(new Color(stroke.getColor(), true));
+            g.setStroke(new BasicStroke(stroke.getWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(stroke.toPath());
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,254 @@
+package com.codesphere.whiteboard;
+
+import com.codesphere.diag.FileIoEvent;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The whiteboard's file format (.cswb). Strokes are kept in drawing order and refer to a
+ * palette of colour and width pairs; their points are zigzag varint deltas in sixteenths of a
+ * board pixel, so a point drawn by hand usually takes two or three bytes instead of eight.
+ *
+ * Layout: "CSWB", a version byte, the palette (varint count, then an ARGB int and a float
+ * width per entry), the strokes (varint count, then per stroke a varint palette index, a varint
+ * point count and the x,y deltas). The first point of a stroke is relative to the last point of
+ * the one before, which is usually close by. Fixed-size fields are big-endian.
+ *
+ * Large files are read through a memory-mapped channel rather than copied onto the heap first.
+ * Points, segment lengths and pen widths are checked on the way in, so a damaged or hostile file
+ * cannot make the {@link StrokeStore} index walk billions of grid cells.
+ */
+public final class BoardFile {
+    
+    public static final String EXTENSION = "cswb";
+    
+    private static final int MAGIC = 0x43535742;
+    private static final int VERSION = 1;
+    // Fixed-point steps per board pixel
+    private static final float SCALE = 16;
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    // Room for two varints, so a point never straddles a buffer flush
+    private static final int MAX_POINT_BYTES = 20;
+    // Far past where float points still hold sixteenths, in board pixels
+    private static final long MAX_COORDINATE = 1 << 24;
+    // One mouse event at the lowest zoom covers a few thousand board pixels
+    private static final long MAX_SEGMENT = 1 << 16;
+    private static final float MAX_WIDTH = 1024;
+    // Grid cells the strokes' segments may cover in all, about what the index could hold in memory
+    private static final long MAX_INDEX_CELLS = 1L << 26;
+    
+    private BoardFile() {
+    }
+    
+    // Written to a temporary file first, so a failed save leaves the old file intact
+    public static void write(Path file, List<Stroke> strokes) throws IOException {
+        FileIoEvent event = FileIoEvent.start(FileIoEvent.SAVE_BOARD, file);
+        try {
+            writeFile(file, strokes);
+            if (event.isEnabled()) {
+                event.setBytes(Files.size(file));
+            }
+        } finally {
+            event.commit();
+        }
+    }
+    
+    private static void writeFile(Path file, List<Stroke> strokes) throws IOException {
+        Map<Long, Integer> palette = new LinkedHashMap<>();
+        for (Stroke stroke : strokes) {
+            palette.putIfAbsent(paletteKey(stroke), palette.size());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            buffer.putInt(MAGIC);
+            buffer.put((byte) VERSION);
+            putVarint(buffer, palette.size());
+            for (long key : palette.keySet()) {
+                flushIfFull(channel, buffer);
+                buffer.putInt((int) (key >>> 32));
+                buffer.putInt((int) key);
+            }
+            putVarint(buffer, strokes.size());
+            long lastX = 0, lastY = 0;
+            for (Stroke stroke : strokes) {
+                flushIfFull(channel, buffer);
+                putVarint(buffer, palette.get(paletteKey(stroke)));
+                putVarint(buffer, stroke.getPointCount());
+                for (int point = 0; point < stroke.getPointCount(); point++) {
+                    flushIfFull(channel, buffer);
+                    long x = Math.round(stroke.getX(point) * (double) SCALE);
+                    long y = Math.round(stroke.getY(point) * (double) SCALE);
+                    putVarint(buffer, zigzag(x - lastX));
+                    putVarint(buffer, zigzag(y - lastY));
+                    lastX = x;
+                    lastY = y;
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // A rename that reaches the disk before the data would leave an empty board
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    public static List<Stroke> read(Path file) throws IOException {
+        FileIoEvent event = FileIoEvent.start(FileIoEvent.OPEN_BOARD, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            event.setBytes(size);
+            ByteBuffer buffer;
+            if (size > MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Keep reading until the whole file is in
+                }
+                buffer.flip();
+            }
+            return decode(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Whiteboard file is truncated: " + file);
+        } finally {
+            event.commit();
+        }
+    }
+    
+    private static List<Stroke> decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a CodeSphere whiteboard file");
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported whiteboard file version " + version);
+        }
+        int paletteSize = count(buffer, 8);
+        int[] colors = new int[paletteSize];
+        float[] widths = new float[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            colors[i] = buffer.getInt();
+            widths[i] = buffer.getFloat();
+            if (!(widths[i] >= 0 && widths[i] <= MAX_WIDTH)) {
+                throw new IOException("Whiteboard file is corrupt: bad pen width " + widths[i]);
+            }
+        }
+        int strokeCount = count(buffer, 2);
+        List<Stroke> strokes = new ArrayList<>(strokeCount);
+        long lastX = 0, lastY = 0;
+        long cells = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            int entry = (int) getVarint(buffer);
+            if (entry < 0 || entry >= paletteSize) {
+                throw new IOException("Whiteboard file is corrupt: bad palette index " + entry);
+            }
+            float[] points = new float[count(buffer, 2) * 2];
+            for (int p = 0; p < points.length; p += 2) {
+                // A stroke may start anywhere on the board, its next points only near the last
+                long limit = (p == 0 ? 2 * MAX_COORDINATE : MAX_SEGMENT) * (long) SCALE;
+                long dx = unzigzag(getVarint(buffer));
+                long dy = unzigzag(getVarint(buffer));
+                if (dx < -limit || dx > limit || dy < -limit || dy > limit) {
+                    throw new IOException("Whiteboard file is corrupt: segment of " + dx / SCALE + ", " + dy / SCALE + " px");
+                }
+                lastX += dx;
+                lastY += dy;
+                long bound = MAX_COORDINATE * (long) SCALE;
+                if (lastX < -bound || lastX > bound || lastY < -bound || lastY > bound) {
+                    throw new IOException("Whiteboard file is corrupt: point " + lastX / SCALE + ", " + lastY / SCALE + " is off the board");
+                }
+                if (p > 0) {
+                    cells += cellsAcross(Math.abs(dx), widths[entry]) * cellsAcross(Math.abs(dy), widths[entry]);
+                    if (cells > MAX_INDEX_CELLS) {
+                        throw new IOException("Whiteboard file is corrupt: strokes cover too much of the board");
+                    }
+                }
+                points[p] = lastX / SCALE;
+                points[p + 1] = lastY / SCALE;
+            }
+            strokes.add(new Stroke(colors[entry], widths[entry], points));
+        }
+        return strokes;
+    }
+    
+    // At most how many index cells a segment spans along one axis
+    private static long cellsAcross(long delta, float width) {
+        return (long) (delta / SCALE + width + 2) / StrokeStore.CELL + 2;
+    }
+    
+    // A count of items at least minBytes each, checked against what is left so a corrupt file
+    // cannot make us allocate gigabytes
+    private static int count(ByteBuffer buffer, int minBytes) throws IOException {
+        long count = getVarint(buffer);
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IOException("Whiteboard file is corrupt: bad count " + count);
+        }
+        return (int) count;
+    }
+    
+    private static long paletteKey(Stroke stroke) {
+        return ((long) stroke.getColor() << 32) | (Float.floatToIntBits(stroke.getWidth()) & 0xffffffffL);
+    }
+    
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() >= MAX_POINT_BYTES) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Whiteboard file is corrupt: varint too long");
+    }
+}
@@ -0,0 +1,148 @@
+package com.codesphere.whiteboard;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Undo and redo for the whiteboard. Every edit is the strokes it added and the strokes it
+ * removed, shared with the board rather than copied, so a pen stroke costs a few dozen bytes of
+ * history and undoing or redoing it only touches that stroke's area.
+ *
+ * The oldest edits are dropped once the history holds more than its budget. Strokes that only
+ * the history still references are counted in full: erased or cleared ones, and drawn ones
+ * while they are undone and wait on the redo stack.
+ *
+ * Settings (system properties):
+ * codesphere.whiteboard.historyMb - memory the undo history may hold, default 16
+ */
+public class History {
+    
+    // Object header, fields and list slot of an edit
+    private static final int EDIT_OVERHEAD = 64;
+    
+    private final long maxBytes;
+    private final Deque<Edit> undo = new ArrayDeque<>();
+    private final Deque<Edit> redo = new ArrayDeque<>();
+    private long bytes;
+    
+    public History() {
+        this(Long.getLong("codesphere.whiteboard.historyMb", 16) * 1024 * 1024);
+    }
+    
+    public History(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    /** One undoable step. */
+    public static final class Edit {
+        private final List<Stroke> added;
+        private final List<Stroke> removed;
+        private final boolean wholeBoard;
+        // Charged while on the undo stack, and while undone on the redo stack
+        private final long bytes;
+        private final long undoneBytes;
+        
+        private Edit(List<Stroke> added, List<Stroke> removed, boolean wholeBoard) {
+            this.added = added;
+            this.removed = removed;
+            this.wholeBoard = wholeBoard;
+            this.bytes = EDIT_OVERHEAD + 8L * added.size() + memoryBytes(removed);
+            this.undoneBytes = EDIT_OVERHEAD + 8L * removed.size() + memoryBytes(added);
+        }
+        
+        private static long memoryBytes(List<Stroke> strokes) {
+            long size = 0;
+            for (Stroke stroke : strokes) {
+                size += stroke.memoryBytes();
+            }
+            return size;
+        }
+        
+        public static Edit drawn(Stroke stroke) {
+            return new Edit(Collections.singletonList(stroke), Collections.emptyList(), false);
+        }
+        
+        public static Edit erased(List<Stroke> strokes) {
+            return new Edit(Collections.emptyList(), strokes, false);
+        }
+        
+        // Everything on the board was removed at once
+        public static Edit cleared(List<Stroke> strokes) {
+            return new Edit(Collections.emptyList(), strokes, true);
+        }
+        
+        public List<Stroke> getAdded() {
+            return added;
+        }
+        
+        public List<Stroke> getRemoved() {
+            return removed;
+        }
+        
+        public boolean isWholeBoard() {
+            return wholeBoard;
+        }
+    }
+    
+    public void record(Edit edit) {
+        undo.push(edit);
+        bytes += edit.bytes;
+        for (Edit dropped : redo) {
+            bytes -= dropped.undoneBytes;
+        }
+        redo.clear();
+        trim();
+    }
+    
+    // The edit to revert, or null when there is nothing to undo
+    public Edit undo() {
+        Edit edit = undo.poll();
+        if (edit != null) {
+            redo.push(edit);
+            bytes += edit.undoneBytes - edit.bytes;
+            trim();
+        }
+        return edit;
+    }
+    
+    // The edit to apply again, or null when there is nothing to redo
+    public Edit redo() {
+        Edit edit = redo.poll();
+        if (edit != null) {
+            undo.push(edit);
+            bytes += edit.bytes - edit.undoneBytes;
+        }
+        return edit;
+    }
+    
+    // Drops the oldest undo steps while over budget, keeping at least one
+    private void trim() {
+        while (bytes > maxBytes && undo.size() > 1) {
+            bytes -= undo.removeLast().bytes;
+        }
+    }
+    
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+    
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+    
+    public int getUndoSteps() {
+        return undo.size();
+    }
+    
+    public long getBytes() {
+        return bytes;
+    }
+    
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        bytes = 0;
+    }
+}
@@ -0,0 +1,168 @@
+package com.codesphere.whiteboard;
+
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * One pen stroke: colour, width and its points in board coordinates. Points are kept as
+ * x,y pairs in a single float array, so a stroke costs about 50 bytes plus 8 per point.
+ */
+public final class Stroke {
+    
+    private final int color;
+    private final float width;
+    private float[] points;
+    private int size;
+    private float minX = Float.POSITIVE_INFINITY;
+    private float minY = Float.POSITIVE_INFINITY;
+    private float maxX = Float.NEGATIVE_INFINITY;
+    private float maxY = Float.NEGATIVE_INFINITY;
+    // Position in the drawing order, assigned by the StrokeStore; kept after removal so an
+    // undone erase puts the stroke back where it was
+    int id = -1;
+    
+    // color is ARGB
+    public Stroke(int color, float width) {
+        this.color = color;
+        this.width = width;
+        this.points = new float[16];
+    }
+    
+    // points holds x,y pairs and is taken over, not copied
+    public Stroke(int color, float width, float[] points) {
+        this.color = color;
+        this.width = width;
+        this.points = points;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            include(points[i], points[i + 1]);
+        }
+        this.size = points.length & ~1;
+    }
+    
+    void add(float x, float y) {
+        if (size == points.length) {
+            points = Arrays.copyOf(points, size * 2);
+        }
+        points[size++] = x;
+        points[size++] = y;
+        include(x, y);
+    }
+    
+    private void include(float x, float y) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+    
+    // Drops the spare capacity left from growing while the stroke was drawn
+    void trim() {
+        if (points.length > size) {
+            points = Arrays.copyOf(points, size);
+        }
+    }
+    
+    public int getColor() {
+        return color;
+    }
+    
+    public float getWidth() {
+        return width;
+    }
+    
+    public int getPointCount() {
+        return size / 2;
+    }
+    
+    public float getX(int point) {
+        return points[point * 2];
+    }
+    
+    public float getY(int point) {
+        return points[point * 2 + 1];
+    }
+    
+    // Approximate heap size of the stroke and its points
+    public long memoryBytes() {
+        return 56 + 16 + 4L * points.length;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    // Whether a circle of the given radius touches the stroke's ink
+    public boolean hits(float x, float y, float radius) {
+        float reach = radius + width / 2;
+        if (size == 0 || x < minX - reach || x > maxX + reach || y < minY - reach || y > maxY + reach) {
+            return false;
+        }
+        float reachSquared = reach * reach;
+        if (size == 2) {
+            return distanceSquared(x, y, points[0], points[1], points[0], points[1]) <= reachSquared;
+        }
+        for (int i = 2; i < size; i += 2) {
+            if (distanceSquared(x, y, points[i - 2], points[i - 1], points[i], points[i + 1]) <= reachSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static float distanceSquared(float px, float py, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1, dy = y2 - y1;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1) * dx + (py - y1) * dy) / lengthSquared));
+        float nx = x1 + t * dx - px, ny = y1 + t * dy - py;
+        return nx * nx + ny * ny;
+    }
+    
+    // The pixels the stroke can touch, including round caps and antialiasing
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return new Rectangle();
+        }
+        return segmentBounds(minX, minY, maxX, maxY);
+    }
+    
+    // The pixels the segment ending at the given point can touch
+    public Rectangle getSegmentBounds(int point) {
+        Rectangle bounds = new Rectangle();
+        addSegmentBounds(point, bounds);
+        return bounds;
+    }
+    
+    // Grows the rectangle (when not empty) to also cover the segment ending at the given point
+    public void addSegmentBounds(int point, Rectangle into) {
+        int from = Math.max(0, point - 1);
+        float pad = width / 2 + 1;
+        int left = (int) Math.floor(Math.min(getX(from), getX(point)) - pad);
+        int top = (int) Math.floor(Math.min(getY(from), getY(point)) - pad);
+        int right = (int) Math.ceil(Math.max(getX(from), getX(point)) + pad);
+        int bottom = (int) Math.ceil(Math.max(getY(from), getY(point)) + pad);
+        if (into.isEmpty()) {
+            into.setBounds(left, top, right - left, bottom - top);
+        } else {
+            into.add(left, top);
+            into.add(right, bottom);
+        }
+    }
+    
+    private Rectangle segmentBounds(float x1, float y1, float x2, float y2) {
+        float pad = width / 2 + 1;
+        int left = (int) Math.floor(x1 - pad), top = (int) Math.floor(y1 - pad);
+        return new Rectangle(left, top, (int) Math.ceil(x2 + pad) - left, (int) Math.ceil(y2 + pad) - top);
+    }
+    
+    public Path2D.Float toPath() {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, size / 2);
+        if (size > 0) {
+            path.moveTo(points[0], points[1]);
+            for (int i = 2; i < size; i += 2) {
+                path.lineTo(points[i], points[i + 1]);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,307 @@
+package com.codesphere.whiteboard;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * All strokes on the board in drawing order, with a uniform grid index so erasing, hit-testing
+ * and redrawing a region only look at strokes near it, however many are on the board.
+ *
+ * Each grid cell lists the ids of the strokes whose segments pass through it, so a long stroke
+ * is only found near its ink, not anywhere in its bounding box. Appending a point while a
+ * stroke is drawn allocates nothing in the common case.
+ */
+public class StrokeStore {
+    
+    static final int CELL = 64;
+    
+    // Indexed by stroke id, null once removed; ids are the drawing order
+    private Stroke[] strokes = new Stroke[256];
+    private int nextId;
+    private int count;
+    private final CellTable cells = new CellTable();
+    // Query number that last reported each id, to list a stroke once even when it is in many cells
+    private int[] seen = new int[256];
+    private int query;
+    
+    // Puts the stroke on top, or back at its old place in the drawing order when that is free
+    public void add(Stroke stroke) {
+        if (stroke.id < 0 || stroke.id >= nextId || strokes[stroke.id] != null) {
+            stroke.id = nextId++;
+            if (stroke.id == strokes.length) {
+                strokes = Arrays.copyOf(strokes, strokes.length * 2);
+                seen = Arrays.copyOf(seen, strokes.length);
+            }
+        }
+        strokes[stroke.id] = stroke;
+        count++;
+        for (int point = 0; point < stroke.getPointCount(); point++) {
+            indexSegment(stroke, point);
+        }
+    }
+    
+    // Adds a point to a stroke already in the store, e.g. while it is being drawn
+    public void append(Stroke stroke, float x, float y) {
+        stroke.add(x, y);
+        indexSegment(stroke, stroke.getPointCount() - 1);
+    }
+    
+    // Called when a stroke is finished; it will not grow any more
+    public void finish(Stroke stroke) {
+        stroke.trim();
+    }
+    
+    public void remove(Stroke stroke) {
+        if (stroke.id < 0 || stroke.id >= nextId || strokes[stroke.id] != stroke) {
+            return;
+        }
+        for (int point = 0; point < stroke.getPointCount(); point++) {
+            Rectangle bounds = stroke.getSegmentBounds(point);
+            forEachCell(bounds, key -> {
+                IdList ids = cells.get(key);
+                if (ids != null && ids.removeAll(stroke.id)) {
+                    cells.remove(key);
+                }
+            });
+        }
+        strokes[stroke.id] = null;
+        count--;
+    }
+    
+    public void clear() {
+        Arrays.fill(strokes, 0, nextId, null);
+        cells.clear();
+        nextId = 0;
+        count = 0;
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    // Every stroke in drawing order
+    public List<Stroke> all() {
+        List<Stroke> all = new ArrayList<>(count);
+        for (int id = 0; id < nextId; id++) {
+            if (strokes[id] != null) {
+                all.add(strokes[id]);
+            }
+        }
+        return all;
+    }
+    
+    // Strokes that may have ink inside the area, in drawing order
+    public List<Stroke> query(Rectangle area) {
+        int[] ids = candidates(area);
+        List<Stroke> found = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            if (strokes[id].getBounds().intersects(area)) {
+                found.add(strokes[id]);
+            }
+        }
+        return found;
+    }
+    
+    // Strokes touched by a circle, in drawing order
+    public List<Stroke> hitAll(float x, float y, float radius) {
+        int[] ids = candidates(circleBounds(x, y, radius));
+        List<Stroke> hit = new ArrayList<>();
+        for (int id : ids) {
+            if (strokes[id].hits(x, y, radius)) {
+                hit.add(strokes[id]);
+            }
+        }
+        return hit;
+    }
+    
+    // The topmost stroke touched by a circle, or null
+    public Stroke hitTop(float x, float y, float radius) {
+        int[] ids = candidates(circleBounds(x, y, radius));
+        for (int i = ids.length - 1; i >= 0; i--) {
+            if (strokes[ids[i]].hits(x, y, radius)) {
+                return strokes[ids[i]];
+            }
+        }
+        return null;
+    }
+    
+    private static Rectangle circleBounds(float x, float y, float radius) {
+        int left = (int) Math.floor(x - radius), top = (int) Math.floor(y - radius);
+        return new Rectangle(left, top, (int) Math.ceil(x + radius) - left + 1, (int) Math.ceil(y + radius) - top + 1);
+    }
+    
+    // Sorted ids of the strokes listed in the cells the area covers
+    private int[] candidates(Rectangle area) {
+        if (++query == 0) {
+            Arrays.fill(seen, 0);
+            query = 1;
+        }
+        IdList found = new IdList();
+        forEachCell(area, key -> {
+            IdList ids = cells.get(key);
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    int id = ids.items[i];
+                    if (seen[id] != query) {
+                        seen[id] = query;
+                        found.add(id);
+                    }
+                }
+            }
+        });
+        int[] sorted = Arrays.copyOf(found.items, found.size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+    
+    // Same cells as forEachCell(stroke.getSegmentBounds(point)), without the garbage
+    private void indexSegment(Stroke stroke, int point) {
+        int from = Math.max(0, point - 1);
+        float pad = stroke.getWidth() / 2 + 1;
+        float x1 = stroke.getX(from), y1 = stroke.getY(from), x2 = stroke.getX(point), y2 = stroke.getY(point);
+        int left = Math.floorDiv((int) Math.floor(Math.min(x1, x2) - pad), CELL);
+        int right = Math.floorDiv((int) Math.ceil(Math.max(x1, x2) + pad) - 1, CELL);
+        int top = Math.floorDiv((int) Math.floor(Math.min(y1, y2) - pad), CELL);
+        int bottom = Math.floorDiv((int) Math.ceil(Math.max(y1, y2) + pad) - 1, CELL);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                IdList ids = cells.getOrCreate(key(cx, cy));
+                // Consecutive segments mostly share cells
+                if (ids.size == 0 || ids.items[ids.size - 1] != stroke.id) {
+                    ids.add(stroke.id);
+                }
+            }
+        }
+    }
+    
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+    
+    private interface CellVisitor {
+        void visit(long key);
+    }
+    
+    private static void forEachCell(Rectangle area, CellVisitor visitor) {
+        int left = Math.floorDiv(area.x, CELL), right = Math.floorDiv(area.x + area.width - 1, CELL);
+        int top = Math.floorDiv(area.y, CELL), bottom = Math.floorDiv(area.y + area.height - 1, CELL);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                visitor.visit(key(cx, cy));
+            }
+        }
+    }
+    
+    // Growable int array, so cells hold no boxed Integers
+    private static class IdList {
+        int[] items = new int[4];
+        int size;
+        
+        void add(int id) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = id;
+        }
+        
+        // Returns true when the list is empty afterwards
+        boolean removeAll(int id) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (items[i] != id) {
+                    items[kept++] = items[i];
+                }
+            }
+            size = kept;
+            return size == 0;
+        }
+    }
+    
+    // Open-addressing map from cell key to its ids, so lookups box no Longs
+    private static class CellTable {
+        private long[] keys = new long[1024];
+        private IdList[] values = new IdList[1024];
+        private int size;
+        
+        IdList get(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+        
+        IdList getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                return getOrCreate(key);
+            }
+            size++;
+            keys[i] = key;
+            return values[i] = new IdList();
+        }
+        
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                return;
+            }
+            values[i] = null;
+            size--;
+            // Shift later entries of the probe run back so lookups still find them
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                boolean reachable = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+                if (!reachable) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+        }
+        
+        void clear() {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+        
+        private void grow() {
+            long[] oldKeys = keys;
+            IdList[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new IdList[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = slot(oldKeys[j], mask);
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+        
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
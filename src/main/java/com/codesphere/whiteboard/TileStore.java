@@ -0,0 +1,327 @@
+package com.codesphere.whiteboard;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raster tiles of the board, SIZE pixels square, kept in three tiers by how recently they were
+ * used: decoded images, deflate-compressed bytes in memory, and bytes spilled to a temporary
+ * file. Tiles are only created where something is drawn, so memory follows the drawn area.
+ *
+ * Tiles are a cache of the vector strokes, so a tile that cannot be restored (or spilled) is
+ * simply forgotten and rendered again when next needed.
+ *
+ * Tiles leave the spill file when restored or forgotten, and the file is compacted once its
+ * dead space outgrows the live tiles in it, so it stays within twice what is spilled.
+ *
+ * Settings (system properties):
+ * codesphere.whiteboard.tiles - decoded tiles to keep, default 128 (32 MB)
+ * codesphere.whiteboard.compressedMb - compressed tiles to keep in memory before spilling, default 32
+ */
+public class TileStore implements Closeable {
+    
+    public static final int SIZE = 256;
+    // Dead space in the spill file below this is left alone
+    private static final long COMPACT_MIN_BYTES = 8 * 1024 * 1024;
+    
+    private final int maxResident;
+    private final long maxCompressedBytes;
+    private final LinkedHashMap<Long, BufferedImage> resident = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<Long, byte[]> compressed = new LinkedHashMap<>(64, 0.75f, true);
+    // Offset and length in the spill file
+    private final Map<Long, long[]> spilled = new HashMap<>();
+    // Rendered and found to have no ink, so they need no image
+    private final Set<Long> empty = new HashSet<>();
+    private long compressedBytes;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer scratch = ByteBuffer.allocate(SIZE * SIZE * 4).order(ByteOrder.nativeOrder());
+    private Path spillFile;
+    private FileChannel spill;
+    private long spillEnd;
+    // Bytes of the spill file still holding tiles, the rest is dead
+    private long spilledBytes;
+    
+    public TileStore() {
+        this(Integer.getInteger("codesphere.whiteboard.tiles", 128),
+                Long.getLong("codesphere.whiteboard.compressedMb", 32) * 1024 * 1024);
+    }
+    
+    public TileStore(int maxResident, long maxCompressedBytes) {
+        this.maxResident = Math.max(4, maxResident);
+        this.maxCompressedBytes = maxCompressedBytes;
+    }
+    
+    public static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xffffffffL);
+    }
+    
+    // The decoded tile, restoring it from a colder tier; null when unknown or empty
+    public BufferedImage get(long key) {
+        BufferedImage image = resident.get(key);
+        if (image != null) {
+            return image;
+        }
+        byte[] bytes = compressed.remove(key);
+        if (bytes != null) {
+            compressedBytes -= bytes.length;
+        } else {
+            bytes = readSpilled(removeSpilled(key));
+        }
+        if (bytes == null) {
+            return null;
+        }
+        image = inflate(bytes);
+        if (image != null) {
+            put(key, image);
+        }
+        return image;
+    }
+    
+    // The tile if it is decoded, without restoring it from a colder tier
+    public BufferedImage peek(long key) {
+        return resident.get(key);
+    }
+    
+    // Whether the tile was rendered before, with or without ink
+    public boolean contains(long key) {
+        return empty.contains(key) || resident.containsKey(key) || compressed.containsKey(key) || spilled.containsKey(key);
+    }
+    
+    public boolean isEmpty(long key) {
+        return empty.contains(key);
+    }
+    
+    public void put(long key, BufferedImage image) {
+        empty.remove(key);
+        removeCold(key);
+        resident.put(key, image);
+        if (resident.size() > maxResident) {
+            Iterator<Map.Entry<Long, BufferedImage>> eldest = resident.entrySet().iterator();
+            Map.Entry<Long, BufferedImage> entry = eldest.next();
+            eldest.remove();
+            compress(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    public void markEmpty(long key) {
+        forget(key);
+        empty.add(key);
+    }
+    
+    // Drops the tile from every tier, so it is rendered again when next needed
+    public void forget(long key) {
+        resident.remove(key);
+        removeCold(key);
+        empty.remove(key);
+    }
+    
+    // Drops the compressed and spilled copies of a tile
+    private void removeCold(long key) {
+        byte[] bytes = compressed.remove(key);
+        if (bytes != null) {
+            compressedBytes -= bytes.length;
+        }
+        removeSpilled(key);
+    }
+    
+    private long[] removeSpilled(long key) {
+        long[] location = spilled.remove(key);
+        if (location != null) {
+            spilledBytes -= location[1];
+        }
+        return location;
+    }
+    
+    public void clear() {
+        resident.clear();
+        compressed.clear();
+        spilled.clear();
+        empty.clear();
+        compressedBytes = 0;
+        spilledBytes = 0;
+        if (spill != null) {
+            try {
+                spill.truncate(0);
+            } catch (IOException e) {
+                // New spills overwrite from the start, a failed truncate only wastes disk space
+            }
+            spillEnd = 0;
+        }
+    }
+    
+    public int getResidentCount() {
+        return resident.size();
+    }
+    
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+    
+    public int getSpilledCount() {
+        return spilled.size();
+    }
+    
+    // Size of the spill file, live tiles and dead space
+    public long getSpillFileBytes() {
+        return spillEnd;
+    }
+    
+    // Memory held by decoded and compressed tiles
+    public long memoryBytes() {
+        return (long) resident.size() * SIZE * SIZE * 4 + compressedBytes;
+    }
+    
+    private void compress(long key, BufferedImage image) {
+        scratch.clear();
+        scratch.asIntBuffer().put(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        deflater.reset();
+        deflater.setInput(scratch.array(), 0, SIZE * SIZE * 4);
+        deflater.finish();
+        byte[] out = new byte[4096];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        byte[] bytes = Arrays.copyOf(out, length);
+        compressed.put(key, bytes);
+        compressedBytes += bytes.length;
+        while (compressedBytes > maxCompressedBytes && !compressed.isEmpty()) {
+            Iterator<Map.Entry<Long, byte[]>> eldest = compressed.entrySet().iterator();
+            Map.Entry<Long, byte[]> entry = eldest.next();
+            eldest.remove();
+            compressedBytes -= entry.getValue().length;
+            writeSpilled(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    private BufferedImage inflate(byte[] bytes) {
+        try {
+            inflater.reset();
+            inflater.setInput(bytes);
+            int length = 0;
+            while (!inflater.finished() && length < SIZE * SIZE * 4) {
+                int read = inflater.inflate(scratch.array(), length, SIZE * SIZE * 4 - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                length += read;
+            }
+            if (length != SIZE * SIZE * 4) {
+                return null;
+            }
+            BufferedImage image = newTile();
+            scratch.clear();
+            scratch.asIntBuffer().get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+            return image;
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+    
+    private void writeSpilled(long key, byte[] bytes) {
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile("codesphere-tiles", ".bin");
+                spillFile.toFile().deleteOnExit();
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            if (spillEnd - spilledBytes > Math.max(spilledBytes, COMPACT_MIN_BYTES)) {
+                compactSpill();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long offset = spillEnd;
+            while (buffer.hasRemaining()) {
+                spillEnd += spill.write(buffer, spillEnd);
+            }
+            removeSpilled(key);
+            spilled.put(key, new long[] {offset, bytes.length});
+            spilledBytes += bytes.length;
+        } catch (IOException e) {
+            // No disk space or no temp directory: forget the tile, it is rendered again if needed
+        }
+    }
+    
+    // Moves the live tiles down over the dead space, in file order so none is overwritten
+    // before it has been read, and cuts the file after them
+    private void compactSpill() throws IOException {
+        List<Map.Entry<Long, long[]>> live = new ArrayList<>(spilled.entrySet());
+        live.sort(Comparator.comparingLong(entry -> entry.getValue()[0]));
+        long end = 0;
+        for (Map.Entry<Long, long[]> entry : live) {
+            long[] location = entry.getValue();
+            byte[] bytes = readSpilled(location);
+            if (bytes == null) {
+                removeSpilled(entry.getKey());
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                spill.write(buffer, end + buffer.position());
+            }
+            location[0] = end;
+            end += bytes.length;
+        }
+        spillEnd = end;
+        spill.truncate(end);
+    }
+    
+    private byte[] readSpilled(long[] location) {
+        if (location == null) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) location[1]);
+            while (buffer.hasRemaining()) {
+                if (spill.read(buffer, location[0] + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    public static BufferedImage newTile() {
+        return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+    }
+    
+    @Override
+    public void close() {
+        clear();
+        if (spill != null) {
+            try {
+                spill.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // deleteOnExit still removes it
+            }
+            spill = null;
+        }
+    }
+}
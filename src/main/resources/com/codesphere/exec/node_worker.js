@@ -0,0 +1,252 @@
+// Warm Node.js worker, started by InterpreterPool. Reads run requests on stdin and answers
+// with framed stdout/stderr chunks on stdout; see WorkerProcess for the protocol.
+'use strict';
+const fs = require('fs');
+const path = require('path');
+const vm = require('vm');
+const { Console } = require('console');
+const { EventEmitter } = require('events');
+const { Readable } = require('stream');
+const Module = require('module');
+
+// Commonly used modules are loaded once here so runs find them warm
+require('readline');
+require('util');
+
+const FILE_NAME = 'main.js';
+
+// Ends the worker when the host dies without closing our stdin, even while a program loops forever
+const { Worker } = require('worker_threads');
+new Worker(`const parent = ${process.ppid};
+setInterval(() => { if (process.ppid !== parent) process.kill(process.pid, 'SIGKILL'); }, 500);`, { eval: true }).unref();
+
+function readExact(n) {
+    const buffer = Buffer.alloc(n);
+    let offset = 0;
+    while (offset < n) {
+        let read;
+        try {
+            read = fs.readSync(0, buffer, offset, n - offset, null);
+        } catch (e) {
+            if (e.code === 'EAGAIN') continue;
+            if (e.code === 'EOF') process.exit(0);
+            throw e;
+        }
+        if (read === 0) process.exit(0); // host went away
+        offset += read;
+    }
+    return buffer;
+}
+
+function readBytes() {
+    return readExact(readExact(4).readInt32BE(0));
+}
+
+function send(kind, data) {
+    const frame = Buffer.alloc(5 + data.length);
+    frame.writeUInt8(kind.charCodeAt(0), 0);
+    frame.writeInt32BE(data.length, 1);
+    data.copy(frame, 5);
+    let offset = 0;
+    while (offset < frame.length) {
+        try {
+            offset += fs.writeSync(1, frame, offset);
+        } catch (e) {
+            if (e.code !== 'EAGAIN') throw e;
+        }
+    }
+}
+
+// Minimal writable stream that buffers program output and ships it as frames of one kind
+class FrameStream extends EventEmitter {
+    constructor(kind) {
+        super();
+        this.kind = kind;
+        this.parts = [];
+        this.size = 0;
+        this.isTTY = false;
+        this.writable = true;
+    }
+
+    write(chunk, encoding, callback) {
+        if (typeof encoding === 'function') callback = encoding;
+        const data = Buffer.isBuffer(chunk) ? chunk : Buffer.from(String(chunk), typeof encoding === 'string' ? encoding : 'utf8');
+        this.parts.push(data);
+        this.size += data.length;
+        if (this.size >= 8192) this.flush();
+        if (typeof callback === 'function') process.nextTick(callback, null);
+        return true;
+    }
+
+    end(chunk) {
+        if (chunk !== undefined) this.write(chunk);
+    }
+
+    flush() {
+        if (this.parts.length > 0) {
+            const data = Buffer.concat(this.parts, this.size);
+            this.parts = [];
+            this.size = 0;
+            send(this.kind, data);
+        }
+    }
+}
+
+let current = null;
+
+function finish(exitCode, retire) {
+    const run = current;
+    current = null;
+    run.out.flush();
+    run.err.flush();
+    const payload = Buffer.alloc(5);
+    payload.writeInt32BE(exitCode | 0, 0);
+    payload.writeUInt8(retire ? 1 : 0, 4);
+    send('X', payload);
+}
+
+// process.exit in a program ends the run; the worker is then retired because
+// the program's pending timers and handles cannot be cancelled one by one
+class ExitSignal {
+    constructor(code) {
+        this.code = code;
+    }
+}
+
+function reportError(run, error) {
+    if (error instanceof ExitSignal) return;
+    const text = error && error.stack ? String(error.stack) : 'Uncaught ' + String(error);
+    // Leave out the frames of this script and of node internals
+    const lines = text.split('\n').filter(line => !/\[eval\]|node:vm|node:internal/.test(line));
+    run.err.write(lines.join('\n') + '\n');
+}
+
+function onAsyncError(error) {
+    if (current === null) return;
+    reportError(current, error);
+    const code = error instanceof ExitSignal ? error.code : 1;
+    finish(code, true);
+    process.exit(0);
+}
+
+process.on('uncaughtException', onAsyncError);
+process.on('unhandledRejection', onAsyncError);
+
+function createProcess(run, cwd, stdin) {
+    let stdinStream = null;
+    return Object.create(process, {
+        stdout: { value: run.out },
+        stderr: { value: run.err },
+        stdin: {
+            get() {
+                if (stdinStream === null) {
+                    stdinStream = Readable.from([stdin], { objectMode: false });
+                    stdinStream.fd = 0;
+                }
+                return stdinStream;
+            }
+        },
+        argv: { value: [process.argv[0], path.join(cwd, FILE_NAME)] },
+        exitCode: { value: undefined, writable: true },
+        cwd: { value: () => cwd },
+        exit: {
+            value: code => {
+                throw new ExitSignal(code === undefined ? run.process.exitCode | 0 : code | 0);
+            }
+        }
+    });
+}
+
+// fs with reads of descriptor 0 answered from the run's stdin
+function createFs(stdin) {
+    const isStdin = file => file === 0 || file === '/dev/stdin';
+    return Object.create(fs, {
+        readFileSync: {
+            value: (file, options) => {
+                if (!isStdin(file)) return fs.readFileSync(file, options);
+                const encoding = typeof options === 'string' ? options : options && options.encoding;
+                return encoding ? stdin.toString(encoding) : Buffer.from(stdin);
+            }
+        }
+    });
+}
+
+function run(cwd, code, stdin) {
+    const out = new FrameStream('O');
+    const err = new FrameStream('E');
+    current = { out, err };
+    current.process = createProcess(current, cwd, stdin);
+    const userFs = createFs(stdin);
+    const baseRequire = Module.createRequire(path.join(cwd, FILE_NAME));
+    const userRequire = Object.assign(name => {
+        if (name === 'fs' || name === 'node:fs') return userFs;
+        if (name === 'process' || name === 'node:process') return current.process;
+        return baseRequire(name);
+    }, { resolve: baseRequire.resolve, cache: baseRequire.cache });
+    const userModule = { exports: {}, filename: path.join(cwd, FILE_NAME), id: '.', loaded: false };
+    process.chdir(cwd);
+
+    // A fresh global object per run, only the module cache carries over
+    const sandbox = {
+        console: new Console({ stdout: out, stderr: err }),
+        process: current.process,
+        require: userRequire,
+        module: userModule,
+        exports: userModule.exports,
+        __filename: userModule.filename,
+        __dirname: cwd,
+        Buffer, URL, URLSearchParams, TextEncoder, TextDecoder, AbortController, queueMicrotask, structuredClone,
+        setTimeout, clearTimeout, setInterval, clearInterval, setImmediate, clearImmediate
+    };
+    sandbox.global = sandbox;
+    const context = vm.createContext(sandbox);
+    try {
+        new vm.Script(code, { filename: FILE_NAME }).runInContext(context);
+    } catch (error) {
+        reportError(current, error);
+        const code = error instanceof ExitSignal ? error.code : 1;
+        finish(code, error instanceof ExitSignal);
+        return next();
+    }
+    waitForIdle();
+}
+
+// The run ends once the program has no timers, sockets, child processes or pending I/O left.
+// Our own stdio pipes show up once node touches them (e.g. to print a warning) and never go away.
+function hasPendingWork() {
+    return process.getActiveResourcesInfo().some(resource => resource !== 'PipeWrap' && resource !== 'TTYWrap');
+}
+
+function waitForIdle() {
+    setImmediate(() => {
+        if (current === null) return;
+        current.out.flush();
+        current.err.flush();
+        if (hasPendingWork()) {
+            setTimeout(waitForIdle, 10);
+            return;
+        }
+        finish(current.process.exitCode | 0, false);
+        next();
+    });
+}
+
+function next() {
+    while (true) {
+        const op = readExact(1)[0];
+        if (op === 0x50) { // P
+            send('P', Buffer.alloc(0));
+        } else if (op === 0x52) { // R
+            const cwd = readBytes().toString('utf8');
+            const code = readBytes().toString('utf8');
+            const stdin = readBytes();
+            // Run from a fresh stack so the previous run's callbacks are fully unwound
+            setImmediate(() => run(cwd, code, stdin));
+            return;
+        } else {
+            process.exit(0);
+        }
+    }
+}
+
+next();
@@ -0,0 +1,185 @@
+# Warm Python worker, started by InterpreterPool. Reads run requests on stdin and answers
+# with framed stdout/stderr chunks on stdout; see WorkerProcess for the protocol.
+import builtins, io, linecache, os, struct, sys, threading, time, traceback
+
+# Commonly used modules are imported once here so runs find them warm
+import bisect, collections, functools, heapq, itertools, json, math, random, re, string  # noqa: F401
+
+_IN = os.fdopen(os.dup(0), 'rb', buffering=0)
+_OUT = os.dup(1)
+_OUT_LOCK = threading.Lock()
+
+# Stray writes to the raw descriptors must not corrupt the protocol
+_null = os.open(os.devnull, os.O_RDONLY)
+os.dup2(_null, 0)
+os.close(_null)
+os.dup2(2, 1)
+
+_FILE_NAME = 'main.py'
+
+
+def _read_exact(n):
+    data = bytearray()
+    while len(data) < n:
+        chunk = _IN.read(n - len(data))
+        if not chunk:
+            os._exit(0)  # host went away
+        data += chunk
+    return bytes(data)
+
+
+def _read_bytes():
+    return _read_exact(struct.unpack('>i', _read_exact(4))[0])
+
+
+def _send(kind, data=b''):
+    view = memoryview(struct.pack('>Bi', ord(kind), len(data)) + data)
+    with _OUT_LOCK:
+        while view:
+            view = view[os.write(_OUT, view):]
+
+
+class _FrameStream(io.TextIOBase):
+    """Text stream that buffers program output and ships it as frames of one kind."""
+
+    encoding = 'utf-8'
+    errors = 'replace'
+
+    def __init__(self, kind):
+        self._kind = kind
+        self._parts = []
+        self._size = 0
+        self._lock = threading.Lock()
+        self.buffer = _BinaryView(self)
+
+    def writable(self):
+        return True
+
+    def isatty(self):
+        return False
+
+    def write(self, s):
+        if not isinstance(s, str):
+            raise TypeError('write() argument must be str, not ' + type(s).__name__)
+        with self._lock:
+            self._parts.append(s)
+            self._size += len(s)
+            if self._size >= 8192:
+                self._flush_locked()
+        return len(s)
+
+    def write_bytes(self, b):
+        with self._lock:
+            self._flush_locked()
+            _send(self._kind, bytes(b))
+        return len(b)
+
+    def flush(self):
+        with self._lock:
+            self._flush_locked()
+
+    def _flush_locked(self):
+        if self._parts:
+            data = ''.join(self._parts).encode('utf-8', 'replace')
+            self._parts = []
+            self._size = 0
+            _send(self._kind, data)
+
+
+class _BinaryView(io.RawIOBase):
+    """sys.stdout.buffer for programs that write bytes."""
+
+    def __init__(self, stream):
+        self._stream = stream
+
+    def writable(self):
+        return True
+
+    def write(self, b):
+        return self._stream.write_bytes(b)
+
+
+_current = None
+
+
+def _flusher():
+    # Long running programs still stream their output
+    parent = os.getppid()
+    while True:
+        time.sleep(0.015)
+        if os.getppid() != parent:
+            # The host died without closing our stdin, e.g. killed while a program loops forever
+            os._exit(1)
+        streams = _current
+        if streams is not None:
+            for stream in streams:
+                stream.flush()
+
+
+def _exit_code(code):
+    if code is None:
+        return 0
+    if isinstance(code, int):
+        return code
+    print(code, file=sys.stderr)
+    return 1
+
+
+def _run(cwd, code, stdin):
+    global _current
+    out, err = _FrameStream('O'), _FrameStream('E')
+    saved_path, saved_limit = list(sys.path), sys.getrecursionlimit()
+    own_threads = set(threading.enumerate())
+    sys.stdout, sys.stderr = out, err
+    sys.stdin = io.TextIOWrapper(io.BytesIO(stdin), encoding='utf-8')
+    sys.argv = [_FILE_NAME]
+    sys.path[0] = cwd
+    os.chdir(cwd)
+    linecache.cache[_FILE_NAME] = (len(code), None, code.splitlines(True), _FILE_NAME)
+    _current = (out, err)
+
+    # A fresh namespace per run, only sys.modules carries over
+    namespace = {'__name__': '__main__', '__file__': _FILE_NAME, '__builtins__': builtins}
+    exit_code = 0
+    try:
+        exec(compile(code, _FILE_NAME, 'exec'), namespace)
+    except SystemExit as e:
+        exit_code = _exit_code(e.code)
+    except BaseException as e:
+        # Leave this frame out so the trace starts in the program
+        traceback.print_exception(type(e), e, e.__traceback__.tb_next)
+        exit_code = 1
+
+    for thread in threading.enumerate():
+        if thread not in own_threads and not thread.daemon:
+            thread.join()
+    # Daemon threads would keep running into the next program
+    leaked = any(thread not in own_threads for thread in threading.enumerate())
+
+    _current = None
+    out.flush()
+    err.flush()
+    sys.stdout, sys.stderr, sys.stdin = sys.__stdout__, sys.__stderr__, sys.__stdin__
+    sys.path[:] = saved_path
+    sys.setrecursionlimit(saved_limit)
+    linecache.cache.pop(_FILE_NAME, None)
+    namespace.clear()
+    _send('X', struct.pack('>i?', exit_code, leaked))
+
+
+def _main():
+    threading.Thread(target=_flusher, name='flusher', daemon=True).start()
+    while True:
+        op = _IN.read(1)
+        if op == b'P':
+            _send('P')
+        elif op == b'R':
+            cwd = _read_bytes().decode('utf-8')
+            code = _read_bytes().decode('utf-8', 'replace')
+            stdin = _read_bytes()
+            _run(cwd, code, stdin)
+        else:
+            return
+
+
+_main()
@@ -0,0 +1,102 @@
+package com.codesphere.collab;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollabClientTest {
+    
+    private final List<Integer> sentRevisions = new ArrayList<>();
+    private final List<TextOperation> sent = new ArrayList<>();
+    
+    private CollabClient client(int revision) {
+        return new CollabClient(revision, (base, operation) -> {
+            sentRevisions.add(base);
+            sent.add(operation);
+        });
+    }
+    
+    @Test
+    void sendsOneBatchAtATime() {
+        CollabClient client = client(5);
+        assertTrue(client.isSynchronized());
+        client.local(TextOperation.insertion(3, 0, "a"));
+        client.local(TextOperation.insertion(4, 1, "b"));
+        client.flush();
+        assertEquals(1, sent.size());
+        assertEquals("abxyz", sent.get(0).apply("xyz"));
+        assertEquals(5, sentRevisions.get(0));
+        
+        // Held back until the first batch is acknowledged
+        client.local(TextOperation.insertion(5, 5, "c"));
+        client.flush();
+        assertEquals(1, sent.size());
+        assertFalse(client.isSynchronized());
+        
+        client.acknowledged(6);
+        assertEquals(6, client.getRevision());
+        client.flush();
+        assertEquals(2, sent.size());
+        assertEquals(6, sentRevisions.get(1));
+        client.acknowledged(7);
+        assertTrue(client.isSynchronized());
+    }
+    
+    @Test
+    void doesNotSendNoops() {
+        CollabClient client = client(0);
+        client.local(TextOperation.insertion(3, 1, "typo"));
+        client.local(TextOperation.removal(7, 1, 4));
+        client.flush();
+        assertTrue(sent.isEmpty());
+        assertTrue(client.isSynchronized());
+    }
+    
+    @Test
+    void transformsRemoteEditsPastOutstandingAndBufferedOnes() {
+        String server = "abc";
+        String local = "abc";
+        CollabClient client = client(0);
+        
+        TextOperation first = TextOperation.insertion(3, 0, "X");
+        local = first.apply(local);
+        client.local(first);
+        client.flush();
+        TextOperation second = TextOperation.insertion(4, 4, "Y");
+        local = second.apply(local);
+        client.local(second);
+        
+        // Another client's edit reaches the server first
+        TextOperation other = TextOperation.insertion(3, 1, "Z");
+        server = other.apply(server);
+        local = client.remote(1, other).apply(local);
+        assertEquals("XaZbcY", local);
+        
+        // The server transforms the outstanding batch past it, as CollabServer does
+        server = TextOperation.transform(sent.get(0), other)[0].apply(server);
+        client.acknowledged(2);
+        client.flush();
+        assertEquals(2, sentRevisions.get(1));
+        server = sent.get(1).apply(server);
+        client.acknowledged(3);
+        assertEquals(local, server);
+        assertTrue(client.isSynchronized());
+    }
+    
+    @Test
+    void rejectsEventsOutOfOrder() {
+        CollabClient client = client(3);
+        assertThrows(IllegalStateException.class, () -> client.acknowledged(4));
+        client.local(TextOperation.insertion(0, 0, "a"));
+        client.flush();
+        assertThrows(IllegalStateException.class, () -> client.acknowledged(5));
+        assertThrows(IllegalStateException.class, () -> client.remote(5, TextOperation.insertion(0, 0, "b")));
+        assertEquals(3, client.getRevision());
+    }
+}
@@ -0,0 +1,217 @@
+package com.codesphere.collab;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CollabServerTest {
+    
+    private static final String INITIAL = "class Main {\n    void run() {\n    }\n}\n";
+    
+    // A client whose events wait in a queue until the test delivers them, or run on a thread
+    private static final class Client implements CollabListener {
+        final ArrayDeque<Runnable> inbox = new ArrayDeque<>();
+        final LocalTransport transport;
+        String text;
+        CollabClient client;
+        int joins;
+        
+        Client(CollabServer server) {
+            this(server, null);
+        }
+        
+        Client(CollabServer server, Executor thread) {
+            transport = new LocalTransport(server, thread != null ? thread : inbox::add);
+        }
+        
+        @Override
+        public void joined(int revision, String initial) {
+            text = initial;
+            client = new CollabClient(revision, transport::send);
+            joins++;
+        }
+        
+        @Override
+        public void acknowledged(int revision) {
+            client.acknowledged(revision);
+        }
+        
+        @Override
+        public void remote(int revision, TextOperation operation) {
+            text = client.remote(revision, operation).apply(text);
+        }
+        
+        void edit(Random random) {
+            TextOperation operation = randomEdit(random, text.length());
+            text = operation.apply(text);
+            client.local(operation);
+        }
+        
+        void deliver(int count) {
+            for (int i = 0; i < count && !inbox.isEmpty(); i++) {
+                inbox.poll().run();
+            }
+        }
+    }
+    
+    @Test
+    void manyClientsConvergeOnTheRoomsText() {
+        checkConvergence(new CollabServer(INITIAL), 40, 3000, 11);
+    }
+    
+    @Test
+    void clientsTooFarBehindAreSentTheDocumentAgain() {
+        List<Client> clients = checkConvergence(new CollabServer(INITIAL, 4), 12, 1500, 12);
+        int rejoined = 0;
+        for (Client client : clients) {
+            rejoined += client.joins - 1;
+        }
+        assertTrue(rejoined > 0, "no client fell behind the history");
+    }
+    
+    // Clients type, send and take their events in a random order, then everything is delivered
+    private static List<Client> checkConvergence(CollabServer server, int count, int steps, long seed) {
+        Random random = new Random(seed);
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Client client = new Client(server);
+            client.transport.open(client);
+            client.deliver(1);
+            clients.add(client);
+        }
+        for (int step = 0; step < steps; step++) {
+            Client client = clients.get(random.nextInt(count));
+            switch (random.nextInt(3)) {
+                case 0:
+                    client.edit(random);
+                    break;
+                case 1:
+                    client.client.flush();
+                    break;
+                default:
+                    client.deliver(random.nextInt(4) + 1);
+                    break;
+            }
+        }
+        boolean busy = true;
+        while (busy) {
+            busy = false;
+            for (Client client : clients) {
+                client.client.flush();
+                busy |= !client.inbox.isEmpty();
+                client.deliver(Integer.MAX_VALUE);
+            }
+        }
+        String expected = server.getText();
+        assertTrue(server.getRevision() > 0);
+        for (Client client : clients) {
+            assertTrue(client.client.isSynchronized());
+            assertEquals(server.getRevision(), client.client.getRevision());
+            assertEquals(expected, client.text);
+        }
+        return clients;
+    }
+    
+    @Test
+    void clientsOnTheirOwnThreadsConverge() throws Exception {
+        CollabServer server = new CollabServer(INITIAL);
+        int count = 8;
+        List<ExecutorService> threads = new ArrayList<>();
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                ExecutorService thread = Executors.newSingleThreadExecutor();
+                Client client = new Client(server, thread);
+                threads.add(thread);
+                clients.add(client);
+                thread.submit(() -> client.transport.open(client)).get();
+            }
+            List<Future<?>> typing = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Client client = clients.get(i);
+                Random random = new Random(i);
+                for (int edit = 0; edit < 300; edit++) {
+                    typing.add(threads.get(i).submit(() -> {
+                        client.edit(random);
+                        client.client.flush();
+                    }));
+                }
+            }
+            for (Future<?> future : typing) {
+                future.get();
+            }
+            boolean synced = false;
+            while (!synced) {
+                synced = true;
+                for (int i = 0; i < count; i++) {
+                    Client client = clients.get(i);
+                    synced &= threads.get(i).submit(() -> {
+                        client.client.flush();
+                        return client.client.isSynchronized();
+                    }).get();
+                }
+            }
+            String expected = server.getText();
+            for (int i = 0; i < count; i++) {
+                Client client = clients.get(i);
+                // Runs after every event the room has sent it
+                assertEquals(expected, threads.get(i).submit(() -> client.text).get());
+            }
+        } finally {
+            for (ExecutorService thread : threads) {
+                thread.shutdownNow();
+            }
+        }
+    }
+    
+    @Test
+    void editsThatDoNotFitTheRoomRejoinTheSender() {
+        CollabServer server = new CollabServer("abc");
+        Client client = new Client(server);
+        client.transport.open(client);
+        client.deliver(1);
+        client.transport.send(0, TextOperation.insertion(5, 0, "x"));
+        client.deliver(1);
+        assertEquals(2, client.joins);
+        assertEquals("abc", client.text);
+        assertEquals(0, server.getRevision());
+    }
+    
+    @Test
+    void leftClientsHearNothing() {
+        CollabServer server = new CollabServer("abc");
+        Client stays = new Client(server);
+        Client leaves = new Client(server);
+        stays.transport.open(stays);
+        leaves.transport.open(leaves);
+        stays.deliver(1);
+        leaves.deliver(1);
+        leaves.transport.close();
+        stays.edit(new Random(1));
+        stays.client.flush();
+        assertTrue(leaves.inbox.isEmpty());
+        // Nor is anything they still send applied
+        leaves.transport.send(0, TextOperation.insertion(3, 0, "x"));
+        assertEquals(1, server.getRevision());
+        stays.deliver(1);
+        assertEquals(server.getText(), stays.text);
+    }
+    
+    static TextOperation randomEdit(Random random, int length) {
+        int at = random.nextInt(length + 1);
+        if (length > at && random.nextInt(3) == 0) {
+            return TextOperation.removal(length, at, Math.min(length - at, random.nextInt(4) + 1));
+        }
+        return TextOperation.insertion(length, at, "xy\n ".substring(random.nextInt(4)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.codesphere.collab;
+
+import com.codesphere.editor.PieceTable;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextOperationTest {
+    
+    @Test
+    void buildsTheOtJsForm() {
+        TextOperation operation = new TextOperation().retain(2).retain(1).insert("ab").insert("c").delete(1).delete(2).retain(4);
+        assertEquals(Arrays.asList(3, "abc", -3, 4), operation.toList());
+        assertEquals(10, operation.getBaseLength());
+        assertEquals(10, operation.getTargetLength());
+        // An insert after a delete goes before it
+        assertEquals(Arrays.asList(1, "x", -2), new TextOperation().retain(1).delete(2).insert("x").toList());
+        assertEquals(operation, TextOperation.fromList(operation.toList()));
+        assertThrows(IllegalArgumentException.class, () -> TextOperation.fromList(Arrays.asList(1, 0)));
+    }
+    
+    @Test
+    void appliesToStringsDocumentsAndContent() throws BadLocationException {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            String text = randomText(random);
+            TextOperation operation = randomOperation(random, text.length());
+            String expected = operation.apply(text);
+            assertEquals(operation.getTargetLength(), expected.length());
+            
+            PlainDocument document = new PlainDocument();
+            document.insertString(0, text, null);
+            operation.applyTo(document);
+            assertEquals(expected, document.getText(0, document.getLength()));
+            
+            PieceTable content = new PieceTable();
+            content.insertString(0, text);
+            operation.applyTo(content);
+            assertEquals(expected, content.getString(0, content.length() - 1));
+        }
+        assertThrows(IllegalArgumentException.class, () -> TextOperation.insertion(3, 0, "x").apply("ab"));
+    }
+    
+    @Test
+    void composeIsTheSameAsApplyingBoth() {
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            String text = randomText(random);
+            TextOperation a = randomOperation(random, text.length());
+            TextOperation b = randomOperation(random, a.getTargetLength());
+            TextOperation composed = a.compose(b);
+            assertEquals(b.apply(a.apply(text)), composed.apply(text), a + " then " + b);
+            assertEquals(a.getBaseLength(), composed.getBaseLength());
+            assertEquals(b.getTargetLength(), composed.getTargetLength());
+        }
+        assertThrows(IllegalArgumentException.class, () -> TextOperation.insertion(2, 0, "x").compose(TextOperation.removal(2, 0, 1)));
+    }
+    
+    @Test
+    void transformedOperationsConverge() {
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            String text = randomText(random);
+            TextOperation a = randomOperation(random, text.length());
+            TextOperation b = randomOperation(random, text.length());
+            TextOperation[] primes = TextOperation.transform(a, b);
+            assertEquals(primes[1].apply(a.apply(text)), primes[0].apply(b.apply(text)), a + " and " + b);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> TextOperation.transform(TextOperation.insertion(2, 0, "x"), TextOperation.insertion(3, 0, "y")));
+    }
+    
+    @Test
+    void firstOperationsInsertGoesFirst() {
+        TextOperation a = TextOperation.insertion(2, 1, "A");
+        TextOperation b = TextOperation.insertion(2, 1, "B");
+        TextOperation[] primes = TextOperation.transform(a, b);
+        assertEquals("1AB2", primes[1].apply(a.apply("12")));
+        assertEquals("1AB2", primes[0].apply(b.apply("12")));
+    }
+    
+    @Test
+    void deletingTheSameTextTwiceDeletesItOnce() {
+        TextOperation a = TextOperation.removal(6, 1, 3);
+        TextOperation b = TextOperation.removal(6, 2, 3);
+        TextOperation[] primes = TextOperation.transform(a, b);
+        assertEquals("af", primes[1].apply(a.apply("abcdef")));
+        assertEquals("af", primes[0].apply(b.apply("abcdef")));
+    }
+    
+    @Test
+    void typingAndDeletingItAgainIsANoop() {
+        TextOperation typed = TextOperation.insertion(5, 2, "xyz");
+        TextOperation composed = typed.compose(TextOperation.removal(8, 2, 3));
+        assertTrue(composed.isNoop());
+        assertFalse(typed.isNoop());
+        assertTrue(new TextOperation().isNoop());
+    }
+    
+    static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(30); i > 0; i--) {
+            text.append("ab\nxy".charAt(random.nextInt(5)));
+        }
+        return text.toString();
+    }
+    
+    // Any mix of retains, inserts and deletes over a document of the given length
+    static TextOperation randomOperation(Random random, int length) {
+        TextOperation operation = new TextOperation();
+        int at = 0;
+        while (at < length || random.nextInt(3) == 0) {
+            int left = length - at;
+            int choice = random.nextInt(left > 0 ? 3 : 1);
+            if (choice == 0) {
+                operation.insert("uvw".substring(0, random.nextInt(3) + 1));
+                if (left == 0) {
+                    break;
+                }
+            } else {
+                int count = random.nextInt(Math.min(left, 5)) + 1;
+                if (choice == 1) {
+                    operation.retain(count);
+                } else {
+                    operation.delete(count);
+                }
+                at += count;
+            }
+        }
+        return operation;
+    }
+}
@@ -0,0 +1,184 @@
+package com.codesphere.editor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.text.BadLocationException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AutosaveTest {
+    
+    // One inserted char: type, offset and length, the char, and the CRC
+    private static final int RECORD = 9 + 1 + 4;
+    
+    @TempDir
+    Path dir;
+    
+    @BeforeEach
+    void useTempDir() {
+        System.setProperty("codesphere.autosave.dir", dir.toString());
+    }
+    
+    @AfterEach
+    void restore() {
+        System.clearProperty("codesphere.autosave.dir");
+    }
+    
+    @Test
+    void recoversEveryEditOfACrashedSession() throws Exception {
+        crashAfterTyping("base", "ABC");
+        assertEquals("baseABC", recover());
+    }
+    
+    @Test
+    void tornLastRecordIsDropped() throws Exception {
+        crashAfterTyping("base", "ABC");
+        Path journal = journal();
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, bytes.length - 1));
+        assertEquals("baseAB", recover());
+    }
+    
+    @Test
+    void corruptRecordEndsTheJournal() throws Exception {
+        crashAfterTyping("base", "ABCD");
+        Path journal = journal();
+        byte[] bytes = Files.readAllBytes(journal);
+        // The inserted char of the second record
+        bytes[RECORD + 9] ^= 0x20;
+        Files.write(journal, bytes);
+        assertEquals("baseA", recover());
+    }
+    
+    @Test
+    void garbageAfterTheLastRecordIsIgnored() throws Exception {
+        crashAfterTyping("base", "AB");
+        Path journal = journal();
+        byte[] bytes = Files.readAllBytes(journal);
+        byte[] garbage = Arrays.copyOf(bytes, bytes.length + 30);
+        Arrays.fill(garbage, bytes.length, garbage.length, (byte) 0x7f);
+        Files.write(journal, garbage);
+        assertEquals("baseAB", recover());
+    }
+    
+    @Test
+    void editsAfterATornRecordGoAfterTheLastGoodOne() throws Exception {
+        crashAfterTyping("base", "ABC");
+        Path journal = journal();
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, bytes.length - 3));
+        
+        Autosave autosave = Autosave.open();
+        CodeDocument recovered = autosave.recover();
+        assertEquals("baseAB", text(recovered));
+        autosave.track(recovered, null);
+        recovered.insertString(recovered.getLength(), "X", null);
+        autosave.close();
+        assertEquals("baseABX", recover());
+    }
+    
+    @Test
+    void cleanSessionsAreNotRecovered() throws Exception {
+        Autosave autosave = Autosave.open();
+        assertNull(autosave.recover());
+        CodeDocument document = document("base");
+        autosave.track(document, null);
+        // Untouched since it started
+        autosave.close();
+        assertNull(recover());
+        
+        autosave = Autosave.open();
+        autosave.recover();
+        document = document("base");
+        autosave.track(document, null);
+        document.insertString(4, "A", null);
+        autosave.saved(autosave.checkpoint());
+        autosave.close();
+        assertNull(recover());
+        
+        autosave = Autosave.open();
+        autosave.recover();
+        document = document("base");
+        autosave.track(document, null);
+        document.insertString(4, "A", null);
+        autosave.markClean();
+        document.insertString(5, "B", null);
+        autosave.close();
+        assertEquals("baseAB", recover());
+    }
+    
+    @Test
+    void editsAfterTheSavedTextKeepTheSessionDirty() throws Exception {
+        Autosave autosave = Autosave.open();
+        autosave.recover();
+        CodeDocument document = document("base");
+        autosave.track(document, null);
+        long checkpoint = autosave.checkpoint();
+        document.insertString(4, "A", null);
+        autosave.saved(checkpoint);
+        autosave.close();
+        assertEquals("baseA", recover());
+    }
+    
+    @Test
+    void documentOpenedFromAFileIsRecoveredFromIt() throws Exception {
+        Path file = dir.resolve("Main.java");
+        Files.write(file, "class Main {}\n".getBytes());
+        Autosave autosave = Autosave.open();
+        autosave.recover();
+        CodeDocument document = CodeFiles.open(file);
+        autosave.track(document, file);
+        document.insertString(0, "// hi\n", null);
+        autosave.close();
+        assertEquals("// hi\nclass Main {}\n", recover());
+    }
+    
+    private void crashAfterTyping(String text, String typed) throws IOException, BadLocationException {
+        Autosave autosave = Autosave.open();
+        assertNotNull(autosave);
+        assertNull(autosave.recover());
+        CodeDocument document = document(text);
+        autosave.track(document, null);
+        for (int i = 0; i < typed.length(); i++) {
+            document.insertString(document.getLength(), typed.substring(i, i + 1), null);
+        }
+        // Closing syncs the journal; only the window's close handler marks the session clean
+        autosave.close();
+    }
+    
+    private static String recover() throws IOException, BadLocationException {
+        Autosave autosave = Autosave.open();
+        try {
+            CodeDocument recovered = autosave.recover();
+            return recovered == null ? null : text(recovered);
+        } finally {
+            autosave.close();
+        }
+    }
+    
+    private Path journal() throws IOException {
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(dir, "journal-*")) {
+            return journals.iterator().next();
+        }
+    }
+    
+    private static CodeDocument document(String text) throws BadLocationException {
+        CodeDocument document = new CodeDocument();
+        document.insertString(0, text, null);
+        return document;
+    }
+    
+    private static String text(CodeDocument document) throws BadLocationException {
+        return document.getText(0, document.getLength());
+    }
+}
@@ -0,0 +1,120 @@
+package com.codesphere.editor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class CodeDocumentTest {
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void linesFollowRandomEdits() throws BadLocationException {
+        CodeDocument document = new CodeDocument();
+        StringBuilder expected = new StringBuilder();
+        Random random = new Random(3);
+        for (int i = 0; i < 3000; i++) {
+            if (expected.length() > 0 && random.nextInt(3) == 0) {
+                int where = random.nextInt(expected.length());
+                int count = random.nextInt(Math.min(15, expected.length() - where) + 1);
+                document.remove(where, count);
+                expected.delete(where, where + count);
+            } else {
+                int where = random.nextInt(expected.length() + 1);
+                String text = random.nextInt(4) == 0 ? "\n" : random.nextBoolean() ? "x = 1;\n  y" : "ab";
+                document.insertString(where, text, null);
+                expected.insert(where, text);
+            }
+            if (i % 100 == 0) {
+                assertLines(expected.toString(), document);
+            }
+        }
+        assertLines(expected.toString(), document);
+        assertEquals(expected.toString(), document.snapshot().toString());
+    }
+    
+    @Test
+    void reportsAddedAndRemovedLines() throws BadLocationException {
+        CodeDocument document = new CodeDocument();
+        document.insertString(0, "one\ntwo", null);
+        DocumentEvent[] last = new DocumentEvent[1];
+        document.addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                last[0] = e;
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                last[0] = e;
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        Element root = document.getDefaultRootElement();
+        document.insertString(3, "\nand a half\n", null);
+        DocumentEvent.ElementChange change = last[0].getChange(root);
+        assertNotNull(change);
+        assertEquals(0, change.getIndex());
+        assertEquals(1, change.getChildrenRemoved().length);
+        assertEquals(3, change.getChildrenAdded().length);
+        assertEquals(4, root.getElementCount());
+        
+        document.remove(2, 14);
+        change = last[0].getChange(root);
+        assertEquals(4, change.getChildrenRemoved().length);
+        assertEquals(1, change.getChildrenAdded().length);
+        assertLines("ontwo", document);
+    }
+    
+    @Test
+    void opensFilesWithAnyLineEndings() throws IOException, BadLocationException {
+        Path file = dir.resolve("Main.java");
+        Files.write(file, "class Main {\r\n    int longestLineHere;\r\n}\r\n".getBytes(StandardCharsets.UTF_8));
+        CodeDocument document = CodeFiles.open(file);
+        assertLines("class Main {\n    int longestLineHere;\n}\n", document);
+        assertEquals("    int longestLineHere;".length(), document.getLongestLine());
+    }
+    
+    @Test
+    void writesWhatItRead() throws IOException {
+        Path file = dir.resolve("main.py");
+        String code = "def main():\n    print('hello')\n\nmain()\n";
+        Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+        CodeDocument document = CodeFiles.open(file);
+        Path copy = dir.resolve("copy.py");
+        CodeFiles.write(copy, document.snapshot());
+        assertEquals(code, new String(Files.readAllBytes(copy), StandardCharsets.UTF_8));
+    }
+    
+    // Every line element covers its line of the text, with the newline that ends it
+    private static void assertLines(String text, CodeDocument document) throws BadLocationException {
+        assertEquals(text, document.getText(0, document.getLength()));
+        Element root = document.getDefaultRootElement();
+        String[] lines = text.split("\n", -1);
+        assertEquals(lines.length, root.getElementCount());
+        int start = 0;
+        for (int i = 0; i < lines.length; i++) {
+            Element line = root.getElement(i);
+            assertEquals(start, line.getStartOffset(), "start of line " + i);
+            assertEquals(start + lines[i].length() + 1, line.getEndOffset(), "end of line " + i);
+            assertEquals(i, root.getElementIndex(start));
+            start += lines[i].length() + 1;
+        }
+    }
+}
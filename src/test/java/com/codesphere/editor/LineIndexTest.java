@@ -0,0 +1,78 @@
+package com.codesphere.editor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LineIndexTest {
+    
+    @Test
+    void pendingShiftsGiveTheSameStartsAsApplyingThemAtOnce() {
+        List<Integer> expected = new ArrayList<>();
+        int[] starts = new int[4];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = i * 10;
+            expected.add(i * 10);
+        }
+        LineIndex index = new LineIndex(starts, starts.length, 9);
+        Random random = new Random(7);
+        for (int step = 0; step < 20000; step++) {
+            int line = random.nextInt(expected.size());
+            int choice = random.nextInt(10);
+            if (choice < 6) {
+                int delta = random.nextInt(7) - 3;
+                index.shiftAfter(line, delta);
+                for (int i = line + 1; i < expected.size(); i++) {
+                    expected.set(i, expected.get(i) + delta);
+                }
+            } else if (choice < 8 || expected.size() < 3) {
+                int added = random.nextInt(3) + 1;
+                int[] newStarts = new int[added];
+                for (int i = 0; i < added; i++) {
+                    newStarts[i] = random.nextInt(1000);
+                    expected.add(line + 1 + i, newStarts[i]);
+                }
+                index.insert(line, newStarts, added);
+            } else if (line + 1 < expected.size()) {
+                int first = line + 1;
+                int last = first + random.nextInt(Math.min(3, expected.size() - first));
+                index.remove(first, last);
+                expected.subList(first, last + 1).clear();
+            }
+            assertEquals(expected.size(), index.getCount());
+            int probe = random.nextInt(expected.size());
+            assertEquals((int) expected.get(probe), index.getStart(probe), "line " + probe + " at step " + step);
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((int) expected.get(i), index.getStart(i), "line " + i);
+        }
+    }
+    
+    @Test
+    void findsTheLineHoldingAnOffset() {
+        LineIndex index = new LineIndex(new int[] {0, 5, 6, 20}, 4, 13);
+        assertEquals(0, index.lineOf(0));
+        assertEquals(0, index.lineOf(4));
+        assertEquals(1, index.lineOf(5));
+        assertEquals(2, index.lineOf(6));
+        assertEquals(2, index.lineOf(19));
+        assertEquals(3, index.lineOf(20));
+        assertEquals(3, index.lineOf(1000));
+        index.shiftAfter(0, 3);
+        assertEquals(0, index.lineOf(7));
+        assertEquals(1, index.lineOf(8));
+    }
+    
+    @Test
+    void longestLineOnlyGrows() {
+        LineIndex index = new LineIndex(new int[] {0}, 1, 10);
+        index.noteLength(4);
+        assertEquals(10, index.getLongest());
+        index.noteLength(25);
+        assertEquals(25, index.getLongest());
+    }
+}
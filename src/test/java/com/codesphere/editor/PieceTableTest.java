@@ -0,0 +1,115 @@
+package com.codesphere.editor;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PieceTableTest {
+    
+    @Test
+    void randomEditsMatchAStringBuilder() throws BadLocationException {
+        char[] original = "public class Main {\n}\n".toCharArray();
+        PieceTable table = new PieceTable(original, original.length);
+        StringBuilder expected = new StringBuilder(new String(original));
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            if (expected.length() > 0 && random.nextInt(3) == 0) {
+                int where = random.nextInt(expected.length());
+                int count = random.nextInt(Math.min(20, expected.length() - where) + 1);
+                table.remove(where, count);
+                expected.delete(where, where + count);
+            } else {
+                int where = random.nextInt(expected.length() + 1);
+                String text = randomText(random);
+                table.insertString(where, text);
+                expected.insert(where, text);
+            }
+            assertEquals(expected.length() + 1, table.length());
+        }
+        assertEquals(expected.toString(), table.getString(0, expected.length()));
+        assertEquals(expected.toString(), table.snapshot().toString());
+        // The original chars are never written to
+        assertEquals("public class Main {\n}\n", new String(original));
+    }
+    
+    @Test
+    void snapshotKeepsItsTextWhileEditingGoesOn() throws BadLocationException {
+        PieceTable table = new PieceTable();
+        table.insertString(0, "hello world");
+        PieceTable.Text snapshot = table.snapshot();
+        table.remove(0, 6);
+        table.insertString(5, "!");
+        assertEquals("hello world", snapshot.toString());
+        assertEquals("world!", table.snapshot().toString());
+        assertEquals('w', snapshot.charAt(6));
+        assertEquals("lo wo", snapshot.subSequence(3, 8).toString());
+    }
+    
+    @Test
+    void typingExtendsTheLastPiece() throws BadLocationException {
+        PieceTable table = new PieceTable();
+        String typed = "System.out.println(42);";
+        for (int i = 0; i < typed.length(); i++) {
+            table.insertString(i, String.valueOf(typed.charAt(i)));
+        }
+        assertEquals(typed, table.snapshot().toString());
+        // The typed text and the implied newline
+        assertEquals(2, table.getPieceCount());
+    }
+    
+    @Test
+    void readsAsciiBytesAsChars() throws BadLocationException {
+        ByteBuffer bytes = ByteBuffer.wrap("int x = 1;\nint y = 2;\n".getBytes(StandardCharsets.US_ASCII));
+        PieceTable table = new PieceTable(bytes);
+        table.insertString(4, "a");
+        table.remove(16, 2);
+        assertEquals("int ax = 1;\nint = 2;\n", table.snapshot().toString());
+        Segment segment = new Segment();
+        table.getChars(0, 6, segment);
+        assertEquals("int ax", segment.toString());
+    }
+    
+    @Test
+    void positionsFollowTheirText() throws BadLocationException {
+        PieceTable table = new PieceTable();
+        table.insertString(0, "abcdef");
+        Position start = table.createPosition(0);
+        Position atD = table.createPosition(3);
+        Position end = table.createPosition(6);
+        table.insertString(0, "xy");
+        assertEquals(0, start.getOffset());
+        assertEquals(5, atD.getOffset());
+        table.remove(4, 3);
+        // Removed text takes its positions to where it was
+        assertEquals(4, atD.getOffset());
+        assertEquals(5, end.getOffset());
+    }
+    
+    @Test
+    void rejectsEditsOutsideTheText() {
+        PieceTable table = new PieceTable();
+        assertThrows(BadLocationException.class, () -> table.insertString(2, "x"));
+        // The implied newline cannot be removed
+        assertThrows(BadLocationException.class, () -> table.remove(0, 1));
+        assertThrows(BadLocationException.class, () -> table.getString(0, 2));
+        assertTrue(table.snapshot().toString().isEmpty());
+    }
+    
+    private static String randomText(Random random) {
+        String alphabet = "ab\n{} ";
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(8) + 1; i > 0; i--) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.codesphere.exec;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildCacheTest {
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void evictsTheLeastRecentlyUsedPastTheCap() throws IOException {
+        BuildCache cache = new BuildCache(dir.resolve("cache"), 300);
+        cache.store("a", new byte[100]);
+        cache.store("b", new byte[100]);
+        cache.store("c", new byte[100]);
+        assertNotNull(cache.lookup("a"));
+        cache.store("d", new byte[100]);
+        
+        assertNull(cache.lookup("b"));
+        assertFalse(Files.exists(dir.resolve("cache").resolve("b")));
+        assertNotNull(cache.lookup("a"));
+        assertNotNull(cache.lookup("c"));
+        assertNotNull(cache.lookup("d"));
+        assertEquals(4, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    void keepsTheNewestEntryEvenOverTheCap() throws IOException {
+        BuildCache cache = new BuildCache(dir.resolve("cache"), 100);
+        cache.store("small", new byte[50]);
+        Path big = cache.store("big", new byte[500]);
+        assertTrue(Files.exists(big));
+        assertEquals(500, Files.size(cache.lookup("big")));
+        assertNull(cache.lookup("small"));
+    }
+    
+    @Test
+    void hitsAreLinkedOrCopiedIntoTheWorkspace() throws IOException {
+        BuildCache cache = new BuildCache(dir.resolve("cache"), 150);
+        Path workspace = Files.createDirectories(dir.resolve("run"));
+        Path built = Files.write(workspace.resolve("main"), new byte[] {1, 2, 3});
+        cache.storeCopy("binary", built);
+        // A fresh build stays where the run will execute it
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(built));
+        
+        Path target = dir.resolve("next-run");
+        assertTrue(cache.lookup("binary", target));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(target));
+        assertFalse(cache.lookup("other", dir.resolve("missing")));
+        assertFalse(Files.exists(dir.resolve("missing")));
+        
+        // Evicting the entry only removes the cache's own name
+        cache.store("newer", new byte[149]);
+        assertNull(cache.lookup("binary"));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(target));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(built));
+    }
+    
+    @Test
+    void evictedClassBundlesAreMisses() throws IOException {
+        BuildCache cache = new BuildCache(dir.resolve("cache"), 1000);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put("Main", new byte[] {(byte) 0xca, (byte) 0xfe});
+        classes.put("Main$Inner", new byte[] {7});
+        cache.storeClasses("java", classes);
+        
+        Map<String, byte[]> found = cache.lookupClasses("java");
+        assertEquals(classes.keySet(), found.keySet());
+        assertArrayEquals(classes.get("Main"), found.get("Main"));
+        
+        cache.store("large", new byte[990]);
+        assertNull(cache.lookupClasses("java"));
+        
+        // Gone from disk behind the cache's back
+        cache.storeClasses("again", classes);
+        Files.delete(dir.resolve("cache").resolve("again"));
+        assertNull(cache.lookupClasses("again"));
+    }
+    
+    @Test
+    void reopeningKeepsTheUseOrderAndDropsUnfinishedStores() throws IOException {
+        Path root = dir.resolve("cache");
+        BuildCache cache = new BuildCache(root, 300);
+        cache.store("old", new byte[100]);
+        cache.store("recent", new byte[100]);
+        Files.setLastModifiedTime(root.resolve("old"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(root.resolve("recent"), FileTime.fromMillis(2000));
+        Files.write(root.resolve("interrupted.123.tmp"), new byte[10]);
+        
+        BuildCache reopened = new BuildCache(root, 300);
+        assertFalse(Files.exists(root.resolve("interrupted.123.tmp")));
+        reopened.store("new", new byte[150]);
+        assertNull(reopened.lookup("old"));
+        assertNotNull(reopened.lookup("recent"));
+    }
+}
@@ -0,0 +1,127 @@
+package com.codesphere.syntax;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class LexerTest {
+    
+    @Test
+    void blockCommentsCarryOverLines() {
+        int[] states = endStates(Lexer.forLanguage("Java"), "int a; /* one\ntwo\nthree */ int b;\nint c;");
+        assertNotEquals(Lexer.INITIAL, states[0]);
+        assertEquals(states[0], states[1]);
+        assertEquals(Lexer.INITIAL, states[2]);
+        assertEquals(Lexer.INITIAL, states[3]);
+    }
+    
+    @Test
+    void javaTextBlocksAndJavaScriptTemplatesCarryOverLines() {
+        int[] java = endStates(Lexer.forLanguage("Java"), "String s = \"\"\"\n  /* not a comment\n  \"\"\";\nint x;");
+        assertNotEquals(Lexer.INITIAL, java[0]);
+        assertEquals(java[0], java[1]);
+        assertEquals(Lexer.INITIAL, java[2]);
+        
+        int[] js = endStates(Lexer.forLanguage("JavaScript"), "const s = `a\n${b} // not a comment\nc`;\nlet d;");
+        assertNotEquals(Lexer.INITIAL, js[0]);
+        assertEquals(js[0], js[1]);
+        assertEquals(Lexer.INITIAL, js[2]);
+    }
+    
+    @Test
+    void cppRawStringsEndOnlyAtTheirOwnDelimiter() {
+        int[] states = endStates(Lexer.forLanguage("C++"), "auto s = R\"xy(one\n)\" still inside\n)xy\";\nint x;");
+        assertNotEquals(Lexer.INITIAL, states[0]);
+        assertEquals(states[0], states[1]);
+        assertEquals(Lexer.INITIAL, states[2]);
+        
+        // Another delimiter is another state
+        int[] other = endStates(Lexer.forLanguage("C++"), "auto s = R\"ab(one");
+        assertNotEquals(states[0], other[0]);
+    }
+    
+    @Test
+    void cppDirectivesContinueAfterABackslash() {
+        int[] states = endStates(Lexer.forLanguage("C++"), "#define TWICE(x) \\\n  ((x) * 2)\nint y;");
+        assertNotEquals(Lexer.INITIAL, states[0]);
+        assertEquals(Lexer.INITIAL, states[1]);
+        Tokens tokens = lex(Lexer.forLanguage("C++"), "  ((x) * 2)", states[0]);
+        assertEquals(1, tokens.getCount());
+        assertEquals(Tokens.META, tokens.getKind(0));
+    }
+    
+    @Test
+    void pythonStringsCarryOverLines() {
+        Lexer python = Lexer.forLanguage("Python");
+        int[] triple = endStates(python, "s = '''one\n# not a comment\n'''\nx = 1");
+        assertNotEquals(Lexer.INITIAL, triple[0]);
+        assertEquals(triple[0], triple[1]);
+        assertEquals(Lexer.INITIAL, triple[2]);
+        
+        int[] continued = endStates(python, "s = \"one \\\ntwo\"\nx = 1");
+        assertNotEquals(Lexer.INITIAL, continued[0]);
+        assertEquals(Lexer.INITIAL, continued[1]);
+        
+        // An unclosed single-quoted string ends with its line
+        assertEquals(Lexer.INITIAL, endStates(python, "s = 'one")[0]);
+    }
+    
+    @Test
+    void statesDoNotDependOnWhetherTokensAreKept() {
+        String[] samples = {
+            "x = a / b / c; y = /re[/]g/.test(s); return /x/;\nz = this / 2; w = `t${1}\n` / 3;",
+            "int a = 1 / 2; /* c */ String s = \"/*\"; char q = '\"';\n/** doc\n */ @Override void f() {}",
+            "#include <x>\n#define A \\\n 1\nauto r = R\"(x)\"; // done\n/* open",
+            "def f(a, b):\n    '''doc\n    ''' ; return a / b  # note\n@decorator\nclass C: pass",
+        };
+        String[] languages = {"JavaScript", "Java", "C++", "Python"};
+        for (int i = 0; i < samples.length; i++) {
+            Lexer lexer = Lexer.forLanguage(languages[i]);
+            int state = Lexer.INITIAL;
+            int plain = Lexer.INITIAL;
+            for (String line : samples[i].split("\n", -1)) {
+                char[] text = line.toCharArray();
+                state = lexer.lexLine(text, 0, text.length, state, new Tokens());
+                plain = lexer.lexLine(text, 0, text.length, plain, null);
+                assertEquals(state, plain, languages[i] + ": " + line);
+            }
+        }
+    }
+    
+    @Test
+    void findsTokensOnALine() {
+        Tokens tokens = lex(Lexer.forLanguage("Java"), "return \"hi\" + 42; // done", Lexer.INITIAL);
+        List<String> found = new ArrayList<>();
+        for (int i = 0; i < tokens.getCount(); i++) {
+            found.add(tokens.getKind(i) + ":" + tokens.getStart(i) + "-" + tokens.getEnd(i));
+        }
+        assertArrayEquals(new String[] {
+            Tokens.KEYWORD + ":0-6", Tokens.STRING + ":7-11", Tokens.NUMBER + ":14-16", Tokens.COMMENT + ":18-25"
+        }, found.toArray());
+    }
+    
+    private static Tokens lex(Lexer lexer, String line, int state) {
+        Tokens tokens = new Tokens();
+        char[] text = line.toCharArray();
+        lexer.lexLine(text, 0, text.length, state, tokens);
+        return tokens;
+    }
+    
+    // The state at the end of each line
+    private static int[] endStates(Lexer lexer, String source) {
+        String[] lines = source.split("\n", -1);
+        int[] states = new int[lines.length];
+        int state = Lexer.INITIAL;
+        for (int i = 0; i < lines.length; i++) {
+            char[] text = lines[i].toCharArray();
+            state = lexer.lexLine(text, 0, text.length, state, null);
+            states[i] = state;
+        }
+        return states;
+    }
+}
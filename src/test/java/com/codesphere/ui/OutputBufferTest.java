@@ -0,0 +1,107 @@
+package com.codesphere.ui;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputBufferTest {
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void keepsOnlyTheLastLines() {
+        OutputBuffer buffer = new OutputBuffer(3, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            buffer.append("line " + i + "\n", false);
+        }
+        assertEquals(3, buffer.getRowCount());
+        assertEquals(7, buffer.getDroppedLines());
+        String[] texts = new String[3];
+        boolean[] errors = new boolean[3];
+        assertEquals(3, buffer.copyRows(0, texts, errors));
+        assertEquals("line 7", texts[0]);
+        assertEquals("line 9", texts[2]);
+    }
+    
+    @Test
+    void evictsByCharactersToo() {
+        // Each line counts its chars plus a fixed overhead of 24
+        OutputBuffer buffer = new OutputBuffer(1000, 3 * (10 + 24));
+        for (int i = 0; i < 5; i++) {
+            buffer.append("0123456789\n", false);
+        }
+        assertEquals(3, buffer.getRowCount());
+        assertEquals(2, buffer.getDroppedLines());
+        // A line larger than the budget is still kept on its own
+        buffer.append("x".repeat(500) + "\n", false);
+        assertEquals(1, buffer.getRowCount());
+        assertEquals(5, buffer.getDroppedLines());
+    }
+    
+    @Test
+    void keepsStdoutAndStderrLinesApart() {
+        OutputBuffer buffer = new OutputBuffer(10, Long.MAX_VALUE);
+        buffer.append("out", false);
+        buffer.append("err", true);
+        buffer.append("put\n", false);
+        String[] texts = new String[3];
+        boolean[] errors = new boolean[3];
+        assertEquals(2, buffer.copyRows(0, texts, errors));
+        assertEquals("output", texts[0]);
+        assertFalse(errors[0]);
+        // The unfinished stderr line comes after the finished ones
+        assertEquals("err", texts[1]);
+        assertTrue(errors[1]);
+    }
+    
+    @Test
+    void splitsVeryLongLines() {
+        OutputBuffer buffer = new OutputBuffer(10, Long.MAX_VALUE);
+        buffer.append("a".repeat(40 * 1024), false);
+        // Two full 16K rows and the unfinished rest
+        assertEquals(3, buffer.getRowCount());
+        assertEquals(16 * 1024, buffer.getLongestLine());
+    }
+    
+    @Test
+    void longestLineShrinksOnceItScrollsOut() {
+        OutputBuffer buffer = new OutputBuffer(3, Long.MAX_VALUE);
+        buffer.append("short\n", false);
+        buffer.append("x".repeat(300) + "\n", false);
+        assertEquals(300, buffer.getLongestLine());
+        for (int i = 0; i < 3; i++) {
+            buffer.append("line " + i + "\n", false);
+        }
+        assertEquals(6, buffer.getLongestLine());
+        buffer.append("unfinished line", true);
+        assertEquals(15, buffer.getLongestLine());
+    }
+    
+    @Test
+    void transcriptKeepsWhatWasEvicted() throws IOException {
+        OutputBuffer buffer = new OutputBuffer(2, Long.MAX_VALUE);
+        Path transcript = dir.resolve("runs").resolve("run.log");
+        buffer.startTranscript(transcript);
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String line = "line " + i + "\n";
+            buffer.append(line, i % 3 == 0);
+            all.append(line);
+        }
+        buffer.flushTranscript();
+        assertEquals(2, buffer.getRowCount());
+        assertEquals(all.toString(), new String(Files.readAllBytes(transcript), StandardCharsets.UTF_8));
+        buffer.clear();
+        assertEquals(0, buffer.getRowCount());
+        assertEquals(0, buffer.getDroppedLines());
+    }
+}
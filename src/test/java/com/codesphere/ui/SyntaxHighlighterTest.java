@@ -0,0 +1,130 @@
+package com.codesphere.ui;
+
+import com.codesphere.editor.CodeDocument;
+import com.codesphere.syntax.Lexer;
+import com.codesphere.syntax.Tokens;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SyntaxHighlighterTest {
+    
+    // Edits that open or close what spans lines, or move line breaks
+    private static final String[] JAVA_EDITS = {"/*", "*/", "\"\"\"", "\"", "\n", "// x", "int y;", "\n/* c */\n"};
+    private static final String[] PYTHON_EDITS = {"'''", "\"\"\"", "'", "\\", "\n", "# x", "y = 1", "\n'''\n"};
+    
+    @Test
+    void javaStatesConvergeToAFullLex() throws Exception {
+        checkConvergence("Java", JAVA_EDITS, "class Main {\n    /* a\n       b */\n    String s = \"x\";\n}\n");
+    }
+    
+    @Test
+    void pythonStatesConvergeToAFullLex() throws Exception {
+        checkConvergence("Python", PYTHON_EDITS, "def f():\n    '''doc\n    '''\n    return 'x'\n\nf()\n");
+    }
+    
+    // After every batch of random edits, and once the background lexing has caught up, each
+    // line must colour exactly as lexing the whole text from the top does
+    private static void checkConvergence(String language, String[] edits, String seed) throws Exception {
+        Lexer lexer = Lexer.forLanguage(language);
+        CodeDocument document = new CodeDocument();
+        SyntaxHighlighter[] highlighter = new SyntaxHighlighter[1];
+        onEdt(() -> {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                text.append(seed);
+            }
+            document.insertString(0, text.toString(), null);
+            highlighter[0] = new SyntaxHighlighter(new JTextArea(document));
+            highlighter[0].setLexer(lexer);
+            highlighter[0].setDocument(document);
+        });
+        Random random = new Random(language.hashCode());
+        for (int batch = 0; batch < 30; batch++) {
+            onEdt(() -> {
+                for (int i = random.nextInt(3) + 1; i > 0; i--) {
+                    int length = document.getLength();
+                    if (random.nextInt(4) == 0 && length > 0) {
+                        int where = random.nextInt(length);
+                        document.remove(where, Math.min(length - where, random.nextInt(6) + 1));
+                    } else {
+                        document.insertString(random.nextInt(length + 1), edits[random.nextInt(edits.length)], null);
+                    }
+                }
+            });
+            awaitFullLex(lexer, document, highlighter[0], "batch " + batch);
+        }
+    }
+    
+    private static void awaitFullLex(Lexer lexer, CodeDocument document, SyntaxHighlighter highlighter, String when)
+            throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        String[] mismatch = new String[1];
+        while (true) {
+            onEdt(() -> mismatch[0] = firstMismatch(lexer, document, highlighter));
+            if (mismatch[0] == null) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                assertNull(mismatch[0], "after " + when);
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    // The first line the highlighter colours differently from a full lex, or null
+    private static String firstMismatch(Lexer lexer, CodeDocument document, SyntaxHighlighter highlighter)
+            throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        Segment line = new Segment();
+        Tokens expected = new Tokens();
+        Tokens actual = new Tokens();
+        int state = Lexer.INITIAL;
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element element = root.getElement(i);
+            int start = element.getStartOffset();
+            int end = Math.min(element.getEndOffset() - 1, document.getLength());
+            document.getText(start, end - start, line);
+            expected.clear();
+            state = lexer.lexLine(line.array, line.offset, line.offset + line.count, state, expected);
+            highlighter.lexLine(i, line, actual);
+            if (!describe(expected).equals(describe(actual))) {
+                return "line " + i + ": expected " + describe(expected) + " but was " + describe(actual);
+            }
+        }
+        return null;
+    }
+    
+    private static List<String> describe(Tokens tokens) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < tokens.getCount(); i++) {
+            list.add(tokens.getKind(i) + "@" + tokens.getStart(i) + "-" + tokens.getEnd(i));
+        }
+        return list;
+    }
+    
+    private interface EdtTask {
+        void run() throws Exception;
+    }
+    
+    private static void onEdt(EdtTask task) throws InterruptedException, InvocationTargetException {
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package com.codesphere.whiteboard;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardFileTest {
+    
+    @TempDir
+    Path dir;
+    
+    @Test
+    void roundTripsPointsOnTheSixteenthGrid() throws IOException {
+        List<Stroke> strokes = new ArrayList<>();
+        // Deltas of every varint length, of both signs, and points far from the origin
+        strokes.add(new Stroke(0xff000000, 3f, new float[] {0, 0, 1 / 16f, -1 / 16f, 8, -8, 1024.5f, -1024.5f}));
+        strokes.add(new Stroke(0xffff0000, 12.5f, new float[] {-1e6f, 1e6f, -1e6f + 40000, 1e6f - 40000.5f}));
+        strokes.add(new Stroke(0xffff0000, 12.5f, new float[] {1e6f, -1e6f}));
+        strokes.add(new Stroke(0xffff0000, 12.5f, new float[] {3.25f, 7.75f}));
+        strokes.add(new Stroke(0x80123456, 3f, new float[] {1 << 20, -(1 << 20)}));
+        strokes.add(new Stroke(0xff000000, 1f, new float[0]));
+        Path file = dir.resolve("board." + BoardFile.EXTENSION);
+        BoardFile.write(file, strokes);
+        assertStrokesEqual(strokes, BoardFile.read(file), 0);
+    }
+    
+    @Test
+    void roundsOtherPointsToTheNearestSixteenth() throws IOException {
+        Random random = new Random(11);
+        float[] points = new float[2000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = (random.nextFloat() - 0.5f) * 5000;
+        }
+        List<Stroke> strokes = Arrays.asList(new Stroke(0xff00ff00, 2f, points));
+        Path file = dir.resolve("rounded.cswb");
+        BoardFile.write(file, strokes);
+        assertStrokesEqual(strokes, BoardFile.read(file), 1 / 32f + 1e-3f);
+    }
+    
+    @Test
+    void handwritingTakesAFewBytesPerPoint() throws IOException {
+        Random random = new Random(5);
+        List<Stroke> strokes = new ArrayList<>();
+        int totalPoints = 0;
+        float x = 0, y = 0;
+        // Enough strokes to go through many write buffers and the mapped read
+        for (int s = 0; s < 3000; s++) {
+            float[] points = new float[2 * 200];
+            for (int p = 0; p < points.length; p += 2) {
+                x += random.nextInt(9) - 4;
+                y += random.nextInt(9) - 4;
+                points[p] = x + random.nextInt(16) / 16f;
+                points[p + 1] = y;
+            }
+            strokes.add(new Stroke(random.nextBoolean() ? 0xff000000 : 0xff0000ff, 3f, points));
+            totalPoints += points.length / 2;
+        }
+        Path file = dir.resolve("large.cswb");
+        BoardFile.write(file, strokes);
+        long size = Files.size(file);
+        assertTrue(size > 1024 * 1024, "large enough to be mapped: " + size);
+        assertTrue(size < totalPoints * 4L, size + " bytes for " + totalPoints + " points");
+        assertStrokesEqual(strokes, BoardFile.read(file), 0);
+    }
+    
+    @Test
+    void rejectsDamagedFiles() throws IOException {
+        Path file = dir.resolve("damaged.cswb");
+        BoardFile.write(file, Arrays.asList(new Stroke(0xff000000, 3f, new float[] {1, 2, 3, 4, 5, 6})));
+        byte[] bytes = Files.readAllBytes(file);
+        
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+        
+        byte[] notABoard = bytes.clone();
+        notABoard[0] = 'X';
+        Files.write(file, notABoard);
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+        
+        // A stroke count far beyond what the file could hold
+        byte[] hugeCount = Arrays.copyOf(bytes, bytes.length);
+        int strokeCount = 5 + 1 + 8;
+        hugeCount[strokeCount] = (byte) 0xff;
+        Files.write(file, hugeCount);
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+    }
+    
+    @Test
+    void rejectsStrokesTheIndexCouldNotHold() throws IOException {
+        Path file = dir.resolve("hostile.cswb");
+        // Off the board
+        BoardFile.write(file, Arrays.asList(new Stroke(0xff000000, 3f, new float[] {0, 0, 2e9f, 2e9f})));
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+        
+        // On the board, but one segment spans most of it
+        BoardFile.write(file, Arrays.asList(new Stroke(0xff000000, 3f, new float[] {0, 0, 1e6f, 1e6f})));
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+        
+        BoardFile.write(file, Arrays.asList(new Stroke(0xff000000, 1e30f, new float[] {0, 0})));
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+        
+        // Every segment allowed, but together they cover far too many cells
+        float[] zigzag = new float[2 * 200];
+        for (int p = 2; p < zigzag.length; p += 4) {
+            zigzag[p] = 60000;
+            zigzag[p + 1] = 60000;
+        }
+        BoardFile.write(file, Arrays.asList(new Stroke(0xff000000, 3f, zigzag)));
+        assertThrows(IOException.class, () -> BoardFile.read(file));
+    }
+    
+    private static void assertStrokesEqual(List<Stroke> expected, List<Stroke> actual, float tolerance) {
+        assertEquals(expected.size(), actual.size());
+        for (int s = 0; s < expected.size(); s++) {
+            Stroke want = expected.get(s);
+            Stroke got = actual.get(s);
+            assertEquals(want.getColor(), got.getColor(), "colour of stroke " + s);
+            assertEquals(want.getWidth(), got.getWidth(), "width of stroke " + s);
+            assertEquals(want.getPointCount(), got.getPointCount(), "points in stroke " + s);
+            for (int p = 0; p < want.getPointCount(); p++) {
+                assertEquals(want.getX(p), got.getX(p), tolerance, "x of point " + p + " in stroke " + s);
+                assertEquals(want.getY(p), got.getY(p), tolerance, "y of point " + p + " in stroke " + s);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.codesphere.whiteboard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryTest {
+    
+    @Test
+    void undoneStrokesAreChargedInFull() {
+        History history = new History(Long.MAX_VALUE);
+        Stroke stroke = new Stroke(0xff000000, 3f, new float[2 * 10000]);
+        history.record(History.Edit.drawn(stroke));
+        long drawn = history.getBytes();
+        assertTrue(drawn < 1000, "a drawn stroke is on the board: " + drawn);
+        
+        history.undo();
+        assertTrue(history.getBytes() >= stroke.memoryBytes(), "only the redo stack holds it: " + history.getBytes());
+        history.redo();
+        assertEquals(drawn, history.getBytes());
+        
+        // Drawing again drops the redo stack and what it charged
+        history.undo();
+        history.record(History.Edit.drawn(new Stroke(0xff000000, 3f, new float[] {1, 2})));
+        assertTrue(history.getBytes() < 1000);
+        assertFalse(history.canRedo());
+    }
+    
+    @Test
+    void erasedStrokesAreFreeOnceUndone() {
+        History history = new History(Long.MAX_VALUE);
+        Stroke stroke = new Stroke(0xff000000, 3f, new float[2 * 10000]);
+        history.record(History.Edit.erased(Arrays.asList(stroke)));
+        assertTrue(history.getBytes() >= stroke.memoryBytes());
+        history.undo();
+        assertTrue(history.getBytes() < 1000);
+    }
+    
+    @Test
+    void undoingPastTheBudgetDropsTheOldestSteps() {
+        Stroke large = new Stroke(0xff000000, 3f, new float[2 * 10000]);
+        History history = new History(large.memoryBytes() * 3 / 2);
+        for (int i = 0; i < 4; i++) {
+            history.record(History.Edit.drawn(new Stroke(0xff000000, 3f, new float[2 * 10000])));
+        }
+        assertEquals(4, history.getUndoSteps());
+        history.undo();
+        assertEquals(3, history.getUndoSteps());
+        history.undo();
+        // Two undone strokes are over the budget, so older steps go
+        assertEquals(1, history.getUndoSteps());
+        assertTrue(history.canRedo());
+    }
+}